@@ -56,6 +56,8 @@ public class AWTAreaROI extends AreaROI implements TranslatableROI, Serializable
 	// By caching the bounds this can be speeded up
 	transient ClosedShapeStatistics stats = null;
 	
+	transient private Boolean canPrepare = null;
+	
 	public AWTAreaROI(Shape shape) {
 		this(shape, -1, 0, 0);
 	}
@@ -157,8 +159,34 @@ public class AWTAreaROI extends AreaROI implements TranslatableROI, Serializable
 
 	@Override
 	public boolean contains(double x, double y) {
+		PreparedArea prepared = getPreparedArea();
+		if (prepared != null)
+			return prepared.contains(x, y);
 		return shape.contains(x, y);
 	}
+	
+	/**
+	 * The prepared area is created from the flattened vertices using the non-zero winding rule, 
+	 * so can only be used if the shape has no curves and uses the same rule.
+	 */
+	@Override
+	PreparedArea getPreparedArea() {
+		if (canPrepare == null)
+			canPrepare = shape.getWindingRule() == PathIterator.WIND_NON_ZERO && !hasCurves(shape);
+		return canPrepare ? super.getPreparedArea() : null;
+	}
+	
+	private static boolean hasCurves(final Shape shape) {
+		PathIterator iter = shape.getPathIterator(null);
+		double[] seg = new double[6];
+		while (!iter.isDone()) {
+			int type = iter.currentSegment(seg);
+			if (type == PathIterator.SEG_QUADTO || type == PathIterator.SEG_CUBICTO)
+				return true;
+			iter.next();
+		}
+		return false;
+	}
 
 	@Override
 	public ROI duplicate() {
@@ -95,6 +95,9 @@ public class PathObjectToolsAwt {
 		Area areaNew = new Area(areaOriginal);
 		Iterator<PathObject> iter = pathObjects.iterator();
 		List<PathObject> objectsToAdd = new ArrayList<>();
+		// Areas to add are combined together at the end, since this is much faster than adding them one at a time
+		List<Area> areasToAdd = new ArrayList<>();
+		areasToAdd.add(areaNew);
 		int changes = 0;
 		while (iter.hasNext()) {
 			PathObject temp = iter.next();
@@ -112,6 +115,8 @@ public class PathObjectToolsAwt {
 					PathShape shapeNew = PathROIToolsAwt.getShapeROI(areaTemp, shapeMask.getC(), shapeMask.getZ(), shapeMask.getT());
 					annotationNew = new PathAnnotationObject(shapeNew, temp.getPathClass());
 				}
+			} else if (op == PathROIToolsAwt.CombineOp.ADD) {
+				areasToAdd.add(areaTemp);
 			} else {
 				PathROIToolsAwt.combineAreas(areaNew, areaTemp, op);
 			}
@@ -127,6 +132,7 @@ public class PathObjectToolsAwt {
 			return;
 		}
 		if (op == PathROIToolsAwt.CombineOp.ADD) {
+			areaNew = PathROIToolsAwt.union(areasToAdd);
 			PathShape shapeNew = PathROIToolsAwt.getShapeROI(areaNew, shapeMask.getC(), shapeMask.getZ(), shapeMask.getT());
 			if (!shapeNew.isEmpty())
 				objectsToAdd.add(new PathAnnotationObject(shapeNew, pathObject.getPathClass()));
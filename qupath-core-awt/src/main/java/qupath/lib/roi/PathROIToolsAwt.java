@@ -39,6 +39,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -126,6 +128,65 @@ public class PathROIToolsAwt {
 	}
 
 
+	/**
+	 * Compute the union of a collection of areas.
+	 * <p>
+	 * Areas are combined pairwise in a balanced tree (in parallel where possible), which is much faster than 
+	 * adding each area in turn to a single, increasingly complex area.
+	 * 
+	 * @param areas the areas to combine; these may be modified
+	 * @return the union, which may be one of the input areas
+	 */
+	public static Area union(final Collection<Area> areas) {
+		if (areas.isEmpty())
+			return new Area();
+		List<Area> list = new ArrayList<>(areas);
+		return ForkJoinPool.commonPool().invoke(new UnionTask(list, 0, list.size()));
+	}
+	
+	/**
+	 * Task to compute the union of a range of areas within a list.
+	 */
+	private static class UnionTask extends RecursiveTask<Area> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		// Below this, don't bother forking
+		private static final int MIN_FORK_SIZE = 8;
+		
+		private final List<Area> areas;
+		private final int from, to;
+		
+		UnionTask(final List<Area> areas, final int from, final int to) {
+			this.areas = areas;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Area compute() {
+			int n = to - from;
+			if (n == 1)
+				return areas.get(from);
+			int mid = from + n / 2;
+			UnionTask task1 = new UnionTask(areas, from, mid);
+			UnionTask task2 = new UnionTask(areas, mid, to);
+			Area area1, area2;
+			if (n >= MIN_FORK_SIZE) {
+				task2.fork();
+				area1 = task1.compute();
+				area2 = task2.join();
+			} else {
+				area1 = task1.compute();
+				area2 = task2.compute();
+			}
+			area1.add(area2);
+			return area1;
+		}
+		
+	}
+
+
 	/**
 	 * Get a PathShape from an Area.
 	 * This will try to return a PathRectangleROI or PathPolygonROI if possible,
@@ -571,6 +632,8 @@ public class PathROIToolsAwt {
 
 		//Path2D path = new Path2D.Double(shape)
 		Area path = new Area(shape);
+		// Collect the area swept along each segment, then combine these all at once
+		List<Area> segmentAreas = new ArrayList<>();
 		//Rectangle2D rect = new Rectangle2D.Double()
 		RoundRectangle2D rect = new RoundRectangle2D.Double();
 		AffineTransform transform = new AffineTransform();
@@ -601,11 +664,7 @@ public class PathROIToolsAwt {
 						transform.setToIdentity();
 						transform.translate((x+x2)/2, (y+y2)/2);
 						transform.rotate(Math.atan2(y2-y, x2-x));
-						Area transformedRect = new Area(new Path2D.Double(rect, transform));
-						if (doErode)
-							path.subtract(transformedRect);
-						else
-							path.add(transformedRect);
+						segmentAreas.add(new Area(new Path2D.Double(rect, transform)));
 						break;
 					case PathIterator.SEG_CLOSE:
 
@@ -617,11 +676,7 @@ public class PathROIToolsAwt {
 						transform.setToIdentity();
 						transform.translate((x+x2)/2, (y+y2)/2);
 						transform.rotate(Math.atan2(y2-y, x2-x));
-						transformedRect = new Area(new Path2D.Double(rect, transform));
-						if (doErode)
-							path.subtract(transformedRect);
-						else
-							path.add(transformedRect);
+						segmentAreas.add(new Area(new Path2D.Double(rect, transform)));
 					default:
 						break;
 					}
@@ -635,6 +690,13 @@ public class PathROIToolsAwt {
 
 		}
 		
+		if (!segmentAreas.isEmpty()) {
+			Area swept = union(segmentAreas);
+			if (doErode)
+				path.subtract(swept);
+			else
+				path.add(swept);
+		}
 		return path;
 	}
 	
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for combining areas with {@link PathROIToolsAwt}.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+@SuppressWarnings("javadoc")
+public class TestPathROIToolsAwt {
+	
+	@Test
+	public void test_union() {
+		Random random = new Random(100L);
+		List<Area> areas = new ArrayList<>();
+		Area expected = new Area();
+		for (int i = 0; i < 100; i++) {
+			Shape shape;
+			double x = random.nextDouble() * 500;
+			double y = random.nextDouble() * 500;
+			if (i % 2 == 0)
+				shape = new Ellipse2D.Double(x, y, 5 + random.nextDouble() * 40, 5 + random.nextDouble() * 40);
+			else
+				shape = new Rectangle2D.Double(x, y, 5 + random.nextDouble() * 40, 5 + random.nextDouble() * 40);
+			expected.add(new Area(shape));
+			areas.add(new Area(shape));
+		}
+		assertSameArea(expected, PathROIToolsAwt.union(areas));
+		
+		// Trivial cases
+		assertTrue(PathROIToolsAwt.union(new ArrayList<>()).isEmpty());
+		Area single = new Area(new Rectangle2D.Double(0, 0, 10, 10));
+		assertSameArea(single, PathROIToolsAwt.union(Collections.singletonList(new Area(single))));
+	}
+	
+	@Test
+	public void test_shapeMorphology() {
+		// A star-shaped polygon with many vertices, and a hole
+		Path2D path = new Path2D.Double();
+		int n = 120;
+		for (int i = 0; i < n; i++) {
+			double theta = 2 * Math.PI * i / n;
+			double r = 200 + (i % 2 == 0 ? 30 : -30) + 20 * Math.sin(theta * 7);
+			double x = 300 + r * Math.cos(theta);
+			double y = 300 + r * Math.sin(theta);
+			if (i == 0)
+				path.moveTo(x, y);
+			else
+				path.lineTo(x, y);
+		}
+		path.closePath();
+		Area shape = new Area(path);
+		shape.subtract(new Area(new Ellipse2D.Double(250, 250, 100, 100)));
+		
+		for (double radius : new double[] {5, 20, -10}) {
+			Area expected = shapeMorphologySequential(shape, radius);
+			Area result = PathROIToolsAwt.shapeMorphology(shape, radius);
+			assertSameArea(expected, result);
+		}
+	}
+	
+	/**
+	 * Check two areas match, by sampling on a grid - allowing for rare disagreements 
+	 * exactly on the boundary due to rounding.
+	 */
+	private static void assertSameArea(final Area expected, final Area actual) {
+		Rectangle2D bounds = expected.getBounds2D();
+		assertEquals(bounds.getMinX(), actual.getBounds2D().getMinX(), 1e-3);
+		assertEquals(bounds.getMinY(), actual.getBounds2D().getMinY(), 1e-3);
+		assertEquals(bounds.getMaxX(), actual.getBounds2D().getMaxX(), 1e-3);
+		assertEquals(bounds.getMaxY(), actual.getBounds2D().getMaxY(), 1e-3);
+		int nInside = 0;
+		int nDifferent = 0;
+		for (double y = bounds.getMinY(); y <= bounds.getMaxY(); y += 1.0) {
+			for (double x = bounds.getMinX(); x <= bounds.getMaxX(); x += 1.0) {
+				boolean inside = expected.contains(x, y);
+				if (inside)
+					nInside++;
+				if (inside != actual.contains(x, y))
+					nDifferent++;
+			}
+		}
+		assertTrue(nInside > 0);
+		assertTrue("Areas differ at " + nDifferent + " of " + nInside + " points", nDifferent <= nInside * 1e-4);
+	}
+	
+	/**
+	 * Reference implementation of morphology, adding or subtracting each segment area in turn 
+	 * (as {@link PathROIToolsAwt#shapeMorphology(Shape, double)} did before using {@link PathROIToolsAwt#union(java.util.Collection)}).
+	 */
+	private static Area shapeMorphologySequential(final Shape shape, double radius) {
+		PathIterator iterator = shape.getPathIterator(null, 0.5);
+		double[] coords = new double[6];
+		boolean doErode = radius < 0;
+		radius = Math.abs(radius);
+		Area path = new Area(shape);
+		RoundRectangle2D rect = new RoundRectangle2D.Double();
+		AffineTransform transform = new AffineTransform();
+		double startX = Double.NaN;
+		double startY = Double.NaN;
+		double x = Double.NaN;
+		double y = Double.NaN;
+		double x2 = Double.NaN;
+		double y2 = Double.NaN;
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				x2 = coords[0];
+				y2 = coords[1];
+				startX = x2;
+				startY = y2;
+			} else if (type == PathIterator.SEG_LINETO || type == PathIterator.SEG_CLOSE) {
+				if (type == PathIterator.SEG_LINETO) {
+					x2 = coords[0];
+					y2 = coords[1];
+				} else {
+					x2 = startX;
+					y2 = startY;
+				}
+				double length = Math.sqrt((x-x2)*(x-x2) + (y-y2)*(y-y2)) + radius*2;
+				rect.setRoundRect(-length/2, -radius, length, radius*2, radius*2, radius*2);
+				transform.setToIdentity();
+				transform.translate((x+x2)/2, (y+y2)/2);
+				transform.rotate(Math.atan2(y2-y, x2-x));
+				Area transformedRect = new Area(new Path2D.Double(rect, transform));
+				if (doErode)
+					path.subtract(transformedRect);
+				else
+					path.add(transformedRect);
+			}
+			x = x2;
+			y = y2;
+			iterator.next();
+		}
+		return path;
+	}
+
+}
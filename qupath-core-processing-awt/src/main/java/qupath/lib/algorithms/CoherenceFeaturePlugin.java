@@ -245,24 +245,13 @@ public class CoherenceFeaturePlugin extends AbstractInteractivePlugin<BufferedIm
 //		System.out.println(bounds);
 //		System.out.println("Size: " + size);
 
-		BufferedImage img = null;
-		// Try to read the image using the ImageRegionServer... if this doesn't work out, fall back to using the default (slower) method
-		if (regionStore != null) {
-			try {
-				img = regionStore.getImage(server, region);
-			} catch (Exception e) {
-				System.out.println("Failed to read from " + server + " with " + regionStore);
-				e.printStackTrace();
-			}
-		}
-		if (img == null) {
-			img = server.readBufferedImage(region);
-		}
+		// Read the image - this may be shared with other feature calculations for the same region
+		BufferedImage img = FeatureRegionCache.getImage(server, region, regionStore);
 
 		// Get a buffer containing the image pixels
 		int w = img.getWidth();
 		int h = img.getHeight();
-		int[] buf = img.getRGB(0, 0, w, h, null, 0, w);
+		int[] buf = FeatureRegionCache.getRGB(region, img);
 
 		// Create a color transformer to get the images we need
 		float[] pixels = new float[buf.length];
@@ -273,27 +262,27 @@ public class CoherenceFeaturePlugin extends AbstractInteractivePlugin<BufferedIm
 		String postfix = " (" + getDiameterString(server, params) + ")";
 
 		if (stainsName.equals("H-DAB")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "DAB"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "DAB"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB, stains, includeStats, doCircular);
 		}
 		else if (stainsName.equals("H&E")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Eosin"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Eosin"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E, stains, includeStats, doCircular);
 		} else if (stainsName.equals("H-DAB (8-bit)")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB_8_bit, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "DAB 8-bit"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB_8_bit, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB_8_bit, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "DAB 8-bit"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB_8_bit, stains, includeStats, doCircular);
 		}
 		else if (stainsName.equals("H&E (8-bit)")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E_8_bit, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Eosin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E_8_bit, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E_8_bit, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Eosin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E_8_bit, stains, includeStats, doCircular);
 		} else if (stainsName.equals("Optical density")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "OD sum"+postfix, ColorTransformer.ColorTransformMethod.Optical_density_sum, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "OD sum"+postfix, ColorTransformer.ColorTransformMethod.Optical_density_sum, stains, includeStats, doCircular);
 		} else if (stainsName.equals("RGB")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Red"+postfix, ColorTransformer.ColorTransformMethod.Red, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Green"+postfix, ColorTransformer.ColorTransformMethod.Green, stains, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Blue"+postfix, ColorTransformer.ColorTransformMethod.Blue, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Red"+postfix, ColorTransformer.ColorTransformMethod.Red, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Green"+postfix, ColorTransformer.ColorTransformMethod.Green, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Blue"+postfix, ColorTransformer.ColorTransformMethod.Blue, stains, includeStats, doCircular);
 		} else if (stainsName.equals("Grayscale")) {
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Grayscale"+postfix, ColorTransformer.ColorTransformMethod.RGB_mean, stains, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Grayscale"+postfix, ColorTransformer.ColorTransformMethod.RGB_mean, stains, includeStats, doCircular);
 		}
 		measurementList.closeList();
 		
@@ -302,8 +291,8 @@ public class CoherenceFeaturePlugin extends AbstractInteractivePlugin<BufferedIm
 	}
 	
 	
-	static void processTransformedImage(SimpleModifiableImage pxImg, int[] buf, float[] pixels, MeasurementList measurementList, String name, ColorTransformer.ColorTransformMethod method, ColorDeconvolutionStains stains, boolean includeStats, boolean doCircular) {
-		ColorTransformer.getTransformedPixels(buf, method, pixels, stains);
+	static void processTransformedImage(SimpleModifiableImage pxImg, RegionRequest region, int[] buf, float[] pixels, MeasurementList measurementList, String name, ColorTransformer.ColorTransformMethod method, ColorDeconvolutionStains stains, boolean includeStats, boolean doCircular) {
+		FeatureRegionCache.getTransformedPixels(region, buf, method, stains, pixels);
 		
 		if (doCircular) {
 			double w = pxImg.getWidth();
@@ -349,6 +338,22 @@ public class CoherenceFeaturePlugin extends AbstractInteractivePlugin<BufferedIm
 
 	
 	static double computeCoherence(final SimpleImage img) {
+		double[] tensor = new double[3];
+		updateStructureTensor(img, tensor);
+		return computeCoherence(tensor[0], tensor[1], tensor[2]);
+	}
+	
+	
+	/**
+	 * Add the (scaled) sums of squared partial derivatives fxx, fyy and fxy of an image to the values stored in a tensor array.
+	 * 
+	 * Because the coherence is independent of scale, this can be used to accumulate the values across multiple tiles 
+	 * before calling {@link #computeCoherence(double, double, double)}.
+	 * 
+	 * @param img
+	 * @param tensor array of length 3, containing fxx, fyy and fxy
+	 */
+	static void updateStructureTensor(final SimpleImage img, final double[] tensor) {
 		
 		int w = img.getWidth();
 		int h = img.getHeight();
@@ -373,7 +378,13 @@ public class CoherenceFeaturePlugin extends AbstractInteractivePlugin<BufferedIm
 				fxy += scale * dx * dy;
 			}
 		}
-		
+		tensor[0] += fxx;
+		tensor[1] += fyy;
+		tensor[2] += fxy;
+	}
+	
+	
+	static double computeCoherence(final double fxx, final double fyy, final double fxy) {
 		// Determine eigenvalues
 		double trace = fxx + fyy;
 		double det = fxx*fyy - fxy*fxy;
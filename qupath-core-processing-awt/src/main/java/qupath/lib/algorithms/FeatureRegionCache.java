@@ -0,0 +1,324 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.algorithms;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.color.ColorTransformer;
+import qupath.lib.color.ColorTransformer.ColorTransformMethod;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.stores.ImageRegionStore;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Shared cache of the images, RGB buffers and color-transformed pixels used when computing
+ * intensity &amp; texture features.
+ * 
+ * Feature plugins are often run one after another for the same objects at the same resolution
+ * (e.g. Haralick features, then local binary patterns, then coherence).
+ * Storing the decoded region and each transformed channel means that subsequent requests can skip both
+ * reading the image and applying the same color transform again.
+ * 
+ * Entries are keyed by RegionRequest, so only identical requests are shared; 
+ * stains are compared by identity, so that changing the stains for an image invalidates any transformed pixels.
+ * Least recently used entries are removed once the cache exceeds its memory limit.
+ * 
+ * Only one image is cached at a time: requesting a region from a different image clears the cache, 
+ * and using different stains removes any pixels transformed using the previous stains.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class FeatureRegionCache {
+	
+	private final static Logger logger = LoggerFactory.getLogger(FeatureRegionCache.class);
+	
+	static final long DEFAULT_MAX_MEMORY_BYTES = Math.min(256L * 1024L * 1024L, Runtime.getRuntime().maxMemory() / 16);
+	
+	private static long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+	
+	private static long memoryBytes = 0;
+	
+	// Path of the image currently cached, and the most recent (non-null) stains used for color transforms
+	private static String currentPath = null;
+	private static ColorDeconvolutionStains currentStains = null;
+	
+	private static final Map<CacheKey, Object> map = new LinkedHashMap<>(64, 0.75f, true);
+	
+	
+	private FeatureRegionCache() {}
+	
+	
+	/**
+	 * Read an image for the specified region, using the cache if possible.
+	 * 
+	 * Otherwise the image will be requested from the region store (if available), falling back to the server.
+	 * 
+	 * The image returned may be shared, and therefore must not be modified.
+	 * 
+	 * @param server
+	 * @param region
+	 * @param regionStore
+	 * @return
+	 */
+	public static BufferedImage getImage(final ImageServer<BufferedImage> server, final RegionRequest region, final ImageRegionStore<BufferedImage> regionStore) {
+		CacheKey key = new CacheKey(region, null, null);
+		BufferedImage img = (BufferedImage)get(key);
+		if (img != null)
+			return img;
+		
+		// Try to read the image using the ImageRegionServer... if this doesn't work out, fall back to using the default (slower) method
+		if (regionStore != null) {
+			try {
+				img = regionStore.getImage(server, region);
+			} catch (Exception e) {
+				logger.warn("Failed to read from {} in region store with request {}", server, region, e);
+			}
+		}
+		if (img == null)
+			img = server.readBufferedImage(region);
+		if (img != null)
+			put(key, img);
+		return img;
+	}
+	
+	
+	/**
+	 * Get the packed RGB values of an image read for the specified region, using the cache if possible.
+	 * 
+	 * The array returned may be shared, and therefore must not be modified.
+	 * 
+	 * @param region
+	 * @param img
+	 * @return
+	 */
+	public static int[] getRGB(final RegionRequest region, final BufferedImage img) {
+		CacheKey key = new CacheKey(region, Boolean.TRUE, null);
+		int[] buf = (int[])get(key);
+		if (buf != null)
+			return buf;
+		
+		int w = img.getWidth();
+		int h = img.getHeight();
+		buf = img.getRGB(0, 0, w, h, null, 0, w);
+		put(key, buf);
+		return buf;
+	}
+	
+	
+	/**
+	 * Get color-transformed pixels for the specified region, using the cache if possible.
+	 * 
+	 * The values are copied into the pixels array (which is created if necessary), so that the caller 
+	 * is free to modify them (e.g. to apply a mask).
+	 * 
+	 * @param region
+	 * @param buf packed RGB values for the region, used if the transformed pixels are not already cached
+	 * @param method
+	 * @param stains
+	 * @param pixels
+	 * @return
+	 */
+	public static float[] getTransformedPixels(final RegionRequest region, final int[] buf, final ColorTransformMethod method, final ColorDeconvolutionStains stains, float[] pixels) {
+		CacheKey key = new CacheKey(region, method, stains);
+		float[] transformed = (float[])get(key);
+		if (transformed == null) {
+			transformed = ColorTransformer.getTransformedPixels(buf, method, null, stains);
+			put(key, transformed);
+		}
+		return copyPixels(transformed, pixels);
+	}
+	
+	
+	/**
+	 * Get the pixels of a single channel of an image read for the specified region, using the cache if possible.
+	 * 
+	 * The values are copied into the pixels array (which is created if necessary), so that the caller 
+	 * is free to modify them (e.g. to apply a mask).
+	 * 
+	 * @param region
+	 * @param img
+	 * @param channel
+	 * @param pixels
+	 * @return
+	 */
+	public static float[] getChannelPixels(final RegionRequest region, final BufferedImage img, final int channel, float[] pixels) {
+		CacheKey key = new CacheKey(region, Integer.valueOf(channel), null);
+		float[] channelPixels = (float[])get(key);
+		if (channelPixels == null) {
+			channelPixels = img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), channel, (float[])null);
+			put(key, channelPixels);
+		}
+		return copyPixels(channelPixels, pixels);
+	}
+	
+	
+	/**
+	 * Remove all cached images and pixels.
+	 */
+	public static synchronized void clear() {
+		map.clear();
+		memoryBytes = 0;
+		currentPath = null;
+		currentStains = null;
+	}
+	
+	
+	/**
+	 * Set the approximate maximum memory that may be used by the cache, removing entries if necessary.
+	 * <p>
+	 * This is intended for testing.
+	 * 
+	 * @param maxBytes
+	 */
+	static synchronized void setMaxMemoryBytes(final long maxBytes) {
+		maxMemoryBytes = maxBytes;
+		removeEldestEntries();
+	}
+	
+	
+	private static float[] copyPixels(final float[] source, float[] pixels) {
+		if (pixels == null || pixels.length != source.length)
+			pixels = new float[source.length];
+		System.arraycopy(source, 0, pixels, 0, source.length);
+		return pixels;
+	}
+	
+	private static synchronized Object get(final CacheKey key) {
+		removeInvalidEntries(key);
+		return map.get(key);
+	}
+	
+	private static synchronized void put(final CacheKey key, final Object value) {
+		removeInvalidEntries(key);
+		// Don't allow a single (very large) region to flush everything else
+		long size = getApproxSize(value);
+		if (size > maxMemoryBytes / 4)
+			return;
+		memoryBytes += size;
+		Object previous = map.put(key, value);
+		if (previous != null)
+			memoryBytes -= getApproxSize(previous);
+		removeEldestEntries();
+	}
+	
+	/**
+	 * Remove entries that can no longer be requested, because the key refers to a different image or to new stains.
+	 */
+	private static void removeInvalidEntries(final CacheKey key) {
+		String path = key.region.getPath();
+		if (!Objects.equals(path, currentPath)) {
+			if (!map.isEmpty())
+				logger.debug("Clearing feature region cache for new image {}", path);
+			map.clear();
+			memoryBytes = 0;
+			currentPath = path;
+			currentStains = null;
+		}
+		if (key.stains == null || key.stains == currentStains)
+			return;
+		Iterator<Map.Entry<CacheKey, Object>> iter = map.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<CacheKey, Object> entry = iter.next();
+			ColorDeconvolutionStains stains = entry.getKey().stains;
+			if (stains != null && stains != key.stains) {
+				memoryBytes -= getApproxSize(entry.getValue());
+				iter.remove();
+			}
+		}
+		currentStains = key.stains;
+	}
+	
+	/**
+	 * Remove least recently used entries until the memory limit is no longer exceeded.
+	 */
+	private static void removeEldestEntries() {
+		Iterator<Object> iter = map.values().iterator();
+		while (memoryBytes > maxMemoryBytes && iter.hasNext()) {
+			memoryBytes -= getApproxSize(iter.next());
+			iter.remove();
+		}
+	}
+	
+	private static long getApproxSize(final Object value) {
+		if (value instanceof float[])
+			return ((float[])value).length * 4L;
+		if (value instanceof int[])
+			return ((int[])value).length * 4L;
+		if (value instanceof BufferedImage) {
+			DataBuffer buffer = ((BufferedImage)value).getRaster().getDataBuffer();
+			return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		}
+		return 0;
+	}
+	
+	
+	/**
+	 * Key combining a region with the (optional) channel or transform &amp; stains applied to it.
+	 */
+	private static class CacheKey {
+		
+		private final RegionRequest region;
+		private final Object channel;
+		private final ColorDeconvolutionStains stains;
+		
+		CacheKey(final RegionRequest region, final Object channel, final ColorDeconvolutionStains stains) {
+			this.region = region;
+			this.channel = channel;
+			this.stains = stains;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = region.hashCode();
+			result = prime * result + ((channel == null) ? 0 : channel.hashCode());
+			result = prime * result + System.identityHashCode(stains);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CacheKey))
+				return false;
+			CacheKey other = (CacheKey)obj;
+			if (!region.equals(other.region) || stains != other.stains)
+				return false;
+			return channel == null ? other.channel == null : channel.equals(other.channel);
+		}
+		
+	}
+
+}
@@ -338,22 +338,8 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 //		System.out.println(bounds);
 //		System.out.println("Size: " + size);
 
-		BufferedImage img = null;
-		// Try to read the image using the ImageRegionServer... if this doesn't work out, fall back to using the default (slower) method
-		if (regionStore != null) {
-			try {
-				img = regionStore.getImage(server, region);
-			} catch (Exception e) {
-//				if (e instanceof InterruptedException)
-//					throw (InterruptedException)e;
-				logger.info("Failed to read from {} in region store with request {}", server, region);
-				e.printStackTrace();
-			}
-		}
-		// Try again once more...
-		if (img == null) {
-			img = server.readBufferedImage(region);
-		}
+		// Read the image - this may be shared with other feature calculations for the same region
+		BufferedImage img = FeatureRegionCache.getImage(server, region, regionStore);
 		if (img == null) {
 			logger.error("Could not read image - unable to compute Haralick features for {}", pathObject);
 			return false;
@@ -375,7 +361,7 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 		// Get a buffer containing the image pixels
 		int w = img.getWidth();
 		int h = img.getHeight();
-		int[] buf = img.getRGB(0, 0, w, h, null, 0, w);
+		int[] buf = FeatureRegionCache.getRGB(region, img);
 
 		// Create a color transformer to get the images we need
 		float[] pixels = new float[buf.length];
@@ -388,45 +374,45 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 		if (stainsName.equals("H-DAB")) {
 			minValue = 0;
 			maxValue = 2.0;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "DAB"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "DAB"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		}
 		else if (stainsName.equals("H&E")) {
 			minValue = 0;
 			maxValue = 2;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Eosin"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Eosin"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("H-DAB (8-bit)")) {
 			minValue = 0;
 			maxValue = 255;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "DAB 8-bit"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_DAB_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "DAB 8-bit"+postfix, ColorTransformer.ColorTransformMethod.DAB_H_DAB_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		}
 		else if (stainsName.equals("H&E (8-bit)")) {
 			minValue = 0;
 			maxValue = 255;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Eosin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Hematoxylin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Hematoxylin_H_E_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Eosin 8-bit"+postfix, ColorTransformer.ColorTransformMethod.Eosin_H_E_8_bit, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("Optical density")) {
 			minValue = 0;
 			maxValue = 2.5;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "OD sum"+postfix, ColorTransformer.ColorTransformMethod.Optical_density_sum, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "OD sum"+postfix, ColorTransformer.ColorTransformMethod.Optical_density_sum, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("RGB")) {
 			minValue = 0;
 			maxValue = 255;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Red"+postfix, ColorTransformer.ColorTransformMethod.Red, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Green"+postfix, ColorTransformer.ColorTransformMethod.Green, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Blue"+postfix, ColorTransformer.ColorTransformMethod.Blue, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Red"+postfix, ColorTransformer.ColorTransformMethod.Red, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Green"+postfix, ColorTransformer.ColorTransformMethod.Green, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Blue"+postfix, ColorTransformer.ColorTransformMethod.Blue, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("RGB OD")) {
 			minValue = 0;
 			maxValue = 1.5; // Actual possible max is around 2.4 for 8-bit input... but this gives a lot of bins for (almost) saturated pixels
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Red OD"+postfix, ColorTransformer.ColorTransformMethod.Red_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Green OD"+postfix, ColorTransformer.ColorTransformMethod.Green_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Blue OD"+postfix, ColorTransformer.ColorTransformMethod.Blue_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Red OD"+postfix, ColorTransformer.ColorTransformMethod.Red_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Green OD"+postfix, ColorTransformer.ColorTransformMethod.Green_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Blue OD"+postfix, ColorTransformer.ColorTransformMethod.Blue_OD, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("Grayscale")) {
 			minValue = 0;
 			maxValue = 255;
-			processTransformedImage(pxImg, buf, pixels, measurementList, "Grayscale"+postfix, ColorTransformer.ColorTransformMethod.RGB_mean, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(pxImg, region, buf, pixels, measurementList, "Grayscale"+postfix, ColorTransformer.ColorTransformMethod.RGB_mean, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		} else if (stainsName.equals("HSB")) {
 			minValue = 0;
 			maxValue = 1;
@@ -451,8 +437,8 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 			measurementList.putMeasurement("Mean hue", Math.atan2(sinX, cosX) / (2 * Math.PI) + 0.5);
 //			measurementList.putMeasurement("Mean saturation", hsb[1]);
 //			measurementList.putMeasurement("Mean brightness", hsb[2]);
-			processTransformedImage(new FloatArraySimpleImage(pixelsSaturation, w, h), buf, pixelsSaturation, measurementList, "Saturation"+postfix, null, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
-			processTransformedImage(new FloatArraySimpleImage(pixelsBrightness, w, h), buf, pixelsBrightness, measurementList, "Brightness"+postfix, null, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(new FloatArraySimpleImage(pixelsSaturation, w, h), region, buf, pixelsSaturation, measurementList, "Saturation"+postfix, null, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
+			processTransformedImage(new FloatArraySimpleImage(pixelsBrightness, w, h), region, buf, pixelsBrightness, measurementList, "Brightness"+postfix, null, minValue, maxValue, d, nBins, stains, maskBytes, includeStats, doCircular);
 		}
 		measurementList.closeList();
 		
@@ -462,10 +448,10 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 	
 
 	
-	static void processTransformedImage(SimpleModifiableImage pxImg, int[] buf, float[] pixels, MeasurementList measurementList, String name, ColorTransformer.ColorTransformMethod method, double minValue, double maxValue, int d, int nBins, ColorDeconvolutionStains stains, byte[] maskBytes, boolean includeStats, boolean doCircular) {
+	static void processTransformedImage(SimpleModifiableImage pxImg, RegionRequest region, int[] buf, float[] pixels, MeasurementList measurementList, String name, ColorTransformer.ColorTransformMethod method, double minValue, double maxValue, int d, int nBins, ColorDeconvolutionStains stains, byte[] maskBytes, boolean includeStats, boolean doCircular) {
 		// Transform pixels, if we have a method
 		if (method != null)
-			ColorTransformer.getTransformedPixels(buf, method, pixels, stains);
+			FeatureRegionCache.getTransformedPixels(region, buf, method, stains, pixels);
 		// Apply circular mask, if required
 		if (doCircular) {
 			double w = pxImg.getWidth();
@@ -43,10 +43,10 @@ import qupath.lib.analysis.algorithms.SimpleImage;
 import qupath.lib.analysis.features.CoocurranceMatrices;
 import qupath.lib.analysis.features.HaralickFeatureComputer;
 import qupath.lib.analysis.features.HaralickFeatures;
+import qupath.lib.analysis.features.LocalBinaryPatterns;
 import qupath.lib.analysis.stats.RunningStatistics;
 import qupath.lib.analysis.stats.StatisticsHelper;
 import qupath.lib.color.ColorDeconvolutionStains;
-import qupath.lib.color.ColorTransformer;
 import qupath.lib.color.ColorTransformer.ColorTransformMethod;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.geom.ImmutableDimension;
@@ -69,7 +69,7 @@ import qupath.lib.roi.PathROIToolsAwt;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
- * Plugin for calculating intensity-based features, including Haralick textures, within or around detections or tiles.
+ * Plugin for calculating intensity-based features, including Haralick textures, local binary patterns &amp; coherence, within or around detections or tiles.
  * 
  * The ROIs of the detections can be used directly as masks, or else the textures can alternatively be 
  * calculated within square or circular regions around the object centroids.
@@ -240,48 +240,61 @@ public class IntensityFeaturesPlugin extends AbstractInteractivePlugin<BufferedI
 			}
 		}
 		
-		public float[] getTransformedPixels(final BufferedImage img, int[] buf, final ColorDeconvolutionStains stains, float[] pixels) {
+		/**
+		 * Get the transformed pixels for a region.
+		 * 
+		 * Transformed pixels are cached, so that requesting the same transform for the same region again 
+		 * (e.g. when computing different features one after another) avoids repeating the calculation.
+		 * 
+		 * @param region
+		 * @param img
+		 * @param buf
+		 * @param stains
+		 * @param pixels
+		 * @return
+		 */
+		public float[] getTransformedPixels(final RegionRequest region, final BufferedImage img, int[] buf, final ColorDeconvolutionStains stains, float[] pixels) {
 			if (pixels == null)
 				pixels = new float[img.getWidth() * img.getHeight()];
 			
 			switch (this) {
 			case BRIGHTNESS:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Brightness, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Brightness, stains, pixels);
 			case HUE:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Hue, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Hue, stains, pixels);
 			case OD:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Optical_density_sum, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Optical_density_sum, stains, pixels);
 			case RED:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Red, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Red, stains, pixels);
 			case GREEN:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Green, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Green, stains, pixels);
 			case BLUE:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Blue, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Blue, stains, pixels);
 			case SATURATION:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Saturation, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Saturation, stains, pixels);
 			case STAIN_1:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Stain_1, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Stain_1, stains, pixels);
 			case STAIN_2:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Stain_2, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Stain_2, stains, pixels);
 			case STAIN_3:
-				return ColorTransformer.getTransformedPixels(buf, ColorTransformMethod.Stain_3, pixels, stains);
+				return FeatureRegionCache.getTransformedPixels(region, buf, ColorTransformMethod.Stain_3, stains, pixels);
 				
 			case CHANNEL_1:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 0, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 0, pixels);
 			case CHANNEL_2:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 1, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 1, pixels);
 			case CHANNEL_3:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 2, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 2, pixels);
 			case CHANNEL_4:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 3, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 3, pixels);
 			case CHANNEL_5:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 4, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 4, pixels);
 			case CHANNEL_6:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 5, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 5, pixels);
 			case CHANNEL_7:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 6, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 6, pixels);
 			case CHANNEL_8:
-				return img.getRaster().getSamples(0, 0, img.getWidth(), img.getHeight(), 7, pixels);
+				return FeatureRegionCache.getChannelPixels(region, img, 7, pixels);
 			default:
 				break;
 			}
@@ -294,7 +307,8 @@ public class IntensityFeaturesPlugin extends AbstractInteractivePlugin<BufferedI
 	
 	// Commented out the option with the cumulative histogram... for now
 //	private static List<FeatureComputerBuilder> builders = Arrays.asList(new BasicFeatureComputerBuilder(), new MedianFeatureComputerBuilder(), new HaralickFeatureComputerBuilder(), new CumulativeHistogramFeatureComputerBuilder());
-	private static List<FeatureComputerBuilder> builders = Arrays.asList(new BasicFeatureComputerBuilder(), new MedianFeatureComputerBuilder(), new HaralickFeatureComputerBuilder());
+	private static List<FeatureComputerBuilder> builders = Arrays.asList(new BasicFeatureComputerBuilder(), new MedianFeatureComputerBuilder(), new HaralickFeatureComputerBuilder(),
+			new LocalBinaryPatternsFeatureComputerBuilder(), new CoherenceFeatureComputerBuilder());
 	
 	
 
@@ -518,22 +532,8 @@ public class IntensityFeaturesPlugin extends AbstractInteractivePlugin<BufferedI
 	//		System.out.println(bounds);
 	//		System.out.println("Size: " + size);
 	
-			BufferedImage img = null;
-			// Try to read the image using the ImageRegionServer... if this doesn't work out, fall back to using the default (slower) method
-			if (regionStore != null) {
-				try {
-					img = regionStore.getImage(server, region);
-				} catch (Exception e) {
-	//				if (e instanceof InterruptedException)
-	//					throw (InterruptedException)e;
-					logger.info("Failed to read from {} in region store with request {}", server, region);
-					e.printStackTrace();
-				}
-			}
-			// Try again once more...
-			if (img == null) {
-				img = server.readBufferedImage(region);
-			}
+			// Read the image - this may be shared with other feature calculations for the same region
+			BufferedImage img = FeatureRegionCache.getImage(server, region, regionStore);
 			if (img == null) {
 				logger.error("Could not read image - unable to compute intensity features for {}", pathObject);
 				return false;
@@ -550,14 +550,14 @@ public class IntensityFeaturesPlugin extends AbstractInteractivePlugin<BufferedI
 			boolean isRGB = server.isRGB();
 			int w = img.getWidth();
 	 		int h = img.getHeight();
-			int[] rgbBuffer = isRGB ? img.getRGB(0, 0, w, h, null, 0, w) : null;
+			int[] rgbBuffer = isRGB ? FeatureRegionCache.getRGB(region, img) : null;
 			float[] pixels = null;
 			for (FeatureColorTransform transform : FeatureColorTransform.values()) {
 				// Check if the color transform is requested
 				if (Boolean.TRUE.equals(params.getBooleanParameterValue(transform.getKey()))) {
 					
 					// Transform the pixels
-					pixels = transform.getTransformedPixels(img, rgbBuffer, stains, pixels);
+					pixels = transform.getTransformedPixels(region, img, rgbBuffer, stains, pixels);
 					
 					// Create the simple image
 					FloatArraySimpleImage pixelImage = new FloatArraySimpleImage(pixels, w, h);
@@ -1060,6 +1060,123 @@ public class IntensityFeaturesPlugin extends AbstractInteractivePlugin<BufferedI
 	}
 	
 	
+	static class LocalBinaryPatternsFeatureComputer implements FeatureComputer {
+		
+		private static final double RADIUS = 2;
+		
+		private double[] histogram;
+		private long n;
+
+		@Override
+		public void updateFeatures(SimpleImage img, FeatureColorTransform transform, ParameterList params) {
+			if (!Boolean.TRUE.equals(params.getBooleanParameterValue("doLBP")))
+				return;
+			
+			// Don't compute results for Hue - would be confusing...
+			if (transform == FeatureColorTransform.HUE)
+				return;
+			
+			// Count the pixels contributing to the (normalized) histogram, so that tiles can be weighted appropriately
+			int r = (int)Math.ceil(RADIUS);
+			long count = 0;
+			for (int y = r; y < img.getHeight()-r; y++) {
+				for (int x = r; x < img.getWidth()-r; x++) {
+					if (!Float.isNaN(img.getValue(x, y)))
+						count++;
+				}
+			}
+			if (count == 0)
+				return;
+			
+			double[] hist = LocalBinaryPatterns.computeLocalBinaryPatterns16(img, RADIUS);
+			if (histogram == null)
+				histogram = new double[hist.length];
+			for (int i = 0; i < hist.length; i++)
+				histogram[i] += hist[i] * count;
+			n += count;
+		}
+
+		@Override
+		public void addMeasurements(PathObject pathObject, String name, ParameterList params) {
+			if (histogram == null)
+				return;
+			
+			MeasurementList measurementList = pathObject.getMeasurementList();
+			for (int i = 0; i < histogram.length; i++) {
+				measurementList.putMeasurement(String.format("%s LBP %d", name, i+1), histogram[i] / n);
+			}
+		}
+
+	}
+	
+	
+	static class LocalBinaryPatternsFeatureComputerBuilder implements FeatureComputerBuilder {
+
+		@Override
+		public void addParameters(ImageData<?> imageData, ParameterList params) {
+			params.addTitleParameter("Local binary patterns");
+			params.addBooleanParameter("doLBP", "Compute local binary patterns", false, "Compute a rotation-invariant, uniform local binary pattern histogram (16 neighbors, radius 2 pixels)");
+		}
+
+		@Override
+		public FeatureComputer build() {
+			return new LocalBinaryPatternsFeatureComputer();
+		}
+		
+	}
+	
+	
+	static class CoherenceFeatureComputer implements FeatureComputer {
+		
+		private double[] tensor;
+
+		@Override
+		public void updateFeatures(SimpleImage img, FeatureColorTransform transform, ParameterList params) {
+			if (!Boolean.TRUE.equals(params.getBooleanParameterValue("doCoherence")))
+				return;
+			
+			// Don't compute results for Hue - would be confusing...
+			if (transform == FeatureColorTransform.HUE || img.getWidth() < 3 || img.getHeight() < 3)
+				return;
+			
+			// Values are normalized by the tile size, so rescale before accumulating across tiles
+			double[] tileTensor = new double[3];
+			CoherenceFeaturePlugin.updateStructureTensor(img, tileTensor);
+			double area = (img.getWidth() - 2.0) * (img.getHeight() - 2.0);
+			if (tensor == null)
+				tensor = new double[3];
+			for (int i = 0; i < tensor.length; i++)
+				tensor[i] += tileTensor[i] * area;
+		}
+
+		@Override
+		public void addMeasurements(PathObject pathObject, String name, ParameterList params) {
+			if (tensor == null)
+				return;
+			
+			MeasurementList measurementList = pathObject.getMeasurementList();
+			measurementList.putMeasurement(name + " Coherence", CoherenceFeaturePlugin.computeCoherence(tensor[0], tensor[1], tensor[2]));
+		}
+
+	}
+	
+	
+	static class CoherenceFeatureComputerBuilder implements FeatureComputerBuilder {
+
+		@Override
+		public void addParameters(ImageData<?> imageData, ParameterList params) {
+			params.addTitleParameter("Coherence");
+			params.addBooleanParameter("doCoherence", "Compute coherence", false, "Compute coherence, based on the eigenvalues of the structure tensor");
+		}
+
+		@Override
+		public FeatureComputer build() {
+			return new CoherenceFeatureComputer();
+		}
+		
+	}
+	
+	
 	/**
 	 * Calculate the mean Hue.
 	 * 
@@ -0,0 +1,535 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.awt.images.PathBufferedImage;
+import qupath.lib.images.PathImage;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * ImageServer that wraps a non-pyramidal ImageServer, and builds downsampled levels for it on demand.
+ * <p>
+ * Each level is half the resolution of the one below it, and is constructed lazily in tiles from the level beneath
+ * (or from the wrapped server for the first downsampled level).  Tiles are written to a bounded disk cache,
+ * so that they only need to be generated once per image - even across QuPath sessions.
+ * <p>
+ * Because the extra levels are reported by getPreferredDownsamples(), low-resolution requests from the viewer
+ * and thumbnail requests no longer need to resample the full-resolution image.
+ * <p>
+ * Currently, only RGB images are supported.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PyramidCachingImageServer extends AbstractImageServer<BufferedImage> {
+	
+	final private static Logger logger = LoggerFactory.getLogger(PyramidCachingImageServer.class);
+	
+	/**
+	 * Default width &amp; height of each tile within a generated pyramid level.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 512;
+	
+	private static final String TILE_EXTENSION = ".png";
+	
+	private ImageServer<BufferedImage> server;
+	private double[] downsamples;
+	private int tileSize;
+	private int imageType;
+	
+	private DiskTileCache cache;
+	private String cacheKey;
+	
+	private Map<String, Object> tileLocks = new ConcurrentHashMap<>();
+	
+	/**
+	 * Wrap a server to provide a cached pyramid, if this is likely to help - otherwise return the server unchanged.
+	 * <p>
+	 * A pyramid is only created for RGB images that don't already provide multiple resolutions, and which are large 
+	 * enough for downsampled levels to be worthwhile.
+	 * 
+	 * @param server the server to (potentially) wrap
+	 * @param cacheDirectory base directory used to store generated tiles
+	 * @param maxCacheBytes maximum number of bytes that should be used by tiles within cacheDirectory
+	 * @return
+	 */
+	public static ImageServer<BufferedImage> wrapIfNeeded(final ImageServer<BufferedImage> server, final File cacheDirectory, final long maxCacheBytes) {
+		if (server == null || server instanceof PyramidCachingImageServer || server instanceof GeneratingImageServer)
+			return server;
+		if (server.getPreferredDownsamples().length > 1 || !server.isRGB())
+			return server;
+		if (Math.max(server.getWidth(), server.getHeight()) <= DEFAULT_TILE_SIZE * 2)
+			return server;
+		return new PyramidCachingImageServer(server, cacheDirectory, maxCacheBytes);
+	}
+	
+	/**
+	 * Create a pyramid for a server, storing tiles within a cache directory.
+	 * 
+	 * @param server the non-pyramidal server to wrap
+	 * @param cacheDirectory base directory used to store generated tiles; a sub-directory will be created for this server
+	 * @param maxCacheBytes maximum number of bytes that should be used by tiles within cacheDirectory
+	 */
+	public PyramidCachingImageServer(final ImageServer<BufferedImage> server, final File cacheDirectory, final long maxCacheBytes) {
+		super();
+		this.server = server;
+		this.tileSize = DEFAULT_TILE_SIZE;
+		this.imageType = server.nChannels() == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		
+		// Add levels until the full image fits within a single tile
+		List<Double> levels = new ArrayList<>();
+		double downsample = 1;
+		levels.add(downsample);
+		while (Math.max(server.getWidth(), server.getHeight()) / downsample > tileSize) {
+			downsample *= 2;
+			levels.add(downsample);
+		}
+		downsamples = new double[levels.size()];
+		for (int i = 0; i < downsamples.length; i++)
+			downsamples[i] = levels.get(i);
+		
+		cache = DiskTileCache.getInstance(cacheDirectory, maxCacheBytes);
+		cacheKey = createCacheKey(server);
+		logger.debug("Created pyramid with downsamples {} for {}", Arrays.toString(downsamples), server.getPath());
+	}
+	
+	/**
+	 * Create a key used to identify tiles for a server.
+	 * <p>
+	 * Where the server is backed by a file, the key depends upon its modification timestamp &amp; length, 
+	 * so that cached tiles are invalidated if the image is changed.
+	 * 
+	 * @param server
+	 * @return
+	 */
+	static String createCacheKey(final ImageServer<?> server) {
+		String id = server.getPath() + "::" + server.getWidth() + "x" + server.getHeight();
+		File file = server.getFile();
+		if (file != null)
+			id += "::" + file.lastModified() + "::" + file.length();
+		String name = server.getShortServerName().replaceAll("[^A-Za-z0-9._-]", "_");
+		return name + "-" + UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public double[] getPreferredDownsamples() {
+		return downsamples.clone();
+	}
+
+	@Override
+	public PathImage<BufferedImage> readRegion(RegionRequest request) {
+		return new PathBufferedImage(this, request, readBufferedImage(request));
+	}
+
+	@Override
+	public BufferedImage readBufferedImage(RegionRequest request) {
+		double downsample = request.getDownsample();
+		int level = ServerTools.getClosestDownsampleIndex(downsamples, downsample);
+		if (level <= 0)
+			return server.readBufferedImage(request);
+		
+		// Clip the request to the image bounds, since the generated levels can't extend beyond these
+		int x = Math.max(0, request.getX());
+		int y = Math.max(0, request.getY());
+		int x2 = Math.min(getWidth(), request.getX() + request.getWidth());
+		int y2 = Math.min(getHeight(), request.getY() + request.getHeight());
+		if (x2 <= x || y2 <= y)
+			return server.readBufferedImage(request);
+		
+		double levelDownsample = downsamples[level];
+		int lx = (int)(x / levelDownsample);
+		int ly = (int)(y / levelDownsample);
+		BufferedImage imgLevel = readLevelRegion(level, x, y, x2 - x, y2 - y, request.getZ(), request.getT());
+		
+		// Resample from the level to the requested downsample
+		int width = Math.max(1, (int)(request.getWidth() / downsample + .5));
+		int height = Math.max(1, (int)(request.getHeight() / downsample + .5));
+		AffineTransform transform = new AffineTransform();
+		transform.scale(1.0/downsample, 1.0/downsample);
+		transform.translate(-request.getX(), -request.getY());
+		transform.scale(levelDownsample, levelDownsample);
+		transform.translate(lx, ly);
+		if (transform.isIdentity() && imgLevel.getWidth() == width && imgLevel.getHeight() == height)
+			return imgLevel;
+		
+		BufferedImage img = new BufferedImage(width, height, imageType);
+		Graphics2D g2d = img.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.drawImage(imgLevel, transform, null);
+		g2d.dispose();
+		return img;
+	}
+	
+	
+	/**
+	 * Read a region from a specified pyramid level, by stitching together the required tiles.
+	 * <p>
+	 * The region is defined in full-resolution coordinates, and must be within the image bounds.
+	 * The returned image is at the resolution of the level, with its origin at the first level pixel 
+	 * that overlaps the region.
+	 * 
+	 * @param level
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	BufferedImage readLevelRegion(final int level, final int x, final int y, final int width, final int height, final int z, final int t) {
+		if (level == 0)
+			return server.readBufferedImage(RegionRequest.createInstance(getPath(), 1, x, y, width, height, z, t));
+
+		double levelDownsample = downsamples[level];
+		int levelWidth = getLevelWidth(level);
+		int levelHeight = getLevelHeight(level);
+		int lx = (int)(x / levelDownsample);
+		int ly = (int)(y / levelDownsample);
+		int lx2 = Math.min(levelWidth, (int)Math.ceil((x + width) / levelDownsample));
+		int ly2 = Math.min(levelHeight, (int)Math.ceil((y + height) / levelDownsample));
+
+		int tx1 = lx / tileSize;
+		int ty1 = ly / tileSize;
+		int tx2 = (lx2 - 1) / tileSize;
+		int ty2 = (ly2 - 1) / tileSize;
+		// Avoid copying if we only need one complete tile
+		if (tx1 == tx2 && ty1 == ty2 && lx == tx1 * tileSize && ly == ty1 * tileSize) {
+			BufferedImage tile = getTile(level, tx1, ty1, z, t);
+			if (tile.getWidth() == lx2 - lx && tile.getHeight() == ly2 - ly)
+				return tile;
+		}
+		
+		BufferedImage img = new BufferedImage(lx2 - lx, ly2 - ly, imageType);
+		Graphics2D g2d = img.createGraphics();
+		for (int ty = ty1; ty <= ty2; ty++) {
+			for (int tx = tx1; tx <= tx2; tx++) {
+				BufferedImage tile = getTile(level, tx, ty, z, t);
+				g2d.drawImage(tile, tx * tileSize - lx, ty * tileSize - ly, null);
+			}
+		}
+		g2d.dispose();
+		return img;
+	}
+	
+	
+	/**
+	 * Get a tile from a pyramid level, reading it from the cache if possible or generating it otherwise.
+	 * 
+	 * @param level
+	 * @param tx
+	 * @param ty
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	BufferedImage getTile(final int level, final int tx, final int ty, final int z, final int t) {
+		String key = cacheKey + "/" + level + "_" + tx + "_" + ty + "_z" + z + "_t" + t + TILE_EXTENSION;
+		BufferedImage tile = cache.get(key);
+		if (tile != null)
+			return tile;
+		
+		// Ensure each tile is only generated once, even if requested concurrently
+		Object lock = tileLocks.computeIfAbsent(key, k -> new Object());
+		synchronized (lock) {
+			tile = cache.get(key);
+			if (tile != null)
+				return tile;
+			
+			double levelDownsample = downsamples[level];
+			int x = (int)(tx * tileSize * levelDownsample);
+			int y = (int)(ty * tileSize * levelDownsample);
+			int x2 = (int)Math.min(getWidth(), (tx + 1) * tileSize * levelDownsample);
+			int y2 = (int)Math.min(getHeight(), (ty + 1) * tileSize * levelDownsample);
+			int tileWidth = Math.min(tileSize, getLevelWidth(level) - tx * tileSize);
+			int tileHeight = Math.min(tileSize, getLevelHeight(level) - ty * tileSize);
+			
+			BufferedImage imgSource = readLevelRegion(level - 1, x, y, x2 - x, y2 - y, z, t);
+			tile = new BufferedImage(tileWidth, tileHeight, imageType);
+			Graphics2D g2d = tile.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(imgSource, 0, 0, tileWidth, tileHeight, null);
+			g2d.dispose();
+			
+			cache.put(key, tile);
+		}
+		tileLocks.remove(key);
+		return tile;
+	}
+	
+	int getLevelWidth(final int level) {
+		return (int)Math.ceil(getWidth() / downsamples[level]);
+	}
+
+	int getLevelHeight(final int level) {
+		return (int)Math.ceil(getHeight() / downsamples[level]);
+	}
+	
+	
+	@Override
+	public boolean isRGB() {
+		return server.isRGB();
+	}
+
+	@Override
+	public double getTimePoint(int ind) {
+		return server.getTimePoint(ind);
+	}
+
+	@Override
+	public String getServerType() {
+		return server.getServerType() + " (cached pyramid)";
+	}
+
+	@Override
+	public List<String> getSubImageList() {
+		return server.getSubImageList();
+	}
+
+	@Override
+	public List<String> getAssociatedImageList() {
+		return server.getAssociatedImageList();
+	}
+
+	@Override
+	public BufferedImage getAssociatedImage(String name) {
+		return server.getAssociatedImage(name);
+	}
+
+	@Override
+	public String getDisplayedImageName() {
+		return server.getDisplayedImageName();
+	}
+	
+	@Override
+	public String getShortServerName() {
+		return server.getShortServerName();
+	}
+
+	@Override
+	public boolean containsSubImages() {
+		return server.containsSubImages();
+	}
+
+	@Override
+	public boolean usesBaseServer(ImageServer<?> server) {
+		return this == server || this.server.usesBaseServer(server);
+	}
+
+	@Override
+	public File getFile() {
+		return server.getFile();
+	}
+
+	@Override
+	public int getBitsPerPixel() {
+		return server.getBitsPerPixel();
+	}
+
+	@Override
+	public Integer getDefaultChannelColor(int channel) {
+		return server.getDefaultChannelColor(channel);
+	}
+
+	@Override
+	public ImageServerMetadata getMetadata() {
+		return server.getMetadata();
+	}
+
+	@Override
+	public void setMetadata(ImageServerMetadata metadata) {
+		server.setMetadata(metadata);
+	}
+
+	@Override
+	public ImageServerMetadata getOriginalMetadata() {
+		return server.getOriginalMetadata();
+	}
+	
+	@Override
+	public void close() {
+		server.close();
+	}
+	
+	
+	
+	/**
+	 * Size-limited cache of tiles stored as image files within a directory.
+	 * <p>
+	 * When the limit is exceeded, the least recently used tiles are deleted.
+	 * A single instance is shared for each directory, so that the limit applies across all the images using it.
+	 */
+	static class DiskTileCache {
+		
+		private static Map<File, DiskTileCache> instances = new ConcurrentHashMap<>();
+		
+		private final File directory;
+		private long maxBytes;
+		private long currentBytes = 0;
+		
+		// Tile sizes in bytes, in access order
+		private final LinkedHashMap<String, Long> tileSizes = new LinkedHashMap<>(256, 0.75f, true);
+		
+		/**
+		 * Get the cache for a directory, creating it if necessary.
+		 * <p>
+		 * If the cache already exists, its size limit is updated to maxBytes (removing tiles if needed).
+		 * 
+		 * @param directory
+		 * @param maxBytes
+		 * @return
+		 */
+		static DiskTileCache getInstance(final File directory, final long maxBytes) {
+			DiskTileCache cache = instances.computeIfAbsent(directory.getAbsoluteFile(), d -> new DiskTileCache(d, maxBytes));
+			cache.setMaxBytes(maxBytes);
+			return cache;
+		}
+		
+		private DiskTileCache(final File directory, final long maxBytes) {
+			this.directory = directory;
+			this.maxBytes = maxBytes;
+			initialize();
+		}
+		
+		synchronized void setMaxBytes(final long maxBytes) {
+			if (this.maxBytes == maxBytes)
+				return;
+			this.maxBytes = maxBytes;
+			evict();
+		}
+		
+		/**
+		 * Add any tiles stored previously, using the modification time as a proxy for the last access.
+		 */
+		private void initialize() {
+			File[] subdirs = directory.listFiles(f -> f.isDirectory());
+			if (subdirs == null)
+				return;
+			List<File> files = new ArrayList<>();
+			for (File subdir : subdirs) {
+				File[] tiles = subdir.listFiles(f -> f.isFile() && f.getName().endsWith(TILE_EXTENSION));
+				if (tiles != null)
+					files.addAll(Arrays.asList(tiles));
+			}
+			files.sort(Comparator.comparingLong(File::lastModified));
+			for (File file : files) {
+				long size = file.length();
+				tileSizes.put(file.getParentFile().getName() + "/" + file.getName(), size);
+				currentBytes += size;
+			}
+			logger.debug("Pyramid tile cache {} initialized with {} tiles ({} MB)", directory, files.size(), currentBytes / (1024 * 1024));
+			evict();
+		}
+		
+		BufferedImage get(final String key) {
+			synchronized (this) {
+				if (tileSizes.get(key) == null)
+					return null;
+			}
+			File file = new File(directory, key);
+			try {
+				BufferedImage img = ImageIO.read(file);
+				if (img != null)
+					return img;
+			} catch (IOException e) {
+				logger.warn("Unable to read cached tile {}: {}", file, e.getLocalizedMessage());
+			}
+			remove(key);
+			return null;
+		}
+		
+		void put(final String key, final BufferedImage img) {
+			File file = new File(directory, key);
+			// Write to a temporary file first, so that partially-written tiles are never read
+			File fileTemp = new File(file.getParentFile(), file.getName() + ".tmp");
+			try {
+				if (!file.getParentFile().isDirectory())
+					file.getParentFile().mkdirs();
+				if (!ImageIO.write(img, "PNG", fileTemp)) {
+					logger.debug("Unable to write tile {} to cache", key);
+					return;
+				}
+				if (file.exists())
+					file.delete();
+				if (!fileTemp.renameTo(file)) {
+					fileTemp.delete();
+					return;
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to write cached tile {}: {}", file, e.getLocalizedMessage());
+				fileTemp.delete();
+				return;
+			}
+			synchronized (this) {
+				Long previous = tileSizes.put(key, file.length());
+				if (previous != null)
+					currentBytes -= previous;
+				currentBytes += file.length();
+				evict();
+			}
+		}
+		
+		private synchronized void remove(final String key) {
+			Long size = tileSizes.remove(key);
+			if (size != null)
+				currentBytes -= size;
+			new File(directory, key).delete();
+		}
+		
+		private synchronized void evict() {
+			Iterator<Entry<String, Long>> iter = tileSizes.entrySet().iterator();
+			while (currentBytes > maxBytes && iter.hasNext()) {
+				Entry<String, Long> entry = iter.next();
+				new File(directory, entry.getKey()).delete();
+				currentBytes -= entry.getValue();
+				iter.remove();
+			}
+		}
+		
+	}
+	
+}
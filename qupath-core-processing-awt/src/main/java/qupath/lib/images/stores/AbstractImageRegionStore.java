@@ -23,6 +23,7 @@
 
 package qupath.lib.images.stores;
 
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,12 +34,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +54,7 @@ import qupath.lib.awt.common.AwtTools;
 import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.images.servers.GeneratingImageServer;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ServerTools;
 import qupath.lib.images.stores.RegionCache;
 import qupath.lib.images.stores.SizeEstimator;
 import qupath.lib.images.stores.TileListener;
@@ -67,6 +75,9 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	
 	static final int DEFAULT_THUMBNAIL_WIDTH = 1000;
 	
+	// Maximum number of z-slices away from the current slice for which tiles may be requested
+	static final int MAX_Z_SEPARATION = 10;
+	
 	static Logger logger = LoggerFactory.getLogger(AbstractImageRegionStore.class);
 		
 	// Collection of SwingWorkers used to request image tiles
@@ -91,11 +102,35 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	
 	private TileRequestManager manager = new TileRequestManager(10);
 	
+	// Most recent viewport registered for each server path, used to prioritize & cancel tile requests
+	private Map<String, TileViewport> viewports = new ConcurrentHashMap<>();
+	
+	// Used to ensure tile requests with the same priority are handled in the order they were made
+	private AtomicLong requestCounter = new AtomicLong();
+	
+	// Prefetched tiles are always fetched after everything else
+	static final double PREFETCH_PRIORITY_OFFSET = 1e6;
+	
+	// Maximum number of prefetch requests that may be pending at any time (0 to disable prefetching)
+	private volatile int prefetchBudget = 16;
+	// How far ahead (in time) to predict the viewport position when panning
+	private volatile long prefetchLookaheadMillis = 500;
+	
+	private AtomicInteger prefetchPending = new AtomicInteger();
+	// Tiles that have been prefetched, but not yet used
+	static final int MAX_UNUSED_PREFETCHED_TILES = 10000;
+	private Set<RegionRequest> prefetchedTiles = ConcurrentHashMap.newKeySet();
+	private AtomicLong prefetchRequested = new AtomicLong();
+	private AtomicLong prefetchCompleted = new AtomicLong();
+	private AtomicLong prefetchCancelled = new AtomicLong();
+	private AtomicLong prefetchHits = new AtomicLong();
+	
 	// Create two threadpools: a larger one for images that need to be fetched (e.g. from disk, cloud storage), and a smaller one
 	// for painting image tiles... the reason being that the high latency of distantly-stored images otherwise risks lowering
 	// repainting performance
-	private ExecutorService pool = Executors.newFixedThreadPool(Math.max(8, Math.min(Runtime.getRuntime().availableProcessors() * 4, 32)), new SimpleThreadFactory("region-store-", false));
-	private ExecutorService poolLocal = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new SimpleThreadFactory("region-store-local-", false));
+	// Both use priority queues, so that queued tiles closest to what is currently being viewed are fetched first
+	private ThreadPoolExecutor pool = createPrioritizedPool(Math.max(8, Math.min(Runtime.getRuntime().availableProcessors() * 4, 32)), "region-store-");
+	private ThreadPoolExecutor poolLocal = createPrioritizedPool(Runtime.getRuntime().availableProcessors(), "region-store-local-");
 	
 	
 
@@ -110,6 +145,20 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 		this(sizeEstimator, DEFAULT_THUMBNAIL_WIDTH, tileCacheSizeBytes);
 	}
 	
+	
+	/**
+	 * Create a fixed-size thread pool that runs queued tile workers in order of priority, rather than the order in which they were submitted.
+	 * 
+	 * @param nThreads
+	 * @param prefix
+	 * @return
+	 */
+	private static ThreadPoolExecutor createPrioritizedPool(final int nThreads, final String prefix) {
+		return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<>(64, new TileWorkerPriorityComparator()),
+				new SimpleThreadFactory(prefix, false));
+	}
+	
 
 	RegionRequest getThumbnailRequest(final ImageServer<T> server, final int zPosition, final int tPosition) {
 		// Determine thumbnail size
@@ -167,7 +216,15 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	 * @param tPosition
 	 */
 	protected void registerRequest(final TileListener<T> tileListener, final ImageServer<T> server, final Shape clipShape, final double downsampleFactor, final int zPosition, final int tPosition) {
+		// If the viewport has changed, cancel requests that are no longer relevant & reorder the rest
+		TileViewport previous = viewports.get(server.getPath());
+		boolean viewportChanged = updateViewport(server, clipShape, downsampleFactor, zPosition, tPosition);
+		if (viewportChanged)
+			updateQueuedRequests(server);
 		manager.registerRequest(tileListener, server, clipShape, downsampleFactor, zPosition, tPosition);
+		// Prefetch what may be needed next, only after the visible tiles have been requested
+		if (viewportChanged)
+			requestPrefetch(server, viewports.get(server.getPath()), previous);
 	}
 	
 	protected void registerRequest(final TileListener<T> tileListener, final ImageServer<T> server, final RegionRequest region, final double downsampleFactor, final int zPosition, final int tPosition) {
@@ -223,7 +280,28 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	protected void workerComplete(final TileWorker<T> worker) {
 		workers.remove(worker);
 		manager.taskCompleted(worker);
-   		if (worker.isCancelled() || !stopWaiting(worker.getRequest())) {
+		boolean wasPrefetch = false;
+		if (worker instanceof AbstractImageRegionStore.DefaultTileWorker) {
+			@SuppressWarnings("unchecked")
+			DefaultTileWorker defaultWorker = (DefaultTileWorker)worker;
+			wasPrefetch = defaultWorker.stopPrefetch();
+		}
+		if (wasPrefetch)
+			prefetchPending.decrementAndGet();
+		if (wasPrefetch && !worker.isCancelled()) {
+			prefetchCompleted.incrementAndGet();
+			// Tiles may be evicted from the cache without being used, so don't let the set of unused tiles grow indefinitely
+			if (prefetchedTiles.size() >= MAX_UNUSED_PREFETCHED_TILES)
+				prefetchedTiles.clear();
+			prefetchedTiles.add(worker.getRequest());
+		} else
+			prefetchedTiles.remove(worker.getRequest());
+		if (worker.isCancelled()) {
+			// Ensure a cancelled worker can't be returned for a later request
+			waitingMap.remove(worker.getRequest(), worker);
+			return;
+		}
+   		if (!stopWaiting(worker.getRequest())) {
    			return;
    		}
 		try {
@@ -285,8 +363,11 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	 */
 	protected synchronized Object requestImageTile(final ImageServer<T> server, final RegionRequest request, final RegionCache<T> cache, final boolean ensureTileReturned) {
 		T img = cache.get(request);
-		if (img != null)
+		if (img != null) {
+			if (prefetchedTiles.remove(request))
+				prefetchHits.incrementAndGet();
 			return img;
+		}
 //		System.err.println(request);
 		// If the cache contains the key, but simply returns null because nothing should be painted, also return null here
 		if (cache.containsKey(request))
@@ -300,6 +381,29 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 		// Start a worker & add to the list
 		TileWorker<T> worker = null;
 		worker = (TileWorker<T>)waitingMap.get(request); // TODO: Consider if this is a bad idea...
+		if (worker instanceof AbstractImageRegionStore.DefaultTileWorker) {
+			@SuppressWarnings("unchecked")
+			DefaultTileWorker defaultWorker = (DefaultTileWorker)worker;
+			boolean updatePriority = false;
+			// A prefetched tile is now actually needed - so it shouldn't wait behind other requests any longer
+			if (defaultWorker.stopPrefetch()) {
+				prefetchPending.decrementAndGet();
+				prefetchHits.incrementAndGet();
+				updatePriority = true;
+			}
+			// Someone is now waiting for a tile that was previously requested speculatively (e.g. for the viewer) -
+			// reuse the same worker, but ensure it won't be cancelled & isn't left waiting in the queue
+			if (ensureTileReturned && !defaultWorker.isRequired()) {
+				if (defaultWorker.setRequired())
+					updatePriority = true;
+				else
+					worker = null; // Cancelled because of a viewport change - we need a new worker
+			}
+			if (updatePriority)
+				updateQueuePosition(server, defaultWorker);
+		}
+		if (worker != null && worker.isCancelled())
+			worker = null;
 		if (worker == null) {
 			worker = createTileWorker(server, request, cache, ensureTileReturned);
 			workers.add(worker);
@@ -382,6 +486,7 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 		if (clearThumbnails)
 			thumbnailCache.clear();
 		cache.clear();
+		prefetchedTiles.clear();
 		clearingCache = false;
 	}
 	
@@ -408,6 +513,8 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 		}
 		thumbnailCache.clearCacheForServer(server);
 		cache.clearCacheForServer(server);
+		viewports.remove(server.getPath());
+		logger.debug("{}", getPrefetchStatistics());
 		clearingCache = false;
 	}
 	
@@ -450,9 +557,260 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	
 	
 	
+	/**
+	 * Record the region currently being viewed for a server.
+	 * 
+	 * @param server
+	 * @param clipShape
+	 * @param downsampleFactor
+	 * @param zPosition
+	 * @param tPosition
+	 * @return true if the viewport has changed, false otherwise
+	 */
+	boolean updateViewport(final ImageServer<T> server, final Shape clipShape, final double downsampleFactor, final int zPosition, final int tPosition) {
+		TileViewport viewport = new TileViewport(clipShape.getBounds(), downsampleFactor, zPosition, tPosition);
+		TileViewport previous = viewports.put(server.getPath(), viewport);
+		return !viewport.equals(previous);
+	}
+	
+	
+	/**
+	 * Update all queued tile requests for a server after the viewport has changed.
+	 * <p>
+	 * Requests that nobody is waiting for &amp; that are no longer near the viewport are cancelled, 
+	 * while the remaining requests are reordered according to their new priority.
+	 * <p>
+	 * Tiles that are already being fetched are left to complete (and be cached), since interrupting 
+	 * a read could leave some readers in a bad state.
+	 * 
+	 * @param server
+	 */
+	void updateQueuedRequests(final ImageServer<T> server) {
+		TileViewport viewport = viewports.get(server.getPath());
+		if (viewport == null)
+			return;
+		List<TileWorker<T>> waiting;
+		synchronized (waitingMap) {
+			waiting = new ArrayList<>(waitingMap.values());
+		}
+		ThreadPoolExecutor executor = server instanceof GeneratingImageServer ? poolLocal : pool;
+		int nCancelled = 0;
+		for (TileWorker<T> worker : waiting) {
+			if (!(worker instanceof AbstractImageRegionStore.DefaultTileWorker))
+				continue;
+			@SuppressWarnings("unchecked")
+			DefaultTileWorker defaultWorker = (DefaultTileWorker)worker;
+			RegionRequest request = defaultWorker.getRequest();
+			if (defaultWorker.isRequired() || !server.getPath().equals(request.getPath()))
+				continue;
+			if (viewport.isStale(request)) {
+				// Only cancel if the request hasn't started yet
+				if (executor.remove(defaultWorker)) {
+					// Someone may have started waiting for the tile since the check above - if so, requeue it
+					if (!defaultWorker.markCancelled()) {
+						if (!executor.isShutdown())
+							executor.execute(defaultWorker);
+						continue;
+					}
+					waitingMap.remove(request, defaultWorker);
+					if (defaultWorker.isPrefetch())
+						prefetchCancelled.incrementAndGet();
+					defaultWorker.cancel(false);
+					nCancelled++;
+				}
+			} else
+				updateQueuePosition(server, defaultWorker);
+		}
+		if (nCancelled > 0)
+			logger.trace("Cancelled {} stale tile requests for {}", nCancelled, server.getPath());
+	}
+	
+	
+	/**
+	 * Recompute the priority of a queued worker, and reinsert it into the queue if this has changed.
+	 * 
+	 * @param server
+	 * @param worker
+	 */
+	void updateQueuePosition(final ImageServer<T> server, final DefaultTileWorker worker) {
+		double priority = computePriority(worker.getRequest(), worker.isRequired());
+		if (worker.isPrefetch())
+			priority += PREFETCH_PRIORITY_OFFSET;
+		if (priority == worker.getPriority())
+			return;
+		ThreadPoolExecutor executor = server instanceof GeneratingImageServer ? poolLocal : pool;
+		// Priority must not change while the worker is in the queue, so remove it first
+		if (executor.remove(worker)) {
+			worker.setPriority(priority);
+			if (!executor.isShutdown())
+				executor.execute(worker);
+		}
+	}
+	
+	
+	/**
+	 * Request tiles that are likely to be needed soon, based upon the current viewport &amp; how it has moved.
+	 * <p>
+	 * This includes tiles in a ring just outside the viewport, tiles along the predicted panning direction, 
+	 * and the tiles within the viewport for one pyramid level above &amp; below the current one.
+	 * Tiles inside the viewport at the current level are excluded, since these are requested directly.
+	 * Prefetch requests have the lowest priority, and the number pending at any time is limited by the prefetch budget.
+	 * 
+	 * @param server
+	 * @param viewport
+	 * @param previous
+	 */
+	void requestPrefetch(final ImageServer<T> server, final TileViewport viewport, final TileViewport previous) {
+		if (prefetchBudget <= 0 || viewport == null || !isTiledImageServer(server))
+			return;
+		
+		double[] downsamples = server.getPreferredDownsamples();
+		Arrays.sort(downsamples);
+		int level = ServerTools.getClosestDownsampleIndex(downsamples, viewport.downsample);
+		if (level < 0)
+			return;
+		double downsample = downsamples[level];
+		
+		// Expand the viewport by one tile in each direction
+		int tileWidth = server.getPreferredTileWidth() > 0 ? server.getPreferredTileWidth() : 256;
+		int tileHeight = server.getPreferredTileHeight() > 0 ? server.getPreferredTileHeight() : 256;
+		Rectangle prefetchBounds = new Rectangle(viewport.bounds);
+		prefetchBounds.grow((int)Math.ceil(tileWidth * downsample), (int)Math.ceil(tileHeight * downsample));
+		
+		// If we are panning, extrapolate the velocity to predict where we'll be soon
+		if (previous != null && previous.zPosition == viewport.zPosition && previous.tPosition == viewport.tPosition &&
+				previous.downsample == viewport.downsample) {
+			long dt = viewport.timestamp - previous.timestamp;
+			if (dt > 0 && dt < 1000) {
+				double scale = (double)prefetchLookaheadMillis / dt;
+				Rectangle predicted = new Rectangle(viewport.bounds);
+				predicted.translate(
+						(int)((viewport.bounds.getCenterX() - previous.bounds.getCenterX()) * scale),
+						(int)((viewport.bounds.getCenterY() - previous.bounds.getCenterY()) * scale));
+				prefetchBounds.add(predicted);
+			}
+		}
+		viewport.prefetchBounds = prefetchBounds;
+		
+		// Tiles visible at the current level have already been requested directly - 
+		// so they shouldn't use up the prefetch budget, or be counted as prefetch hits
+		List<RegionRequest> requests = ImageRegionStoreHelpers.getTilesToRequest(server, prefetchBounds, downsample, viewport.zPosition, viewport.tPosition, null);
+		Iterator<RegionRequest> iter = requests.iterator();
+		while (iter.hasNext()) {
+			RegionRequest request = iter.next();
+			if (viewport.bounds.intersects(request.getX(), request.getY(), request.getWidth(), request.getHeight()))
+				iter.remove();
+		}
+		if (level + 1 < downsamples.length)
+			ImageRegionStoreHelpers.getTilesToRequest(server, viewport.bounds, downsamples[level+1], viewport.zPosition, viewport.tPosition, requests);
+		if (level > 0)
+			ImageRegionStoreHelpers.getTilesToRequest(server, viewport.bounds, downsamples[level-1], viewport.zPosition, viewport.tPosition, requests);
+		
+		for (RegionRequest request : requests) {
+			if (prefetchPending.get() >= prefetchBudget)
+				break;
+			requestPrefetchTile(server, request);
+		}
+	}
+	
+	
+	/**
+	 * Request a single tile for prefetching, unless it is already cached or has been requested.
+	 * 
+	 * @param server
+	 * @param request
+	 */
+	synchronized void requestPrefetchTile(final ImageServer<T> server, final RegionRequest request) {
+		if (cache.containsKey(request) || waitingMap.containsKey(request) || server.isEmptyRegion(request))
+			return;
+		ThreadPoolExecutor executor = server instanceof GeneratingImageServer ? poolLocal : pool;
+		if (executor.isShutdown())
+			return;
+		TileWorker<T> worker = createTileWorker(server, request, cache, false);
+		if (worker instanceof AbstractImageRegionStore.DefaultTileWorker) {
+			@SuppressWarnings("unchecked")
+			DefaultTileWorker defaultWorker = (DefaultTileWorker)worker;
+			defaultWorker.startPrefetch();
+		}
+		prefetchPending.incrementAndGet();
+		prefetchRequested.incrementAndGet();
+		workers.add(worker);
+		waitingMap.put(request, worker);
+		executor.execute(worker);
+	}
+	
+	
+	/**
+	 * Set the maximum number of prefetch requests that may be pending at any one time.
+	 * Set this to 0 to turn off prefetching.
+	 * 
+	 * @param budget
+	 */
+	public void setPrefetchBudget(final int budget) {
+		this.prefetchBudget = Math.max(0, budget);
+	}
+	
+	public int getPrefetchBudget() {
+		return prefetchBudget;
+	}
+	
+	/**
+	 * Set how far ahead (in milliseconds) the viewport position should be extrapolated when prefetching tiles while panning.
+	 * 
+	 * @param millis
+	 */
+	public void setPrefetchLookaheadMillis(final long millis) {
+		this.prefetchLookaheadMillis = Math.max(0, millis);
+	}
+	
+	public long getPrefetchLookaheadMillis() {
+		return prefetchLookaheadMillis;
+	}
+	
+	/**
+	 * Get a snapshot of the prefetching statistics, e.g. to help tune the prefetch budget.
+	 * 
+	 * @return
+	 */
+	public PrefetchStatistics getPrefetchStatistics() {
+		return new PrefetchStatistics(prefetchRequested.get(), prefetchCompleted.get(), prefetchCancelled.get(), prefetchHits.get());
+	}
+	
+	/**
+	 * Reset all prefetching statistics to zero.
+	 */
+	public void resetPrefetchStatistics() {
+		prefetchRequested.set(0);
+		prefetchCompleted.set(0);
+		prefetchCancelled.set(0);
+		prefetchHits.set(0);
+		prefetchedTiles.clear();
+	}
+	
+	
+	/**
+	 * Compute a priority for a tile request, where lower values should be fetched first.
+	 * <p>
+	 * Requests that someone is waiting for have the highest priority.  After that, tiles at the current
+	 * resolution for the current viewport are fetched spiralling out from the centre, followed by coarser
+	 * resolutions and finally other z-slices.  Requests for servers without a viewport come last.
+	 * 
+	 * @param request
+	 * @param required
+	 * @return
+	 */
+	double computePriority(final RegionRequest request, final boolean required) {
+		if (required)
+			return 0;
+		TileViewport viewport = viewports.get(request.getPath());
+		if (viewport == null)
+			return Double.MAX_VALUE;
+		return viewport.computePriority(request);
+	}
+	
+	
 	class TileRequestManager {
 		
-		final static int MAX_Z_SEPARATION = 10;
 		private List<TileRequestCollection<T>> list = new ArrayList<>();
 		
 		private TileRequestComparator<T> comparator = new TileRequestComparator<>();
@@ -485,7 +843,7 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 //				System.out.println(clipShape);
 //			else
 //				System.out.println(clipShape);
-			TileRequestCollection<T> requestCollection = new TileRequestCollection<>(tileListener, server, clipShape, downsampleFactor, zPosition, tPosition, 10);
+			TileRequestCollection<T> requestCollection = new TileRequestCollection<>(tileListener, server, clipShape, downsampleFactor, zPosition, tPosition, MAX_Z_SEPARATION);
 			list.add(requestCollection);
 //			list.sort(comparator);
 			Collections.sort(list, comparator);
@@ -657,6 +1015,172 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	
 	
 	
+	/**
+	 * The region currently being viewed for a server, used to prioritize tile requests.
+	 */
+	static class TileViewport {
+		
+		private final Rectangle bounds;
+		private final double downsample;
+		private final int zPosition;
+		private final int tPosition;
+		private final long timestamp;
+		
+		// Region within which tiles are being prefetched (may be null)
+		private volatile Rectangle prefetchBounds;
+		
+		TileViewport(final Rectangle bounds, final double downsample, final int zPosition, final int tPosition) {
+			this.bounds = bounds;
+			this.downsample = downsample;
+			this.zPosition = zPosition;
+			this.tPosition = tPosition;
+			this.timestamp = System.currentTimeMillis();
+		}
+		
+		/**
+		 * A request is stale if it is for another time point or a distant z-slice, or more than one tile away from the viewport
+		 * (and not within the region being prefetched).
+		 * 
+		 * @param request
+		 * @return
+		 */
+		boolean isStale(final RegionRequest request) {
+			if (request.getT() != tPosition || Math.abs(request.getZ() - zPosition) > MAX_Z_SEPARATION)
+				return true;
+			Rectangle prefetch = prefetchBounds;
+			if (prefetch != null && prefetch.intersects(request.getX(), request.getY(), request.getWidth(), request.getHeight()))
+				return false;
+			return !bounds.intersects(
+					request.getX() - request.getWidth(), request.getY() - request.getHeight(),
+					request.getWidth() * 3, request.getHeight() * 3);
+		}
+		
+		double computePriority(final RegionRequest request) {
+			// Ring number, in tiles, around the centre of the viewport
+			double dx = Math.abs(bounds.getCenterX() - (request.getX() + request.getWidth() * 0.5)) / Math.max(1, request.getWidth());
+			double dy = Math.abs(bounds.getCenterY() - (request.getY() + request.getHeight() * 0.5)) / Math.max(1, request.getHeight());
+			int ring = (int)Math.min(99, Math.round(Math.max(dx, dy)));
+			// Number of pyramid levels coarser than the requested downsample
+			int level = 0;
+			if (request.getDownsample() > downsample * 1.01)
+				level = (int)Math.min(9, 1 + Math.round(Math.log(request.getDownsample() / downsample) / Math.log(2)));
+			int zSeparation = Math.min(999, Math.abs(request.getZ() - zPosition));
+			return 1 + zSeparation * 1000 + level * 100 + ring;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = bounds.hashCode();
+			long temp = Double.doubleToLongBits(downsample);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+			result = prime * result + zPosition;
+			result = prime * result + tPosition;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			TileViewport other = (TileViewport) obj;
+			return bounds.equals(other.bounds) &&
+					Double.doubleToLongBits(downsample) == Double.doubleToLongBits(other.downsample) &&
+					zPosition == other.zPosition && tPosition == other.tPosition;
+		}
+		
+	}
+	
+	
+	/**
+	 * Snapshot of statistics describing how useful tile prefetching has been.
+	 */
+	public static class PrefetchStatistics {
+		
+		private final long requested;
+		private final long completed;
+		private final long cancelled;
+		private final long hits;
+		
+		PrefetchStatistics(final long requested, final long completed, final long cancelled, final long hits) {
+			this.requested = requested;
+			this.completed = completed;
+			this.cancelled = cancelled;
+			this.hits = hits;
+		}
+		
+		/**
+		 * Number of tiles requested for prefetching.
+		 * @return
+		 */
+		public long getRequestedCount() {
+			return requested;
+		}
+
+		/**
+		 * Number of prefetched tiles that were read before anyone needed them.
+		 * @return
+		 */
+		public long getCompletedCount() {
+			return completed;
+		}
+		
+		/**
+		 * Number of prefetch requests cancelled before they were read, because the viewport moved elsewhere.
+		 * @return
+		 */
+		public long getCancelledCount() {
+			return cancelled;
+		}
+
+		/**
+		 * Number of prefetched tiles that were subsequently requested, either before or after they had been read.
+		 * @return
+		 */
+		public long getHitCount() {
+			return hits;
+		}
+		
+		/**
+		 * Proportion of prefetch requests that turned out to be needed, or NaN if no requests have been made.
+		 * @return
+		 */
+		public double getHitRate() {
+			return requested == 0 ? Double.NaN : (double)hits / requested;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Prefetch: %d requested, %d completed, %d cancelled, %d hits (hit rate %.1f%%)",
+					requested, completed, cancelled, hits, getHitRate() * 100);
+		}
+		
+	}
+	
+	
+	/**
+	 * Comparator to order queued tile workers by priority, and then by the order in which they were created.
+	 * Other tasks are considered equal.
+	 */
+	static class TileWorkerPriorityComparator implements Comparator<Runnable> {
+
+		@Override
+		public int compare(Runnable r1, Runnable r2) {
+			if (!(r1 instanceof AbstractImageRegionStore.DefaultTileWorker && r2 instanceof AbstractImageRegionStore.DefaultTileWorker))
+				return 0;
+			AbstractImageRegionStore<?>.DefaultTileWorker w1 = (AbstractImageRegionStore<?>.DefaultTileWorker)r1;
+			AbstractImageRegionStore<?>.DefaultTileWorker w2 = (AbstractImageRegionStore<?>.DefaultTileWorker)r2;
+			int cmp = Double.compare(w1.getPriority(), w2.getPriority());
+			if (cmp == 0)
+				cmp = Long.compare(w1.getSequence(), w2.getSequence());
+			return cmp;
+		}
+		
+	}
+	
+	
 	/**
 	 * Worker for fetching image tiles asynchronously & adding to the tile cache.
 	 * 
@@ -665,8 +1189,17 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 	 */
 	class DefaultTileWorker extends FutureTask<T> implements TileWorker<T> {
 		
+		private static final int STATE_PENDING = 0;
+		private static final int STATE_REQUIRED = 1;
+		private static final int STATE_CANCELLED = 2;
+		
 		private final RegionCache<T> cache;
 		private final RegionRequest request;
+		private final long sequence;
+		private volatile double priority;
+		// Whether someone is waiting for the tile, or the request has been cancelled - these must not both occur
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+		private final AtomicBoolean prefetch = new AtomicBoolean(false);
 		
 		DefaultTileWorker(final ImageServer<T> server, final RegionRequest request, final RegionCache<T> cache, final boolean ensureTileReturned) {
 			super(new Callable<T>() {
@@ -694,6 +1227,69 @@ public abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T>
 			});
 			this.request = request;
 			this.cache = cache;
+			if (ensureTileReturned)
+				state.set(STATE_REQUIRED);
+			this.sequence = requestCounter.incrementAndGet();
+			this.priority = computePriority(request, ensureTileReturned);
+		}
+		
+		/**
+		 * Returns true if someone is waiting for the tile, in which case the request should not be cancelled when the viewport changes.
+		 * @return
+		 */
+		boolean isRequired() {
+			return state.get() == STATE_REQUIRED;
+		}
+		
+		/**
+		 * Flag that someone is waiting for the tile, so that the request won't be cancelled.
+		 * @return true if the worker is now required, false if the request has already been cancelled
+		 */
+		boolean setRequired() {
+			return state.compareAndSet(STATE_PENDING, STATE_REQUIRED) || state.get() == STATE_REQUIRED;
+		}
+		
+		/**
+		 * Flag that the request is no longer needed.
+		 * @return true if the worker may be cancelled, false if someone is waiting for the tile
+		 */
+		boolean markCancelled() {
+			return state.compareAndSet(STATE_PENDING, STATE_CANCELLED) || state.get() == STATE_CANCELLED;
+		}
+		
+		double getPriority() {
+			return priority;
+		}
+		
+		void setPriority(final double priority) {
+			this.priority = priority;
+		}
+		
+		long getSequence() {
+			return sequence;
+		}
+		
+		/**
+		 * Flag that this worker is speculatively prefetching a tile; this should be called before the worker is queued.
+		 */
+		void startPrefetch() {
+			prefetch.set(true);
+			priority += PREFETCH_PRIORITY_OFFSET;
+		}
+		
+		/**
+		 * Stop treating this worker as a prefetch request.
+		 * <p>
+		 * Note that this does not change the priority, since this must not be modified while the worker is queued; 
+		 * use updateQueuePosition for that.
+		 * @return true if the worker had been prefetching (i.e. the first time this is called after startPrefetch)
+		 */
+		boolean stopPrefetch() {
+			return prefetch.compareAndSet(true, false);
+		}
+		
+		boolean isPrefetch() {
+			return prefetch.get();
 		}
 		
 	    
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.color.ColorDeconvolutionStains.DEFAULT_CD_STAINS;
+import qupath.lib.color.ColorTransformer;
+import qupath.lib.color.ColorTransformer.ColorTransformMethod;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Check eviction and invalidation of cached feature regions.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestFeatureRegionCache {
+	
+	private static final int SIZE = 10;
+	
+	@Before
+	public void setUp() {
+		FeatureRegionCache.clear();
+	}
+	
+	@After
+	public void tearDown() {
+		FeatureRegionCache.setMaxMemoryBytes(FeatureRegionCache.DEFAULT_MAX_MEMORY_BYTES);
+		FeatureRegionCache.clear();
+	}
+	
+	@Test
+	public void test_eviction() {
+		// Each small region needs 400 bytes, and a large region 4x as much
+		FeatureRegionCache.setMaxMemoryBytes(400 * 20);
+		BufferedImage img = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		BufferedImage imgLarge = new BufferedImage(SIZE*2, SIZE*2, BufferedImage.TYPE_INT_RGB);
+		int[][] bufs = new int[20][];
+		for (int i = 0; i < bufs.length; i++)
+			bufs[i] = FeatureRegionCache.getRGB(createRequest("image", i), img);
+		for (int i = 0; i < bufs.length; i++)
+			assertSame(bufs[i], FeatureRegionCache.getRGB(createRequest("image", i), img));
+		
+		// Adding a large region should remove as many of the least recently used regions as required
+		int[] bufLarge = FeatureRegionCache.getRGB(createRequest("image", 100), imgLarge);
+		assertSame(bufLarge, FeatureRegionCache.getRGB(createRequest("image", 100), imgLarge));
+		for (int i = bufs.length-1; i >= 4; i--)
+			assertSame(bufs[i], FeatureRegionCache.getRGB(createRequest("image", i), img));
+		assertNotSame(bufs[3], FeatureRegionCache.getRGB(createRequest("image", 3), img));
+	}
+	
+	@Test
+	public void test_newImage() {
+		BufferedImage img = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		int[] buf = FeatureRegionCache.getRGB(createRequest("image", 0), img);
+		assertSame(buf, FeatureRegionCache.getRGB(createRequest("image", 0), img));
+		// Requesting a region from another image should clear the cache
+		FeatureRegionCache.getRGB(createRequest("other", 0), img);
+		assertNotSame(buf, FeatureRegionCache.getRGB(createRequest("image", 0), img));
+	}
+	
+	@Test
+	public void test_stains() {
+		RegionRequest request = createRequest("image", 0);
+		int[] buf1 = createRGB(1);
+		int[] buf2 = createRGB(2);
+		ColorTransformMethod method = ColorTransformMethod.Stain_1;
+		ColorDeconvolutionStains stains1 = ColorDeconvolutionStains.makeDefaultColorDeconvolutionStains(DEFAULT_CD_STAINS.H_DAB);
+		ColorDeconvolutionStains stains2 = ColorDeconvolutionStains.makeDefaultColorDeconvolutionStains(DEFAULT_CD_STAINS.H_DAB);
+		float[] expected1 = ColorTransformer.getTransformedPixels(buf1, method, null, stains1);
+		float[] expected2 = ColorTransformer.getTransformedPixels(buf2, method, null, stains2);
+		
+		assertArrayEquals(expected1, FeatureRegionCache.getTransformedPixels(request, buf1, method, stains1, null), 0f);
+		// Pixels should be cached, so the new buffer is ignored
+		assertArrayEquals(expected1, FeatureRegionCache.getTransformedPixels(request, buf2, method, stains1, null), 0f);
+		// New stains should invalidate the cached pixels, even if their values are the same
+		assertArrayEquals(expected2, FeatureRegionCache.getTransformedPixels(request, buf2, method, stains2, null), 0f);
+		
+		// Returned pixels are copies, and so can be modified freely
+		float[] pixels = FeatureRegionCache.getTransformedPixels(request, buf1, method, stains2, null);
+		pixels[0] = Float.NaN;
+		assertArrayEquals(expected2, FeatureRegionCache.getTransformedPixels(request, buf1, method, stains2, null), 0f);
+	}
+	
+	
+	private static RegionRequest createRequest(final String path, final int ind) {
+		return RegionRequest.createInstance(path, 1, ind * SIZE, 0, SIZE, SIZE);
+	}
+	
+	private static int[] createRGB(final int seed) {
+		int[] buf = new int[SIZE * SIZE];
+		for (int i = 0; i < buf.length; i++) {
+			int v = (i * 7 + seed * 31) % 256;
+			buf[i] = (v << 16) | ((255 - v) << 8) | ((v * seed) % 256);
+		}
+		return buf;
+	}
+
+}
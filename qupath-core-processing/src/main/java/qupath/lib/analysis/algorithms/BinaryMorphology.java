@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import qupath.lib.analysis.algorithms.MinMaxFilters.Shape;
+
+/**
+ * Morphological operations for binary images, stored as byte arrays where any non-zero pixel is foreground.
+ * <p>
+ * Internally, images are packed into 64 pixels per long, so that each operation can process many pixels 
+ * at once.  Larger structuring elements are built up by repeatedly combining shifted copies of the image, 
+ * with the shift doubling each time - so the cost grows only with the logarithm of the radius.
+ * <p>
+ * Results are written back with foreground pixels set to 255 and background to 0, following ImageJ's convention 
+ * for binary images.  Pixels outside the image are ignored, which matches the results of ImageJ's RankFilters 
+ * minimum and maximum filters when using the same structuring element.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class BinaryMorphology {
+	
+	/**
+	 * Apply a binary dilation, in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void dilate(final byte[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		if (radius <= 0)
+			return;
+		BitImage img = new BitImage(pixels, width, height, radius, false);
+		img.dilate(shape, radius);
+		img.unpack(pixels, false);
+	}
+
+	/**
+	 * Apply a binary erosion, in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void erode(final byte[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		if (radius <= 0)
+			return;
+		// Erosion is equivalent to dilating the background
+		BitImage img = new BitImage(pixels, width, height, radius, true);
+		img.dilate(shape, radius);
+		img.unpack(pixels, true);
+	}
+	
+	/**
+	 * Apply a binary opening (erosion followed by dilation), in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void open(final byte[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		erode(pixels, width, height, shape, radius);
+		dilate(pixels, width, height, shape, radius);
+	}
+
+	/**
+	 * Apply a binary closing (dilation followed by erosion), in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void close(final byte[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		dilate(pixels, width, height, shape, radius);
+		erode(pixels, width, height, shape, radius);
+	}
+	
+	/**
+	 * Apply a median filter with a square neighbourhood of side 2*radius+1 to a binary image, in place.
+	 * <p>
+	 * For a binary image the median is simply the majority value in the neighbourhood, 
+	 * which can be computed with running sums.  As in ImageJ, pixels outside the image are 
+	 * replaced by the nearest edge pixel.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param radius
+	 */
+	public static void median(final byte[] pixels, final int width, final int height, final int radius) {
+		if (radius <= 0 || width == 0 || height == 0)
+			return;
+		// Compute foreground counts along rows
+		int[] rowCounts = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			int count = 0;
+			for (int dx = -radius; dx <= radius; dx++)
+				count += pixels[offset + clip(dx, width)] != 0 ? 1 : 0;
+			for (int x = 0; x < width; x++) {
+				rowCounts[offset + x] = count;
+				count += pixels[offset + clip(x + radius + 1, width)] != 0 ? 1 : 0;
+				count -= pixels[offset + clip(x - radius, width)] != 0 ? 1 : 0;
+			}
+		}
+		// Combine counts along columns & threshold at half the neighbourhood size
+		int k = radius * 2 + 1;
+		int threshold = k * k / 2;
+		for (int x = 0; x < width; x++) {
+			int count = 0;
+			for (int dy = -radius; dy <= radius; dy++)
+				count += rowCounts[clip(dy, height) * width + x];
+			for (int y = 0; y < height; y++) {
+				pixels[y * width + x] = count > threshold ? (byte)255 : 0;
+				count += rowCounts[clip(y + radius + 1, height) * width + x];
+				count -= rowCounts[clip(y - radius, height) * width + x];
+			}
+		}
+	}
+	
+	private static int clip(final int v, final int n) {
+		return v < 0 ? 0 : (v >= n ? n - 1 : v);
+	}
+	
+	
+	/**
+	 * Bit-packed binary image, with a margin of empty pixels around the original image.
+	 * <p>
+	 * The margin is needed because diagonal structuring elements are built up in several steps, 
+	 * and intermediate results may pass outside the image before coming back in again.
+	 */
+	static class BitImage {
+		
+		private final int width, height;
+		private final int pad;
+		private final int words;
+		private final int rows;
+		private long[] data;
+		private long[] temp;
+		
+		BitImage(final byte[] pixels, final int width, final int height, final int pad, final boolean invert) {
+			this.width = width;
+			this.height = height;
+			this.pad = pad;
+			this.words = (width + pad * 2 + 63) >>> 6;
+			this.rows = height + pad * 2;
+			this.data = new long[words * rows];
+			this.temp = new long[data.length];
+			for (int y = 0; y < height; y++) {
+				int offset = (y + pad) * words;
+				for (int x = 0; x < width; x++) {
+					if ((pixels[y * width + x] != 0) != invert) {
+						int xx = x + pad;
+						data[offset + (xx >>> 6)] |= 1L << (xx & 63);
+					}
+				}
+			}
+		}
+		
+		void unpack(final byte[] pixels, final boolean invert) {
+			for (int y = 0; y < height; y++) {
+				int offset = (y + pad) * words;
+				for (int x = 0; x < width; x++) {
+					int xx = x + pad;
+					boolean on = (data[offset + (xx >>> 6)] & (1L << (xx & 63))) != 0;
+					pixels[y * width + x] = on != invert ? (byte)255 : 0;
+				}
+			}
+		}
+		
+		void dilate(final Shape shape, final int radius) {
+			switch (shape) {
+			case HORIZONTAL_LINE:
+				dilateLine(1, 0, radius);
+				return;
+			case VERTICAL_LINE:
+				dilateLine(0, 1, radius);
+				return;
+			case SQUARE:
+				dilateLine(1, 0, radius);
+				dilateLine(0, 1, radius);
+				return;
+			case OCTAGON:
+				int diagonalRadius = MinMaxFilters.getOctagonDiagonalRadius(radius);
+				int squareRadius = radius - diagonalRadius * 2;
+				dilateLine(1, 0, squareRadius);
+				dilateLine(0, 1, squareRadius);
+				dilateLine(1, 1, diagonalRadius);
+				dilateLine(-1, 1, diagonalRadius);
+				return;
+			default:
+				throw new IllegalArgumentException("Unknown filter shape " + shape);
+			}
+		}
+		
+		/**
+		 * Dilate by a line in the direction (dx, dy), with length 2*radius+1.
+		 * <p>
+		 * The line [-c, c] is extended to [-(c+s), c+s] by combining with shifts of -s, 0 and s, 
+		 * which works for any s &lt;= 2c+1.
+		 */
+		private void dilateLine(final int dx, final int dy, final int radius) {
+			int c = 0;
+			while (c < radius) {
+				int s = Math.min(2 * c + 1, radius - c);
+				System.arraycopy(data, 0, temp, 0, data.length);
+				for (int y = 0; y < rows; y++) {
+					int yBefore = y - s * dy;
+					int yAfter = y + s * dy;
+					if (yBefore >= 0)
+						orShifted(temp, yBefore * words, data, y * words, s * dx);
+					if (yAfter < rows)
+						orShifted(temp, yAfter * words, data, y * words, -s * dx);
+				}
+				c += s;
+			}
+		}
+		
+		/**
+		 * Combine the destination row with the source row shifted by s pixels (towards higher x if s is positive) 
+		 * using a bitwise OR.
+		 */
+		private void orShifted(final long[] src, final int srcOffset, final long[] dst, final int dstOffset, final int s) {
+			if (s == 0) {
+				for (int k = 0; k < words; k++)
+					dst[dstOffset + k] |= src[srcOffset + k];
+			} else if (s > 0) {
+				int ws = s >>> 6;
+				int bs = s & 63;
+				for (int k = words - 1; k >= ws; k--) {
+					long v = src[srcOffset + k - ws] << bs;
+					if (bs != 0 && k - ws > 0)
+						v |= src[srcOffset + k - ws - 1] >>> (64 - bs);
+					dst[dstOffset + k] |= v;
+				}
+			} else {
+				int ws = (-s) >>> 6;
+				int bs = (-s) & 63;
+				for (int k = 0; k < words - ws; k++) {
+					long v = src[srcOffset + k + ws] >>> bs;
+					if (bs != 0 && k + ws + 1 < words)
+						v |= src[srcOffset + k + ws + 1] << (64 - bs);
+					dst[dstOffset + k] |= v;
+				}
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.stream.IntStream;
+
+/**
+ * Integral image (summed-area table), for computing sums and means within rectangular regions 
+ * at a cost that is independent of the size of the region.
+ * <p>
+ * Sums are stored as doubles, in an array of size (width+1)*(height+1), 
+ * so that no special handling is required at the top and left edges.
+ * <p>
+ * Regions extending beyond the image are clipped, so means near the image boundary are computed 
+ * only from the pixels inside the image.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class IntegralImage {
+	
+	private final int width, height;
+	private final double[] sums;
+	
+	private IntegralImage(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+		this.sums = new double[(width+1)*(height+1)];
+	}
+	
+	/**
+	 * Create an integral image from float pixel values.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 */
+	public IntegralImage(final float[] pixels, final int width, final int height) {
+		this(width, height);
+		int w1 = width + 1;
+		for (int y = 0; y < height; y++) {
+			double rowSum = 0;
+			int ind = y * width;
+			int indSum = (y + 1) * w1 + 1;
+			for (int x = 0; x < width; x++) {
+				rowSum += pixels[ind + x];
+				sums[indSum + x] = sums[indSum + x - w1] + rowSum;
+			}
+		}
+	}
+	
+	/**
+	 * Create an integral image from a binary image, in which all non-zero pixels are counted as 1.
+	 * <p>
+	 * Means computed from the result then give the proportion of foreground pixels within a region.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static IntegralImage createBinary(final byte[] pixels, final int width, final int height) {
+		IntegralImage integral = new IntegralImage(width, height);
+		double[] sums = integral.sums;
+		int w1 = width + 1;
+		for (int y = 0; y < height; y++) {
+			int rowSum = 0;
+			int ind = y * width;
+			int indSum = (y + 1) * w1 + 1;
+			for (int x = 0; x < width; x++) {
+				if (pixels[ind + x] != 0)
+					rowSum++;
+				sums[indSum + x] = sums[indSum + x - w1] + rowSum;
+			}
+		}
+		return integral;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Get the sum of pixels with x1 &lt;= x &lt; x2 and y1 &lt;= y &lt; y2, clipped to the image bounds.
+	 * 
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @return
+	 */
+	public double getSum(int x1, int y1, int x2, int y2) {
+		x1 = clip(x1, width);
+		x2 = clip(x2, width);
+		y1 = clip(y1, height);
+		y2 = clip(y2, height);
+		if (x2 <= x1 || y2 <= y1)
+			return 0;
+		int w1 = width + 1;
+		return sums[y2*w1 + x2] - sums[y1*w1 + x2] - sums[y2*w1 + x1] + sums[y1*w1 + x1];
+	}
+	
+	/**
+	 * Get the mean of pixels with x1 &lt;= x &lt; x2 and y1 &lt;= y &lt; y2, clipped to the image bounds.
+	 * 
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @return the mean, or NaN if the clipped region is empty
+	 */
+	public double getMean(int x1, int y1, int x2, int y2) {
+		x1 = clip(x1, width);
+		x2 = clip(x2, width);
+		y1 = clip(y1, height);
+		y2 = clip(y2, height);
+		if (x2 <= x1 || y2 <= y1)
+			return Double.NaN;
+		return getSum(x1, y1, x2, y2) / ((double)(x2 - x1) * (y2 - y1));
+	}
+	
+	/**
+	 * Apply a mean filter with a square of side 2*radius+1, writing the results to an output array.
+	 * <p>
+	 * The output may be the same array used to create the integral image.
+	 * 
+	 * @param output
+	 * @param radius
+	 */
+	public void boxMean(final float[] output, final int radius) {
+		IntStream.range(0, height).parallel().forEach(y -> {
+			int ind = y * width;
+			for (int x = 0; x < width; x++) {
+				output[ind + x] = (float)getMean(x - radius, y - radius, x + radius + 1, y + radius + 1);
+			}
+		});
+	}
+	
+	private static int clip(final int v, final int max) {
+		return v < 0 ? 0 : (v > max ? max : v);
+	}
+
+}
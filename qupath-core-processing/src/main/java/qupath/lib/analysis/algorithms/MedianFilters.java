@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+/**
+ * Median filters for 8-bit images, with a cost per pixel that is independent of the filter radius.
+ * <p>
+ * This uses the histogram-based approach of:
+ * <ul>
+ *   <li>Perreault, S. &amp; H&eacute;bert, P. (2007). Median Filtering in Constant Time.
+ *   	IEEE Transactions on Image Processing, 16(9), 2389-2394.</li>
+ * </ul>
+ * A histogram is maintained for each column, and updated by one pixel as each row is processed; 
+ * the histogram of the neighbourhood is then updated by adding and removing whole column histograms 
+ * as it moves along the row.  A coarse histogram with 16 bins is used to locate the median quickly.
+ * <p>
+ * The neighbourhood is a square with sides of length 2*radius+1. As in ImageJ, pixels outside the 
+ * image are replaced by the nearest edge pixel.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MedianFilters {
+	
+	private static final int N_BINS = 256;
+	private static final int N_COARSE = 16;
+	private static final int COARSE_SHIFT = 4;
+
+	/**
+	 * Apply a median filter to an 8-bit image, in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param radius
+	 */
+	public static void median(final byte[] pixels, final int width, final int height, final int radius) {
+		if (radius <= 0 || width == 0 || height == 0)
+			return;
+		
+		byte[] source = pixels.clone();
+		int[] colHist = new int[width * N_BINS];
+		int[] colCoarse = new int[width * N_COARSE];
+		
+		// Initialize column histograms for the first row
+		for (int dy = -radius; dy <= radius; dy++) {
+			int offset = clip(dy, height) * width;
+			for (int x = 0; x < width; x++)
+				addToColumn(colHist, colCoarse, x, source[offset + x] & 0xff, 1);
+		}
+		
+		int[] hist = new int[N_BINS];
+		int[] coarse = new int[N_COARSE];
+		int k = radius * 2 + 1;
+		int rank = k * k / 2;
+		for (int y = 0; y < height; y++) {
+			// Update column histograms for the current row
+			if (y > 0) {
+				int offsetRemove = clip(y - radius - 1, height) * width;
+				int offsetAdd = clip(y + radius, height) * width;
+				for (int x = 0; x < width; x++) {
+					addToColumn(colHist, colCoarse, x, source[offsetRemove + x] & 0xff, -1);
+					addToColumn(colHist, colCoarse, x, source[offsetAdd + x] & 0xff, 1);
+				}
+			}
+			
+			// Initialize the neighbourhood histogram for the first column
+			for (int i = 0; i < N_BINS; i++)
+				hist[i] = 0;
+			for (int i = 0; i < N_COARSE; i++)
+				coarse[i] = 0;
+			for (int dx = -radius; dx <= radius; dx++)
+				addColumn(hist, coarse, colHist, colCoarse, clip(dx, width), 1);
+			
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				pixels[offset + x] = (byte)findRank(hist, coarse, rank);
+				if (x + 1 < width) {
+					addColumn(hist, coarse, colHist, colCoarse, clip(x + radius + 1, width), 1);
+					addColumn(hist, coarse, colHist, colCoarse, clip(x - radius, width), -1);
+				}
+			}
+		}
+	}
+	
+	
+	private static int clip(final int v, final int n) {
+		return v < 0 ? 0 : (v >= n ? n - 1 : v);
+	}
+	
+	private static void addToColumn(final int[] colHist, final int[] colCoarse, final int x, final int value, final int inc) {
+		colHist[x * N_BINS + value] += inc;
+		colCoarse[x * N_COARSE + (value >> COARSE_SHIFT)] += inc;
+	}
+	
+	private static void addColumn(final int[] hist, final int[] coarse, final int[] colHist, final int[] colCoarse, final int x, final int sign) {
+		int offset = x * N_BINS;
+		int offsetCoarse = x * N_COARSE;
+		if (sign > 0) {
+			for (int i = 0; i < N_COARSE; i++)
+				coarse[i] += colCoarse[offsetCoarse + i];
+			for (int i = 0; i < N_BINS; i++)
+				hist[i] += colHist[offset + i];
+		} else {
+			for (int i = 0; i < N_COARSE; i++)
+				coarse[i] -= colCoarse[offsetCoarse + i];
+			for (int i = 0; i < N_BINS; i++)
+				hist[i] -= colHist[offset + i];
+		}
+	}
+	
+	/**
+	 * Find the value with the specified (zero-based) rank, using the coarse histogram to skip 
+	 * directly to the right range of fine bins.
+	 */
+	private static int findRank(final int[] hist, final int[] coarse, final int rank) {
+		int count = 0;
+		int c = 0;
+		while (count + coarse[c] <= rank) {
+			count += coarse[c];
+			c++;
+		}
+		int i = c << COARSE_SHIFT;
+		while (count + hist[i] <= rank) {
+			count += hist[i];
+			i++;
+		}
+		return i;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Minimum and maximum filters for float images, with a cost per pixel that is independent of the filter radius.
+ * <p>
+ * Each filter is decomposed into 1D line filters, which are applied using the van Herk/Gil-Werman algorithm:
+ * <ul>
+ *   <li>van Herk, M. (1992). A fast algorithm for local minimum and maximum filters on rectangular and octagonal kernels.
+ *   	Pattern Recognition Letters, 13(7), 517-521.</li>
+ *   <li>Gil, J. &amp; Werman, M. (1993). Computing 2-D min, median, and max filters.
+ *   	IEEE Transactions on Pattern Analysis and Machine Intelligence, 15(5), 504-507.</li>
+ * </ul>
+ * Pixels outside the image are ignored, which gives the same result as padding with the nearest edge pixel 
+ * (as used by ImageJ's RankFilters).
+ * <p>
+ * An {@link Shape#OCTAGON} provides a fast approximation of a circular filter - although it will not give 
+ * identical results to a true circular kernel.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MinMaxFilters {
+	
+	/**
+	 * Shape of the structuring element used for filtering.
+	 */
+	public static enum Shape {
+		/**
+		 * Horizontal line of length 2*radius+1
+		 */
+		HORIZONTAL_LINE,
+		/**
+		 * Vertical line of length 2*radius+1
+		 */
+		VERTICAL_LINE,
+		/**
+		 * Square with sides of length 2*radius+1
+		 */
+		SQUARE,
+		/**
+		 * Octagon with extent radius in horizontal and vertical directions, approximating a disk.
+		 */
+		OCTAGON
+	}
+	
+	
+	/**
+	 * Apply a minimum filter to an image, in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void minimum(final float[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		filter(pixels, width, height, shape, radius, false);
+	}
+
+	/**
+	 * Apply a maximum filter to an image, in place.
+	 * 
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param shape
+	 * @param radius
+	 */
+	public static void maximum(final float[] pixels, final int width, final int height, final Shape shape, final int radius) {
+		filter(pixels, width, height, shape, radius, true);
+	}
+	
+	/**
+	 * Apply a minimum filter to an image, in place.
+	 * 
+	 * @param img
+	 * @param shape
+	 * @param radius
+	 */
+	public static void minimum(final SimpleModifiableImage img, final Shape shape, final int radius) {
+		filter(img, shape, radius, false);
+	}
+
+	/**
+	 * Apply a maximum filter to an image, in place.
+	 * 
+	 * @param img
+	 * @param shape
+	 * @param radius
+	 */
+	public static void maximum(final SimpleModifiableImage img, final Shape shape, final int radius) {
+		filter(img, shape, radius, true);
+	}
+	
+	/**
+	 * Get the number of pixels by which an octagon of the specified radius extends along each diagonal, 
+	 * in addition to the extent of its central square.
+	 * <p>
+	 * The octagon is the combination of a square with sides 2*(radius-2*diagonalRadius)+1 and two diagonal lines 
+	 * with 2*diagonalRadius+1 pixels, chosen so that its corners lie close to a circle with the same radius.
+	 * <p>
+	 * The square always has a radius of at least 1; otherwise (e.g. for radius 2) the diagonal lines alone 
+	 * would give a checkerboard pattern rather than a solid shape.
+	 * 
+	 * @param radius
+	 * @return
+	 */
+	static int getOctagonDiagonalRadius(final int radius) {
+		int diagonalRadius = (int)Math.round(radius * (1 - Math.sqrt(0.5)));
+		return Math.max(0, Math.min(diagonalRadius, (radius - 1) / 2));
+	}
+	
+	
+	private static void filter(final SimpleModifiableImage img, final Shape shape, final int radius, final boolean doMax) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		float[] pixels = new float[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				pixels[y*width + x] = img.getValue(x, y);
+		}
+		filter(pixels, width, height, shape, radius, doMax);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				img.setValue(x, y, pixels[y*width + x]);
+		}
+	}
+	
+	
+	private static void filter(final float[] pixels, final int width, final int height, final Shape shape, final int radius, final boolean doMax) {
+		if (radius <= 0 || width == 0 || height == 0)
+			return;
+		switch (shape) {
+		case HORIZONTAL_LINE:
+			new LineFilter(width, height, radius, doMax).filterLines(pixels, width, height, 1, 0, radius);
+			return;
+		case VERTICAL_LINE:
+			new LineFilter(width, height, radius, doMax).filterLines(pixels, width, height, 0, 1, radius);
+			return;
+		case SQUARE:
+			LineFilter filter = new LineFilter(width, height, radius, doMax);
+			filter.filterLines(pixels, width, height, 1, 0, radius);
+			filter.filterLines(pixels, width, height, 0, 1, radius);
+			return;
+		case OCTAGON:
+			filterOctagon(pixels, width, height, radius, doMax);
+			return;
+		default:
+			throw new IllegalArgumentException("Unknown filter shape " + shape);
+		}
+	}
+	
+	
+	private static void filterOctagon(final float[] pixels, final int width, final int height, final int radius, final boolean doMax) {
+		int diagonalRadius = getOctagonDiagonalRadius(radius);
+		int squareRadius = radius - diagonalRadius * 2;
+		
+		// Lines along the diagonals may pass outside the image & back in again - so we need to 
+		// pad the image to ensure that we get the true result within the image
+		int pad = radius;
+		int w = width + pad * 2;
+		int h = height + pad * 2;
+		float[] padded = new float[w * h];
+		Arrays.fill(padded, doMax ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY);
+		for (int y = 0; y < height; y++)
+			System.arraycopy(pixels, y*width, padded, (y+pad)*w + pad, width);
+		
+		LineFilter filter = new LineFilter(w, h, radius, doMax);
+		if (squareRadius > 0) {
+			filter.filterLines(padded, w, h, 1, 0, squareRadius);
+			filter.filterLines(padded, w, h, 0, 1, squareRadius);
+		}
+		if (diagonalRadius > 0) {
+			filter.filterLines(padded, w, h, 1, 1, diagonalRadius);
+			filter.filterLines(padded, w, h, -1, 1, diagonalRadius);
+		}
+		
+		for (int y = 0; y < height; y++)
+			System.arraycopy(padded, (y+pad)*w + pad, pixels, y*width, width);
+	}
+	
+	
+	/**
+	 * Helper class to apply 1D minimum or maximum filters along all the lines of an image 
+	 * in a specified direction, reusing the same buffers for each line.
+	 */
+	static class LineFilter {
+		
+		private final boolean doMax;
+		private final float padValue;
+		private final int[] inds;
+		private final float[] line;
+		private final float[] g;
+		private final float[] h;
+		
+		LineFilter(final int width, final int height, final int maxRadius, final boolean doMax) {
+			this.doMax = doMax;
+			this.padValue = doMax ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+			int n = Math.max(width, height);
+			inds = new int[n];
+			line = new float[n + maxRadius * 2];
+			g = new float[line.length];
+			h = new float[line.length];
+		}
+		
+		/**
+		 * Filter all lines of an image that run in the direction (dx, dy), where dy is 0 or 1 
+		 * and dx is -1, 0 or 1.
+		 */
+		void filterLines(final float[] pixels, final int width, final int height, final int dx, final int dy, final int radius) {
+			if (dy == 0) {
+				for (int y = 0; y < height; y++)
+					filterLine(pixels, 0, y, width, height, dx, dy, radius);
+			} else if (dx == 0) {
+				for (int x = 0; x < width; x++)
+					filterLine(pixels, x, 0, width, height, dx, dy, radius);
+			} else {
+				// Diagonal lines start either on the first row, or on the first/last column
+				for (int x = 0; x < width; x++)
+					filterLine(pixels, x, 0, width, height, dx, dy, radius);
+				int xStart = dx > 0 ? 0 : width - 1;
+				for (int y = 1; y < height; y++)
+					filterLine(pixels, xStart, y, width, height, dx, dy, radius);
+			}
+		}
+		
+		private void filterLine(final float[] pixels, int x, int y, final int width, final int height, final int dx, final int dy, final int radius) {
+			// Gather the pixel indices along the line
+			int n = 0;
+			while (x >= 0 && x < width && y < height) {
+				inds[n++] = y * width + x;
+				x += dx;
+				y += dy;
+			}
+			if (n <= 1)
+				return;
+			
+			// Populate the line, padded by radius on both sides
+			int m = n + radius * 2;
+			for (int i = 0; i < radius; i++) {
+				line[i] = padValue;
+				line[m-i-1] = padValue;
+			}
+			for (int i = 0; i < n; i++)
+				line[i + radius] = pixels[inds[i]];
+			
+			// Compute running max/min within blocks of length k, from the left (g) and right (h)
+			int k = radius * 2 + 1;
+			if (doMax) {
+				for (int start = 0; start < m; start += k) {
+					int end = Math.min(start + k, m) - 1;
+					g[start] = line[start];
+					for (int i = start+1; i <= end; i++)
+						g[i] = Math.max(g[i-1], line[i]);
+					h[end] = line[end];
+					for (int i = end-1; i >= start; i--)
+						h[i] = Math.max(h[i+1], line[i]);
+				}
+				for (int i = 0; i < n; i++)
+					pixels[inds[i]] = Math.max(h[i], g[i + k - 1]);
+			} else {
+				for (int start = 0; start < m; start += k) {
+					int end = Math.min(start + k, m) - 1;
+					g[start] = line[start];
+					for (int i = start+1; i <= end; i++)
+						g[i] = Math.min(g[i-1], line[i]);
+					h[end] = line[end];
+					for (int i = end-1; i >= start; i--)
+						h[i] = Math.min(h[i+1], line[i]);
+				}
+				for (int i = 0; i < n; i++)
+					pixels[inds[i]] = Math.min(h[i], g[i + k - 1]);
+			}
+		}
+		
+	}
+
+}
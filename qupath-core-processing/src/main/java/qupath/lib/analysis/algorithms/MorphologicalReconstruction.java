@@ -23,6 +23,10 @@
 
 package qupath.lib.analysis.algorithms;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Implementation of 2D morphological reconstruction.
@@ -221,6 +225,367 @@ public class MorphologicalReconstruction {
 		// Process pixels in the queue (FIFO)
 		return processQueue(imMarker, imMask, queue);
 	}
+	
+	
+	/**
+	 * Apply morphological reconstruction (by dilation) using primitive arrays, updating the marker in place.
+	 * <p>
+	 * This uses Vincent's hybrid algorithm: raster and anti-raster scans are applied while they continue to 
+	 * change a substantial proportion of the pixels, and then a final anti-raster scan populates a FIFO queue 
+	 * that is used to complete the propagation.
+	 * <p>
+	 * All marker values should be &lt;= the corresponding mask values.
+	 * 
+	 * @param marker
+	 * @param mask
+	 * @param width
+	 * @param height
+	 * @return true if the reconstruction completed, false if it was interrupted
+	 */
+	public static boolean morphologicalReconstruction(final float[] marker, final float[] mask, final int width, final int height) {
+		return morphologicalReconstruction(marker, mask, width, 0, 0, width, height);
+	}
+	
+	/**
+	 * Apply morphological reconstruction (by dilation) using primitive arrays, updating the marker in place 
+	 * and only considering pixels within a specified rectangle.
+	 * 
+	 * @param marker
+	 * @param mask
+	 * @param width width of the full image, used to index the arrays
+	 * @param x x-coordinate of the rectangle to process
+	 * @param y y-coordinate of the rectangle to process
+	 * @param w width of the rectangle to process
+	 * @param h height of the rectangle to process
+	 * @return true if the reconstruction completed, false if it was interrupted
+	 * 
+	 * @see #morphologicalReconstruction(float[], float[], int, int)
+	 */
+	public static boolean morphologicalReconstruction(final float[] marker, final float[] mask, final int width, final int x, final int y, final int w, final int h) {
+		if (w <= 0 || h <= 0)
+			return true;
+		Bounds bounds = new Bounds(x, y, x + w, y + h);
+		// Really we just need one round of forward propagation, followed by one round of backward
+		// propagation filling in the queue... but working with the queue is slow, so it is better to
+		// repeat propagation steps so long as they are changing a sufficiently high proportion of the pixels
+		// at each step (here, 10%)
+		int nPixels = w * h;
+		int nChanges = scan(marker, mask, width, bounds, false, null);
+		while (nChanges / (double)nPixels > 0.1) {
+			scan(marker, mask, width, bounds, true, null);
+			nChanges = scan(marker, mask, width, bounds, false, null);
+		}
+		// Apply backwards propagation, filling the queue, & then process it
+		IntDequeue queue = new IntDequeue(Math.max(1024, nPixels / 16));
+		scan(marker, mask, width, bounds, true, queue);
+		return processQueue(marker, mask, width, bounds, queue);
+	}
+	
+	/**
+	 * Apply morphological reconstruction (by dilation) in parallel, by first reconstructing each tile 
+	 * independently and then propagating any remaining changes across the tile boundaries 
+	 * (again processing tiles in parallel).
+	 * <p>
+	 * This is useful for large images (e.g. tissue-level masks), where most of the propagation is local.
+	 * 
+	 * @param marker
+	 * @param mask
+	 * @param width
+	 * @param height
+	 * @param tileSize width &amp; height of each tile, in pixels
+	 * @return true if the reconstruction completed, false if it was interrupted
+	 * 
+	 * @see #morphologicalReconstruction(float[], float[], int, int)
+	 */
+	public static boolean morphologicalReconstructionTiled(final float[] marker, final float[] mask, final int width, final int height, final int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be > 0");
+		if (tileSize >= width && tileSize >= height)
+			return morphologicalReconstruction(marker, mask, width, height);
+		
+		List<Bounds> tiles = new ArrayList<>();
+		for (int y = 0; y < height; y += tileSize) {
+			for (int x = 0; x < width; x += tileSize)
+				tiles.add(new Bounds(x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height)));
+		}
+		// Tiles don't overlap, so they can safely be processed in parallel
+		boolean completed = tiles.parallelStream()
+				.allMatch(t -> morphologicalReconstruction(marker, mask, width, t.x1, t.y1, t.x2 - t.x1, t.y2 - t.y1));
+		
+		// Each tile is now stable internally, so any further changes must propagate in from a tile boundary.
+		// Alternate between identifying changes at the boundaries (reading from all tiles) and propagating them 
+		// within each tile (writing only to that tile), until nothing changes.
+		while (completed) {
+			List<int[]> updates = tiles.parallelStream()
+					.map(t -> getBoundaryUpdates(marker, mask, width, height, t))
+					.collect(Collectors.toList());
+			if (updates.stream().allMatch(u -> u.length == 0))
+				break;
+			completed = IntStream.range(0, tiles.size()).parallel()
+					.allMatch(i -> applyUpdates(marker, mask, width, tiles.get(i), updates.get(i)));
+		}
+		return completed;
+	}
+	
+	/**
+	 * Find pixels on the boundary of a tile that can be increased based upon their neighbours in adjacent tiles.
+	 * 
+	 * @return an array containing pairs of pixel indices and the bits of their new float values
+	 */
+	private static int[] getBoundaryUpdates(final float[] marker, final float[] mask, final int width, final int height, final Bounds tile) {
+		IntDequeue updates = new IntDequeue(64);
+		for (int y = tile.y1; y < tile.y2; y++) {
+			// Only the first and last column need to be checked, except for the first and last rows
+			int xInc = (y == tile.y1 || y == tile.y2 - 1) ? 1 : Math.max(1, tile.x2 - tile.x1 - 1);
+			for (int x = tile.x1; x < tile.x2; x += xInc) {
+				int ind = y * width + x;
+				float val = marker[ind];
+				float valMask = mask[ind];
+				if (val >= valMask)
+					continue;
+				float valMax = val;
+				for (int yy = Math.max(y-1, 0); yy <= Math.min(y+1, height-1); yy++) {
+					for (int xx = Math.max(x-1, 0); xx <= Math.min(x+1, width-1); xx++) {
+						if (xx >= tile.x1 && xx < tile.x2 && yy >= tile.y1 && yy < tile.y2)
+							continue;
+						float valNeighbour = marker[yy * width + xx];
+						if (valNeighbour > valMax)
+							valMax = valNeighbour;
+					}
+				}
+				if (valMax > val) {
+					updates.add(ind);
+					updates.add(Float.floatToIntBits(valMax < valMask ? valMax : valMask));
+				}
+			}
+		}
+		return updates.toArray();
+	}
+	
+	private static boolean applyUpdates(final float[] marker, final float[] mask, final int width, final Bounds tile, final int[] updates) {
+		if (updates.length == 0)
+			return true;
+		IntDequeue queue = new IntDequeue(Math.max(1024, updates.length));
+		for (int i = 0; i < updates.length; i += 2) {
+			int ind = updates[i];
+			float val = Float.intBitsToFloat(updates[i+1]);
+			if (val > marker[ind]) {
+				marker[ind] = val;
+				queue.add(ind);
+			}
+		}
+		return processQueue(marker, mask, width, tile, queue);
+	}
+	
+	
+	/**
+	 * Apply binary morphological reconstruction, updating the marker in place.
+	 * <p>
+	 * Pixels are foreground if they are non-zero.  Afterwards, marker pixels are set to 255 if they are 
+	 * within a connected foreground region of the mask that contains a foreground marker pixel, and 0 otherwise.
+	 * 
+	 * @param marker
+	 * @param mask
+	 * @param width
+	 * @param height
+	 * @param conn8 if true, use 8-connectivity; otherwise use 4-connectivity
+	 */
+	public static void binaryReconstruction(final byte[] marker, final byte[] mask, final int width, final int height, final boolean conn8) {
+		int n = width * height;
+		// Each pixel is added at most once, so the queue can't overflow
+		int[] queue = new int[n];
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			if (marker[i] != 0 && mask[i] != 0) {
+				marker[i] = (byte)255;
+				queue[tail++] = i;
+			} else
+				marker[i] = 0;
+		}
+		int head = 0;
+		while (head < tail) {
+			int ind = queue[head++];
+			int x = ind % width;
+			int y = ind / width;
+			for (int dy = -1; dy <= 1; dy++) {
+				int yy = y + dy;
+				if (yy < 0 || yy >= height)
+					continue;
+				for (int dx = -1; dx <= 1; dx++) {
+					if ((dx == 0 && dy == 0) || (!conn8 && dx != 0 && dy != 0))
+						continue;
+					int xx = x + dx;
+					if (xx < 0 || xx >= width)
+						continue;
+					int ind2 = yy * width + xx;
+					if (marker[ind2] == 0 && mask[ind2] != 0) {
+						marker[ind2] = (byte)255;
+						queue[tail++] = ind2;
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Apply a raster (or anti-raster, if reverse is true) propagation, optionally adding pixels to a queue 
+	 * if they may be able to propagate further to their neighbours.
+	 * 
+	 * @return the number of pixels that were changed
+	 */
+	private static int scan(final float[] marker, final float[] mask, final int width, final Bounds bounds, final boolean reverse, final IntDequeue queue) {
+		final int inc = reverse ? -1 : 1;
+		final int xStart = reverse ? bounds.x2 - 1 : bounds.x1;
+		final int xEnd = reverse ? bounds.x1 - 1 : bounds.x2;
+		final int yStart = reverse ? bounds.y2 - 1 : bounds.y1;
+		final int yEnd = reverse ? bounds.y1 - 1 : bounds.y2;
+		final boolean populateQueue = queue != null;
+		// Offset to the previous row (in the direction of the scan)
+		final int rowInc = inc * width;
+		
+		int changes = 0;
+		// valPrevious is the last processed value, valP1-3 are those from the previous row
+		float valPrevious, valP1, valP2, valP3, valCurrent;
+		for (int y = yStart; y != yEnd; y += inc) {
+			final boolean firstRow = y == yStart;
+			int ind = y * width + xStart;
+			// Initialize previous neighbours, duplicating values at the boundary 
+			// (so that they never contribute anything new)
+			valPrevious = marker[ind];
+			if (firstRow) {
+				valP1 = valPrevious;
+				valP2 = valPrevious;
+			} else {
+				valP2 = marker[ind - rowInc];
+				valP1 = valP2;
+			}
+			for (int x = xStart; x != xEnd; x += inc, ind += inc) {
+				valCurrent = marker[ind];
+				if (firstRow)
+					valP3 = valCurrent;
+				else if (x + inc != xEnd)
+					valP3 = marker[ind - rowInc + inc];
+				else
+					valP3 = valP2;
+				if (firstRow) {
+					valP1 = valCurrent;
+					valP2 = valCurrent;
+				}
+				
+				// Get the neighbourhood maximum
+				float valNeighbourMax = valP1 >= valP2 ? valP1 : valP2;
+				valNeighbourMax = valNeighbourMax >= valP3 ? valNeighbourMax : valP3;
+				valNeighbourMax = valNeighbourMax >= valPrevious ? valNeighbourMax : valPrevious;
+				
+				// If the current value is less than the neighbourhood maximum, try to update it while remaining under the mask
+				if (valCurrent < valNeighbourMax) {
+					final float valMask = mask[ind];
+					final float valNew = valNeighbourMax >= valMask ? valMask : valNeighbourMax;
+					if (valNew > valCurrent) {
+						valCurrent = valNew;
+						marker[ind] = valCurrent;
+						changes++;
+					}
+				}
+				
+				// If there are visited neighbours with lower values than we have just updated, 
+				// test whether to add the current pixel to the queue
+				if (populateQueue) {
+					boolean addToQueue = false;
+					if (valPrevious < valCurrent && x != xStart && valPrevious < mask[ind - inc])
+						addToQueue = true;
+					else if (!firstRow) {
+						if (valP1 < valCurrent && x != xStart && valP1 < mask[ind - rowInc - inc])
+							addToQueue = true;
+						else if (valP2 < valCurrent && valP2 < mask[ind - rowInc])
+							addToQueue = true;
+						else if (valP3 < valCurrent && x + inc != xEnd && valP3 < mask[ind - rowInc + inc])
+							addToQueue = true;
+					}
+					if (addToQueue)
+						queue.add(ind);
+				}
+				
+				// Update previous neighbours
+				valPrevious = valCurrent;
+				valP1 = valP2;
+				valP2 = valP3;
+			}
+		}
+		return changes;
+	}
+	
+	private static boolean processQueue(final float[] marker, final float[] mask, final int width, final Bounds bounds, final IntDequeue queue) {
+		final int x1 = bounds.x1;
+		final int y1 = bounds.y1;
+		final int x2 = bounds.x2;
+		final int y2 = bounds.y2;
+		
+		long counter = 0;
+		final Thread currentThread = Thread.currentThread();
+		
+		while (!queue.isEmpty()) {
+			counter++;
+			// If we were interrupted, stop
+			if (counter % 2500 == 0 && currentThread.isInterrupted())
+				return false;
+			
+			final int ind = queue.remove();
+			final int x = ind % width;
+			final int y = ind / width;
+			final float val = marker[ind];
+			
+			// Test 8-neighbours
+			if (x > x1) {
+				processPoint(marker, mask, ind-1, val, queue);
+				if (y > y1)
+					processPoint(marker, mask, ind-width-1, val, queue);
+				if (y < y2-1)
+					processPoint(marker, mask, ind+width-1, val, queue);
+			}
+			if (x < x2-1) {
+				processPoint(marker, mask, ind+1, val, queue);
+				if (y > y1)
+					processPoint(marker, mask, ind-width+1, val, queue);
+				if (y < y2-1)
+					processPoint(marker, mask, ind+width+1, val, queue);
+			}
+			if (y > y1)
+				processPoint(marker, mask, ind-width, val, queue);
+			if (y < y2-1)
+				processPoint(marker, mask, ind+width, val, queue);
+		}
+		return true;
+	}
+	
+	private static void processPoint(final float[] marker, final float[] mask, final int ind, final float val, final IntDequeue queue) {
+		final float valMarker = marker[ind];
+		if (valMarker < val) {
+			final float valMask = mask[ind];
+			if (valMarker < valMask) {
+				marker[ind] = valMask <= val ? valMask : val;
+				queue.add(ind);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Rectangle within which reconstruction should be applied (x2 &amp; y2 are exclusive).
+	 */
+	private static class Bounds {
+		
+		private final int x1, y1, x2, y2;
+		
+		Bounds(final int x1, final int y1, final int x2, final int y2) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+		}
+		
+	}
 
 	
 }
@@ -245,6 +610,16 @@ class IntDequeue {
 		return tail == head;
 	}
 	
+	/**
+	 * Get the values currently in the queue, in order (without removing them).
+	 * @return
+	 */
+	public int[] toArray() {
+		int[] values = new int[tail - head];
+		System.arraycopy(array, head, values, 0, values.length);
+		return values;
+	}
+	
 	/**
 	 * Performs no check that the output will be valid (caller should use isEmpty first to check this)
 	 * @return
@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Simple Linear Iterative Clustering (SLIC) of pixels into superpixels, using one or more feature channels.
+ * <p>
+ * This largely follows the description at:
+ *   Radhakrishna Achanta, Appu Shaji, Kevin Smith, Aurelien Lucchi, Pascal Fua, and Sabine Süsstrunk
+ *   SLIC Superpixels Compared to State-of-the-art Superpixel Methods
+ *   IEEE Transactions on Pattern Analysis and Machine Intelligence, vol. 34, num. 11, p. 2274 - 2282, May 2012.
+ * <p>
+ * The assignment step is computed per pixel rather than per cluster: each pixel finds the closest cluster center 
+ * among those whose search window contains it.  This gives the same labels as looping over cluster centers, 
+ * but means that each pixel is written by only one thread - so rows can be assigned in parallel without synchronization.
+ * Cluster centers are updated by accumulating sums over strips of rows in parallel.
+ * <p>
+ * Seeds are placed on a regular grid with a specified origin, so that adjacent tiles of a larger image can share 
+ * the same seed positions.  Labels are stored as ints, so there is no limit on the number of clusters.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class SLIC {
+	
+	private final float[][] channels;
+	private final int width, height;
+	private final double spacing;
+	private final double mSquared;
+	private final boolean adaptRegularization;
+	
+	// Grid of cluster seeds
+	private int gridStartX, gridStartY;
+	private int gridWidth, gridHeight;
+	private double xOrigin, yOrigin;
+	
+	// Cluster centers
+	private int nClusters;
+	private double[] centerX, centerY;
+	private double[] features;
+	private double[] clusterMSquared;
+	private int[] counts;
+	
+	private int[] labels;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param channels feature channels, each of length width * height
+	 * @param width
+	 * @param height
+	 * @param spacing grid spacing for cluster seeds, in pixels; this is also the size of the search window on each side of a cluster center
+	 * @param regularization the weight given to spatial distance compared to feature distance (m in the original paper)
+	 * @param adaptRegularization if true, the regularization is updated for each cluster according to the maximum feature distance within it
+	 * @param xOrigin x-coordinate of a corner of the seed grid, in pixels (seeds are at the centers of grid cells)
+	 * @param yOrigin y-coordinate of a corner of the seed grid, in pixels
+	 */
+	public SLIC(final float[][] channels, final int width, final int height, final double spacing, final double regularization, final boolean adaptRegularization, final double xOrigin, final double yOrigin) {
+		this.channels = channels;
+		this.width = width;
+		this.height = height;
+		this.spacing = spacing;
+		this.mSquared = regularization * regularization;
+		this.adaptRegularization = adaptRegularization;
+		this.xOrigin = xOrigin;
+		this.yOrigin = yOrigin;
+		initializeClusters();
+	}
+	
+	
+	private void initializeClusters() {
+		// Include every grid cell that overlaps the image
+		gridStartX = (int)Math.floor(-xOrigin / spacing);
+		gridStartY = (int)Math.floor(-yOrigin / spacing);
+		gridWidth = Math.max(1, (int)Math.ceil((width - xOrigin) / spacing) - gridStartX);
+		gridHeight = Math.max(1, (int)Math.ceil((height - yOrigin) / spacing) - gridStartY);
+		nClusters = gridWidth * gridHeight;
+		
+		int nChannels = channels.length;
+		centerX = new double[nClusters];
+		centerY = new double[nClusters];
+		features = new double[nClusters * nChannels];
+		clusterMSquared = new double[nClusters];
+		counts = new int[nClusters];
+		Arrays.fill(clusterMSquared, mSquared);
+		
+		labels = new int[width * height];
+		Arrays.fill(labels, -1);
+		
+		// Initialize each cluster from the pixel at the center of its grid cell
+		int c = 0;
+		for (int yi = 0; yi < gridHeight; yi++) {
+			int y = clip((int)(yOrigin + (gridStartY + yi + 0.5) * spacing), height);
+			for (int xi = 0; xi < gridWidth; xi++) {
+				int x = clip((int)(xOrigin + (gridStartX + xi + 0.5) * spacing), width);
+				int ind = y * width + x;
+				centerX[c] = x;
+				centerY[c] = y;
+				for (int i = 0; i < nChannels; i++)
+					features[c * nChannels + i] = channels[i][ind];
+				counts[c] = 1;
+				labels[ind] = c;
+				c++;
+			}
+		}
+	}
+	
+	
+	private static int clip(final int v, final int max) {
+		return v < 0 ? 0 : (v >= max ? max - 1 : v);
+	}
+	
+	
+	/**
+	 * Get the number of clusters, i.e. the maximum number of distinct labels (some clusters may be empty).
+	 * @return
+	 */
+	public int getNumClusters() {
+		return nClusters;
+	}
+	
+	
+	/**
+	 * Get the column of the grid cell used to seed a cluster.
+	 * <p>
+	 * Columns are counted from the grid origin, and may be negative; this means that the same seed has the same 
+	 * column in adjacent tiles that share a grid, even though its cluster label may differ.
+	 * 
+	 * @param cluster
+	 * @return
+	 */
+	public int getSeedColumn(final int cluster) {
+		return gridStartX + cluster % gridWidth;
+	}
+	
+	
+	/**
+	 * Get the row of the grid cell used to seed a cluster, counted from the grid origin.
+	 * 
+	 * @param cluster
+	 * @return
+	 * 
+	 * @see #getSeedColumn(int)
+	 */
+	public int getSeedRow(final int cluster) {
+		return gridStartY + cluster / gridWidth;
+	}
+	
+	
+	/**
+	 * Get the current cluster labels, in the range 0 - (nClusters-1), or -1 for unassigned pixels.
+	 * <p>
+	 * Clusters are numbered in raster order according to their initial grid positions.
+	 * 
+	 * @return
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+	
+	
+	/**
+	 * Iteratively assign pixels to clusters, and update the cluster centers.
+	 * 
+	 * @param maxIterations
+	 * @return the cluster labels (see {@link #getLabels()})
+	 */
+	public int[] computeLabels(final int maxIterations) {
+		for (int i = 0; i < maxIterations; i++) {
+			if (Thread.currentThread().isInterrupted())
+				break;
+			assignPixels();
+			updateCenters();
+		}
+		return labels;
+	}
+	
+	
+	/**
+	 * Assign each pixel to the closest cluster center, if any are within range.
+	 */
+	private void assignPixels() {
+		// Bin the cluster centers according to grid cells, so that nearby centers can be found quickly
+		// Centers usually stay close to their initial cell; any that drift outside the grid are kept at the edge
+		int nCells = gridWidth * gridHeight;
+		int[] cellStart = new int[nCells + 1];
+		int[] cellForCluster = new int[nClusters];
+		for (int c = 0; c < nClusters; c++) {
+			if (counts[c] == 0) {
+				cellForCluster[c] = -1;
+				continue;
+			}
+			int cell = getCellY(centerY[c]) * gridWidth + getCellX(centerX[c]);
+			cellForCluster[c] = cell;
+			cellStart[cell + 1]++;
+		}
+		for (int i = 0; i < nCells; i++)
+			cellStart[i + 1] += cellStart[i];
+		int[] cellClusters = new int[cellStart[nCells]];
+		int[] cellCounts = new int[nCells];
+		for (int c = 0; c < nClusters; c++) {
+			int cell = cellForCluster[c];
+			if (cell >= 0)
+				cellClusters[cellStart[cell] + cellCounts[cell]++] = c;
+		}
+		
+		int nChannels = channels.length;
+		double spacingSquared = spacing * spacing;
+		IntStream.range(0, height).parallel().forEach(y -> {
+			int cy = getCellY(y);
+			int cy1 = Math.max(0, cy - 1);
+			int cy2 = Math.min(gridHeight - 1, cy + 1);
+			for (int x = 0; x < width; x++) {
+				int ind = y * width + x;
+				int cx = getCellX(x);
+				int cx1 = Math.max(0, cx - 1);
+				int cx2 = Math.min(gridWidth - 1, cx + 1);
+				int best = -1;
+				double bestDistance = Double.POSITIVE_INFINITY;
+				for (int yy = cy1; yy <= cy2; yy++) {
+					for (int xx = cx1; xx <= cx2; xx++) {
+						int cell = yy * gridWidth + xx;
+						for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+							int c = cellClusters[j];
+							double dx = centerX[c] - x;
+							double dy = centerY[c] - y;
+							if (dx >= spacing || dx <= -spacing || dy >= spacing || dy <= -spacing)
+								continue;
+							double distance = colorDistanceSquared(ind, c, nChannels) / clusterMSquared[c] + (dx*dx + dy*dy) / spacingSquared;
+							if (distance < bestDistance) {
+								bestDistance = distance;
+								best = c;
+							}
+						}
+					}
+				}
+				if (best >= 0)
+					labels[ind] = best;
+			}
+		});
+	}
+	
+	
+	private int getCellX(final double x) {
+		int cell = (int)Math.floor((x - xOrigin) / spacing) - gridStartX;
+		return cell < 0 ? 0 : (cell >= gridWidth ? gridWidth - 1 : cell);
+	}
+
+	private int getCellY(final double y) {
+		int cell = (int)Math.floor((y - yOrigin) / spacing) - gridStartY;
+		return cell < 0 ? 0 : (cell >= gridHeight ? gridHeight - 1 : cell);
+	}
+	
+	
+	private double colorDistanceSquared(final int ind, final int cluster, final int nChannels) {
+		double distanceSquared = 0;
+		int offset = cluster * nChannels;
+		for (int i = 0; i < nChannels; i++) {
+			double d = channels[i][ind] - features[offset + i];
+			if (Double.isFinite(d))
+				distanceSquared += d*d;
+		}
+		return distanceSquared;
+	}
+	
+	
+	/**
+	 * Update cluster centers (and, optionally, regularization) from the current labels.
+	 */
+	private void updateCenters() {
+		int nChannels = channels.length;
+		int stride = nChannels + 3;
+		int nStrips = Math.max(1, Math.min(height, Runtime.getRuntime().availableProcessors()));
+		
+		// Accumulate counts and sums for each strip in parallel, then combine
+		double[] sums = IntStream.range(0, nStrips).parallel().mapToObj(strip -> {
+			double[] stripSums = new double[nClusters * stride];
+			int yStart = (int)((long)height * strip / nStrips);
+			int yEnd = (int)((long)height * (strip + 1) / nStrips);
+			for (int y = yStart; y < yEnd; y++) {
+				for (int x = 0; x < width; x++) {
+					int ind = y * width + x;
+					int c = labels[ind];
+					if (c < 0)
+						continue;
+					int offset = c * stride;
+					stripSums[offset]++;
+					stripSums[offset + 1] += x;
+					stripSums[offset + 2] += y;
+					for (int i = 0; i < nChannels; i++)
+						stripSums[offset + 3 + i] += channels[i][ind];
+				}
+			}
+			return stripSums;
+		}).reduce((a, b) -> {
+			for (int i = 0; i < a.length; i++)
+				a[i] += b[i];
+			return a;
+		}).get();
+		
+		for (int c = 0; c < nClusters; c++) {
+			int offset = c * stride;
+			int n = (int)sums[offset];
+			counts[c] = n;
+			if (n == 0) {
+				centerX[c] = Double.NaN;
+				centerY[c] = Double.NaN;
+				continue;
+			}
+			centerX[c] = sums[offset + 1] / n;
+			centerY[c] = sums[offset + 2] / n;
+			for (int i = 0; i < nChannels; i++)
+				features[c * nChannels + i] = sums[offset + 3 + i] / n;
+		}
+		
+		if (!adaptRegularization)
+			return;
+		
+		// Use the maximum feature distance within each cluster as its regularization
+		double[] maxDistances = IntStream.range(0, nStrips).parallel().mapToObj(strip -> {
+			double[] stripMax = new double[nClusters];
+			int start = (int)((long)labels.length * strip / nStrips);
+			int end = (int)((long)labels.length * (strip + 1) / nStrips);
+			for (int ind = start; ind < end; ind++) {
+				int c = labels[ind];
+				if (c < 0)
+					continue;
+				double distance = colorDistanceSquared(ind, c, nChannels);
+				if (distance > stripMax[c])
+					stripMax[c] = distance;
+			}
+			return stripMax;
+		}).reduce((a, b) -> {
+			for (int i = 0; i < a.length; i++)
+				a[i] = Math.max(a[i], b[i]);
+			return a;
+		}).get();
+		for (int c = 0; c < nClusters; c++) {
+			if (maxDistances[c] > 0)
+				clusterMSquared[c] = maxDistances[c];
+		}
+	}
+	
+	
+	/**
+	 * Merge clusters that were seeded from adjacent grid cells (including diagonals), 
+	 * if the Euclidean distance between their mean features is below a threshold.
+	 * <p>
+	 * Merges are transitive, so chains of similar clusters become a single cluster.
+	 * 
+	 * @param threshold
+	 * @return the number of merges applied
+	 */
+	public int mergeSimilarClusters(final double threshold) {
+		int[] parents = new int[nClusters];
+		for (int c = 0; c < nClusters; c++)
+			parents[c] = c;
+		int nMerged = 0;
+		for (int yi = 0; yi < gridHeight; yi++) {
+			for (int xi = 0; xi < gridWidth; xi++) {
+				int c = yi * gridWidth + xi;
+				if (xi < gridWidth - 1)
+					nMerged += maybeMerge(parents, c, c + 1, threshold);
+				if (yi < gridHeight - 1) {
+					nMerged += maybeMerge(parents, c, c + gridWidth, threshold);
+					if (xi < gridWidth - 1)
+						nMerged += maybeMerge(parents, c, c + gridWidth + 1, threshold);
+					if (xi > 0)
+						nMerged += maybeMerge(parents, c, c + gridWidth - 1, threshold);
+				}
+			}
+		}
+		if (nMerged > 0) {
+			for (int i = 0; i < labels.length; i++) {
+				if (labels[i] >= 0)
+					labels[i] = findRoot(parents, labels[i]);
+			}
+		}
+		return nMerged;
+	}
+	
+	
+	private int maybeMerge(final int[] parents, final int c1, final int c2, final double threshold) {
+		if (counts[c1] == 0 || counts[c2] == 0)
+			return 0;
+		int nChannels = channels.length;
+		double distanceSquared = 0;
+		for (int i = 0; i < nChannels; i++) {
+			double d = features[c1 * nChannels + i] - features[c2 * nChannels + i];
+			distanceSquared += d*d;
+		}
+		if (Math.sqrt(distanceSquared) > threshold)
+			return 0;
+		int r1 = findRoot(parents, c1);
+		int r2 = findRoot(parents, c2);
+		if (r1 == r2)
+			return 0;
+		parents[Math.max(r1, r2)] = Math.min(r1, r2);
+		return 1;
+	}
+	
+	
+	private static int findRoot(final int[] parents, int c) {
+		while (parents[c] != c) {
+			parents[c] = parents[parents[c]];
+			c = parents[c];
+		}
+		return c;
+	}
+	
+	
+	/**
+	 * Relabel pixels so that each label corresponds to a single 4-connected region, 
+	 * merging regions with no more than minSize pixels into an adjacent region.
+	 * <p>
+	 * Regions are labelled in raster order starting from 1; small regions are merged with the region 
+	 * containing the previous pixel in the raster scan (or the pixel above, at the start of a row).
+	 * 
+	 * @param labels labels to update in place; negative values are treated as a label like any other
+	 * @param width
+	 * @param height
+	 * @param minSize
+	 * @return the number of labels
+	 */
+	public static int enforceConnectivity(final int[] labels, final int width, final int height, final int minSize) {
+		int[] newLabels = new int[labels.length];
+		int[] xyCurrent = new int[labels.length];
+		int label = 1;
+		for (int y = 0; y < height; y++) {
+			// Maintain a reference to the previous label
+			int lastNewLabel = y > 0 ? newLabels[(y-1)*width] : 1;
+			for (int x = 0; x < width; x++) {
+				int i = y*width+x;
+				// Check if we've already labelled this
+				int currentNewLabel = newLabels[i];
+				if (currentNewLabel != 0) {
+					lastNewLabel = currentNewLabel;
+					continue;
+				}
+				
+				// Determine pixels for the current region
+				int currentOldLabel = labels[i];
+				int count = 1;
+				xyCurrent[0] = i;
+				newLabels[i] = label;
+				int c = 0;
+				while (c < count) {
+					int ii = xyCurrent[c];
+					int xx = ii % width;
+					int yy = ii / width;
+					c++;
+					// Check 4-connected neighbors
+					if (xx > 0 && newLabels[ii-1] == 0 && labels[ii-1] == currentOldLabel) {
+						xyCurrent[count++] = ii-1;
+						newLabels[ii-1] = label;
+					}
+					if (yy > 0 && newLabels[ii-width] == 0 && labels[ii-width] == currentOldLabel) {
+						xyCurrent[count++] = ii-width;
+						newLabels[ii-width] = label;
+					}
+					if (xx < width-1 && newLabels[ii+1] == 0 && labels[ii+1] == currentOldLabel) {
+						xyCurrent[count++] = ii+1;
+						newLabels[ii+1] = label;
+					}
+					if (yy < height-1 && newLabels[ii+width] == 0 && labels[ii+width] == currentOldLabel) {
+						xyCurrent[count++] = ii+width;
+						newLabels[ii+width] = label;
+					}
+				}
+				// Check if small, relabelling if required
+				if (count <= minSize) {
+					for (c = 0; c < count; c++)
+						newLabels[xyCurrent[c]] = lastNewLabel;
+				} else {
+					lastNewLabel = label;
+					label++;
+				}
+			}
+		}
+		System.arraycopy(newLabels, 0, labels, 0, labels.length);
+		// If every region was small, all pixels have the first label
+		return labels.length == 0 ? 0 : Math.max(1, label - 1);
+	}
+
+}
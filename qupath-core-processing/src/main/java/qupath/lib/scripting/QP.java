@@ -29,14 +29,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.WeakHashMap;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -55,6 +52,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.helpers.MeasurementPredicate;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.TMAGrid;
@@ -90,7 +88,7 @@ public class QP {
 	final public static ImageData.ImageType FLUORESCENCE = ImageData.ImageType.FLUORESCENCE;
 	final public static ImageData.ImageType OTHER = ImageData.ImageType.OTHER;
 	
-	private static WeakHashMap<Thread, ImageData<?>> batchImageData = new WeakHashMap<>();
+	private static Map<Thread, ImageData<?>> batchImageData = Collections.synchronizedMap(new WeakHashMap<>());
 	
 	
 	/**
@@ -473,8 +471,12 @@ public class QP {
 			return;
 		List<PathObject> reclassified = new ArrayList<>();
 		PathClass pathClass = PathClassFactory.getPathClass(className);
-		for (PathObject pathObject : hierarchy.getObjects(null, PathDetectionObject.class)) {
-			if (p.test(pathObject) && pathObject.getPathClass() != pathClass) {
+		List<PathObject> detections = hierarchy.getObjects(null, PathDetectionObject.class);
+		// Measurement predicates can test all detections at once
+		if (p instanceof MeasurementPredicate)
+			detections = ((MeasurementPredicate)p).filter(detections);
+		for (PathObject pathObject : detections) {
+			if ((p instanceof MeasurementPredicate || p.test(pathObject)) && pathObject.getPathClass() != pathClass) {
 				pathObject.setPathClass(pathClass);
 				reclassified.add(pathObject);
 			}
@@ -666,7 +668,7 @@ public class QP {
 	public static List<PathObject> getObjects(final Predicate<PathObject> predicate) {
 		PathObjectHierarchy hierarchy = getCurrentHierarchy();
 		if (hierarchy != null)
-			return hierarchy.getFlattenedObjectList(null).stream().filter(predicate).collect(Collectors.toList());
+			return getObjects(hierarchy, predicate);
 		return Collections.emptyList();
 	}
 
@@ -689,7 +691,10 @@ public class QP {
 	 * @return
 	 */
 	public static List<PathObject> getObjects(final PathObjectHierarchy hierarchy, final Predicate<PathObject> predicate) {
-		return hierarchy.getFlattenedObjectList(null).stream().filter(predicate).collect(Collectors.toList());
+		List<PathObject> pathObjects = hierarchy.getFlattenedObjectList(null);
+		if (predicate instanceof MeasurementPredicate)
+			return ((MeasurementPredicate)predicate).filter(pathObjects);
+		return pathObjects.stream().filter(predicate).collect(Collectors.toList());
 	}
 
 	/**
@@ -805,79 +810,19 @@ public class QP {
 	
 	
 	
+	/**
+	 * Parse a predicate to test measurement values, e.g. {@code "Nucleus: Area > 50 AND Nucleus: Circularity >= 0.8"}.
+	 * 
+	 * @param command
+	 * @return
+	 * @throws NoSuchElementException
+	 * 
+	 * @see MeasurementPredicate
+	 */
 	// TODO: Update parsePredicate to something more modern... a proper DSL
 	@Deprecated
 	public static Predicate<PathObject> parsePredicate(final String command) throws NoSuchElementException {
-		String s = command.trim();
-		if (s.length() == 0)
-			throw new NoSuchElementException("No command provided!");
-		Scanner scanner = new Scanner(s);
-
-		try {
-			Map<String, Predicate<Integer>> mapComparison = new HashMap<>();
-			mapComparison.put(">=", v -> v >= 0);
-			mapComparison.put("<=", v -> v <= 0);
-			mapComparison.put(">", v -> v > 0);
-			mapComparison.put("<", v -> v < 0);
-			mapComparison.put("=", v -> v == 0);
-			mapComparison.put("==", v -> v == 0);
-			mapComparison.put("!=", v -> v != 0);
-			mapComparison.put("~=", v -> v != 0);
-
-			Predicate<PathObject> predicate = null;
-			Pattern comparePattern = Pattern.compile(">=|<=|==|!=|~=|=|>|<");
-			Pattern combinePattern = Pattern.compile("and|AND|or|OR");
-			Pattern notPattern = Pattern.compile("not|NOT");
-			while (scanner.hasNext()) {
-				String combine = null;
-				scanner.reset();
-				if (predicate != null) {
-					if (scanner.hasNext(combinePattern))
-						combine = scanner.next(combinePattern).trim().toUpperCase();
-					else
-						throw new NoSuchElementException("Missing combiner (AND, OR) between comparisons!");
-				}
-
-				boolean negate = false;
-				if (scanner.hasNext(notPattern)) {
-					negate = true;
-					scanner.next(notPattern);
-				}
-
-				scanner.useDelimiter(comparePattern);
-				String measurement = scanner.next().trim();
-				scanner.reset();
-				if (!scanner.hasNext(comparePattern))
-					throw new NoSuchElementException("Missing comparison operator (<, >, <=, >=, ==) for measurement \"" + measurement + "\"");
-				String comparison = scanner.next(comparePattern).trim();
-				
-				if (!scanner.hasNextDouble())
-					throw new NoSuchElementException("Missing comparison value after \"" + measurement + " " + comparison + "\"");
-				double value = scanner.nextDouble();
-
-				Predicate<PathObject> predicateNew = p -> {
-					double v = p.getMeasurementList().getMeasurementValue(measurement);
-					return !Double.isNaN(v) && mapComparison.get(comparison).test(Double.compare(p.getMeasurementList().getMeasurementValue(measurement), value));
-				};
-				if (negate)
-					predicateNew = predicateNew.negate();
-
-				if (predicate == null) {
-					predicate = predicateNew;
-				} else {
-					if ("AND".equals(combine))
-						predicate = predicate.and(predicateNew);
-					else if ("OR".equals(combine))
-						predicate = predicate.or(predicateNew);
-					else
-						throw new NoSuchElementException("Unrecognised combination of predicates: " + combine);
-				}
-			}
-
-			return predicate;
-		} finally {
-			scanner.close();
-		}
+		return MeasurementPredicate.parse(command);
 	}
 
 
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compare integral image sums and box means with brute force implementations.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestIntegralImage {
+	
+	private static final int WIDTH = 53;
+	private static final int HEIGHT = 37;
+	
+	@Test
+	public void test_sums() {
+		Random random = new Random(100L);
+		float[] pixels = new float[WIDTH * HEIGHT];
+		byte[] binary = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt(100) - 20;
+			binary[i] = random.nextInt(3) == 0 ? (byte)255 : 0;
+		}
+		float[] binaryFloat = new float[binary.length];
+		for (int i = 0; i < binary.length; i++)
+			binaryFloat[i] = binary[i] == 0 ? 0 : 1;
+		
+		IntegralImage integral = new IntegralImage(pixels, WIDTH, HEIGHT);
+		IntegralImage integralBinary = IntegralImage.createBinary(binary, WIDTH, HEIGHT);
+		for (int k = 0; k < 500; k++) {
+			int x1 = random.nextInt(WIDTH + 20) - 10;
+			int y1 = random.nextInt(HEIGHT + 20) - 10;
+			int x2 = x1 + random.nextInt(30);
+			int y2 = y1 + random.nextInt(30);
+			assertEquals(bruteForceSum(pixels, x1, y1, x2, y2), integral.getSum(x1, y1, x2, y2), 0.0);
+			assertEquals(bruteForceSum(binaryFloat, x1, y1, x2, y2), integralBinary.getSum(x1, y1, x2, y2), 0.0);
+		}
+	}
+	
+	@Test
+	public void test_boxMean() {
+		Random random = new Random(200L);
+		float[] pixels = new float[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = random.nextFloat();
+		for (int radius = 0; radius <= 20; radius += 4) {
+			float[] expected = new float[pixels.length];
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					int x1 = Math.max(0, x - radius);
+					int y1 = Math.max(0, y - radius);
+					int x2 = Math.min(WIDTH, x + radius + 1);
+					int y2 = Math.min(HEIGHT, y + radius + 1);
+					expected[y*WIDTH+x] = (float)(bruteForceSum(pixels, x1, y1, x2, y2) / ((x2 - x1) * (y2 - y1)));
+				}
+			}
+			// Filter in place, as this is how it is used when dearraying
+			float[] result = pixels.clone();
+			new IntegralImage(result, WIDTH, HEIGHT).boxMean(result, radius);
+			assertArrayEquals("Box mean, radius " + radius, expected, result, 1e-5f);
+		}
+	}
+	
+	private static double bruteForceSum(float[] pixels, int x1, int y1, int x2, int y2) {
+		double sum = 0;
+		for (int y = Math.max(0, y1); y < Math.min(HEIGHT, y2); y++) {
+			for (int x = Math.max(0, x1); x < Math.min(WIDTH, x2); x++) {
+				sum += pixels[y*WIDTH+x];
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,311 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.analysis.algorithms.MinMaxFilters.Shape;
+
+/**
+ * Compare fast min/max, median & binary morphology filters with brute force implementations.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestMorphologicalFilters {
+	
+	private static final int WIDTH = 67;
+	private static final int HEIGHT = 41;
+	
+	/**
+	 * Expected octagons, written out explicitly for radii 1-5.
+	 */
+	private static final String[][] OCTAGONS = {
+			{
+				"###",
+				"###",
+				"###"
+			},
+			{
+				"#####",
+				"#####",
+				"#####",
+				"#####",
+				"#####"
+			},
+			{
+				"..###..",
+				".#####.",
+				"#######",
+				"#######",
+				"#######",
+				".#####.",
+				"..###.."
+			},
+			{
+				"..#####..",
+				".#######.",
+				"#########",
+				"#########",
+				"#########",
+				"#########",
+				"#########",
+				".#######.",
+				"..#####.."
+			},
+			{
+				"..#######..",
+				".#########.",
+				"###########",
+				"###########",
+				"###########",
+				"###########",
+				"###########",
+				"###########",
+				"###########",
+				".#########.",
+				"..#######.."
+			}
+	};
+	
+	private static final int MAX_OCTAGON_RADIUS = OCTAGONS.length;
+	
+	
+	@Test
+	public void test_octagonDiagonalRadius() {
+		for (int radius = 1; radius <= 100; radius++) {
+			int diagonalRadius = MinMaxFilters.getOctagonDiagonalRadius(radius);
+			assertTrue("Diagonal radius " + diagonalRadius + " for radius " + radius, diagonalRadius >= 0 && radius - diagonalRadius * 2 >= 1);
+		}
+	}
+	
+	@Test
+	public void test_structuringElements() {
+		// Filtering a single pixel should give the structuring element
+		for (Shape shape : Shape.values()) {
+			for (int radius = 1; radius <= MAX_OCTAGON_RADIUS; radius++) {
+				int width = radius * 2 + 5;
+				int height = radius * 2 + 3;
+				int center = (height / 2) * width + width / 2;
+				byte[] expected = new byte[width * height];
+				for (int[] o : getOffsets(shape, radius))
+					expected[center + o[1] * width + o[0]] = (byte)255;
+				
+				float[] pixels = new float[width * height];
+				pixels[center] = 1f;
+				MinMaxFilters.maximum(pixels, width, height, shape, radius);
+				assertArrayEquals(shape + " max, radius " + radius, expected, toBytes(pixels, 255f));
+				
+				Arrays.fill(pixels, 1f);
+				pixels[center] = 0f;
+				MinMaxFilters.minimum(pixels, width, height, shape, radius);
+				for (int i = 0; i < pixels.length; i++)
+					pixels[i] = 1f - pixels[i];
+				assertArrayEquals(shape + " min, radius " + radius, expected, toBytes(pixels, 255f));
+				
+				byte[] bytes = new byte[width * height];
+				bytes[center] = (byte)255;
+				BinaryMorphology.dilate(bytes, width, height, shape, radius);
+				assertArrayEquals(shape + " dilate, radius " + radius, expected, bytes);
+				
+				int n = 0;
+				for (byte b : expected)
+					n += b == 0 ? 0 : 1;
+				assertEquals(getOffsets(shape, radius).size(), n);
+			}
+		}
+	}
+	
+	@Test
+	public void test_minMax() {
+		Random random = new Random(100L);
+		float[] pixels = new float[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = random.nextFloat();
+		for (Shape shape : Shape.values()) {
+			for (int radius = 1; radius <= getMaxTestRadius(shape); radius++) {
+				List<int[]> offsets = getOffsets(shape, radius);
+				float[] expected = bruteForceMinMax(pixels, offsets, true);
+				float[] result = pixels.clone();
+				MinMaxFilters.maximum(result, WIDTH, HEIGHT, shape, radius);
+				assertArrayEquals(shape + " max, radius " + radius, expected, result, 0f);
+				
+				expected = bruteForceMinMax(pixels, offsets, false);
+				result = pixels.clone();
+				MinMaxFilters.minimum(result, WIDTH, HEIGHT, shape, radius);
+				assertArrayEquals(shape + " min, radius " + radius, expected, result, 0f);
+			}
+		}
+	}
+	
+	@Test
+	public void test_binary() {
+		Random random = new Random(200L);
+		byte[] pixels = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = random.nextInt(10) == 0 ? (byte)255 : 0;
+		float[] pixelsFloat = new float[pixels.length];
+		for (int i = 0; i < pixels.length; i++)
+			pixelsFloat[i] = pixels[i] & 0xff;
+		for (Shape shape : Shape.values()) {
+			for (int radius = 1; radius <= getMaxTestRadius(shape); radius++) {
+				List<int[]> offsets = getOffsets(shape, radius);
+				byte[] expected = toBytes(bruteForceMinMax(pixelsFloat, offsets, true));
+				byte[] result = pixels.clone();
+				BinaryMorphology.dilate(result, WIDTH, HEIGHT, shape, radius);
+				assertArrayEquals(shape + " dilate, radius " + radius, expected, result);
+
+				// Invert to get a more interesting erosion
+				float[] inverted = new float[pixelsFloat.length];
+				for (int i = 0; i < inverted.length; i++)
+					inverted[i] = 255 - pixelsFloat[i];
+				expected = toBytes(bruteForceMinMax(inverted, offsets, false));
+				result = toBytes(inverted);
+				BinaryMorphology.erode(result, WIDTH, HEIGHT, shape, radius);
+				assertArrayEquals(shape + " erode, radius " + radius, expected, result);
+			}
+		}
+	}
+
+	@Test
+	public void test_median() {
+		Random random = new Random(300L);
+		byte[] pixels = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte)random.nextInt(256);
+		byte[] binary = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < binary.length; i++)
+			binary[i] = random.nextBoolean() ? (byte)255 : 0;
+		for (int radius = 1; radius <= 6; radius++) {
+			byte[] result = pixels.clone();
+			MedianFilters.median(result, WIDTH, HEIGHT, radius);
+			assertArrayEquals("Median, radius " + radius, bruteForceMedian(pixels, radius), result);
+			
+			result = binary.clone();
+			BinaryMorphology.median(result, WIDTH, HEIGHT, radius);
+			assertArrayEquals("Binary median, radius " + radius, bruteForceMedian(binary, radius), result);
+		}
+	}
+	
+	
+	/**
+	 * Get the largest radius to test for a shape, given that octagons are only defined explicitly up to a fixed radius.
+	 */
+	private static int getMaxTestRadius(final Shape shape) {
+		return shape == Shape.OCTAGON ? MAX_OCTAGON_RADIUS : 12;
+	}
+	
+	/**
+	 * Get the offsets for a structuring element, from its definition (rather than the way it is computed).
+	 */
+	private static List<int[]> getOffsets(final Shape shape, final int radius) {
+		List<int[]> offsets = new ArrayList<>();
+		switch (shape) {
+		case HORIZONTAL_LINE:
+			for (int dx = -radius; dx <= radius; dx++)
+				offsets.add(new int[]{dx, 0});
+			break;
+		case VERTICAL_LINE:
+			for (int dy = -radius; dy <= radius; dy++)
+				offsets.add(new int[]{0, dy});
+			break;
+		case SQUARE:
+			for (int dy = -radius; dy <= radius; dy++) {
+				for (int dx = -radius; dx <= radius; dx++)
+					offsets.add(new int[]{dx, dy});
+			}
+			break;
+		case OCTAGON:
+			String[] rows = OCTAGONS[radius - 1];
+			for (int y = 0; y < rows.length; y++) {
+				for (int x = 0; x < rows[y].length(); x++) {
+					if (rows[y].charAt(x) == '#')
+						offsets.add(new int[]{x - radius, y - radius});
+				}
+			}
+			break;
+		}
+		return offsets;
+	}
+	
+	private static float[] bruteForceMinMax(final float[] pixels, final List<int[]> offsets, final boolean doMax) {
+		float[] result = new float[pixels.length];
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				float val = doMax ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+				for (int[] o : offsets) {
+					int xx = x + o[0];
+					int yy = y + o[1];
+					if (xx < 0 || yy < 0 || xx >= WIDTH || yy >= HEIGHT)
+						continue;
+					val = doMax ? Math.max(val, pixels[yy * WIDTH + xx]) : Math.min(val, pixels[yy * WIDTH + xx]);
+				}
+				result[y * WIDTH + x] = val;
+			}
+		}
+		return result;
+	}
+	
+	private static byte[] bruteForceMedian(final byte[] pixels, final int radius) {
+		byte[] result = new byte[pixels.length];
+		int k = radius * 2 + 1;
+		int[] values = new int[k * k];
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int n = 0;
+				for (int dy = -radius; dy <= radius; dy++) {
+					int yy = Math.min(Math.max(y + dy, 0), HEIGHT - 1);
+					for (int dx = -radius; dx <= radius; dx++) {
+						int xx = Math.min(Math.max(x + dx, 0), WIDTH - 1);
+						values[n++] = pixels[yy * WIDTH + xx] & 0xff;
+					}
+				}
+				Arrays.sort(values);
+				result[y * WIDTH + x] = (byte)values[values.length / 2];
+			}
+		}
+		return result;
+	}
+	
+	private static byte[] toBytes(final float[] pixels) {
+		return toBytes(pixels, 1f);
+	}
+	
+	private static byte[] toBytes(final float[] pixels, final float scale) {
+		byte[] bytes = new byte[pixels.length];
+		for (int i = 0; i < pixels.length; i++)
+			bytes[i] = (byte)(pixels[i] * scale);
+		return bytes;
+	}
+
+}
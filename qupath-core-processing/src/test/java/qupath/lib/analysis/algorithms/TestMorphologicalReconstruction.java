@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compare morphological reconstruction implementations with a simple iterative reconstruction.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestMorphologicalReconstruction {
+	
+	private static final int WIDTH = 97;
+	private static final int HEIGHT = 61;
+
+	@Test
+	public void test_grayscale() {
+		Random random = new Random(100L);
+		for (int iter = 0; iter < 10; iter++) {
+			float[] mask = new float[WIDTH * HEIGHT];
+			for (int i = 0; i < mask.length; i++)
+				mask[i] = random.nextInt(20);
+			float[] marker = new float[mask.length];
+			for (int i = 0; i < marker.length; i++)
+				marker[i] = random.nextInt(50) == 0 ? mask[i] : 0;
+			float[] expected = marker.clone();
+			iterativeReconstruction(expected, mask);
+			
+			float[] result = marker.clone();
+			assertTrue(MorphologicalReconstruction.morphologicalReconstruction(result, mask, WIDTH, HEIGHT));
+			assertArrayEquals(expected, result, 0f);
+
+			for (int tileSize : new int[]{1, 7, 32}) {
+				result = marker.clone();
+				assertTrue(MorphologicalReconstruction.morphologicalReconstructionTiled(result, mask, WIDTH, HEIGHT, tileSize));
+				assertArrayEquals(expected, result, 0f);
+			}
+			
+			FloatArraySimpleImage imMarker = new FloatArraySimpleImage(marker.clone(), WIDTH, HEIGHT);
+			assertTrue(MorphologicalReconstruction.morphologicalReconstruction(imMarker, new FloatArraySimpleImage(mask, WIDTH, HEIGHT)));
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++)
+					assertTrue(imMarker.getValue(x, y) == expected[y * WIDTH + x]);
+			}
+		}
+	}
+	
+	@Test
+	public void test_binary() {
+		Random random = new Random(200L);
+		for (int iter = 0; iter < 10; iter++) {
+			byte[] mask = new byte[WIDTH * HEIGHT];
+			float[] maskFloat = new float[mask.length];
+			for (int i = 0; i < mask.length; i++) {
+				if (random.nextInt(5) < 3) {
+					mask[i] = (byte)255;
+					maskFloat[i] = 255;
+				}
+			}
+			byte[] marker = new byte[mask.length];
+			float[] markerFloat = new float[mask.length];
+			for (int i = 0; i < marker.length; i++) {
+				if (random.nextInt(200) == 0 && mask[i] != 0) {
+					marker[i] = (byte)255;
+					markerFloat[i] = 255;
+				}
+			}
+			// Grayscale reconstruction uses 8-connectivity
+			iterativeReconstruction(markerFloat, maskFloat);
+			byte[] expected = new byte[marker.length];
+			for (int i = 0; i < expected.length; i++)
+				expected[i] = (byte)markerFloat[i];
+			MorphologicalReconstruction.binaryReconstruction(marker, mask, WIDTH, HEIGHT, true);
+			assertArrayEquals(expected, marker);
+		}
+	}
+	
+	/**
+	 * Repeatedly apply geodesic dilations (with 8-connectivity) until the marker stops changing.
+	 */
+	private static void iterativeReconstruction(final float[] marker, final float[] mask) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			float[] previous = marker.clone();
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					float val = previous[y * WIDTH + x];
+					for (int yy = Math.max(0, y-1); yy <= Math.min(HEIGHT-1, y+1); yy++) {
+						for (int xx = Math.max(0, x-1); xx <= Math.min(WIDTH-1, x+1); xx++)
+							val = Math.max(val, previous[yy * WIDTH + xx]);
+					}
+					val = Math.min(val, mask[y * WIDTH + x]);
+					if (val != marker[y * WIDTH + x]) {
+						marker[y * WIDTH + x] = val;
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+}
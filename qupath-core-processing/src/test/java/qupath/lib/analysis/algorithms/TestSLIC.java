@@ -0,0 +1,304 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compare SLIC labelling with a simple implementation that loops over cluster centers.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestSLIC {
+	
+	private static final int WIDTH = 83;
+	private static final int HEIGHT = 57;
+	private static final int SPACING = 10;
+
+	@Test
+	public void test_labels() {
+		Random random = new Random(100L);
+		for (boolean adapt : new boolean[]{false, true}) {
+			float[][] channels = createImage(random, 2);
+			for (double[] origin : new double[][]{{0, 0}, {-3, 4}}) {
+				SLIC slic = new SLIC(channels, WIDTH, HEIGHT, SPACING, 5, adapt, origin[0], origin[1]);
+				int[] labels = slic.computeLabels(5).clone();
+				int[] expected = computeLabelsSimple(channels, SPACING, 5, adapt, origin[0], origin[1], 5);
+				assertArrayEquals(expected, labels);
+			}
+		}
+	}
+	
+	@Test
+	public void test_gridOrigin() {
+		// Seeds should be shared with a larger image, if the grid origin is shifted to match
+		Random random = new Random(200L);
+		float[][] channels = createImage(random, 1);
+		int x = 20, y = 10, w = 40, h = 30;
+		float[][] crop = new float[][]{new float[w*h]};
+		for (int yy = 0; yy < h; yy++)
+			System.arraycopy(channels[0], (y + yy) * WIDTH + x, crop[0], yy * w, w);
+		int[] labels = new SLIC(channels, WIDTH, HEIGHT, SPACING, 5, false, 0, 0).computeLabels(0);
+		int[] labelsCrop = new SLIC(crop, w, h, SPACING, 5, false, -x, -y).computeLabels(0);
+		for (int yy = 0; yy < h; yy++) {
+			for (int xx = 0; xx < w; xx++) {
+				assertEquals(labels[(y + yy) * WIDTH + x + xx] >= 0, labelsCrop[yy * w + xx] >= 0);
+			}
+		}
+	}
+	
+	@Test
+	public void test_connectivity() {
+		Random random = new Random(300L);
+		int[] labels = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = random.nextInt(3);
+		int minSize = 4;
+		int n = SLIC.enforceConnectivity(labels, WIDTH, HEIGHT, minSize);
+		int[] sizes = new int[n + 1];
+		for (int label : labels) {
+			assertTrue(label >= 1 && label <= n);
+			sizes[label]++;
+		}
+		// Each label should now be one connected region
+		boolean[] visited = new boolean[labels.length];
+		boolean[] seen = new boolean[n + 1];
+		int[] stack = new int[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			if (visited[i])
+				continue;
+			int label = labels[i];
+			assertTrue(!seen[label]);
+			seen[label] = true;
+			int count = 0;
+			int size = 0;
+			stack[count++] = i;
+			visited[i] = true;
+			while (count > 0) {
+				int ind = stack[--count];
+				size++;
+				int xx = ind % WIDTH;
+				int yy = ind / WIDTH;
+				for (int j : new int[]{xx > 0 ? ind-1 : -1, xx < WIDTH-1 ? ind+1 : -1, yy > 0 ? ind-WIDTH : -1, yy < HEIGHT-1 ? ind+WIDTH : -1}) {
+					if (j >= 0 && !visited[j] && labels[j] == label) {
+						visited[j] = true;
+						stack[count++] = j;
+					}
+				}
+			}
+			assertEquals(sizes[label], size);
+		}
+	}
+	
+	
+	@Test
+	public void test_tiles() {
+		// Compare superpixels computed for the whole image with those stitched from two overlapping tiles, 
+		// where each tile labels only the pixels inside its core, and superpixels are identified by their seeds (as in the SLIC plugin)
+		Random random = new Random(400L);
+		float[][] channels = createImage(random, 1);
+		int minSize = SPACING * SPACING / 4;
+		int[] labels = new SLIC(channels, WIDTH, HEIGHT, SPACING, 5, false, 0, 0).computeLabels(10);
+		SLIC.enforceConnectivity(labels, WIDTH, HEIGHT, minSize);
+		
+		int seam = (WIDTH / SPACING / 2) * SPACING;
+		int overlap = SPACING * 3;
+		int[][] tiles = new int[][]{{0, seam + overlap}, {seam - overlap, WIDTH}};
+		int[][] cores = new int[][]{{0, seam}, {seam, WIDTH}};
+		int[] labelsStitched = new int[WIDTH * HEIGHT];
+		int[] counts = new int[WIDTH * HEIGHT];
+		for (int t = 0; t < tiles.length; t++) {
+			int x1 = tiles[t][0];
+			int w = tiles[t][1] - x1;
+			float[][] crop = new float[][]{new float[w * HEIGHT]};
+			for (int y = 0; y < HEIGHT; y++)
+				System.arraycopy(channels[0], y * WIDTH + x1, crop[0], y * w, w);
+			SLIC slic = new SLIC(crop, w, HEIGHT, SPACING, 5, false, -x1, 0);
+			int[] clusters = slic.computeLabels(10).clone();
+			int[] labelsTile = clusters.clone();
+			int n = SLIC.enforceConnectivity(labelsTile, w, HEIGHT, minSize);
+			// Identify each superpixel by the seed of its first pixel, which should be the same in both tiles
+			int[] seeds = new int[n + 1];
+			for (int i = 0; i < labelsTile.length; i++) {
+				int label = labelsTile[i];
+				if (seeds[label] == 0)
+					seeds[label] = 1 + slic.getSeedRow(clusters[i]) * WIDTH + slic.getSeedColumn(clusters[i]);
+			}
+			for (int i = 0; i < labelsTile.length; i++) {
+				int x = x1 + i % w;
+				if (x < cores[t][0] || x >= cores[t][1])
+					continue;
+				int ind = (i / w) * WIDTH + x;
+				labelsStitched[ind] = seeds[labelsTile[i]];
+				counts[ind]++;
+			}
+		}
+		
+		// Each pixel should belong to exactly one superpixel
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++)
+				assertEquals("Pixel (" + x + ", " + y + ")", 1, counts[y * WIDTH + x]);
+		}
+		
+		// Superpixel boundaries should (almost) all be the same as for the whole image
+		int nPairs = 0;
+		int nDifferent = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int ind = y * WIDTH + x;
+				for (int ind2 : new int[]{x < WIDTH-1 ? ind+1 : -1, y < HEIGHT-1 ? ind+WIDTH : -1}) {
+					if (ind2 < 0)
+						continue;
+					nPairs++;
+					if ((labels[ind] == labels[ind2]) != (labelsStitched[ind] == labelsStitched[ind2]))
+						nDifferent++;
+				}
+			}
+		}
+		assertTrue(nDifferent + " of " + nPairs + " neighboring pixel pairs differ", nDifferent < nPairs * 3 / 100);
+	}
+	
+	
+	private static float[][] createImage(final Random random, final int nChannels) {
+		float[][] channels = new float[nChannels][WIDTH * HEIGHT];
+		for (float[] channel : channels) {
+			// Blocky image with noise, so that clusters have something to follow
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++)
+					channel[y * WIDTH + x] = ((x / 13 + y / 7) % 3) * 20 + (float)random.nextGaussian() * 5;
+			}
+		}
+		return channels;
+	}
+	
+	
+	/**
+	 * Straightforward SLIC, looping through cluster centers & their search windows.
+	 */
+	private static int[] computeLabelsSimple(final float[][] channels, final double s, final double m, final boolean adapt, final double xOrigin, final double yOrigin, final int maxIterations) {
+		int nChannels = channels.length;
+		int gx = (int)Math.floor(-xOrigin / s);
+		int gy = (int)Math.floor(-yOrigin / s);
+		int gw = Math.max(1, (int)Math.ceil((WIDTH - xOrigin) / s) - gx);
+		int gh = Math.max(1, (int)Math.ceil((HEIGHT - yOrigin) / s) - gy);
+		int n = gw * gh;
+		double[] cx = new double[n];
+		double[] cy = new double[n];
+		double[] f = new double[n * nChannels];
+		double[] mSquared = new double[n];
+		Arrays.fill(mSquared, m*m);
+		int[] counts = new int[n];
+		int[] labels = new int[WIDTH * HEIGHT];
+		Arrays.fill(labels, -1);
+		for (int yi = 0; yi < gh; yi++) {
+			for (int xi = 0; xi < gw; xi++) {
+				int c = yi * gw + xi;
+				int x = Math.min(WIDTH-1, Math.max(0, (int)(xOrigin + (gx + xi + 0.5) * s)));
+				int y = Math.min(HEIGHT-1, Math.max(0, (int)(yOrigin + (gy + yi + 0.5) * s)));
+				cx[c] = x;
+				cy[c] = y;
+				for (int i = 0; i < nChannels; i++)
+					f[c * nChannels + i] = channels[i][y * WIDTH + x];
+				counts[c] = 1;
+				labels[y * WIDTH + x] = c;
+			}
+		}
+		double[] distances = new double[labels.length];
+		for (int iter = 0; iter < maxIterations; iter++) {
+			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			for (int c = 0; c < n; c++) {
+				if (counts[c] == 0)
+					continue;
+				for (int y = 0; y < HEIGHT; y++) {
+					for (int x = 0; x < WIDTH; x++) {
+						double dx = cx[c] - x;
+						double dy = cy[c] - y;
+						if (Math.abs(dx) >= s || Math.abs(dy) >= s)
+							continue;
+						int ind = y * WIDTH + x;
+						double dc = 0;
+						for (int i = 0; i < nChannels; i++) {
+							double d = channels[i][ind] - f[c * nChannels + i];
+							dc += d*d;
+						}
+						double distance = dc / mSquared[c] + (dx*dx + dy*dy) / (s*s);
+						if (distance < distances[ind]) {
+							distances[ind] = distance;
+							labels[ind] = c;
+						}
+					}
+				}
+			}
+			// Update centers
+			Arrays.fill(counts, 0);
+			double[] sums = new double[n * (nChannels + 2)];
+			for (int ind = 0; ind < labels.length; ind++) {
+				int c = labels[ind];
+				if (c < 0)
+					continue;
+				counts[c]++;
+				sums[c * (nChannels + 2)] += ind % WIDTH;
+				sums[c * (nChannels + 2) + 1] += ind / WIDTH;
+				for (int i = 0; i < nChannels; i++)
+					sums[c * (nChannels + 2) + 2 + i] += channels[i][ind];
+			}
+			for (int c = 0; c < n; c++) {
+				if (counts[c] == 0)
+					continue;
+				cx[c] = sums[c * (nChannels + 2)] / counts[c];
+				cy[c] = sums[c * (nChannels + 2) + 1] / counts[c];
+				for (int i = 0; i < nChannels; i++)
+					f[c * nChannels + i] = sums[c * (nChannels + 2) + 2 + i] / counts[c];
+			}
+			if (adapt) {
+				double[] maxDistances = new double[n];
+				for (int ind = 0; ind < labels.length; ind++) {
+					int c = labels[ind];
+					if (c < 0)
+						continue;
+					double dc = 0;
+					for (int i = 0; i < nChannels; i++) {
+						double d = channels[i][ind] - f[c * nChannels + i];
+						dc += d*d;
+					}
+					maxDistances[c] = Math.max(maxDistances[c], dc);
+				}
+				for (int c = 0; c < n; c++) {
+					if (maxDistances[c] > 0)
+						mSquared[c] = maxDistances[c];
+				}
+			}
+		}
+		return labels;
+	}
+
+}
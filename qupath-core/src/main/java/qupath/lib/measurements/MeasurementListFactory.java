@@ -23,6 +23,8 @@
 
 package qupath.lib.measurements;
 
+import java.util.List;
+
 /**
  * Factory for creating new measurement lists.
  * 
@@ -46,5 +48,19 @@ public class MeasurementListFactory {
 			return new DefaultMeasurementList(capacity);
 		}
 	}
+	
+	/**
+	 * Get the list of measurement names shared by a closed measurement list, or null if the names are not shared.
+	 * <p>
+	 * When closed, lists containing the same measurements share the same list of names.  Shared lists may be 
+	 * compared by identity, which makes it possible to resolve measurement indices once and reuse them for many 
+	 * measurement lists.
+	 * 
+	 * @param list
+	 * @return
+	 */
+	public static List<String> getSharedMeasurementNames(final MeasurementList list) {
+		return NumericMeasurementList.getSharedNames(list);
+	}
 
 }
@@ -96,6 +96,24 @@ class NumericMeasurementList {
 	
 	
 	
+	/**
+	 * Get the list of names shared between closed lists, or null if the list is open (or not a NumericMeasurementList).
+	 * <p>
+	 * Shared lists can be compared by identity to quickly determine whether two measurement lists have the same names in the same order.
+	 * 
+	 * @param list
+	 * @return
+	 */
+	static List<String> getSharedNames(final MeasurementList list) {
+		if (list instanceof AbstractNumericMeasurementList) {
+			AbstractNumericMeasurementList numericList = (AbstractNumericMeasurementList)list;
+			if (numericList.isClosed())
+				return numericList.names;
+		}
+		return null;
+	}
+	
+	
 	private static abstract class AbstractNumericMeasurementList implements MeasurementList {
 		
 		private static final long serialVersionUID = 1L;
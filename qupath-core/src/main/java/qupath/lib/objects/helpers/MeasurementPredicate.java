@@ -0,0 +1,324 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.helpers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+
+/**
+ * Predicate that tests the values of named measurements, e.g. {@code "Nucleus: Area > 50 AND NOT Cell: Area > 200"}.
+ * <p>
+ * Comparisons are combined from left to right, without any operator precedence. 
+ * Comparisons involving missing (NaN) measurements always evaluate to false (before any NOT is applied).
+ * <p>
+ * Measurement names are resolved to indices once for each distinct set of shared measurement names 
+ * (see {@link MeasurementListFactory#getSharedMeasurementNames(MeasurementList)}), rather than being 
+ * looked up by name for every object.  This makes the predicate considerably faster when applied to 
+ * large numbers of objects with closed measurement lists.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MeasurementPredicate implements Predicate<PathObject> {
+	
+	private static final int OP_GREATER_EQUALS = 0;
+	private static final int OP_LESS_EQUALS = 1;
+	private static final int OP_GREATER = 2;
+	private static final int OP_LESS = 3;
+	private static final int OP_EQUALS = 4;
+	private static final int OP_NOT_EQUALS = 5;
+	
+	/**
+	 * Minimum number of objects before {@link #testAll(List)} will be parallelized.
+	 */
+	private static final int MIN_PARALLEL_OBJECTS = 10_000;
+	
+	private static final Pattern COMPARE_PATTERN = Pattern.compile(">=|<=|==|!=|~=|=|>|<");
+	private static final Pattern COMBINE_PATTERN = Pattern.compile("and|AND|or|OR");
+	private static final Pattern NOT_PATTERN = Pattern.compile("not|NOT");
+	
+	private final String command;
+	private final String[] measurements;
+	private final int[] ops;
+	private final double[] values;
+	private final boolean[] negate;
+	// Combiner used to join each comparison with the preceding result (the first entry is ignored)
+	private final boolean[] isAnd;
+	
+	private volatile ResolvedIndices resolved;
+	
+	private MeasurementPredicate(final String command, final List<String> measurements, final List<Integer> ops, final List<Double> values, final List<Boolean> negate, final List<Boolean> isAnd) {
+		this.command = command;
+		int n = measurements.size();
+		this.measurements = measurements.toArray(new String[n]);
+		this.ops = new int[n];
+		this.values = new double[n];
+		this.negate = new boolean[n];
+		this.isAnd = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			this.ops[i] = ops.get(i);
+			this.values[i] = values.get(i);
+			this.negate[i] = negate.get(i);
+			this.isAnd[i] = isAnd.get(i);
+		}
+	}
+	
+	/**
+	 * Parse a predicate from a String.
+	 * 
+	 * @param command the command, e.g. {@code "Nucleus: Area > 50 AND Nucleus: Circularity >= 0.8"}
+	 * @return
+	 * @throws NoSuchElementException if the command could not be parsed
+	 */
+	public static MeasurementPredicate parse(final String command) throws NoSuchElementException {
+		String s = command.trim();
+		if (s.length() == 0)
+			throw new NoSuchElementException("No command provided!");
+		
+		List<String> measurements = new ArrayList<>();
+		List<Integer> ops = new ArrayList<>();
+		List<Double> values = new ArrayList<>();
+		List<Boolean> negates = new ArrayList<>();
+		List<Boolean> combiners = new ArrayList<>();
+		
+		Scanner scanner = new Scanner(s);
+		try {
+			while (scanner.hasNext()) {
+				String combine = null;
+				scanner.reset();
+				if (!measurements.isEmpty()) {
+					if (scanner.hasNext(COMBINE_PATTERN))
+						combine = scanner.next(COMBINE_PATTERN).trim().toUpperCase();
+					else
+						throw new NoSuchElementException("Missing combiner (AND, OR) between comparisons!");
+				}
+
+				boolean negate = false;
+				if (scanner.hasNext(NOT_PATTERN)) {
+					negate = true;
+					scanner.next(NOT_PATTERN);
+				}
+
+				scanner.useDelimiter(COMPARE_PATTERN);
+				String measurement = scanner.next().trim();
+				scanner.reset();
+				if (!scanner.hasNext(COMPARE_PATTERN))
+					throw new NoSuchElementException("Missing comparison operator (<, >, <=, >=, ==) for measurement \"" + measurement + "\"");
+				String comparison = scanner.next(COMPARE_PATTERN).trim();
+				
+				if (!scanner.hasNextDouble())
+					throw new NoSuchElementException("Missing comparison value after \"" + measurement + " " + comparison + "\"");
+				double value = scanner.nextDouble();
+				
+				measurements.add(measurement);
+				ops.add(parseOperator(comparison));
+				values.add(value);
+				negates.add(negate);
+				combiners.add(combine == null || "AND".equals(combine));
+			}
+		} finally {
+			scanner.close();
+		}
+		return new MeasurementPredicate(command, measurements, ops, values, negates, combiners);
+	}
+	
+	private static int parseOperator(final String comparison) {
+		switch (comparison) {
+		case ">=":
+			return OP_GREATER_EQUALS;
+		case "<=":
+			return OP_LESS_EQUALS;
+		case ">":
+			return OP_GREATER;
+		case "<":
+			return OP_LESS;
+		case "=":
+		case "==":
+			return OP_EQUALS;
+		case "!=":
+		case "~=":
+			return OP_NOT_EQUALS;
+		default:
+			throw new NoSuchElementException("Unknown comparison operator " + comparison);
+		}
+	}
+	
+	/**
+	 * Get the measurement names referred to by this predicate, in the order they appear.
+	 * 
+	 * @return
+	 */
+	public List<String> getMeasurementNames() {
+		List<String> names = new ArrayList<>();
+		for (String name : measurements)
+			names.add(name);
+		return names;
+	}
+
+	@Override
+	public boolean test(final PathObject pathObject) {
+		MeasurementList list = pathObject.getMeasurementList();
+		int[] indices = getIndices(list);
+		boolean result = false;
+		for (int i = 0; i < measurements.length; i++) {
+			if (i > 0) {
+				// Short-circuit, as with chained predicates
+				if (isAnd[i] && !result)
+					continue;
+				if (!isAnd[i] && result)
+					continue;
+			}
+			double v = indices == null ? list.getMeasurementValue(measurements[i]) : getValue(list, indices[i]);
+			result = testComparison(i, v);
+		}
+		return result;
+	}
+	
+	/**
+	 * Test all objects in a list, returning a {@link BitSet} where set bits correspond to the 
+	 * indices of objects that pass.
+	 * <p>
+	 * Large lists are tested in parallel.
+	 * 
+	 * @param pathObjects
+	 * @return
+	 */
+	public BitSet testAll(final List<? extends PathObject> pathObjects) {
+		int n = pathObjects.size();
+		int nWords = (n + 63) / 64;
+		long[] words = new long[nWords];
+		IntStream stream = IntStream.range(0, nWords);
+		if (n >= MIN_PARALLEL_OBJECTS)
+			stream = stream.parallel();
+		// Each word is written by a single thread, so no synchronization is required
+		stream.forEach(w -> {
+			long word = 0L;
+			int start = w * 64;
+			int end = Math.min(start + 64, n);
+			for (int i = start; i < end; i++) {
+				if (test(pathObjects.get(i)))
+					word |= 1L << (i - start);
+			}
+			words[w] = word;
+		});
+		return BitSet.valueOf(words);
+	}
+	
+	/**
+	 * Get a list containing only the objects that pass this predicate, in their original order.
+	 * 
+	 * @param pathObjects
+	 * @return
+	 * 
+	 * @see #testAll(List)
+	 */
+	public <T extends PathObject> List<T> filter(final List<T> pathObjects) {
+		BitSet bits = testAll(pathObjects);
+		List<T> filtered = new ArrayList<>(bits.cardinality());
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+			filtered.add(pathObjects.get(i));
+		return filtered;
+	}
+	
+	private boolean testComparison(final int i, final double v) {
+		boolean passed;
+		if (Double.isNaN(v))
+			passed = false;
+		else {
+			int cmp = Double.compare(v, values[i]);
+			switch (ops[i]) {
+			case OP_GREATER_EQUALS:
+				passed = cmp >= 0;
+				break;
+			case OP_LESS_EQUALS:
+				passed = cmp <= 0;
+				break;
+			case OP_GREATER:
+				passed = cmp > 0;
+				break;
+			case OP_LESS:
+				passed = cmp < 0;
+				break;
+			case OP_EQUALS:
+				passed = cmp == 0;
+				break;
+			case OP_NOT_EQUALS:
+			default:
+				passed = cmp != 0;
+				break;
+			}
+		}
+		return negate[i] ? !passed : passed;
+	}
+	
+	private static double getValue(final MeasurementList list, final int ind) {
+		return ind < 0 ? Double.NaN : list.getMeasurementValue(ind);
+	}
+	
+	/**
+	 * Get the measurement indices for a list, or null if these cannot be reused (and names should be used instead).
+	 */
+	private int[] getIndices(final MeasurementList list) {
+		List<String> names = MeasurementListFactory.getSharedMeasurementNames(list);
+		if (names == null)
+			return null;
+		ResolvedIndices current = resolved;
+		if (current != null && current.names == names)
+			return current.indices;
+		int[] indices = new int[measurements.length];
+		for (int i = 0; i < measurements.length; i++)
+			indices[i] = names.indexOf(measurements[i]);
+		resolved = new ResolvedIndices(names, indices);
+		return indices;
+	}
+	
+	@Override
+	public String toString() {
+		return command;
+	}
+	
+	
+	private static class ResolvedIndices {
+		
+		private final List<String> names;
+		private final int[] indices;
+		
+		ResolvedIndices(final List<String> names, final int[] indices) {
+			this.names = names;
+			this.indices = indices;
+		}
+		
+	}
+
+}
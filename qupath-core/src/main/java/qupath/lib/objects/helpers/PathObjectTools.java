@@ -50,11 +50,14 @@ import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.TMAGrid;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.AreaROI;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.PreparedArea;
 import qupath.lib.roi.ROIHelpers;
 import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.PathPoints;
 import qupath.lib.roi.interfaces.ROI;
 import qupath.lib.rois.measure.ConvexHull;
+import qupath.lib.rois.vertices.VerticesIterator;
 
 /**
  * A collection of static methods to help work with PathObjects.
@@ -241,12 +244,32 @@ public class PathObjectTools {
 		double py2 = py + parentROI.getBoundsHeight();
 		double cx = childROI.getBoundsX();
 		double cy = childROI.getBoundsY();
-		double cx2 = px + childROI.getBoundsWidth();
-		double cy2 = py + childROI.getBoundsHeight();
+		double cx2 = cx + childROI.getBoundsWidth();
+		double cy2 = cy + childROI.getBoundsHeight();
 		if (!(cx >= px && cx2 <= px2 && cy >= py && cy2 <= py2))
 			return false;
 		
+		// For complex parents, try to decide based upon the child bounds alone
+		PreparedArea prepared = ROIHelpers.getPreparedArea(parentArea);
+		if (prepared != null) {
+			int status = prepared.getRegionStatus(cx, cy, cx2 - cx, cy2 - cy);
+			if (status == PreparedArea.INSIDE)
+				return true;
+			if (status == PreparedArea.OUTSIDE)
+				return false;
+		}
+		
 		// Check shapes
+		if (childROI instanceof PolygonROI) {
+			// Step through vertices directly to avoid creating a list of points
+			VerticesIterator iterator = ((PolygonROI)childROI).getVerticesIterator();
+			while (iterator.hasNext()) {
+				if (!parentArea.contains(iterator.getX(), iterator.getY()))
+					return false;
+				iterator.next();
+			}
+			return true;
+		}
 		for (Point2 p : childROI.getPolygonPoints()) {
 			if (!parentArea.contains(p.getX(), p.getY()))
 				return false;
@@ -0,0 +1,637 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TemporaryObject;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.PointsROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * An immutable view of the structure of a {@link PathObjectHierarchy} at a specific version.
+ * <p>
+ * Snapshots can be queried without acquiring any locks on the hierarchy, which means that readers 
+ * (e.g. for painting or export) are not blocked by writers adding or removing objects - and vice versa.
+ * <p>
+ * Once a hierarchy has created a snapshot, it keeps it up to date whenever an event is fired. 
+ * Each update only visits the child lists of the parents that changed, and shares everything else 
+ * (including the spatial index for unaffected tiles) with the previous snapshot - 
+ * which remains valid for any reader still using it.
+ * <p>
+ * Note that only the structure and ROIs are captured: the objects themselves are shared with the hierarchy, 
+ * so changes to measurements or classifications will be visible.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class HierarchySnapshot {
+	
+	private static final int TILE_SIZE = 1024;
+	
+	private final long version;
+	private final long structureVersion;
+	private final PathObject rootObject;
+	private final int nObjects;
+	// Child objects & their ROIs, for every object that has children
+	private final Map<PathObject, Node> nodes;
+	// Spatial index per class
+	private final Map<Class<? extends PathObject>, TileIndex> indexMap;
+	
+	// Flattened object list, created lazily
+	private volatile List<PathObject> objects;
+	
+	private HierarchySnapshot(final long version, final long structureVersion, final PathObject rootObject, final int nObjects, final Map<PathObject, Node> nodes, final Map<Class<? extends PathObject>, TileIndex> indexMap) {
+		this.version = version;
+		this.structureVersion = structureVersion;
+		this.rootObject = rootObject;
+		this.nObjects = nObjects;
+		this.nodes = nodes;
+		this.indexMap = indexMap;
+	}
+	
+	/**
+	 * Create a snapshot from the root object.  The caller must hold the hierarchy lock.
+	 * 
+	 * @param version
+	 * @param structureVersion
+	 * @param rootObject
+	 * @return
+	 */
+	static HierarchySnapshot createSnapshot(final long version, final long structureVersion, final PathObject rootObject) {
+		Map<PathObject, Node> emptyNodes = Collections.emptyMap();
+		Map<Class<? extends PathObject>, TileIndex> emptyIndex = Collections.emptyMap();
+		SnapshotUpdater updater = new SnapshotUpdater(emptyNodes);
+		updater.capture(rootObject, true);
+		// The root object is not counted
+		return updater.createSnapshot(version, structureVersion, rootObject, -1, emptyIndex);
+	}
+	
+	/**
+	 * Create a new snapshot by updating this one, after the child lists of the specified parents have changed 
+	 * (or the ROIs of their children).  The caller must hold the hierarchy lock.
+	 * <p>
+	 * Parents that are no longer in the hierarchy are ignored, since any change to them will be found through 
+	 * the parent from which they were removed.
+	 * 
+	 * @param version
+	 * @param structureVersion
+	 * @param parents parents with changed child lists
+	 * @param recursive if true, also check all descendants of the parents for changes (e.g. after a generic structure change event)
+	 * @return
+	 */
+	HierarchySnapshot update(final long version, final long structureVersion, final Collection<? extends PathObject> parents, final boolean recursive) {
+		SnapshotUpdater updater = new SnapshotUpdater(nodes);
+		Set<PathObject> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (PathObject parent : parents) {
+			if (parent == null || !visited.add(parent) || !isDescendantOfRoot(parent))
+				continue;
+			updater.diff(parent, isIndexed(parent), recursive);
+		}
+		if (updater.isEmpty())
+			return new HierarchySnapshot(version, structureVersion, rootObject, nObjects, nodes, indexMap);
+		return updater.createSnapshot(version, structureVersion, rootObject, nObjects, indexMap);
+	}
+	
+	private boolean isDescendantOfRoot(PathObject pathObject) {
+		while (pathObject != null) {
+			if (pathObject == rootObject)
+				return true;
+			pathObject = pathObject.getParent();
+		}
+		return false;
+	}
+	
+	/**
+	 * Children are indexed unless they are descendants of a temporary object (consistent with {@link PathObjectTileCache}).
+	 */
+	private static boolean isIndexed(PathObject parent) {
+		while (parent != null) {
+			if (parent instanceof TemporaryObject)
+				return false;
+			parent = parent.getParent();
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the hierarchy version at which the snapshot was taken.
+	 * This increases whenever the structure of the hierarchy changes, or objects are changed in 
+	 * a way that could alter the spatial index (e.g. by setting a new ROI).
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Get the structure version at which the snapshot was taken.
+	 * This increases whenever objects are added, removed or moved in the hierarchy, 
+	 * but not when objects are otherwise changed.
+	 * 
+	 * @return
+	 */
+	public long getStructureVersion() {
+		return structureVersion;
+	}
+	
+	/**
+	 * Get the root object of the hierarchy.
+	 * 
+	 * @return
+	 */
+	public PathObject getRootObject() {
+		return rootObject;
+	}
+	
+	/**
+	 * Get the child objects of a PathObject, as they were when the snapshot was taken.
+	 * 
+	 * @param pathObject
+	 * @return
+	 */
+	public List<PathObject> getChildObjects(final PathObject pathObject) {
+		Node node = nodes.get(pathObject);
+		return node == null ? Collections.emptyList() : node.list;
+	}
+	
+	/**
+	 * Get all the objects in the snapshot, including the root object, in depth-first order.
+	 * 
+	 * @return
+	 */
+	public List<PathObject> getFlattenedObjectList() {
+		List<PathObject> list = objects;
+		if (list == null) {
+			list = new ArrayList<>(nObjects + 1);
+			addRecursively(rootObject, list);
+			list = Collections.unmodifiableList(list);
+			objects = list;
+		}
+		return list;
+	}
+	
+	private void addRecursively(final PathObject pathObject, final List<PathObject> list) {
+		list.add(pathObject);
+		Node node = nodes.get(pathObject);
+		if (node == null)
+			return;
+		for (PathObject child : node.children)
+			addRecursively(child, list);
+	}
+	
+	/**
+	 * Get the number of objects, excluding the root object.
+	 * 
+	 * @return
+	 */
+	public int nObjects() {
+		return nObjects;
+	}
+	
+	/**
+	 * Get all objects that are instances of a specified class.
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	public List<PathObject> getObjects(final Class<? extends PathObject> cls) {
+		List<PathObject> list = new ArrayList<>();
+		for (PathObject pathObject : getFlattenedObjectList()) {
+			if (cls == null || cls.isInstance(pathObject))
+				list.add(pathObject);
+		}
+		return list;
+	}
+	
+	/**
+	 * Get objects of the specified class (or subclasses) with ROIs having bounds that overlap a specified region.
+	 * This behaves in the same way as {@link PathObjectHierarchy#getObjectsForRegion(Class, ImageRegion, Collection)}.
+	 * 
+	 * @param cls the class of objects, or null if all objects with ROIs should be returned
+	 * @param region the region, or null if objects from all regions should be returned
+	 * @param pathObjects an (optional) existing collection to which objects should be added; if null, a set will be created
+	 * @return
+	 */
+	public Collection<PathObject> getObjectsForRegion(final Class<? extends PathObject> cls, final ImageRegion region, Collection<PathObject> pathObjects) {
+		if (pathObjects == null)
+			pathObjects = new HashSet<>();
+		for (Entry<Class<? extends PathObject>, TileIndex> entry : indexMap.entrySet()) {
+			if (cls == null || cls.isAssignableFrom(entry.getKey()))
+				entry.getValue().getObjectsForRegion(region, pathObjects);
+		}
+		return pathObjects;
+	}
+	
+	/**
+	 * Returns true if there are objects of the specified class (or subclasses) with ROIs having bounds that overlap the region.
+	 * 
+	 * @param cls
+	 * @param region
+	 * @return
+	 */
+	public boolean hasObjectsForRegion(final Class<? extends PathObject> cls, final ImageRegion region) {
+		for (Entry<Class<? extends PathObject>, TileIndex> entry : indexMap.entrySet()) {
+			if ((cls == null || cls.isAssignableFrom(entry.getKey())) && entry.getValue().hasObjectsForRegion(region))
+				return true;
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Frozen child list of an object, with the ROIs that the children had at the time.
+	 */
+	private static class Node {
+		
+		private final PathObject[] children;
+		private final ROI[] rois;
+		private final List<PathObject> list;
+		
+		Node(final PathObject[] children, final ROI[] rois) {
+			this.children = children;
+			this.rois = rois;
+			this.list = Collections.unmodifiableList(Arrays.asList(children));
+		}
+		
+	}
+	
+	
+	/**
+	 * Helper class to compare the live child lists of objects with those of the previous snapshot, 
+	 * recording only what has changed.
+	 * <p>
+	 * All changes are collected before anything is applied, so that objects moved between parents 
+	 * are handled correctly regardless of the order in which the parents are visited.
+	 */
+	private static class SnapshotUpdater {
+		
+		private final Map<PathObject, Node> previousNodes;
+		
+		// Structural changes
+		private final Set<PathObject> added = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<PathObject> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Map<PathObject, Node> changedNodes = new IdentityHashMap<>();
+		private final Set<PathObject> removedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		// Changes to the spatial index
+		private final Map<Class<? extends PathObject>, Map<PathObject, ROI>> indexAdded = new HashMap<>();
+		private final Map<Class<? extends PathObject>, Map<PathObject, ROI>> indexRemoved = new HashMap<>();
+		
+		SnapshotUpdater(final Map<PathObject, Node> previousNodes) {
+			this.previousNodes = previousNodes;
+		}
+		
+		boolean isEmpty() {
+			return changedNodes.isEmpty() && removedNodes.isEmpty() && indexAdded.isEmpty() && indexRemoved.isEmpty();
+		}
+		
+		/**
+		 * Compare the live children of a parent with those in the previous snapshot.
+		 * 
+		 * @param parent
+		 * @param indexed true if the children of the parent should be included in the spatial index
+		 * @param recursive true if the descendants of children that are unchanged should also be checked
+		 */
+		void diff(final PathObject parent, final boolean indexed, final boolean recursive) {
+			Node previous = previousNodes.get(parent);
+			PathObject[] oldChildren = previous == null ? new PathObject[0] : previous.children;
+			ROI[] oldROIs = previous == null ? new ROI[0] : previous.rois;
+			PathObject[] children = parent.hasChildren() ? parent.getChildObjects().toArray(new PathObject[0]) : new PathObject[0];
+			ROI[] rois = new ROI[children.length];
+			for (int i = 0; i < children.length; i++)
+				rois[i] = children[i].getROI();
+			boolean childrenIndexed = indexed && !(parent instanceof TemporaryObject);
+			
+			// Objects are usually appended, so skip any unchanged prefix without hashing
+			int nShared = Math.min(oldChildren.length, children.length);
+			int start = 0;
+			while (start < nShared && oldChildren[start] == children[start] && oldROIs[start] == rois[start])
+				start++;
+			boolean changed = start != oldChildren.length || start != children.length;
+			
+			if (changed) {
+				Map<PathObject, ROI> oldMap = new IdentityHashMap<>();
+				for (int i = start; i < oldChildren.length; i++)
+					oldMap.put(oldChildren[i], oldROIs[i]);
+				for (int i = start; i < children.length; i++) {
+					PathObject child = children[i];
+					if (!oldMap.containsKey(child)) {
+						capture(child, childrenIndexed);
+						continue;
+					}
+					ROI oldROI = oldMap.remove(child);
+					if (oldROI != rois[i]) {
+						if (oldROI != null)
+							removeFromIndex(child, oldROI);
+						if (childrenIndexed && rois[i] != null)
+							addToIndex(child, rois[i]);
+					}
+				}
+				for (Entry<PathObject, ROI> entry : oldMap.entrySet())
+					remove(entry.getKey(), entry.getValue());
+				changedNodes.put(parent, children.length == 0 ? null : new Node(children, rois));
+			}
+			
+			if (recursive) {
+				// Check the descendants of any children that were already part of the snapshot
+				for (PathObject child : children) {
+					if (!added.contains(child) && (child.hasChildren() || previousNodes.containsKey(child)))
+						diff(child, childrenIndexed, true);
+				}
+			}
+		}
+		
+		/**
+		 * Record that an object and all its descendants are new to the snapshot.
+		 */
+		void capture(final PathObject pathObject, final boolean indexed) {
+			if (!added.add(pathObject))
+				return;
+			ROI roi = pathObject.getROI();
+			if (indexed && roi != null)
+				addToIndex(pathObject, roi);
+			if (!pathObject.hasChildren())
+				return;
+			PathObject[] children = pathObject.getChildObjects().toArray(new PathObject[0]);
+			ROI[] rois = new ROI[children.length];
+			for (int i = 0; i < children.length; i++)
+				rois[i] = children[i].getROI();
+			changedNodes.put(pathObject, new Node(children, rois));
+			boolean childrenIndexed = indexed && !(pathObject instanceof TemporaryObject);
+			for (PathObject child : children)
+				capture(child, childrenIndexed);
+		}
+		
+		/**
+		 * Record that an object and all its descendants (in the previous snapshot) are no longer in the same place.
+		 */
+		void remove(final PathObject pathObject, final ROI roi) {
+			if (!removed.add(pathObject))
+				return;
+			if (roi != null)
+				removeFromIndex(pathObject, roi);
+			Node node = previousNodes.get(pathObject);
+			if (node == null)
+				return;
+			removedNodes.add(pathObject);
+			for (int i = 0; i < node.children.length; i++)
+				remove(node.children[i], node.rois[i]);
+		}
+		
+		private void addToIndex(final PathObject pathObject, final ROI roi) {
+			Map<PathObject, ROI> map = indexAdded.get(pathObject.getClass());
+			if (map == null) {
+				map = new IdentityHashMap<>();
+				indexAdded.put(pathObject.getClass(), map);
+			}
+			map.put(pathObject, roi);
+		}
+		
+		private void removeFromIndex(final PathObject pathObject, final ROI roi) {
+			Map<PathObject, ROI> map = indexRemoved.get(pathObject.getClass());
+			if (map == null) {
+				map = new IdentityHashMap<>();
+				indexRemoved.put(pathObject.getClass(), map);
+			}
+			map.put(pathObject, roi);
+		}
+		
+		HierarchySnapshot createSnapshot(final long version, final long structureVersion, final PathObject rootObject, final int previousCount, final Map<Class<? extends PathObject>, TileIndex> previousIndexMap) {
+			// Apply removals first, since moved objects will appear as both removed & added
+			Map<PathObject, Node> nodes = new IdentityHashMap<>(previousNodes);
+			for (PathObject pathObject : removedNodes)
+				nodes.remove(pathObject);
+			for (Entry<PathObject, Node> entry : changedNodes.entrySet()) {
+				if (entry.getValue() == null)
+					nodes.remove(entry.getKey());
+				else
+					nodes.put(entry.getKey(), entry.getValue());
+			}
+			
+			Map<Class<? extends PathObject>, TileIndex> indexMap = new HashMap<>(previousIndexMap);
+			Set<Class<? extends PathObject>> classes = new HashSet<>(indexAdded.keySet());
+			classes.addAll(indexRemoved.keySet());
+			for (Class<? extends PathObject> cls : classes) {
+				TileIndex index = indexMap.get(cls);
+				if (index == null)
+					index = TileIndex.EMPTY;
+				Map<PathObject, ROI> toRemove = indexRemoved.get(cls);
+				Map<PathObject, ROI> toAdd = indexAdded.get(cls);
+				index = index.update(
+						toRemove == null ? Collections.emptyMap() : toRemove,
+						toAdd == null ? Collections.emptyMap() : toAdd);
+				if (index.isEmpty())
+					indexMap.remove(cls);
+				else
+					indexMap.put(cls, index);
+			}
+			
+			int count = previousCount + added.size() - removed.size();
+			return new HierarchySnapshot(version, structureVersion, rootObject, count, nodes, indexMap);
+		}
+		
+	}
+	
+	
+	/**
+	 * Immutable spatial index for objects of a single class.
+	 * Objects are stored in arrays (along with their ROIs) for every tile that their ROI bounds intersect.
+	 * <p>
+	 * Updating creates a new index that shares all unchanged tiles with the original.
+	 */
+	private static class TileIndex {
+		
+		private static final TileIndex EMPTY = new TileIndex(Collections.emptyMap());
+		
+		private final Map<Long, Tile> tiles;
+		
+		private TileIndex(final Map<Long, Tile> tiles) {
+			this.tiles = tiles;
+		}
+		
+		boolean isEmpty() {
+			return tiles.isEmpty();
+		}
+		
+		TileIndex update(final Map<PathObject, ROI> toRemove, final Map<PathObject, ROI> toAdd) {
+			Map<Long, Set<PathObject>> removedByTile = new HashMap<>();
+			for (Entry<PathObject, ROI> entry : toRemove.entrySet()) {
+				for (Long key : getKeys(entry.getValue())) {
+					Set<PathObject> set = removedByTile.get(key);
+					if (set == null) {
+						set = Collections.newSetFromMap(new IdentityHashMap<>());
+						removedByTile.put(key, set);
+					}
+					set.add(entry.getKey());
+				}
+			}
+			Map<Long, List<PathObject>> addedByTile = new HashMap<>();
+			for (PathObject pathObject : toAdd.keySet()) {
+				for (Long key : getKeys(toAdd.get(pathObject))) {
+					List<PathObject> list = addedByTile.get(key);
+					if (list == null) {
+						list = new ArrayList<>();
+						addedByTile.put(key, list);
+					}
+					list.add(pathObject);
+				}
+			}
+			
+			Set<Long> keys = new HashSet<>(removedByTile.keySet());
+			keys.addAll(addedByTile.keySet());
+			Map<Long, Tile> newTiles = new HashMap<>(tiles);
+			for (Long key : keys) {
+				Tile tile = tiles.get(key);
+				Set<PathObject> removed = removedByTile.get(key);
+				List<PathObject> added = addedByTile.get(key);
+				List<PathObject> objects = new ArrayList<>();
+				List<ROI> rois = new ArrayList<>();
+				if (tile != null) {
+					for (int i = 0; i < tile.objects.length; i++) {
+						PathObject pathObject = tile.objects[i];
+						// Anything being added is skipped here, to avoid duplicates
+						if ((removed != null && removed.contains(pathObject)) || toAdd.containsKey(pathObject))
+							continue;
+						objects.add(pathObject);
+						rois.add(tile.rois[i]);
+					}
+				}
+				if (added != null) {
+					for (PathObject pathObject : added) {
+						objects.add(pathObject);
+						rois.add(toAdd.get(pathObject));
+					}
+				}
+				if (objects.isEmpty())
+					newTiles.remove(key);
+				else
+					newTiles.put(key, new Tile(objects.toArray(new PathObject[0]), rois.toArray(new ROI[0])));
+			}
+			return new TileIndex(newTiles);
+		}
+		
+		private static List<Long> getKeys(final ROI roi) {
+			int tx1 = (int)(roi.getBoundsX() / TILE_SIZE);
+			int ty1 = (int)(roi.getBoundsY() / TILE_SIZE);
+			int tx2 = (int)((roi.getBoundsX() + roi.getBoundsWidth()) / TILE_SIZE);
+			int ty2 = (int)((roi.getBoundsY() + roi.getBoundsHeight()) / TILE_SIZE);
+			List<Long> keys = new ArrayList<>((tx2 - tx1 + 1) * (ty2 - ty1 + 1));
+			for (int y = ty1; y <= ty2; y++) {
+				for (int x = tx1; x <= tx2; x++)
+					keys.add(getKey(x, y, roi.getZ(), roi.getT()));
+			}
+			return keys;
+		}
+		
+		private static Long getKey(final int tx, final int ty, final int z, final int t) {
+			return (((long)t & 0xFFF) << 52) | (((long)z & 0xFFF) << 40) | (((long)ty & 0xFFFFF) << 20) | ((long)tx & 0xFFFFF);
+		}
+		
+		void getObjectsForRegion(final ImageRegion region, final Collection<PathObject> pathObjects) {
+			if (region == null) {
+				// Objects may be in more than one tile
+				Set<PathObject> set = Collections.newSetFromMap(new IdentityHashMap<>());
+				for (Tile tile : tiles.values()) {
+					for (PathObject pathObject : tile.objects) {
+						if (set.add(pathObject))
+							pathObjects.add(pathObject);
+					}
+				}
+				return;
+			}
+			int tx1 = region.getX() / TILE_SIZE;
+			int ty1 = region.getY() / TILE_SIZE;
+			int tx2 = (region.getX() + region.getWidth()) / TILE_SIZE;
+			int ty2 = (region.getY() + region.getHeight()) / TILE_SIZE;
+			for (int y = ty1; y <= ty2; y++) {
+				for (int x = tx1; x <= tx2; x++) {
+					Tile tile = tiles.get(getKey(x, y, region.getZ(), region.getT()));
+					if (tile == null)
+						continue;
+					// Objects in interior tiles must intersect; otherwise check the bounds
+					boolean interior = x > tx1 && x < tx2 && y > ty1 && y < ty2;
+					for (int i = 0; i < tile.objects.length; i++) {
+						if (interior || intersects(region, tile.rois[i]))
+							pathObjects.add(tile.objects[i]);
+					}
+				}
+			}
+		}
+		
+		boolean hasObjectsForRegion(final ImageRegion region) {
+			if (region == null)
+				return !tiles.isEmpty();
+			int tx1 = region.getX() / TILE_SIZE;
+			int ty1 = region.getY() / TILE_SIZE;
+			int tx2 = (region.getX() + region.getWidth()) / TILE_SIZE;
+			int ty2 = (region.getY() + region.getHeight()) / TILE_SIZE;
+			for (int y = ty1; y <= ty2; y++) {
+				for (int x = tx1; x <= tx2; x++) {
+					Tile tile = tiles.get(getKey(x, y, region.getZ(), region.getT()));
+					if (tile == null)
+						continue;
+					for (ROI roi : tile.rois) {
+						if (intersects(region, roi))
+							return true;
+					}
+				}
+			}
+			return false;
+		}
+		
+		private static boolean intersects(final ImageRegion region, final ROI roi) {
+			return roi instanceof PointsROI || region.intersects(roi.getBoundsX(), roi.getBoundsY(), Math.max(roi.getBoundsWidth(), 1), Math.max(roi.getBoundsHeight(), 1));
+		}
+		
+	}
+	
+	
+	private static class Tile {
+		
+		private final PathObject[] objects;
+		private final ROI[] rois;
+		
+		Tile(final PathObject[] objects, final ROI[] rois) {
+			this.objects = objects;
+			this.rois = rois;
+		}
+		
+	}
+
+}
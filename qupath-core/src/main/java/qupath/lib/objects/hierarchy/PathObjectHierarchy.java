@@ -28,11 +28,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +49,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathRootObject;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.helpers.PathObjectTools;
+import qupath.lib.objects.hierarchy.events.CoalescingHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectSelectionModel;
@@ -107,6 +112,13 @@ public class PathObjectHierarchy implements Serializable {
 
 	// Cache enabling faster access of objects according to location
 	transient private PathObjectTileCache tileCache = new PathObjectTileCache(this, 512);
+	
+	// Versions are only modified while holding the lock, but may be read without it
+	transient private volatile long version = 0;
+	transient private volatile long structureVersion = 0;
+	transient private volatile HierarchySnapshot snapshot;
+	// Parents from which objects have just been removed, if not otherwise known from the event (used to update the snapshot)
+	transient private Collection<PathObject> removedFromParents;
 
 	
 	public PathObjectHierarchy() {
@@ -127,8 +139,37 @@ public class PathObjectHierarchy implements Serializable {
 		listeners.add(listener);
 	}
 	
+	/**
+	 * Add a listener that receives events through an executor, rather than directly on the thread that modified the hierarchy.
+	 * <p>
+	 * Events that accumulate before the executor runs are coalesced where possible (see {@link CoalescingHierarchyListener}), 
+	 * and the listener is called without holding the hierarchy lock.  
+	 * This is suitable for listeners that only need to update a display, e.g. using {@code Platform::runLater} as the executor.
+	 * 
+	 * @param listener
+	 * @param executor
+	 */
+	public void addPathObjectListener(PathObjectHierarchyListener listener, Executor executor) {
+		listeners.add(new CoalescingHierarchyListener(listener, executor));
+	}
+	
+	/**
+	 * Remove a listener, whether it was added directly or with an executor.
+	 * 
+	 * @param listener
+	 */
 	public void removePathObjectListener(PathObjectHierarchyListener listener) {
-		listeners.remove(listener);
+		synchronized (listeners) {
+			if (listeners.remove(listener))
+				return;
+			for (PathObjectHierarchyListener temp : listeners) {
+				if (temp instanceof CoalescingHierarchyListener && ((CoalescingHierarchyListener)temp).getListener() == listener) {
+					((CoalescingHierarchyListener)temp).close();
+					listeners.remove(temp);
+					return;
+				}
+			}
+		}
 	}
 	
 	public PathObject getRootObject() {
@@ -204,16 +245,22 @@ public class PathObjectHierarchy implements Serializable {
 		if (fireEvent) {
 			if (keepChildren)
 				fireObjectRemovedEvent(this, pathObject, pathObjectParent);
-			else
+			else {
+				removedFromParents = Collections.singleton(pathObjectParent);
 				fireHierarchyChangedEvent(this, pathObjectParent);
+			}
 		}
 		
 		return true;
 	}
 	
 	/**
-	 * Remove a collection of objects, firing a single 'hierarchy changed' event afterwards to notify listeners if anything happened
-	 * (i.e. if any of the objects really were found within the hierarchy) & removed.
+	 * Remove a collection of objects, firing a single event afterwards to notify listeners if anything happened
+	 * (i.e. if any of the objects really were found within the hierarchy) &amp; removed.
+	 * <p>
+	 * Objects are detached from their parents in bulk, and the event lists all objects that have been removed 
+	 * (including descendants, if these are not kept) so that listeners can update themselves without needing 
+	 * to rebuild everything.
 	 * 
 	 * @param pathObjects
 	 * @param keepChildren
@@ -223,15 +270,22 @@ public class PathObjectHierarchy implements Serializable {
 		if (pathObjects.isEmpty())
 			return;
 		
-		List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
-		pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
+		Set<PathObject> toRemove = pathObjects instanceof Set ? (Set<PathObject>)pathObjects : new HashSet<>(pathObjects);
 		
-		// Determine the parents for each object
-		Map<PathObject, List<PathObject>> map = new HashMap<>();
-		for (PathObject pathObject : pathObjectSet) {
+		// Group objects by parent, handling the deepest parents first - 
+		// this ensures that kept children are passed up through any ancestors that are also being removed
+		Map<PathObject, Integer> levels = new HashMap<>();
+		for (PathObject pathObject : toRemove) {
+			if (pathObject.getParent() != null)
+				levels.put(pathObject, pathObject.getLevel());
+		}
+		if (levels.isEmpty())
+			return;
+		List<PathObject> pathObjectList = new ArrayList<>(levels.keySet());
+		pathObjectList.sort((o1, o2) -> Integer.compare(levels.get(o2), levels.get(o1)));
+		Map<PathObject, List<PathObject>> map = new LinkedHashMap<>();
+		for (PathObject pathObject : pathObjectList) {
 			PathObject parent = pathObject.getParent();
-			if (parent == null)
-				continue;
 			List<PathObject> list = map.get(parent);
 			if (list == null) {
 				list = new ArrayList<>();
@@ -240,26 +294,49 @@ public class PathObjectHierarchy implements Serializable {
 			list.add(pathObject);
 		}
 		
-		if (map.isEmpty())
-			return;
+		// Record everything that is removed for the event, including descendants if they aren't kept
+		List<PathObject> removed = new ArrayList<>();
+		if (keepChildren)
+			removed.addAll(pathObjectList);
+		else {
+			for (PathObject pathObject : pathObjectList) {
+				// Descendants that were also requested for removal will be found through their ancestors
+				if (!hasAncestorIn(pathObject, toRemove))
+					addPathObjectsRecursively(Collections.singleton(pathObject), removed, null);
+			}
+		}
 		
-		// Loop through and remove objects
+		// Loop through and remove objects, passing up any children that should be kept in a single call per parent
 		for (Entry<PathObject, List<PathObject>> entry : map.entrySet()) {
 			PathObject parent = entry.getKey();
 			List<PathObject> children = entry.getValue();
 			parent.removePathObjects(children);
 			if (keepChildren) {
+				List<PathObject> keptChildren = new ArrayList<>();
 				for (PathObject child : children) {
-					if (child.hasChildren()) {
-						List<PathObject> newChildList = new ArrayList<>(child.getChildObjects());
-						newChildList.removeAll(pathObjects);
-						parent.addPathObjects(newChildList);
+					for (PathObject grandchild : child.getChildObjects()) {
+						if (!toRemove.contains(grandchild))
+							keptChildren.add(grandchild);
 					}
 				}
+				parent.addPathObjects(keptChildren);
 			}
 		}
-		fireHierarchyChangedEvent(this);
 		
+		PathObject parentObject = map.size() == 1 ? map.keySet().iterator().next() : getRootObject();
+		removedFromParents = map.keySet();
+		fireObjectsRemovedEvent(this, removed, parentObject);
+	}
+	
+	
+	private static boolean hasAncestorIn(PathObject pathObject, Set<PathObject> pathObjects) {
+		PathObject parent = pathObject.getParent();
+		while (parent != null) {
+			if (pathObjects.contains(parent))
+				return true;
+			parent = parent.getParent();
+		}
+		return false;
 	}
 	
 	
@@ -507,7 +584,7 @@ public class PathObjectHierarchy implements Serializable {
 	}
 	
 	public synchronized boolean addPathObjects(Collection<PathObject> pathObjects, boolean avoidDuplicates) {
-		boolean changes = false;
+		List<PathObject> added = new ArrayList<>();
 		int n = pathObjects.size();
 		int counter = 0;
 		for (PathObject pathObject : pathObjects) {
@@ -516,13 +593,15 @@ public class PathObjectHierarchy implements Serializable {
 					logger.info("Adding {} of {}", counter, n);
 			} else if (n > 1000 && counter % 100 == 0)
 				logger.info("Adding {} of {}", counter, n);
-			changes = addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, false) || changes;
+			if (addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, false))
+				added.add(pathObject);
 			counter++;
 		}
-		if (changes)
-			fireHierarchyChangedEvent(getRootObject());
-//			fireChangeEvent(getRootObject());
-		return changes;
+		if (added.isEmpty())
+			return false;
+		// Fire a single event, listing the objects so that listeners may update incrementally
+		fireObjectsAddedEvent(this, added);
+		return true;
 	}
 	
 	public synchronized void clearAll() {
@@ -649,6 +728,16 @@ public class PathObjectHierarchy implements Serializable {
 		fireEvent(event);
 	}
 
+	protected synchronized void fireObjectsRemovedEvent(Object source, Collection<PathObject> pathObjects, PathObject previousParent) {
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectsRemovedEvent(source, this, previousParent, pathObjects);
+		fireEvent(event);
+	}
+
+	protected synchronized void fireObjectsAddedEvent(Object source, Collection<PathObject> pathObjects) {
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectsAddedEvent(source, this, getRootObject(), pathObjects);
+		fireEvent(event);
+	}
+
 	protected synchronized void fireObjectAddedEvent(Object source, PathObject pathObject) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectAddedEvent(source, this, pathObject.getParent(), pathObject);
 		fireEvent(event);
@@ -691,7 +780,85 @@ public class PathObjectHierarchy implements Serializable {
 	}
 	
 	
+	/**
+	 * Get an immutable snapshot of the current hierarchy structure.
+	 * <p>
+	 * The first snapshot is created when this method is first called; after that, the hierarchy updates 
+	 * its snapshot incrementally whenever an event is fired, so this method returns immediately without 
+	 * waiting for any lock.  Once returned, a snapshot can be queried without holding any lock on the hierarchy; 
+	 * this makes it suitable for readers (e.g. painting or export) that should not contend with plugins 
+	 * modifying the hierarchy.
+	 * 
+	 * @return
+	 */
+	public HierarchySnapshot getSnapshot() {
+		HierarchySnapshot current = snapshot;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			if (snapshot == null)
+				snapshot = HierarchySnapshot.createSnapshot(version, structureVersion, getRootObject());
+			return snapshot;
+		}
+	}
+	
+	/**
+	 * Update the snapshot (if one has been requested) to reflect the changes described by an event.
+	 * Only the child lists of the objects affected by the event are examined, except for generic 
+	 * structure changes - where everything below the base object must be checked.
+	 * 
+	 * @param event
+	 */
+	private synchronized void updateSnapshot(PathObjectHierarchyEvent event) {
+		HierarchySnapshot current = snapshot;
+		Collection<PathObject> parents = removedFromParents;
+		removedFromParents = null;
+		if (current == null)
+			return;
+		if (current.getRootObject() != getRootObject()) {
+			snapshot = HierarchySnapshot.createSnapshot(version, structureVersion, getRootObject());
+			return;
+		}
+		boolean recursive = false;
+		switch (event.getEventType()) {
+		case ADDED:
+			parents = new ArrayList<>();
+			for (PathObject pathObject : event.getChangedObjects())
+				parents.add(pathObject.getParent());
+			break;
+		case REMOVED:
+			if (parents == null)
+				parents = Collections.singleton(event.getStructureChangeBase());
+			break;
+		case OTHER_STRUCTURE_CHANGE:
+			// Unless we know exactly what was removed, anything below the base may have changed
+			if (parents == null) {
+				PathObject base = event.getStructureChangeBase();
+				parents = Collections.singleton(base == null ? getRootObject() : base);
+				recursive = true;
+			}
+			break;
+		case CHANGE_OTHER:
+			// ROIs may have changed, which are stored with the parent
+			parents = new ArrayList<>();
+			for (PathObject pathObject : event.getChangedObjects())
+				parents.add(pathObject.getParent());
+			break;
+		default:
+			return;
+		}
+		snapshot = current.update(version, structureVersion, parents, recursive);
+	}
+	
+	
 	void fireEvent(PathObjectHierarchyEvent event) {
+		// Update versions & the snapshot so that readers will see the changes
+		if (event.isStructureChangeEvent()) {
+			structureVersion++;
+			version++;
+		} else if (event.getEventType() == HierarchyEventType.CHANGE_OTHER)
+			version++;
+		updateSnapshot(event);
 		if (listeners != null) {
 			for (PathObjectHierarchyListener listener : listeners.toArray(new PathObjectHierarchyListener[0]))
 				listener.hierarchyChanged(event);
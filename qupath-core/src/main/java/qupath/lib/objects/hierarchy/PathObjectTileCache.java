@@ -23,10 +23,13 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -149,6 +152,41 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	
+	/**
+	 * Remove multiple PathObjects from the cache, not including their children.
+	 * <p>
+	 * Any class of object for which nothing remains is dropped entirely.
+	 * <p>
+	 * This doesn't acquire the lock!
+	 * 
+	 * @param pathObjects
+	 */
+	private void removeFromCache(Collection<PathObject> pathObjects) {
+		if (!isActive())
+			return;
+		
+		// Group by class, so that each tile map can handle its removals together
+		Map<Class<? extends PathObject>, List<PathObject>> mapRemove = new HashMap<>();
+		for (PathObject pathObject : pathObjects) {
+			Class<? extends PathObject> cls = pathObject.getClass();
+			if (!map.containsKey(cls))
+				continue;
+			List<PathObject> list = mapRemove.get(cls);
+			if (list == null) {
+				list = new ArrayList<>();
+				mapRemove.put(cls, list);
+			}
+			list.add(pathObject);
+		}
+		for (Entry<Class<? extends PathObject>, List<PathObject>> entry : mapRemove.entrySet()) {
+			PathObjectTileMap mapObjects = map.get(entry.getKey());
+			mapObjects.removeAll(entry.getValue());
+			if (mapObjects.isEmpty())
+				map.remove(entry.getKey());
+		}
+	}
+	
+	
 	/**
 	 * This doesn't acquire the lock!
 	 * 
@@ -280,10 +318,17 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 //		logger.info("Type: " + event.getEventType());
 		w.lock();
 		try {
-			if (event.getEventType() == HierarchyEventType.ADDED)
-				addToCache(event.getChangedObjects().get(0), false);
-			else if (event.getEventType() == HierarchyEventType.REMOVED)
-				removeFromCache(event.getChangedObjects().get(0), false);
+			if (event.getEventType() == HierarchyEventType.ADDED) {
+				// Include children, since existing objects may have been added along with their descendants
+				for (PathObject pathObject : event.getChangedObjects())
+					addToCache(pathObject, true);
+			}
+			else if (event.getEventType() == HierarchyEventType.REMOVED) {
+				if (event.getChangedObjects().size() == 1)
+					removeFromCache(event.getChangedObjects().get(0), false);
+				else
+					removeFromCache(event.getChangedObjects());
+			}
 			else if (event.getEventType() == HierarchyEventType.OTHER_STRUCTURE_CHANGE || event.getEventType() == HierarchyEventType.CHANGE_OTHER) {
 				if (event.getChangedObjects().size() == 1 && !event.getChangedObjects().get(0).isRootObject()) {
 					removeFromCache(event.getChangedObjects().get(0), false);
@@ -360,6 +405,72 @@ class PathObjectTileMap {
 		// TODO: Consider optimizing this if ROI editing is disabled
 		for (Collection<PathObject> list : map.values())
 			list.remove(pathObject);
+	}
+	
+	/**
+	 * Remove multiple objects from the map.
+	 * <p>
+	 * Each object is first sought in the tiles expected from its ROI; only objects not found there 
+	 * (e.g. because the ROI has been edited) require every tile to be checked.  Tiles that become empty 
+	 * are dropped.
+	 * 
+	 * @param pathObjects
+	 */
+	public void removeAll(Collection<PathObject> pathObjects) {
+		Set<PathObject> notFound = new HashSet<>();
+		for (PathObject pathObject : pathObjects) {
+			if (!removeFromExpectedTiles(pathObject))
+				notFound.add(pathObject);
+		}
+		Iterator<Set<PathObject>> iter = map.values().iterator();
+		while (iter.hasNext()) {
+			Set<PathObject> set = iter.next();
+			if (!notFound.isEmpty())
+				set.removeAll(notFound);
+			if (set.isEmpty())
+				iter.remove();
+		}
+	}
+	
+	/**
+	 * Returns true if the map contains no objects.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() {
+		for (Set<PathObject> set : map.values()) {
+			if (!set.isEmpty())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove an object from the tiles that its ROI currently overlaps.
+	 * 
+	 * @param pathObject
+	 * @return true if the object was found in all of these tiles, false otherwise
+	 */
+	private boolean removeFromExpectedTiles(PathObject pathObject) {
+		ROI pathROI = pathObject.getROI();
+		// Objects without ROIs are never added
+		if (pathROI == null)
+			return true;
+		int tx1 = (int)(pathROI.getBoundsX() / tileSize);
+		int ty1 = (int)(pathROI.getBoundsY() / tileSize);
+		int tx2 = (int)((pathROI.getBoundsX() + pathROI.getBoundsWidth()) / tileSize);
+		int ty2 = (int)((pathROI.getBoundsY() + pathROI.getBoundsHeight()) / tileSize);
+		int z = pathROI.getZ();
+		int t = pathROI.getT();
+		boolean foundAll = true;
+		for (int y = ty1; y <= ty2; y++) {
+			for (int x = tx1; x <= tx2; x++) {
+				Set<PathObject> set = map.get(getKey(x, y, z, t));
+				if (set == null || !set.remove(pathObject))
+					foundAll = false;
+			}
+		}
+		return foundAll;
 		
 //		// Compute the tiles & add as required
 //		PathROI pathROI = pathObject.getROI();
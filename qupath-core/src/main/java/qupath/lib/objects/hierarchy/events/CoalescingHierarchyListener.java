@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+
+/**
+ * A {@link PathObjectHierarchyListener} that passes events on to another listener through an {@link Executor}.
+ * <p>
+ * Events received before the executor gets around to delivering them are coalesced, so that a burst of changes 
+ * (e.g. from a plugin adding results tile by tile) results in as few calls to the listener as possible.
+ * Adjacent events are merged whenever they have the same source and are compatible:
+ * <ul>
+ *   <li>objects added or removed are combined into a single event listing all the objects</li>
+ *   <li>changes of the same type (e.g. classifications) are combined into a single event listing all changed objects</li>
+ *   <li>different kinds of structural change are combined into a single structure change event</li>
+ * </ul>
+ * The order of events that cannot be merged is preserved.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class CoalescingHierarchyListener implements PathObjectHierarchyListener {
+	
+	final private static Logger logger = LoggerFactory.getLogger(CoalescingHierarchyListener.class);
+	
+	private final PathObjectHierarchyListener listener;
+	private final Executor executor;
+	
+	private List<PathObjectHierarchyEvent> pending = new ArrayList<>();
+	private boolean flushScheduled = false;
+	private volatile boolean closed = false;
+	
+	/**
+	 * Create a listener that delivers coalesced events to another listener using the specified executor.
+	 * 
+	 * @param listener the listener that should receive the events
+	 * @param executor the executor used to deliver events, e.g. {@code Platform::runLater}
+	 */
+	public CoalescingHierarchyListener(final PathObjectHierarchyListener listener, final Executor executor) {
+		this.listener = listener;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Get the listener to which events are delivered.
+	 * 
+	 * @return
+	 */
+	public PathObjectHierarchyListener getListener() {
+		return listener;
+	}
+	
+	/**
+	 * Stop delivering events.  Any pending events are discarded.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			pending.clear();
+		}
+	}
+
+	@Override
+	public void hierarchyChanged(final PathObjectHierarchyEvent event) {
+		if (closed)
+			return;
+		synchronized (this) {
+			pending.add(event);
+			if (flushScheduled)
+				return;
+			flushScheduled = true;
+		}
+		executor.execute(this::flush);
+	}
+	
+	private void flush() {
+		List<PathObjectHierarchyEvent> events;
+		synchronized (this) {
+			events = pending;
+			pending = new ArrayList<>();
+			flushScheduled = false;
+		}
+		if (closed || events.isEmpty())
+			return;
+		List<PathObjectHierarchyEvent> coalesced = coalesce(events);
+		if (coalesced.size() < events.size())
+			logger.trace("Coalesced {} hierarchy events into {}", events.size(), coalesced.size());
+		for (PathObjectHierarchyEvent event : coalesced) {
+			if (closed)
+				return;
+			listener.hierarchyChanged(event);
+		}
+	}
+	
+	/**
+	 * Coalesce a list of events, merging adjacent compatible events.
+	 * 
+	 * @param events
+	 * @return
+	 */
+	public static List<PathObjectHierarchyEvent> coalesce(final List<PathObjectHierarchyEvent> events) {
+		if (events.size() <= 1)
+			return events;
+		List<PathObjectHierarchyEvent> coalesced = new ArrayList<>();
+		PathObjectHierarchyEvent current = null;
+		for (PathObjectHierarchyEvent event : events) {
+			if (current == null) {
+				current = event;
+				continue;
+			}
+			PathObjectHierarchyEvent merged = merge(current, event);
+			if (merged == null) {
+				coalesced.add(current);
+				current = event;
+			} else
+				current = merged;
+		}
+		coalesced.add(current);
+		return coalesced;
+	}
+	
+	/**
+	 * Merge two events, or return null if they cannot be merged.
+	 */
+	private static PathObjectHierarchyEvent merge(final PathObjectHierarchyEvent first, final PathObjectHierarchyEvent second) {
+		if (first.getSource() != second.getSource() || first.getHierarchy() != second.getHierarchy())
+			return null;
+		
+		if (first.isStructureChangeEvent() && second.isStructureChangeEvent()) {
+			PathObject parent = first.getStructureChangeBase();
+			if (parent != second.getStructureChangeBase())
+				parent = first.getHierarchy().getRootObject();
+			if (first.getEventType() == second.getEventType() && first.isAddedOrRemovedEvent()) {
+				return new PathObjectHierarchyEvent(second.getSource(), second.getHierarchy(), second.getEventType(), parent, 
+						union(first.getChangedObjects(), second.getChangedObjects()), false);
+			}
+			return new PathObjectHierarchyEvent(second.getSource(), second.getHierarchy(), HierarchyEventType.OTHER_STRUCTURE_CHANGE, parent,
+					Collections.emptyList(), false);
+		}
+		
+		if (!first.isStructureChangeEvent() && first.getEventType() == second.getEventType()) {
+			return new PathObjectHierarchyEvent(second.getSource(), second.getHierarchy(), second.getEventType(), null,
+					union(first.getChangedObjects(), second.getChangedObjects()), second.isChanging());
+		}
+		
+		return null;
+	}
+	
+	private static List<PathObject> union(final List<PathObject> first, final List<PathObject> second) {
+		Set<PathObject> set = new LinkedHashSet<>(first);
+		set.addAll(second);
+		return new ArrayList<>(set);
+	}
+
+}
@@ -40,8 +40,8 @@ import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 public class PathObjectHierarchyEvent {
 	
 	public static enum HierarchyEventType {
-		ADDED, // An object has been added
-		REMOVED, // An object has been removed
+		ADDED, // One or more objects have been added
+		REMOVED, // One or more objects have been removed
 		OTHER_STRUCTURE_CHANGE, // A more complex structural change was made
 		CHANGE_CLASSIFICATION, // A change was made to one or more object classifications
 		CHANGE_MEASUREMENTS, // A change was made to one or more object measurements
@@ -79,10 +79,39 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.ADDED, parentObject, Collections.singletonList(pathObjectAdded), false);				
 	}
 
+	/**
+	 * Create an event to indicate that multiple objects have been added.
+	 * 
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject the parent of the added objects, or the root object if they have different parents
+	 * @param pathObjectsAdded
+	 * @return
+	 */
+	public static PathObjectHierarchyEvent createObjectsAddedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, Collection<? extends PathObject> pathObjectsAdded) {
+		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.ADDED, parentObject, new ArrayList<>(pathObjectsAdded), false);				
+	}
+
 	public static PathObjectHierarchyEvent createObjectRemovedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, PathObject pathObjectRemoved) {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.REMOVED, parentObject, Collections.singletonList(pathObjectRemoved), false);		
 	}
 	
+	/**
+	 * Create an event to indicate that multiple objects have been removed.
+	 * <p>
+	 * The changed objects should include all objects that are no longer in the hierarchy, 
+	 * including any descendants that were removed along with them.
+	 * 
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject the parent of the removed objects, or the root object if they had different parents
+	 * @param pathObjectsRemoved
+	 * @return
+	 */
+	public static PathObjectHierarchyEvent createObjectsRemovedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, Collection<? extends PathObject> pathObjectsRemoved) {
+		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.REMOVED, parentObject, new ArrayList<>(pathObjectsRemoved), false);		
+	}
+	
 	public static PathObjectHierarchyEvent createObjectsChangedEvent(Object source, PathObjectHierarchy hierarchy, HierarchyEventType type, Collection<? extends PathObject> pathObjects, boolean isChanging) {
 		return new PathObjectHierarchyEvent(source, hierarchy, type, null, new ArrayList<>(pathObjects), isChanging);
 	}
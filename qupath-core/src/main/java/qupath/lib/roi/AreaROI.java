@@ -70,6 +70,9 @@ public class AreaROI extends AbstractPathAreaROI implements TranslatableROI, Ser
 	// By caching the bounds this can be speeded up
 	transient ClosedShapeStatistics stats = null;
 	
+	// Cached representation for fast containment tests, only created for complex areas
+	transient private volatile PreparedArea preparedArea = null;
+	
 	AreaROI(List<? extends Vertices> vertices) {
 		this(vertices, -1, 0, 0);
 	}
@@ -169,6 +172,9 @@ public class AreaROI extends AbstractPathAreaROI implements TranslatableROI, Ser
 
 	@Override
 	public boolean contains(double x, double y) {
+		PreparedArea prepared = getPreparedArea();
+		if (prepared != null)
+			return prepared.contains(x, y);
 		// I'm not entirely sure this is right...
 		// But the idea is that the vertices ought to give 'positive' and 'negative' areas - and ought to be non-empty and non-overlapping (if using java.awt.Area)
 		// So if we are inside a 'hole' we can get one positive value and one negative... adding to zero
@@ -186,6 +192,26 @@ public class AreaROI extends AbstractPathAreaROI implements TranslatableROI, Ser
 		return sum != 0;
 	}
 
+	/**
+	 * Get a prepared representation of this area for fast containment tests, 
+	 * or null if the area is too simple for this to be worthwhile.
+	 * 
+	 * @return
+	 */
+	PreparedArea getPreparedArea() {
+		PreparedArea prepared = preparedArea;
+		if (prepared != null)
+			return prepared;
+		int n = 0;
+		for (Vertices v : vertices)
+			n += v.size();
+		if (n < PreparedArea.MIN_VERTICES)
+			return null;
+		prepared = new PreparedArea(vertices);
+		preparedArea = prepared;
+		return prepared;
+	}
+
 	@Override
 	public ROI duplicate() {
 		return new AreaROI(vertices, getC(), getZ(), getT());
@@ -29,10 +29,12 @@ import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import qupath.lib.rois.vertices.Vertices;
+import qupath.lib.rois.vertices.VerticesIterator;
 
 /**
  * Calculate several shape measurements based on supplied lists of vertices.
@@ -113,6 +115,9 @@ public class ClosedShapeStatistics implements Serializable {
 	public ClosedShapeStatistics(final List<? extends Vertices> verticesList, final double pixelWidth, final double pixelHeight) {
 		if (verticesList.isEmpty())
 			return;
+		// Most ROIs are simple polygons, which can be measured directly from the coordinate arrays
+		if (verticesList.size() == 1 && calculateSimplePolygonMeasurements(verticesList.get(0), pixelWidth, pixelHeight))
+			return;
 		Path2D path = new Path2D.Float();
 		for (Vertices vertices : verticesList) {
 			if (vertices.isEmpty())
@@ -137,6 +142,143 @@ public class ClosedShapeStatistics implements Serializable {
 		calculateShapeMeasurements(shape, pixelWidth, pixelHeight);
 	}
 	
+	/**
+	 * Calculate measurements directly from vertices, without creating a Shape, if the vertices represent a simple polygon.
+	 * <p>
+	 * Self-intersecting or degenerate polygons are rejected, since these need to be normalized (via an Area) 
+	 * to give consistent results.
+	 * 
+	 * @param vertices
+	 * @param pixelWidth
+	 * @param pixelHeight
+	 * @return true if the measurements could be calculated, false otherwise
+	 */
+	private boolean calculateSimplePolygonMeasurements(final Vertices vertices, final double pixelWidth, final double pixelHeight) {
+		int nInput = vertices.size();
+		if (nInput < 3)
+			return false;
+		
+		// Copy the coordinates, skipping repeated vertices (including the closing vertex)
+		float[] x = new float[nInput];
+		float[] y = new float[nInput];
+		int n = 0;
+		VerticesIterator iterator = vertices.getIterator();
+		while (iterator.hasNext()) {
+			float xx = iterator.getX();
+			float yy = iterator.getY();
+			iterator.next();
+			if (n > 0 && x[n-1] == xx && y[n-1] == yy)
+				continue;
+			x[n] = xx;
+			y[n] = yy;
+			n++;
+		}
+		if (n > 1 && x[0] == x[n-1] && y[0] == y[n-1])
+			n--;
+		if (n < 3 || isSelfIntersecting(x, y, n))
+			return false;
+		
+		double perimeter = 0;
+		double cx = 0;
+		double cy = 0;
+		double areaSigned = 0;
+		minX = Double.POSITIVE_INFINITY;
+		maxX = Double.NEGATIVE_INFINITY;
+		minY = Double.POSITIVE_INFINITY;
+		maxY = Double.NEGATIVE_INFINITY;
+		double x0 = x[n-1] * pixelWidth;
+		double y0 = y[n-1] * pixelHeight;
+		for (int i = 0; i < n; i++) {
+			double x1 = x[i] * pixelWidth;
+			double y1 = y[i] * pixelHeight;
+			updateMinMax(x1, y1);
+			double cross = x0 * y1 - x1 * y0;
+			perimeter += Math.sqrt((x1 - x0)*(x1 - x0) + (y1 - y0)*(y1 - y0));
+			cx += (x0 + x1) * cross;
+			cy += (y0 + y1) * cross;
+			areaSigned += 0.5 * cross;
+			x0 = x1;
+			y0 = y1;
+		}
+		if (areaSigned == 0)
+			return false;
+		centroidXCached = (float)(cx / (6 * areaSigned));
+		centroidYCached = (float)(cy / (6 * areaSigned));
+		perimeterCached = perimeter;
+		areaCached = Math.abs(areaSigned);
+		// Count distinct vertices - this can differ from the Area-based count, since an Area may merge or split edges
+		nVertices = n;
+		return true;
+	}
+	
+	/**
+	 * Test whether any non-adjacent edges of a closed polygon touch or intersect, or any adjacent edges fold back on one another.
+	 * <p>
+	 * Edges are sorted by their minimum x coordinate, so that only edges with overlapping x ranges need to be compared.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param n
+	 * @return
+	 */
+	static boolean isSelfIntersecting(final float[] x, final float[] y, final int n) {
+		// Encode the minimum x of each edge as a sortable int, packed together with the edge index
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			int bits = Float.floatToIntBits(Math.min(x[i], x[(i+1) % n]));
+			bits ^= (bits >> 31) & 0x7fffffff;
+			keys[i] = ((long)bits << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int k = 0; k < n; k++) {
+			int i = (int)keys[k];
+			int i2 = (i + 1) % n;
+			float maxXi = Math.max(x[i], x[i2]);
+			for (int l = k + 1; l < n; l++) {
+				int j = (int)keys[l];
+				int j2 = (j + 1) % n;
+				if (Math.min(x[j], x[j2]) > maxXi)
+					break;
+				if (j == i2 || i == j2) {
+					// Adjacent edges - only a problem if they double back along the same line
+					int shared = j == i2 ? j : i;
+					int before = j == i2 ? i : j;
+					int after = j == i2 ? j2 : i2;
+					double dx1 = x[shared] - x[before], dy1 = y[shared] - y[before];
+					double dx2 = x[after] - x[shared], dy2 = y[after] - y[shared];
+					if (dx1 * dy2 - dy1 * dx2 == 0 && dx1 * dx2 + dy1 * dy2 < 0)
+						return true;
+				} else if (segmentsTouch(x[i], y[i], x[i2], y[i2], x[j], y[j], x[j2], y[j2]))
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean segmentsTouch(final double x1, final double y1, final double x2, final double y2,
+			final double x3, final double y3, final double x4, final double y4) {
+		if (Math.max(y1, y2) < Math.min(y3, y4) || Math.max(y3, y4) < Math.min(y1, y2))
+			return false;
+		double d1 = orientation(x3, y3, x4, y4, x1, y1);
+		double d2 = orientation(x3, y3, x4, y4, x2, y2);
+		double d3 = orientation(x1, y1, x2, y2, x3, y3);
+		double d4 = orientation(x1, y1, x2, y2, x4, y4);
+		if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0)))
+			return true;
+		return (d1 == 0 && onSegment(x3, y3, x4, y4, x1, y1)) ||
+				(d2 == 0 && onSegment(x3, y3, x4, y4, x2, y2)) ||
+				(d3 == 0 && onSegment(x1, y1, x2, y2, x3, y3)) ||
+				(d4 == 0 && onSegment(x1, y1, x2, y2, x4, y4));
+	}
+	
+	private static double orientation(final double x1, final double y1, final double x2, final double y2, final double x, final double y) {
+		return (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+	}
+	
+	private static boolean onSegment(final double x1, final double y1, final double x2, final double y2, final double x, final double y) {
+		return x >= Math.min(x1, x2) && x <= Math.max(x1, x2) && y >= Math.min(y1, y2) && y <= Math.max(y1, y2);
+	}
+	
 	private void calculateShapeMeasurements(final Shape shape, final double pixelWidth, final double pixelHeight) {
 		double perimeter = 0;		
 		double cx = 0;
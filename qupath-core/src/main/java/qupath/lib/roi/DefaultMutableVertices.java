@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.geom.Point2;
 import qupath.lib.rois.vertices.MutableVertices;
 import qupath.lib.rois.vertices.Vertices;
+import qupath.lib.rois.vertices.VerticesIterator;
 
 /**
  * Simple class to store x,y coordinates as floating point arrays.
@@ -166,6 +167,14 @@ public class DefaultMutableVertices implements Vertices, MutableVertices {
 		return vertices.getY(idx);
 	}
 	
+	/* (non-Javadoc)
+	 * @see qupath.lib.rois.vertices.Vertices#getIterator()
+	 */
+	@Override
+	public VerticesIterator getIterator() {
+		return vertices.getIterator();
+	}
+	
 	/* (non-Javadoc)
 	 * @see qupath.lib.rois.vertices.MutableVertices#ensureCapacity(int)
 	 */
@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import qupath.lib.geom.Point2;
 import qupath.lib.rois.vertices.Vertices;
+import qupath.lib.rois.vertices.VerticesIterator;
 
 /**
  * Simple class to store x,y coordinates as floating point arrays.
@@ -234,57 +235,52 @@ public class DefaultVertices implements Vertices {
 		return v;
 	}
 
-//	@Override
-//	public VerticesIterator getIterator() {
-//		return new DefaultVerticesIterator(this);
-//	}
-//
-//	
-//	
-//	static class DefaultVerticesIterator implements VerticesIterator {
-//
-//		final private DefaultVertices vertices;
-//		private int ind = 0;
-//
-//		private DefaultVerticesIterator(final DefaultVertices vertices) {
-//			this.vertices = vertices;
-//		}
-//
-//		@Override
-//		final public boolean hasNext() {
-//			return ind < vertices.size();
-//		}
-//
-//		@Override
-//		final public void next() {
-//			this.ind++;
-//		}
-//		
-//		public float getX() {
-//			return vertices.x[ind];
-//		}
-//
-//		public float getY() {
-//			return vertices.y[ind];
-//		}
-//
-//		@Override
-//		final public void currentVertex(float[] coords) {
-//			coords[0] = vertices.x[ind];
-//			coords[1] = vertices.y[ind];
-//		}
-//		
-//	}
-	
+	/* (non-Javadoc)
+	 * @see qupath.lib.rois.vertices.Vertices#getIterator()
+	 */
+	@Override
+	public VerticesIterator getIterator() {
+		return new DefaultVerticesIterator(this);
+	}
+
 	
 	
-//	@Override
-//	public void writeExternal(ObjectOutput out) throws IOException {
-//		out.writeInt(1); // Version
-//		out.writeInt(size); // Size
-//		out.writeObject(x);
-//		out.writeObject(y);
-//	}
+	static class DefaultVerticesIterator implements VerticesIterator {
+
+		final private DefaultVertices vertices;
+		private int ind = 0;
+
+		private DefaultVerticesIterator(final DefaultVertices vertices) {
+			this.vertices = vertices;
+		}
+
+		@Override
+		final public boolean hasNext() {
+			return ind < vertices.size;
+		}
+
+		@Override
+		final public void next() {
+			this.ind++;
+		}
+		
+		@Override
+		final public float getX() {
+			return vertices.x[ind];
+		}
+
+		@Override
+		final public float getY() {
+			return vertices.y[ind];
+		}
+
+		@Override
+		final public void currentVertex(float[] coords) {
+			coords[0] = vertices.x[ind];
+			coords[1] = vertices.y[ind];
+		}
+		
+	}
 //
 //	@Override
 //	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
@@ -26,6 +26,7 @@ package qupath.lib.roi;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 import qupath.lib.common.GeneralTools;
@@ -37,6 +38,7 @@ import qupath.lib.roi.interfaces.ROI;
 import qupath.lib.roi.interfaces.TranslatableROI;
 import qupath.lib.rois.measure.ConvexHull;
 import qupath.lib.rois.vertices.Vertices;
+import qupath.lib.rois.vertices.VerticesIterator;
 
 
 /**
@@ -57,6 +59,9 @@ public class PolygonROI extends AbstractPathAreaROI implements ROIWithHull, Tran
 
 	transient ClosedShapeStatistics stats = null;
 	
+	// Cached representation for fast containment tests, only created for large polygons
+	transient private volatile PreparedArea preparedArea = null;
+	
 
 	PolygonROI() {
 		super();
@@ -139,7 +144,10 @@ public class PolygonROI extends AbstractPathAreaROI implements ROIWithHull, Tran
 	 */
 	@Override
 	public ROI duplicate() {
-		return new PolygonROI(vertices.getPoints(), getC(), getZ(), getT());
+		PolygonROI roi = new PolygonROI(vertices.getX(null), vertices.getY(null), getC(), getZ(), getT(), false);
+		// Statistics are immutable, so can be shared
+		roi.stats = stats;
+		return roi;
 	}
 	
 
@@ -168,9 +176,29 @@ public class PolygonROI extends AbstractPathAreaROI implements ROIWithHull, Tran
 	 */
 	@Override
 	public boolean contains(double x, double y) {
+		PreparedArea prepared = getPreparedArea();
+		if (prepared != null)
+			return prepared.contains(x, y);
 		return WindingTest.getWindingNumber(vertices, x, y) != 0;
 	}
 	
+	/**
+	 * Get a prepared representation of this polygon for fast containment tests, 
+	 * or null if the polygon is too simple for this to be worthwhile.
+	 * 
+	 * @return
+	 */
+	PreparedArea getPreparedArea() {
+		if (vertices.size() < PreparedArea.MIN_VERTICES)
+			return null;
+		PreparedArea prepared = preparedArea;
+		if (prepared == null) {
+			prepared = new PreparedArea(Collections.singletonList(vertices));
+			preparedArea = prepared;
+		}
+		return prepared;
+	}
+	
 	/* (non-Javadoc)
 	 * @see qupath.lib.rois.PolygonROI#translate(double, double)
 	 */
@@ -338,9 +366,9 @@ public class PolygonROI extends AbstractPathAreaROI implements ROIWithHull, Tran
 		return vertices;
 	}
 	
-//	public VerticesIterator getVerticesIterator() {
-//		return vertices.getIterator();
-//	}
+	public VerticesIterator getVerticesIterator() {
+		return vertices.getIterator();
+	}
 	
 	
 	void calculateShapeMeasurements() {
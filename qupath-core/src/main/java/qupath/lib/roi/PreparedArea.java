@@ -0,0 +1,313 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import java.util.List;
+
+import qupath.lib.roi.experimental.WindingTest;
+import qupath.lib.rois.vertices.Vertices;
+
+/**
+ * A 'prepared' representation of a polygonal area, optimized for repeated containment tests.
+ * <p>
+ * Applying a winding test to a polygon requires every edge to be checked, which becomes expensive for
+ * large annotations when testing many points (e.g. when resolving the parents of many detections).
+ * Here, the bounding box of the area is divided into a regular grid.  Edges are bucketed according to the
+ * grid rows that they span, so that only the edges that might cross a horizontal line through a point need to be tested.
+ * Each grid cell is also classified as being inside, outside or on the boundary of the area;
+ * points falling in cells that are not on the boundary can then be classified immediately.
+ * <p>
+ * Results are the same as summing {@link WindingTest#getWindingNumber(Vertices, double, double)} across all vertices
+ * and testing for a non-zero result - which is the definition of containment used by {@link PolygonROI} and {@link AreaROI}.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PreparedArea {
+	
+	/**
+	 * Minimum number of vertices for which preparing an area is worthwhile.
+	 */
+	public final static int MIN_VERTICES = 64;
+	
+	/**
+	 * Maximum number of grid rows or columns.
+	 */
+	private final static int MAX_GRID_SIZE = 512;
+	
+	/**
+	 * Status of a region that is completely outside the area.
+	 */
+	public final static int OUTSIDE = 0;
+
+	/**
+	 * Status of a region that is completely inside the area.
+	 */
+	public final static int INSIDE = 1;
+
+	/**
+	 * Status of a region that might intersect the boundary of the area.
+	 */
+	public final static int BOUNDARY = 2;
+	
+	private final int nEdges;
+	private final float[] ex1, ey1, ex2, ey2;
+	
+	private final double minX, minY, maxX, maxY;
+	private final int nCols, nRows;
+	private final double cellWidth, cellHeight;
+	
+	// Edges are stored by row, i.e. the edges for row i are rowEdges[rowStarts[i]] to rowEdges[rowStarts[i+1]-1]
+	private final int[] rowStarts;
+	private final int[] rowEdges;
+	
+	private final byte[] mask;
+	
+	/**
+	 * Create a prepared area from one or more closed polygons.
+	 * 
+	 * @param polygons
+	 */
+	public PreparedArea(final List<? extends Vertices> polygons) {
+		
+		// Extract edges
+		int n = 0;
+		for (Vertices v : polygons) {
+			if (v.size() > 2)
+				n += v.size();
+		}
+		nEdges = n;
+		ex1 = new float[n];
+		ey1 = new float[n];
+		ex2 = new float[n];
+		ey2 = new float[n];
+		double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+		int ind = 0;
+		for (Vertices v : polygons) {
+			int nPoints = v.size();
+			if (nPoints <= 2)
+				continue;
+			float[] x = v.getX(null);
+			float[] y = v.getY(null);
+			for (int i = 0; i < nPoints; i++) {
+				int i2 = (i + 1) % nPoints;
+				ex1[ind] = x[i];
+				ey1[ind] = y[i];
+				ex2[ind] = x[i2];
+				ey2[ind] = y[i2];
+				ind++;
+				x0 = Math.min(x0, x[i]);
+				x1 = Math.max(x1, x[i]);
+				y0 = Math.min(y0, y[i]);
+				y1 = Math.max(y1, y[i]);
+			}
+		}
+		if (n == 0) {
+			x0 = y0 = x1 = y1 = 0;
+		}
+		minX = x0;
+		minY = y0;
+		maxX = x1;
+		maxY = y1;
+		
+		// Choose a grid size so that the number of cells is comparable to the number of edges
+		int gridSize = (int)Math.max(1, Math.min(MAX_GRID_SIZE, Math.ceil(Math.sqrt(n))));
+		nCols = gridSize;
+		nRows = gridSize;
+		cellWidth = maxX > minX ? (maxX - minX) / nCols : 1;
+		cellHeight = maxY > minY ? (maxY - minY) / nRows : 1;
+		
+		// Bucket edges by row
+		rowStarts = new int[nRows + 1];
+		for (int i = 0; i < n; i++) {
+			int r1 = getRow(Math.min(ey1[i], ey2[i]));
+			int r2 = getRow(Math.max(ey1[i], ey2[i]));
+			for (int r = r1; r <= r2; r++)
+				rowStarts[r+1]++;
+		}
+		for (int r = 0; r < nRows; r++)
+			rowStarts[r+1] += rowStarts[r];
+		rowEdges = new int[rowStarts[nRows]];
+		int[] rowCounts = new int[nRows];
+		for (int i = 0; i < n; i++) {
+			int r1 = getRow(Math.min(ey1[i], ey2[i]));
+			int r2 = getRow(Math.max(ey1[i], ey2[i]));
+			for (int r = r1; r <= r2; r++) {
+				rowEdges[rowStarts[r] + rowCounts[r]] = i;
+				rowCounts[r]++;
+			}
+		}
+		
+		// Mark all cells that any edge passes through as boundary cells
+		mask = new byte[nCols * nRows];
+		double tolX = cellWidth * 1e-6;
+		double tolY = cellHeight * 1e-6;
+		for (int i = 0; i < n; i++) {
+			double xa = ex1[i], ya = ey1[i], xb = ex2[i], yb = ey2[i];
+			int r1 = getRow(Math.min(ya, yb) - tolY);
+			int r2 = getRow(Math.max(ya, yb) + tolY);
+			for (int r = r1; r <= r2; r++) {
+				// Clip the edge to the current row, and mark the columns it spans
+				double rowY1 = minY + r * cellHeight - tolY;
+				double rowY2 = rowY1 + cellHeight + tolY * 2;
+				double xStart, xEnd;
+				if (ya == yb) {
+					xStart = Math.min(xa, xb);
+					xEnd = Math.max(xa, xb);
+				} else {
+					double t1 = (rowY1 - ya) / (yb - ya);
+					double t2 = (rowY2 - ya) / (yb - ya);
+					double tMin = Math.max(0, Math.min(t1, t2));
+					double tMax = Math.min(1, Math.max(t1, t2));
+					if (tMin > tMax)
+						continue;
+					double xt1 = xa + tMin * (xb - xa);
+					double xt2 = xa + tMax * (xb - xa);
+					xStart = Math.min(xt1, xt2);
+					xEnd = Math.max(xt1, xt2);
+				}
+				int c1 = getCol(xStart - tolX);
+				int c2 = getCol(xEnd + tolX);
+				for (int c = c1; c <= c2; c++)
+					mask[r * nCols + c] = BOUNDARY;
+			}
+		}
+		
+		// Classify the remaining cells - within a row, consecutive non-boundary cells must share the same status
+		for (int r = 0; r < nRows; r++) {
+			int status = -1;
+			for (int c = 0; c < nCols; c++) {
+				int k = r * nCols + c;
+				if (mask[k] == BOUNDARY) {
+					status = -1;
+					continue;
+				}
+				if (status < 0) {
+					double cx = minX + (c + 0.5) * cellWidth;
+					double cy = minY + (r + 0.5) * cellHeight;
+					status = getWindingNumber(cx, cy) != 0 ? INSIDE : OUTSIDE;
+				}
+				mask[k] = (byte)status;
+			}
+		}
+	}
+	
+	private int getRow(final double y) {
+		int r = (int)Math.floor((y - minY) / cellHeight);
+		return r < 0 ? 0 : (r >= nRows ? nRows - 1 : r);
+	}
+
+	private int getCol(final double x) {
+		int c = (int)Math.floor((x - minX) / cellWidth);
+		return c < 0 ? 0 : (c >= nCols ? nCols - 1 : c);
+	}
+	
+	/**
+	 * Get the number of edges in the area.
+	 * 
+	 * @return
+	 */
+	public int nEdges() {
+		return nEdges;
+	}
+	
+	/**
+	 * Test whether a point falls inside the area.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean contains(final double x, final double y) {
+		// Points outside the bounding box have a winding number of 0
+		if (nEdges == 0 || !(x >= minX && x <= maxX && y >= minY && y <= maxY))
+			return false;
+		int status = mask[getRow(y) * nCols + getCol(x)];
+		if (status != BOUNDARY)
+			return status == INSIDE;
+		return getWindingNumber(x, y) != 0;
+	}
+	
+	/**
+	 * Get the status of a rectangular region, i.e. whether it is completely inside, completely outside, 
+	 * or (potentially) intersects the boundary of the area.
+	 * <p>
+	 * The result is conservative: a region reported as INSIDE or OUTSIDE certainly is, while a region
+	 * reported as BOUNDARY might not intersect the boundary at all if it was not possible to determine this cheaply.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return one of INSIDE, OUTSIDE or BOUNDARY
+	 */
+	public int getRegionStatus(final double x, final double y, final double width, final double height) {
+		double x2 = x + width;
+		double y2 = y + height;
+		if (nEdges == 0 || x > maxX || y > maxY || x2 < minX || y2 < minY)
+			return OUTSIDE;
+		if (x < minX || y < minY || x2 > maxX || y2 > maxY)
+			return BOUNDARY;
+		int c1 = getCol(x);
+		int c2 = getCol(x2);
+		int r1 = getRow(y);
+		int r2 = getRow(y2);
+		int status = mask[r1 * nCols + c1];
+		if (status == BOUNDARY)
+			return BOUNDARY;
+		for (int r = r1; r <= r2; r++) {
+			for (int c = c1; c <= c2; c++) {
+				if (mask[r * nCols + c] != status)
+					return BOUNDARY;
+			}
+		}
+		return status;
+	}
+	
+	/**
+	 * Compute the winding number, considering only edges that overlap the row containing y.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private int getWindingNumber(final double x, final double y) {
+		int row = getRow(y);
+		int wn = 0;
+		for (int k = rowStarts[row]; k < rowStarts[row+1]; k++) {
+			int i = rowEdges[k];
+			double x1 = ex1[i], y1 = ey1[i], x2 = ex2[i], y2 = ey2[i];
+			if (y1 <= y) {
+				if (y2 > y && WindingTest.isLeft(x1, y1, x2, y2, x, y) > 0)
+					wn++;
+			} else {
+				if (y2 <= y && WindingTest.isLeft(x1, y1, x2, y2, x, y) < 0)
+					wn--;
+			}
+		}
+		return wn;
+	}
+
+}
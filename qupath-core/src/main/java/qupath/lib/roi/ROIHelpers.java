@@ -85,7 +85,22 @@ public class ROIHelpers {
 		return (pathROI instanceof PathArea) && ((PathArea)pathROI).contains(x, y);
 	}
 	
-	
+	/**
+	 * Get a prepared representation of an area ROI for fast containment tests, if available.
+	 * <p>
+	 * This is only available for polygon and area ROIs that are complex enough for it to be worthwhile; 
+	 * the prepared area is created on first request, and cached thereafter.
+	 * 
+	 * @param pathROI
+	 * @return the prepared area, or null if none is available for the ROI
+	 */
+	public static PreparedArea getPreparedArea(final ROI pathROI) {
+		if (pathROI instanceof PolygonROI)
+			return ((PolygonROI)pathROI).getPreparedArea();
+		if (pathROI instanceof AreaROI)
+			return ((AreaROI)pathROI).getPreparedArea();
+		return null;
+	}
 	
 	
 }
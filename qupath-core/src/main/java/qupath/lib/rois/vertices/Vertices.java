@@ -57,7 +57,12 @@ public interface Vertices {
 	 * Compact the storage if possible, e.g. by trimming arrays used internally.
 	 */
 	public abstract void compact();
-		
-//	public VerticesIterator getIterator();
+
+	/**
+	 * Get a cursor-style iterator for visiting each vertex in turn, without creating Point2 objects.
+	 * 
+	 * @return
+	 */
+	public abstract VerticesIterator getIterator();
 
 }
\ No newline at end of file
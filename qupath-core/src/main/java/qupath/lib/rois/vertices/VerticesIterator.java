@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.rois.vertices;
+
+/**
+ * Cursor-style iterator for stepping through {@link Vertices} without creating a new object for each coordinate.
+ * <p>
+ * Usage:
+ * <pre>
+ * VerticesIterator iterator = vertices.getIterator();
+ * while (iterator.hasNext()) {
+ *     float x = iterator.getX();
+ *     float y = iterator.getY();
+ *     iterator.next();
+ * }
+ * </pre>
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public interface VerticesIterator {
+
+	/**
+	 * Returns true if the cursor currently points to a valid vertex.
+	 * 
+	 * @return
+	 */
+	public abstract boolean hasNext();
+
+	/**
+	 * Advance the cursor to the next vertex.
+	 */
+	public abstract void next();
+
+	/**
+	 * Get the x coordinate of the current vertex.
+	 * 
+	 * @return
+	 */
+	public abstract float getX();
+
+	/**
+	 * Get the y coordinate of the current vertex.
+	 * 
+	 * @return
+	 */
+	public abstract float getY();
+
+	/**
+	 * Copy the x and y coordinates of the current vertex into the first two entries of the specified array.
+	 * 
+	 * @param coords
+	 */
+	public abstract void currentVertex(float[] coords);
+
+}
@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.RectangleROI;
+
+@SuppressWarnings("javadoc")
+public class TestMeasurementPredicate {
+	
+	private static final String[] NAMES = {"A", "Nucleus: Area", "C"};
+	
+	private static final String[] QUERIES = {
+			"A > 1",
+			"A >= 1",
+			"A < 1",
+			"A <= 1",
+			"A = 1",
+			"A == 1",
+			"A != 1",
+			"A ~= 1",
+			"NOT A > 1",
+			"not A ~= 1",
+			"Nucleus: Area > 1.5 AND C < 2",
+			"Nucleus: Area > 1.5 and C < 2",
+			"A > 1 OR C < 1",
+			"A > 1 or C < 1",
+			"A > 1 AND C < 2 OR Nucleus: Area == 0",
+			"A > 1 OR C < 2 AND Nucleus: Area == 0",
+			"NOT A > 1 OR NOT C != 1",
+			"NOT Nucleus: Area >= 1 AND NOT C <= 0.5 OR A == 2",
+			"Missing > 0",
+			"NOT Missing > 0",
+			"NOT Missing > 0 AND A ~= 0",
+			"A > 0 OR NOT Missing < 0"
+	};
+	
+	@Test
+	public void test_parse() {
+		MeasurementPredicate predicate = MeasurementPredicate.parse("Nucleus: Area > 50 AND NOT C <= 2");
+		assertEquals(2, predicate.getMeasurementNames().size());
+		assertEquals("Nucleus: Area", predicate.getMeasurementNames().get(0));
+		assertEquals("C", predicate.getMeasurementNames().get(1));
+		
+		for (String invalid : new String[] {"", "A", "A >", "A > B", "A > 1 C < 2", "A > 1 XOR C < 2"}) {
+			try {
+				MeasurementPredicate.parse(invalid);
+				fail("Expected parsing to fail for \"" + invalid + "\"");
+			} catch (NoSuchElementException e) {}
+		}
+	}
+	
+	@Test
+	public void test_legacyEquivalence() {
+		List<PathObject> pathObjects = createObjects(2000, new Random(1L));
+		for (String query : QUERIES) {
+			Predicate<PathObject> expected = parseLegacyPredicate(query);
+			MeasurementPredicate predicate = MeasurementPredicate.parse(query);
+			int nPassed = 0;
+			for (PathObject pathObject : pathObjects) {
+				boolean passed = expected.test(pathObject);
+				assertEquals(query + " for " + pathObject.getMeasurementList(), passed, predicate.test(pathObject));
+				if (passed)
+					nPassed++;
+			}
+			// Check the result isn't just the same for every object
+			if (!query.contains("Missing"))
+				assertTrue(query, nPassed > 0 && nPassed < pathObjects.size());
+		}
+	}
+	
+	@Test
+	public void test_testAll() {
+		Random random = new Random(2L);
+		// Check either side of the threshold for parallel processing, and sizes that aren't multiples of 64
+		for (int n : new int[] {0, 1, 63, 65, 9_999, 10_000, 10_001, 20_037}) {
+			List<PathObject> pathObjects = createObjects(n, random);
+			for (String query : QUERIES) {
+				Predicate<PathObject> expected = parseLegacyPredicate(query);
+				MeasurementPredicate predicate = MeasurementPredicate.parse(query);
+				BitSet bits = predicate.testAll(pathObjects);
+				List<PathObject> filtered = predicate.filter(pathObjects);
+				List<PathObject> expectedFiltered = new ArrayList<>();
+				for (int i = 0; i < n; i++) {
+					boolean passed = expected.test(pathObjects.get(i));
+					assertEquals(query, passed, bits.get(i));
+					if (passed)
+						expectedFiltered.add(pathObjects.get(i));
+				}
+				assertTrue(bits.length() <= n);
+				assertEquals(query, expectedFiltered, filtered);
+			}
+		}
+	}
+	
+	/**
+	 * Create objects with a mixture of measurement lists: closed lists sharing the same names, 
+	 * closed lists with the names in a different order or with some missing, open lists & general lists.
+	 */
+	private static List<PathObject> createObjects(final int n, final Random random) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			MeasurementList list;
+			int type = random.nextInt(5);
+			switch (type) {
+			case 0:
+				list = MeasurementListFactory.createMeasurementList(NAMES.length, MeasurementList.TYPE.GENERAL);
+				break;
+			case 1:
+				list = MeasurementListFactory.createMeasurementList(NAMES.length, MeasurementList.TYPE.DOUBLE);
+				break;
+			default:
+				list = MeasurementListFactory.createMeasurementList(NAMES.length, MeasurementList.TYPE.FLOAT);
+				break;
+			}
+			boolean reverse = type == 3;
+			boolean skipLast = type == 4;
+			for (int k = 0; k < NAMES.length; k++) {
+				int ind = reverse ? NAMES.length - 1 - k : k;
+				if (skipLast && ind == NAMES.length - 1)
+					continue;
+				// Use values that can be represented exactly as floats, so that equality tests are meaningful
+				double value = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(6) * 0.5;
+				list.addMeasurement(NAMES[ind], value);
+			}
+			// Leave one in five lists open
+			if (random.nextInt(5) != 0)
+				list.closeList();
+			pathObjects.add(new PathDetectionObject(new RectangleROI(0, 0, 1, 1), null, list));
+		}
+		return pathObjects;
+	}
+	
+	/**
+	 * Reference implementation, chaining a lambda for each comparison 
+	 * (as previously used by {@code QP.parsePredicate}).
+	 */
+	private static Predicate<PathObject> parseLegacyPredicate(final String command) throws NoSuchElementException {
+		String s = command.trim();
+		Scanner scanner = new Scanner(s);
+		try {
+			Map<String, Predicate<Integer>> mapComparison = new HashMap<>();
+			mapComparison.put(">=", v -> v >= 0);
+			mapComparison.put("<=", v -> v <= 0);
+			mapComparison.put(">", v -> v > 0);
+			mapComparison.put("<", v -> v < 0);
+			mapComparison.put("=", v -> v == 0);
+			mapComparison.put("==", v -> v == 0);
+			mapComparison.put("!=", v -> v != 0);
+			mapComparison.put("~=", v -> v != 0);
+
+			Predicate<PathObject> predicate = null;
+			Pattern comparePattern = Pattern.compile(">=|<=|==|!=|~=|=|>|<");
+			Pattern combinePattern = Pattern.compile("and|AND|or|OR");
+			Pattern notPattern = Pattern.compile("not|NOT");
+			while (scanner.hasNext()) {
+				String combine = null;
+				scanner.reset();
+				if (predicate != null)
+					combine = scanner.next(combinePattern).trim().toUpperCase();
+
+				boolean negate = false;
+				if (scanner.hasNext(notPattern)) {
+					negate = true;
+					scanner.next(notPattern);
+				}
+
+				scanner.useDelimiter(comparePattern);
+				String measurement = scanner.next().trim();
+				scanner.reset();
+				String comparison = scanner.next(comparePattern).trim();
+				double value = scanner.nextDouble();
+
+				Predicate<PathObject> predicateNew = p -> {
+					double v = p.getMeasurementList().getMeasurementValue(measurement);
+					return !Double.isNaN(v) && mapComparison.get(comparison).test(Double.compare(v, value));
+				};
+				if (negate)
+					predicateNew = predicateNew.negate();
+
+				if (predicate == null)
+					predicate = predicateNew;
+				else if ("AND".equals(combine))
+					predicate = predicate.and(predicateNew);
+				else
+					predicate = predicate.or(predicateNew);
+			}
+			return predicate;
+		} finally {
+			scanner.close();
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TemporaryObject;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.RectangleROI;
+
+/**
+ * Check that snapshots updated incrementally from hierarchy events match snapshots created from scratch.
+ */
+public class TestHierarchySnapshot {
+	
+	private final Random random = new Random(100);
+	
+	@Test
+	public void test_addAndRemove() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		HierarchySnapshot empty = hierarchy.getSnapshot();
+		assertEquals(0, empty.nObjects());
+		
+		// Annotations, with detections added in batches
+		PathObject annotation1 = new PathAnnotationObject(new RectangleROI(0, 0, 3000, 3000));
+		PathObject annotation2 = new PathAnnotationObject(new RectangleROI(4000, 0, 3000, 3000));
+		hierarchy.addPathObject(annotation1, false);
+		hierarchy.addPathObject(annotation2, false);
+		checkSnapshot(hierarchy);
+		for (int i = 0; i < 5; i++) {
+			hierarchy.addPathObjects(createDetections(100, 0, 0, 7000, 3000), false);
+			checkSnapshot(hierarchy);
+		}
+		// Earlier snapshots should be unaffected
+		assertEquals(0, empty.nObjects());
+		assertTrue(empty.getObjectsForRegion(null, null, null).isEmpty());
+		
+		// Remove detections from more than one parent at once
+		List<PathObject> detections = new ArrayList<>(hierarchy.getObjects(null, PathDetectionObject.class));
+		Collections.shuffle(detections, random);
+		HierarchySnapshot before = hierarchy.getSnapshot();
+		hierarchy.removeObjects(detections.subList(0, 50), true);
+		checkSnapshot(hierarchy);
+		assertEquals(before.nObjects() - 50, hierarchy.getSnapshot().nObjects());
+		
+		// Remove a single object, with & without keeping its children
+		hierarchy.removeObject(detections.get(60), false);
+		checkSnapshot(hierarchy);
+		hierarchy.removeObject(annotation1, true);
+		checkSnapshot(hierarchy);
+		hierarchy.removeObject(annotation2, false);
+		checkSnapshot(hierarchy);
+		
+		// Adding an annotation should move existing detections below it
+		hierarchy.addPathObject(new PathAnnotationObject(new RectangleROI(500, 500, 1500, 1500)), false);
+		checkSnapshot(hierarchy);
+		
+		hierarchy.clearAll();
+		checkSnapshot(hierarchy);
+		assertEquals(0, hierarchy.getSnapshot().nObjects());
+	}
+	
+	@Test
+	public void test_structureChangeAndROIs() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathAnnotationObject annotation = new PathAnnotationObject(new RectangleROI(0, 0, 5000, 5000));
+		hierarchy.addPathObject(annotation, false);
+		hierarchy.getSnapshot();
+		
+		// Add objects below a temporary object, as detection plugins do - these shouldn't be indexed
+		TemporaryAnnotation temp = new TemporaryAnnotation(new RectangleROI(0, 0, 2000, 2000));
+		annotation.addPathObject(temp);
+		hierarchy.fireHierarchyChangedEvent(this, annotation);
+		checkSnapshot(hierarchy);
+		temp.addPathObjects(createDetections(200, 0, 0, 2000, 2000));
+		hierarchy.fireHierarchyChangedEvent(this, temp);
+		checkSnapshot(hierarchy);
+		assertEquals(2, hierarchy.getSnapshot().getObjectsForRegion(null, null, null).size());
+		
+		// Move the detections up to the parent
+		annotation.removePathObject(temp);
+		annotation.addPathObjects(new ArrayList<>(temp.getChildObjects()));
+		hierarchy.fireHierarchyChangedEvent(this);
+		checkSnapshot(hierarchy);
+		assertEquals(200, hierarchy.getSnapshot().getObjectsForRegion(PathDetectionObject.class, null, null).size());
+		
+		// Change a ROI
+		HierarchySnapshot before = hierarchy.getSnapshot();
+		annotation.setROI(new RectangleROI(3000, 3000, 5000, 5000));
+		hierarchy.fireObjectsChangedEvent(this, Collections.singleton(annotation));
+		checkSnapshot(hierarchy);
+		ImageRegion region = ImageRegion.createInstance(7000, 7000, 100, 100, 0, 0);
+		assertTrue(hierarchy.getSnapshot().hasObjectsForRegion(PathAnnotationObject.class, region));
+		assertFalse(before.hasObjectsForRegion(PathAnnotationObject.class, region));
+		
+		// Events for objects outside the hierarchy should be ignored
+		hierarchy.fireObjectsChangedEvent(this, Collections.singleton(new PathAnnotationObject(new RectangleROI(0, 0, 10, 10))));
+		checkSnapshot(hierarchy);
+	}
+	
+	@Test
+	public void test_setHierarchy() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		hierarchy.addPathObjects(createDetections(20, 0, 0, 1000, 1000), false);
+		hierarchy.getSnapshot();
+		PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+		hierarchy2.addPathObjects(createDetections(30, 0, 0, 1000, 1000), false);
+		hierarchy.setHierarchy(hierarchy2);
+		checkSnapshot(hierarchy);
+		assertEquals(30, hierarchy.getSnapshot().nObjects());
+	}
+	
+	
+	private List<PathObject> createDetections(int n, int x, int y, int width, int height) {
+		List<PathObject> list = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			double w = 5 + random.nextInt(1500);
+			double h = 5 + random.nextInt(20);
+			list.add(new PathDetectionObject(new RectangleROI(x + random.nextInt(width), y + random.nextInt(height), w, h)));
+		}
+		return list;
+	}
+	
+	/**
+	 * Compare the current snapshot of a hierarchy with one created from scratch.
+	 */
+	private void checkSnapshot(PathObjectHierarchy hierarchy) {
+		HierarchySnapshot snapshot = hierarchy.getSnapshot();
+		HierarchySnapshot expected = HierarchySnapshot.createSnapshot(snapshot.getVersion(), snapshot.getStructureVersion(), hierarchy.getRootObject());
+		
+		assertEquals(expected.nObjects(), snapshot.nObjects());
+		assertEquals(hierarchy.nObjects(), snapshot.nObjects());
+		assertEquals(expected.getFlattenedObjectList(), snapshot.getFlattenedObjectList());
+		for (PathObject pathObject : expected.getFlattenedObjectList())
+			assertEquals(expected.getChildObjects(pathObject), snapshot.getChildObjects(pathObject));
+		
+		List<ImageRegion> regions = Arrays.asList(
+				null,
+				ImageRegion.createInstance(0, 0, 500, 500, 0, 0),
+				ImageRegion.createInstance(900, 1000, 2500, 1500, 0, 0),
+				ImageRegion.createInstance(3000, 0, 5000, 5000, 0, 0)
+				);
+		for (ImageRegion region : regions) {
+			for (Class<? extends PathObject> cls : Arrays.asList(null, PathDetectionObject.class, PathAnnotationObject.class)) {
+				Collection<PathObject> list = snapshot.getObjectsForRegion(cls, region, new ArrayList<>());
+				Set<PathObject> set = new HashSet<>(list);
+				assertEquals(expected.getObjectsForRegion(cls, region, null), set);
+				assertEquals(!set.isEmpty(), snapshot.hasObjectsForRegion(cls, region));
+				if (region == null)
+					assertEquals(set.size(), list.size());
+			}
+		}
+	}
+	
+	
+	static class TemporaryAnnotation extends PathAnnotationObject implements TemporaryObject {
+		
+		TemporaryAnnotation(RectangleROI roi) {
+			super(roi);
+		}
+		
+	}
+
+}
@@ -26,13 +26,16 @@ package qupath.lib.objects.hierarchy;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
 
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathRootObject;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
@@ -139,6 +142,123 @@ public class TestPathObjectHierarchy {
 
 	}
 	
+	@Test
+	public void test_removeObjects() {
+		// Remove nested annotations, with & without keeping their children
+		checkRemoveObjects(new int[] {0, 1}, true);
+		checkRemoveObjects(new int[] {0, 1}, false);
+		checkRemoveObjects(new int[] {1}, true);
+		checkRemoveObjects(new int[] {1}, false);
+		checkRemoveObjects(new int[] {0, 2, 4}, true);
+		checkRemoveObjects(new int[] {0, 2, 4}, false);
+		checkRemoveObjects(new int[] {1, 3, 5, 8}, true);
+		checkRemoveObjects(new int[] {1, 3, 5, 8}, false);
+	}
+	
+	/**
+	 * Remove the objects at the specified indices from a hierarchy, and check the result matches a 
+	 * hierarchy built from scratch from the objects that should remain.
+	 */
+	private static void checkRemoveObjects(final int[] indsToRemove, final boolean keepChildren) {
+		List<PathObject> pathObjects = createNestedObjects();
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		for (PathObject pathObject : pathObjects)
+			hierarchy.addPathObject(pathObject, false);
+		// Query regions first, so that the tile cache must be updated (rather than built) after removal
+		for (ImageRegion region : REGIONS)
+			hierarchy.getObjectsForRegion(null, region, null);
+		
+		List<PathObject> toRemove = new ArrayList<>();
+		for (int ind : indsToRemove)
+			toRemove.add(pathObjects.get(ind));
+		List<String> expectedRemaining = new ArrayList<>();
+		for (PathObject pathObject : pathObjects) {
+			boolean removed = toRemove.contains(pathObject);
+			if (!keepChildren) {
+				for (PathObject parent = pathObject.getParent(); parent != null && !removed; parent = parent.getParent())
+					removed = toRemove.contains(parent);
+			}
+			if (!removed)
+				expectedRemaining.add(describe(pathObject));
+		}
+		
+		hierarchy.removeObjects(toRemove, keepChildren);
+		
+		// Build the expected hierarchy from new objects, with the same ROIs
+		PathObjectHierarchy expected = new PathObjectHierarchy();
+		for (PathObject pathObject : createNestedObjects()) {
+			if (expectedRemaining.contains(describe(pathObject)))
+				expected.addPathObject(pathObject, false);
+		}
+		
+		String message = "Removing " + Arrays.toString(indsToRemove) + ", keepChildren=" + keepChildren;
+		assertEquals(message, expectedRemaining.size(), hierarchy.nObjects());
+		assertEquals(message, describeStructure(expected), describeStructure(hierarchy));
+		for (PathObject pathObject : toRemove)
+			assertNull(message, pathObject.getParent());
+		for (ImageRegion region : REGIONS) {
+			for (Class<? extends PathObject> cls : Arrays.asList(null, PathAnnotationObject.class, PathDetectionObject.class)) {
+				assertEquals(message + ", " + region + ", " + cls, 
+						describeAll(expected.getObjectsForRegion(cls, region, null)),
+						describeAll(hierarchy.getObjectsForRegion(cls, region, null)));
+			}
+		}
+	}
+	
+	private static final List<ImageRegion> REGIONS = Arrays.asList(
+			ImageRegion.createInstance(0, 0, 2000, 2000, 0, 0),
+			ImageRegion.createInstance(0, 0, 60, 60, 0, 0),
+			ImageRegion.createInstance(25, 25, 10, 10, 0, 0),
+			ImageRegion.createInstance(500, 500, 300, 300, 0, 0),
+			ImageRegion.createInstance(1200, 1200, 400, 400, 0, 0)
+			);
+	
+	/**
+	 * Create annotations nested several levels deep (in order of size, so that each is added to the correct parent), 
+	 * followed by detections inside &amp; outside them.
+	 */
+	private static List<PathObject> createNestedObjects() {
+		List<PathObject> pathObjects = new ArrayList<>();
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(0, 0, 1000, 1000)));    // 0
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(10, 10, 500, 500)));    // 1
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(20, 20, 100, 100)));    // 2
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(600, 600, 200, 200)));  // 3
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(1200, 1200, 300, 300)));// 4
+		pathObjects.add(new PathAnnotationObject(new RectangleROI(25, 25, 20, 20)));      // 5
+		for (int y = 5; y < 1600; y += 40) {
+			for (int x = 5; x < 1600; x += 40)
+				pathObjects.add(new PathDetectionObject(new RectangleROI(x, y, 8, 8)));
+		}
+		return pathObjects;
+	}
+	
+	private static String describe(final PathObject pathObject) {
+		if (pathObject == null)
+			return "null";
+		if (pathObject.isRootObject())
+			return "Root";
+		ROI roi = pathObject.getROI();
+		return pathObject.getClass().getSimpleName() + "(" + roi.getBoundsX() + ", " + roi.getBoundsY() + ", " + roi.getBoundsWidth() + ", " + roi.getBoundsHeight() + ")";
+	}
+	
+	private static List<String> describeAll(final Collection<PathObject> pathObjects) {
+		List<String> descriptions = new ArrayList<>();
+		for (PathObject pathObject : pathObjects)
+			descriptions.add(describe(pathObject));
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+	
+	/**
+	 * Describe each object in a hierarchy along with its parent.
+	 */
+	private static List<String> describeStructure(final PathObjectHierarchy hierarchy) {
+		List<String> descriptions = new ArrayList<>();
+		for (PathObject pathObject : hierarchy.getFlattenedObjectList(null))
+			descriptions.add(describe(pathObject) + " in " + describe(pathObject.getParent()));
+		Collections.sort(descriptions);
+		return descriptions;
+	}
 }
 
 // Helper classes for testing
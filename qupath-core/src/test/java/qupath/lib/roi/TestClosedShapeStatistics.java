@@ -0,0 +1,185 @@
+package qupath.lib.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.rois.vertices.Vertices;
+
+/**
+ * Compare measurements calculated directly from polygon vertices with those calculated via java.awt.geom.Area.
+ */
+public class TestClosedShapeStatistics {
+	
+	private static final double EPSILON = 1e-6;
+	
+	private final Random random = new Random(100L);
+	
+	@Test
+	public void simplePolygons() {
+		for (int i = 0; i < 1000; i++) {
+			float[][] xy = createStarPolygon(3 + random.nextInt(50));
+			assertFalse(ClosedShapeStatistics.isSelfIntersecting(xy[0], xy[1], xy[0].length));
+			checkMeasurements(xy[0], xy[1], 1, 1);
+			checkMeasurements(xy[0], xy[1], 0.5, 0.25);
+		}
+	}
+	
+	@Test
+	public void collinearPolygons() {
+		// Square with extra vertices along every edge, and a repeated closing vertex
+		float[] x = {0, 5, 10, 10, 10, 5, 0, 0, 0};
+		float[] y = {0, 0, 0, 5, 10, 10, 10, 5, 0};
+		ClosedShapeStatistics stats = new ClosedShapeStatistics(VerticesFactory.createVertices(x, y, false));
+		assertEquals(100, stats.getArea(), EPSILON);
+		assertEquals(40, stats.getPerimeter(), EPSILON);
+		assertEquals(5, stats.getCentroidX(), EPSILON);
+		assertEquals(5, stats.getCentroidY(), EPSILON);
+		assertEquals(8, stats.getNVertices());
+		checkMeasurements(x, y, 1, 1);
+		
+		// Square & triangle without collinear vertices should have the same count as before
+		assertEquals(4, new ClosedShapeStatistics(VerticesFactory.createVertices(new float[] {0, 10, 10, 0}, new float[] {0, 0, 10, 10}, false)).getNVertices());
+		assertEquals(3, new ClosedShapeStatistics(VerticesFactory.createVertices(new float[] {0, 10, 5}, new float[] {0, 0, 10}, false)).getNVertices());
+		
+		// Edges that double back on themselves can't be measured directly
+		float[] x2 = {0, 10, 5, 10, 10, 0};
+		float[] y2 = {0, 0, 0, 0, 10, 10};
+		assertTrue(ClosedShapeStatistics.isSelfIntersecting(x2, y2, x2.length));
+		checkMeasurements(x2, y2, 1, 1);
+		
+		// All vertices on a line
+		float[] x3 = {0, 5, 10};
+		float[] y3 = {0, 5, 10};
+		assertTrue(ClosedShapeStatistics.isSelfIntersecting(x3, y3, x3.length));
+	}
+	
+	@Test
+	public void selfIntersectingPolygons() {
+		// Bow-tie
+		float[] x = {0, 10, 10, 0};
+		float[] y = {0, 10, 0, 10};
+		assertTrue(ClosedShapeStatistics.isSelfIntersecting(x, y, x.length));
+		ClosedShapeStatistics stats = checkMeasurements(x, y, 1, 1);
+		assertEquals(50, stats.getArea(), EPSILON);
+		
+		// Vertex touching another edge
+		float[] x2 = {0, 10, 10, 5, 0};
+		float[] y2 = {0, 0, 10, 0, 10};
+		assertTrue(ClosedShapeStatistics.isSelfIntersecting(x2, y2, x2.length));
+		checkMeasurements(x2, y2, 1, 1);
+		
+		// Random polygons (mostly self-intersecting), compared with a brute force check
+		for (int i = 0; i < 2000; i++) {
+			int n = 3 + random.nextInt(12);
+			float[] xr = new float[n];
+			float[] yr = new float[n];
+			for (int j = 0; j < n; j++) {
+				// Use a coarse grid so that touching & collinear edges are common
+				xr[j] = random.nextInt(6);
+				yr[j] = random.nextInt(6);
+			}
+			if (hasRepeatedVertices(xr, yr))
+				continue;
+			assertEquals(Arrays.toString(xr) + ", " + Arrays.toString(yr), isSelfIntersectingBruteForce(xr, yr), ClosedShapeStatistics.isSelfIntersecting(xr, yr, n));
+			checkMeasurements(xr, yr, 1, 1);
+		}
+	}
+	
+	
+	/**
+	 * Check measurements from vertices against those calculated from a Shape, which are always normalized via an Area.
+	 */
+	private static ClosedShapeStatistics checkMeasurements(float[] x, float[] y, double pixelWidth, double pixelHeight) {
+		Vertices vertices = VerticesFactory.createVertices(x, y, false);
+		ClosedShapeStatistics stats = new ClosedShapeStatistics(vertices, pixelWidth, pixelHeight);
+		Path2D path = new Path2D.Float();
+		path.moveTo(x[0], y[0]);
+		for (int i = 1; i < x.length; i++)
+			path.lineTo(x[i], y[i]);
+		path.closePath();
+		@SuppressWarnings("deprecation")
+		ClosedShapeStatistics expected = new ClosedShapeStatistics(path, pixelWidth, pixelHeight);
+		
+		double tol = Math.max(EPSILON, expected.getArea() * 1e-6);
+		assertEquals(expected.getArea(), stats.getArea(), tol);
+		if (!Double.isNaN(expected.getPerimeter()))
+			assertEquals(expected.getPerimeter(), stats.getPerimeter(), 1e-3);
+		else if (!ClosedShapeStatistics.isSelfIntersecting(x, y, x.length)) {
+			// An Area can split a simple polygon into several touching loops, giving no perimeter - 
+			// but a perimeter should be calculated directly from the vertices
+			double perimeter = 0;
+			for (int i = 0; i < x.length; i++) {
+				int i2 = (i + 1) % x.length;
+				perimeter += Math.sqrt(Math.pow((x[i2] - x[i]) * pixelWidth, 2) + Math.pow((y[i2] - y[i]) * pixelHeight, 2));
+			}
+			assertEquals(perimeter, stats.getPerimeter(), 1e-3);
+		} else
+			assertTrue(Double.isNaN(stats.getPerimeter()));
+		if (expected.getArea() > 0) {
+			assertEquals(expected.getCentroidX(), stats.getCentroidX(), 1e-3);
+			assertEquals(expected.getCentroidY(), stats.getCentroidY(), 1e-3);
+			assertEquals(expected.getBoundsX(), stats.getBoundsX(), EPSILON);
+			assertEquals(expected.getBoundsY(), stats.getBoundsY(), EPSILON);
+			assertEquals(expected.getBoundsWidth(), stats.getBoundsWidth(), EPSILON);
+			assertEquals(expected.getBoundsHeight(), stats.getBoundsHeight(), EPSILON);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Create a star-shaped (and therefore simple) polygon, with vertices at increasing angles around a center.
+	 */
+	private float[][] createStarPolygon(int n) {
+		double[] angles = new double[n];
+		for (int i = 0; i < n; i++)
+			angles[i] = (i + random.nextDouble() * 0.9) * 2 * Math.PI / n;
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			double radius = 10 + random.nextDouble() * 100;
+			x[i] = (float)(200 + radius * Math.cos(angles[i]));
+			y[i] = (float)(200 + radius * Math.sin(angles[i]));
+		}
+		return new float[][] {x, y};
+	}
+	
+	private static boolean hasRepeatedVertices(float[] x, float[] y) {
+		int n = x.length;
+		for (int i = 0; i < n; i++) {
+			if (x[i] == x[(i+1) % n] && y[i] == y[(i+1) % n])
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean isSelfIntersectingBruteForce(float[] x, float[] y) {
+		int n = x.length;
+		for (int i = 0; i < n; i++) {
+			int i2 = (i + 1) % n;
+			for (int j = i + 1; j < n; j++) {
+				int j2 = (j + 1) % n;
+				if (j == i2 || i == j2) {
+					// Adjacent edges intersect only if they double back along the same line
+					int shared = j == i2 ? j : i;
+					int before = j == i2 ? i : j;
+					int after = j == i2 ? j2 : i2;
+					double dx1 = x[shared] - x[before], dy1 = y[shared] - y[before];
+					double dx2 = x[after] - x[shared], dy2 = y[after] - y[shared];
+					if (dx1 * dy2 - dy1 * dx2 == 0 && dx1 * dx2 + dy1 * dy2 < 0)
+						return true;
+				} else if (Line2D.linesIntersect(x[i], y[i], x[i2], y[i2], x[j], y[j], x[j2], y[j2]))
+					return true;
+			}
+		}
+		return false;
+	}
+
+}
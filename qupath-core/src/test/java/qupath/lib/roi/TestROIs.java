@@ -1,6 +1,7 @@
 package qupath.lib.roi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -8,11 +9,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
 import qupath.lib.geom.Point2;
+import qupath.lib.roi.experimental.WindingTest;
 import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
 
 public class TestROIs {
 	
@@ -55,6 +59,56 @@ public class TestROIs {
 	}
 	
 	
+	@Test
+	public void preparedAreaContains() {
+		// Star-shaped polygon, with a star-shaped hole traversed in the opposite direction
+		float[][] outer = createStar(1000, 500, 500, 400, 300, false);
+		float[][] inner = createStar(400, 500, 500, 150, 100, true);
+		PolygonROI poly = new PolygonROI(outer[0], outer[1], -1, 0, 0);
+		AreaROI area = new AreaROI(new float[][] {outer[0], inner[0]}, new float[][] {outer[1], inner[1]}, -1, 0, 0);
+		assertNotNull(ROIHelpers.getPreparedArea(poly));
+		assertNotNull(ROIHelpers.getPreparedArea(area));
+		
+		Vertices vOuter = VerticesFactory.createVertices(outer[0], outer[1], false);
+		Vertices vInner = VerticesFactory.createVertices(inner[0], inner[1], false);
+		Random rand = new Random(100L);
+		for (int i = 0; i < 10000; i++) {
+			double x = rand.nextDouble() * 1100 - 50;
+			double y = rand.nextDouble() * 1100 - 50;
+			// Include integer coordinates, which are more likely to fall on grid boundaries
+			if (i % 2 == 0) {
+				x = Math.round(x);
+				y = Math.round(y);
+			}
+			int wnOuter = WindingTest.getWindingNumber(vOuter, x, y);
+			int wnInner = WindingTest.getWindingNumber(vInner, x, y);
+			assertEquals(wnOuter != 0, poly.contains(x, y));
+			assertEquals(wnOuter + wnInner != 0, area.contains(x, y));
+		}
+		
+		// Regions completely inside, outside or crossing the boundary
+		PreparedArea prepared = ROIHelpers.getPreparedArea(area);
+		assertEquals(PreparedArea.INSIDE, prepared.getRegionStatus(750, 490, 10, 10));
+		assertEquals(PreparedArea.OUTSIDE, prepared.getRegionStatus(490, 490, 10, 10));
+		assertEquals(PreparedArea.OUTSIDE, prepared.getRegionStatus(0, 0, 5, 5));
+		assertEquals(PreparedArea.BOUNDARY, prepared.getRegionStatus(100, 490, 100, 10));
+	}
+	
+	
+	private static float[][] createStar(int n, double cx, double cy, double r1, double r2, boolean reverse) {
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for (int i = 0; i < n; i++) {
+			int ind = reverse ? n - 1 - i : i;
+			double theta = 2 * Math.PI * i / n;
+			double r = i % 2 == 0 ? r1 : r2;
+			x[ind] = (float)(cx + r * Math.cos(theta));
+			y[ind] = (float)(cy + r * Math.sin(theta));
+		}
+		return new float[][] {x, y};
+	}
+	
+	
 	private static void testEqualLines(LineROI roi1, LineROI roi2, double tolerance) {
 		assertEquals(roi1.getX1(), roi2.getX1(), tolerance);
 		assertEquals(roi1.getY1(), roi2.getY1(), tolerance);
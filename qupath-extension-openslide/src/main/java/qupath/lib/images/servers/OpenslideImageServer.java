@@ -27,13 +27,21 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openslide.AssociatedImage;
 import org.openslide.OpenSlide;
@@ -49,6 +57,10 @@ import qupath.lib.regions.RegionRequest;
 
 /**
  * ImageServer implementation using OpenSlide.
+ * <p>
+ * Regions are read using a pool of OpenSlide handles for the same slide, so that multiple threads 
+ * (e.g. for the viewer &amp; any running plugins) can decode tiles concurrently.
+ * The size of the pool can be set with {@link #setDefaultReaderPoolSize(int)} before the server is created.
  * 
  * @author Pete Bankhead
  *
@@ -56,6 +68,16 @@ import qupath.lib.regions.RegionRequest;
 public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 	
 	final private static Logger logger = LoggerFactory.getLogger(OpenslideImageServer.class);
+	
+	private static int defaultReaderPoolSize = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+	
+	// Color model for the premultiplied ARGB data returned by OpenSlide
+	private static ColorModel colorModelARGBPre = new DirectColorModel(
+			ColorModel.getRGBdefault().getColorSpace(), 32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, true, DataBufferInt.TYPE_INT);
+	
+	// Reusable buffers for reading pixels from OpenSlide, which may be larger than required for any specific request
+	private static ThreadLocal<int[]> localBuffer = new ThreadLocal<>();
+	private static final int MAX_REUSABLE_BUFFER_LENGTH = 2048 * 2048;
 
 	private ImageServerMetadata originalMetadata;
 	private ImageServerMetadata userMetadata;
@@ -64,9 +86,45 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 	private List<String> associatedImageList = null;
 	private Map<String, AssociatedImage> associatedImages = null;
 
+	private File file;
 	private OpenSlide osr;
 	private Color backgroundColor;
 	
+	// Native tile size for each level (or -1 if unknown)
+	private int[] levelTileWidths;
+	private int[] levelTileHeights;
+	
+	// Pool of OpenSlide handles used for reading regions
+	private int maxReaders;
+	private List<OpenSlide> allReaders = new ArrayList<>();
+	private BlockingQueue<OpenSlide> availableReaders = new LinkedBlockingQueue<>();
+	private volatile boolean isClosed = false;
+	
+	// Time to wait for a reader before checking whether the server has been closed
+	private static final long READER_WAIT_MILLIS = 100;
+	
+	private ReadStatistics readStatistics = new ReadStatistics();
+	
+	
+	/**
+	 * Set the maximum number of OpenSlide handles that should be opened for each slide, for use when reading regions in parallel.
+	 * This applies to servers created after the method is called.
+	 * 
+	 * @param nReaders
+	 */
+	public static void setDefaultReaderPoolSize(final int nReaders) {
+		defaultReaderPoolSize = Math.max(1, nReaders);
+	}
+	
+	/**
+	 * Get the maximum number of OpenSlide handles that will be opened for each slide.
+	 * 
+	 * @return
+	 */
+	public static int getDefaultReaderPoolSize() {
+		return defaultReaderPoolSize;
+	}
+	
 	
 	private double readNumericPropertyOrDefault(Map<String, String> properties, String name, double defaultValue) {
 		// Try to read a tile size
@@ -88,9 +146,12 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 
 		// Ensure the garbage collector has run - otherwise any previous attempts to load the required native library
 		// from different classloader are likely to cause an error (although upon first further investigation it seems this doesn't really solve the problem...)
-		File file = new File(path);
+		file = new File(path);
 		System.gc();
 		osr = new OpenSlide(file);
+		maxReaders = defaultReaderPoolSize;
+		allReaders.add(osr);
+		availableReaders.add(osr);
 
 		// Parse the parameters
 		int width = (int)osr.getLevel0Width();
@@ -117,8 +178,13 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 		// Loop through the series again & determine downsamples
 		int levelCount = (int)osr.getLevelCount();
 		downsamples = new double[levelCount];
-		for (int i = 0; i < levelCount; i++)
+		levelTileWidths = new int[levelCount];
+		levelTileHeights = new int[levelCount];
+		for (int i = 0; i < levelCount; i++) {
 			downsamples[i] = osr.getLevelDownsample(i);
+			levelTileWidths[i] = (int)readNumericPropertyOrDefault(properties, "openslide.level[" + i + "].tile-width", tileWidth);
+			levelTileHeights[i] = (int)readNumericPropertyOrDefault(properties, "openslide.level[" + i + "].tile-height", tileHeight);
+		}
 		
 		/*
 		 * TODO: Determine associated image names
@@ -169,8 +235,69 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 
 	@Override
 	public void close() {
-		if (osr != null)
-			osr.close();
+		synchronized (allReaders) {
+			isClosed = true;
+			for (OpenSlide reader : allReaders)
+				reader.close();
+			allReaders.clear();
+			availableReaders.clear();
+		}
+		logger.debug("Closing {} - {}", getPath(), readStatistics);
+	}
+	
+	
+	/**
+	 * Get an OpenSlide handle for reading, opening a new one if all are busy &amp; the pool isn't yet full.
+	 * Otherwise, block until one is available.
+	 * <p>
+	 * If the server is closed (before or while waiting), an IOException is thrown.
+	 * <p>
+	 * Each reader must be returned using {@link #releaseReader(OpenSlide)}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private OpenSlide acquireReader() throws IOException, InterruptedException {
+		OpenSlide reader = availableReaders.poll();
+		if (reader != null)
+			return reader;
+		synchronized (allReaders) {
+			if (isClosed)
+				throw new IOException("Server has been closed");
+			if (allReaders.size() < maxReaders) {
+				reader = new OpenSlide(file);
+				allReaders.add(reader);
+				logger.debug("Opened OpenSlide reader {} of {} for {}", allReaders.size(), maxReaders, getPath());
+				return reader;
+			}
+		}
+		// Wait for a reader, but check periodically in case the server has been closed (in which case none will be returned)
+		long startTime = System.nanoTime();
+		while (reader == null) {
+			if (isClosed)
+				throw new IOException("Server has been closed");
+			reader = availableReaders.poll(READER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		readStatistics.addWait(System.nanoTime() - startTime);
+		return reader;
+	}
+	
+	private void releaseReader(final OpenSlide reader) {
+		// Synchronize so that a reader can't be returned after close() has cleared the pool
+		synchronized (allReaders) {
+			if (!isClosed)
+				availableReaders.add(reader);
+		}
+	}
+	
+	/**
+	 * Get statistics describing the time spent reading regions from this slide.
+	 * 
+	 * @return
+	 */
+	public ReadStatistics getReadStatistics() {
+		return readStatistics;
 	}
 
 	/**
@@ -204,36 +331,109 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 		double downsample = downsamples[level];
 		int levelWidth = (int)(region.width / downsample + .5);
 		int levelHeight = (int)(region.height / downsample + .5);
-		BufferedImage img = new BufferedImage(levelWidth, levelHeight, BufferedImage.TYPE_INT_ARGB_PRE);
-
-        int data[] = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
-        
-        try {
-			// Create a thumbnail for the region
-			osr.paintRegionARGB(data, region.x, region.y, level, levelWidth, levelHeight);
-			
-			// Previously tried to take shortcut and only repaint if needed - 
-			// but transparent pixels happened too often, and it's really needed to repaint every time
-//			if (backgroundColor == null && GeneralTools.almostTheSame(downsample, downsampleFactor, 0.001))
-//				return img;
-			
-			// Rescale if we have to
-			int width = (int)(region.width / downsampleFactor + .5);
-			int height = (int)(region.height / downsampleFactor + .5);
-//			BufferedImage img2 = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			BufferedImage img2 = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-			Graphics2D g2d = img2.createGraphics();
-			if (backgroundColor != null) {
-				g2d.setColor(backgroundColor);
-				g2d.fillRect(0, 0, width, height);
-			}
-			g2d.drawImage(img, 0, 0, width, height, null);
-			g2d.dispose();
-			return img2;
+		
+		// Reuse the buffer for this thread if we can
+		// (but don't hold on to very large buffers, e.g. for thumbnails)
+		int[] data = localBuffer.get();
+		if (data == null || data.length < levelWidth * levelHeight) {
+			data = new int[levelWidth * levelHeight];
+			if (data.length <= MAX_REUSABLE_BUFFER_LENGTH)
+				localBuffer.set(data);
+		}
+		
+		OpenSlide reader = null;
+		try {
+			reader = acquireReader();
+			long startTime = System.nanoTime();
+			reader.paintRegionARGB(data,
+					alignToTileGrid(region.x, downsample, levelTileWidths[level]),
+					alignToTileGrid(region.y, downsample, levelTileHeights[level]),
+					level, levelWidth, levelHeight);
+			readStatistics.addRead(System.nanoTime() - startTime);
 		} catch (Exception e) {
-			e.printStackTrace();
+			logger.error("Unable to read region " + request, e);
+			return null;
+		} finally {
+			if (reader != null)
+				releaseReader(reader);
+		}
+		
+		// Previously tried to take shortcut and only repaint if needed - 
+		// but transparent pixels happened too often, and it's really needed to repaint every time
+		int width = (int)(region.width / downsampleFactor + .5);
+		int height = (int)(region.height / downsampleFactor + .5);
+		BufferedImage img2 = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int background = backgroundColor == null ? 0 : backgroundColor.getRGB();
+		if (width == levelWidth && height == levelHeight) {
+			// No rescaling needed, so composite directly over the background
+			int[] rgb = ((DataBufferInt)img2.getRaster().getDataBuffer()).getData();
+			compositeOverBackground(data, rgb, width * height, background);
+			return img2;
+		}
+		
+		// Rescale if we have to, wrapping the buffer in an image without copying
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, levelWidth * levelHeight), levelWidth, levelHeight, levelWidth,
+				new int[]{0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000}, null);
+		BufferedImage img = new BufferedImage(colorModelARGBPre, raster, true, null);
+		Graphics2D g2d = img2.createGraphics();
+		if (backgroundColor != null) {
+			g2d.setColor(backgroundColor);
+			g2d.fillRect(0, 0, width, height);
+		}
+		g2d.drawImage(img, 0, 0, width, height, null);
+		g2d.dispose();
+		return img2;
+	}
+	
+	
+	/**
+	 * Adjust a full-resolution coordinate so that, if it is within half a pixel of a native tile boundary at the specified level, 
+	 * it maps exactly to that boundary.
+	 * <p>
+	 * This avoids OpenSlide needing to decode neighboring tiles because of rounding errors introduced by 
+	 * non-integer level downsamples.
+	 * 
+	 * @param x
+	 * @param downsample
+	 * @param tileSize
+	 * @return
+	 */
+	static long alignToTileGrid(final long x, final double downsample, final int tileSize) {
+		if (tileSize <= 0 || downsample == 1)
+			return x;
+		double levelX = x / downsample;
+		long boundary = Math.round(levelX / tileSize) * tileSize;
+		if (Math.abs(levelX - boundary) >= 0.5)
+			return x;
+		return (long)Math.ceil(boundary * downsample);
+	}
+	
+	
+	/**
+	 * Composite premultiplied ARGB pixels over an opaque background color, writing the result as packed RGB.
+	 * 
+	 * @param argbPre
+	 * @param rgb
+	 * @param n
+	 * @param background
+	 */
+	static void compositeOverBackground(final int[] argbPre, final int[] rgb, final int n, final int background) {
+		int rb = (background >> 16) & 0xff;
+		int gb = (background >> 8) & 0xff;
+		int bb = background & 0xff;
+		for (int i = 0; i < n; i++) {
+			int val = argbPre[i];
+			int alpha = val >>> 24;
+			if (alpha == 255) {
+				rgb[i] = val & 0xffffff;
+				continue;
+			}
+			int inv = 255 - alpha;
+			int r = ((val >> 16) & 0xff) + (rb * inv + 127) / 255;
+			int g = ((val >> 8) & 0xff) + (gb * inv + 127) / 255;
+			int b = (val & 0xff) + (bb * inv + 127) / 255;
+			rgb[i] = (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
 		}
-		return null;
 	}
 
 	@Override
@@ -321,4 +521,76 @@ public class OpenslideImageServer extends AbstractImageServer<BufferedImage> {
 		userMetadata = metadata;
 	}
 
+	
+	/**
+	 * Counters describing the time spent reading regions from a slide.
+	 */
+	public static class ReadStatistics {
+		
+		private AtomicLong nReads = new AtomicLong();
+		private AtomicLong readNanos = new AtomicLong();
+		private AtomicLong maxReadNanos = new AtomicLong();
+		private AtomicLong nWaits = new AtomicLong();
+		private AtomicLong waitNanos = new AtomicLong();
+		
+		void addRead(final long nanos) {
+			nReads.incrementAndGet();
+			readNanos.addAndGet(nanos);
+			maxReadNanos.accumulateAndGet(nanos, Math::max);
+		}
+		
+		void addWait(final long nanos) {
+			nWaits.incrementAndGet();
+			waitNanos.addAndGet(nanos);
+		}
+		
+		/**
+		 * Number of regions read.
+		 * @return
+		 */
+		public long getReadCount() {
+			return nReads.get();
+		}
+		
+		/**
+		 * Mean time taken to read a region, in milliseconds (or NaN if no regions have been read).
+		 * @return
+		 */
+		public double getMeanReadMillis() {
+			long n = nReads.get();
+			return n == 0 ? Double.NaN : readNanos.get() / 1e6 / n;
+		}
+		
+		/**
+		 * Maximum time taken to read a region, in milliseconds.
+		 * @return
+		 */
+		public double getMaxReadMillis() {
+			return maxReadNanos.get() / 1e6;
+		}
+		
+		/**
+		 * Number of times a read had to wait for an OpenSlide handle to become available.
+		 * @return
+		 */
+		public long getWaitCount() {
+			return nWaits.get();
+		}
+		
+		/**
+		 * Total time spent waiting for an OpenSlide handle to become available, in milliseconds.
+		 * @return
+		 */
+		public double getTotalWaitMillis() {
+			return waitNanos.get() / 1e6;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d reads (mean %.2f ms, max %.2f ms), %d waits for a reader (total %.2f ms)",
+					getReadCount(), getMeanReadMillis(), getMaxReadMillis(), getWaitCount(), getTotalWaitMillis());
+		}
+		
+	}
+
 }
@@ -218,6 +218,7 @@ import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.PyramidCachingImageServer;
 import qupath.lib.images.servers.RotatedImageServer;
 import qupath.lib.images.stores.DefaultImageRegionStore;
 import qupath.lib.images.stores.ImageRegionStore;
@@ -562,6 +563,8 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
                 logger.error("Error saving preferences");
 
             // Shut down any pools we know about
+            if (projectBrowser != null)
+                projectBrowser.close();
             poolMultipleThreads.shutdownNow();
             for (ExecutorService pool : mapSingleThreadPools.values())
                 pool.shutdownNow();
@@ -672,6 +675,10 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
         // Listen for cache request changes
         PathPrefs.useProjectImageCacheProperty().addListener(v -> updateProjectActionStates());
 
+        // Keep the tile prefetching in sync with the preferences
+        imageRegionStore.setPrefetchBudget(PathPrefs.getTilePrefetchBudget());
+        PathPrefs.tilePrefetchBudgetProperty().addListener((v, o, n) -> imageRegionStore.setPrefetchBudget(n.intValue()));
+
         // Menus should now be complete
         initializingMenus.set(false);
 
@@ -2242,6 +2249,7 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
                     if (!DisplayHelpers.showYesNoDialog("Replace open image", "Close " + server.getShortServerName() + "?"))
                         return false;
                 }
+                serverNew = wrapServerWithPyramidCache(serverNew);
                 if (rotate180)
                     serverNew = new RotatedImageServer(serverNew);
                 ImageData<BufferedImage> imageData = createNewImageData(serverNew); // TODO: DEAL WITH PATHOBJECT HIERARCHIES!
@@ -2268,6 +2276,32 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
         return false;
     }
 
+    /**
+     * Wrap a server so that large, non-pyramidal images are given downsampled levels stored in a disk cache,
+     * if requested in the preferences.
+     * <p>
+     * This is opt-in, since the wrapped server is also used for analysis: requests at a downsample &gt; 1 are then 
+     * resampled from the cached levels rather than read directly.
+     * <p>
+     * The cache is stored within the project directory if a project is open, or within a temporary directory otherwise.
+     *
+     * @param server
+     * @return the wrapped server, or the original server if no pyramid is required
+     *
+     * @see PyramidCachingImageServer
+     */
+    public ImageServer<BufferedImage> wrapServerWithPyramidCache(final ImageServer<BufferedImage> server) {
+        if (!PathPrefs.usePyramidCache())
+            return server;
+        Project<BufferedImage> project = getProject();
+        File cacheDirectory;
+        if (project != null)
+            cacheDirectory = new File(new File(project.getBaseDirectory(), "cache"), "pyramids");
+        else
+            cacheDirectory = new File(System.getProperty("java.io.tmpdir"), "qupath-pyramids");
+        return PyramidCachingImageServer.wrapIfNeeded(server, cacheDirectory, PathPrefs.getPyramidCacheSizeMB() * 1024L * 1024L);
+    }
+
     public void closeCurrentImage() {
         QuPathViewerPlus viewer = getViewer();
         viewer.setImageData(null);
@@ -2390,6 +2424,7 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
                     return false;
 //				}
             }
+            server = wrapServerWithPyramidCache(server);
 
             // Small optimization... put in a thumbnail request early in a background thread.
             // This way that it will be fetched while the image data is being read -
@@ -413,7 +413,7 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 		TableViewerListener tableViewerListener = new TableViewerListener(viewer, table);
 
 		frame.setOnShowing(e -> {
-			hierarchy.addPathObjectListener(listener);
+			hierarchy.addPathObjectListener(listener, Platform::runLater);
 			viewer.addViewerListener(tableViewerListener);
 		});
 		frame.setOnHiding(e -> {
@@ -72,6 +72,7 @@ import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.PathLine;
 import qupath.lib.roi.interfaces.PathPoints;
 import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
 
 /**
  * A table data model to supply observable measurements of PathObjects.
@@ -1297,22 +1298,29 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 				@Override
 				protected double computeValue() {
 					ROI roi = pathObject.getROI();
-					List<Point2> points;
-					if (roi instanceof PolygonROI)
-						points = ((PolygonROI)roi).getPolygonPoints();
-					else if (roi instanceof AreaROI)
-						points = ((AreaROI)roi).getPolygonPoints();
-					else
+					float[] x;
+					float[] y;
+					if (roi instanceof PolygonROI) {
+						Vertices vertices = ((PolygonROI)roi).getVertices();
+						x = vertices.getX(null);
+						y = vertices.getY(null);
+					} else if (roi instanceof AreaROI) {
+						List<Point2> points = ((AreaROI)roi).getPolygonPoints();
+						x = new float[points.size()];
+						y = new float[points.size()];
+						for (int i = 0; i < points.size(); i++) {
+							x[i] = (float)points.get(i).getX();
+							y[i] = (float)points.get(i).getY();
+						}
+					} else
 						return Double.NaN;
 					double xScale = hasPixelSizeMicrons() ? pixelWidthMicrons() : 1;
 					double yScale = hasPixelSizeMicrons() ? pixelHeightMicrons() : 1;
 					double maxLengthSq = 0;
-					for (int i = 0; i < points.size(); i++) {
-						Point2 pi = points.get(i);
-						for (int j = i+1; j < points.size(); j++) {
-							Point2 pj = points.get(j);
-							double dx = (pi.getX() - pj.getX()) * xScale;
-							double dy = (pi.getY() - pj.getY()) * yScale;
+					for (int i = 0; i < x.length; i++) {
+						for (int j = i+1; j < x.length; j++) {
+							double dx = ((double)x[i] - x[j]) * xScale;
+							double dy = ((double)y[i] - y[j]) * yScale;
 							maxLengthSq = Math.max(maxLengthSq, dx*dx + dy*dy);
 						}
 					}
@@ -393,7 +393,8 @@ public class PathObjectHierarchyView implements ImageDataChangeListener<Buffered
 		this.imageData = imageData;
 		PathObjectHierarchy hierarchy = imageData == null ? null : imageData.getHierarchy();
 		if (hierarchy != null) {
-			hierarchy.addPathObjectListener(this);
+			// Rebuilding the tree is expensive, so coalesce events on the application thread
+			hierarchy.addPathObjectListener(this, Platform::runLater);
 			hierarchy.getSelectionModel().addPathObjectSelectionListener(this);
 			treeView.setRoot(createNode(hierarchy.getRootObject()));
 		} else
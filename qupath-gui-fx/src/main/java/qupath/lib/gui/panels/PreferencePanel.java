@@ -116,6 +116,12 @@ public class PreferencePanel {
 						+ "\nThis should be > 0 and <= the available processors on the computer."
 						+ "\nIf outside this range, it will default to the available processors (here, " + Runtime.getRuntime().availableProcessors() + ")"
 						+ "\nIt's usually fine to use the default, but it may help to decrease it if you encounter out-of-memory errors.");
+		
+		addPropertyPreference(PathPrefs.batchParallelImagesProperty(), Integer.class,
+				"Number of images for parallel scripts",
+				category,
+				"Set the maximum number of images to process at the same time when running a script for a project."
+						+ "\nIncreasing this can help make better use of computers with many processors, but requires more memory.");
 
 		addPropertyPreference(PathPrefs.autoEstimateImageTypeProperty(), Boolean.class,
 				"Auto-estimate image type on opening",
@@ -155,6 +161,16 @@ public class PreferencePanel {
 			category,
 			"Store image tiles for hosted images of each project in a local cache.\nThis avoids requiring lengthy HTTP requests every time an image is (re)analysed or viewed, at the cost of needing more local storage space.");
 		
+		addPropertyPreference(PathPrefs.usePyramidCacheProperty(), Boolean.class,
+			"Use pyramid cache for large images",
+			category,
+			"Generate downsampled levels for large images that don't already contain them, and store them in a local cache.\nThis makes viewing & thumbnails much faster after the first time an image is opened, at the cost of needing more local storage space.\nNote that analysis at a downsample > 1 will then also use the generated levels, which can change measurements.");
+		
+		addPropertyPreference(PathPrefs.pyramidCacheSizeMBProperty(), Integer.class,
+			"Pyramid cache size (MB)",
+			category,
+			"Maximum amount of local storage space that should be used to cache generated pyramid levels");
+		
 		addPropertyPreference(PathPrefs.tmaExportDownsampleProperty(), Double.class,
 			"TMA export downsample factor",
 			category,
@@ -170,6 +186,10 @@ public class PreferencePanel {
 				"Use bilinear interpolation", category, 
 				"Use bilinear interpolation for displaying image in the viewer (default is nearest-neighbor)");
 		
+		addPropertyPreference(PathPrefs.tilePrefetchBudgetProperty(), Integer.class,
+				"Tile prefetch budget", category, 
+				"Maximum number of image tiles to load in advance, based upon how the viewer is moving - set to 0 to turn off prefetching");
+		
 		addPropertyPreference(PathPrefs.viewerGammaProperty(), Double.class,
 				"Gamma value (display only)", category, 
 				"Set the gamma value applied to the image in the viewer for display - recommended to leave at default value of 1");
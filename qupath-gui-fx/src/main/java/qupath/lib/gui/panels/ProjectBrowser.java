@@ -43,10 +43,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
 import java.util.TreeMap;
 
-import javax.imageio.ImageIO;
 
 import javafx.scene.layout.*;
 import org.controlsfx.control.MasterDetailPane;
@@ -55,10 +53,8 @@ import org.controlsfx.control.action.ActionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Insets;
 import javafx.geometry.Side;
 import javafx.scene.canvas.Canvas;
@@ -121,8 +117,8 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
     private ProjectImageTreeModel model = new ProjectImageTreeModel(null);
     private TreeView<Object> tree = new TreeView<>();
 
-    // Keep a record of servers we've requested - don't want to keep putting in requests if the server is unavailable
-    private Set<String> serversRequested = new HashSet<>();
+    // Generate, cache & load thumbnails in the background
+    private ProjectThumbnailService thumbnailService = createThumbnailService();
 
     private StringProperty descriptionText = new SimpleStringProperty();
 
@@ -265,10 +261,11 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
                 BufferedImage imgThumbnail = qupath.getViewer().getRGBThumbnail();
                 imgThumbnail = resizeForThumbnail(imgThumbnail);
                 try {
-                    ImageIO.write(imgThumbnail, THUMBNAIL_EXT, fileThumbnail);
+                    thumbnailService.writeThumbnail(imgThumbnail, fileThumbnail);
                 } catch (IOException e1) {
                     logger.error("Error writing thumbnail", e1);
                 }
+                thumbnailService.invalidate(fileThumbnail);
                 tree.refresh();
             }
         });
@@ -477,9 +474,23 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
         if (this.project == project)
             return;
         this.project = project;
+        // Stop any thumbnail requests for the previous project, so that they can't write into it after it has been replaced
+        thumbnailService.close();
+        thumbnailService = createThumbnailService();
         this.refreshProject();
     }
 
+    /**
+     * Stop generating thumbnails in the background, e.g. because QuPath is being closed.
+     */
+    public void close() {
+        thumbnailService.close();
+    }
+
+    private ProjectThumbnailService createThumbnailService() {
+        return new ProjectThumbnailService(this::readThumbnail, () -> tree.refresh(), THUMBNAIL_EXT);
+    }
+
     public void refreshProject() {
         model = new ProjectImageTreeModel(project);
         tree.setRoot(model.getRootFX());
@@ -539,18 +550,17 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
     }
 
 
-    Image requestThumbnail(final String serverPath, final File fileThumbnail) throws IOException {
-//		serversRequested.clear();
-
-        // Check if we've already asked for this server... if so, stop
-        if (serversRequested.contains(serverPath))
-            return null;
-        // Put in the request now
-        serversRequested.add(serverPath);
-        // Check if it exists
-        if (fileThumbnail.exists())
-            return SwingFXUtils.toFXImage(ImageIO.read(fileThumbnail), null);
-        // Try to load the server
+    /**
+     * Read a thumbnail for the specified server path, suitable for writing to the project.
+     * <p>
+     * If the path does not correspond to the current image, a new server is created and closed immediately afterwards.
+     *
+     * @param serverPath
+     * @return
+     * @throws IOException
+     */
+    BufferedImage readThumbnail(final String serverPath) throws IOException {
+        // Reuse the current server if we can
         ImageData<BufferedImage> imageData = getCurrentImageData();
         ImageServer<BufferedImage> server = null;
         boolean newServer = false;
@@ -560,28 +570,50 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
             server = ImageServerProvider.buildServer(serverPath, BufferedImage.class);
             newServer = true;
         }
-        BufferedImage img2 = QuPathGUI.getInstance().getImageRegionStore().getThumbnail(server, server.nZSlices() / 2, 0, true);
-        if (newServer)
-            server.close();
-        if (img2 != null) {
-            // Try to write RGB images directly
-            boolean success = false;
-            if (server.isRGB() || img2.getType() == BufferedImage.TYPE_BYTE_GRAY) {
-                img2 = resizeForThumbnail(img2);
-                success = ImageIO.write(img2, THUMBNAIL_EXT, fileThumbnail);
-            }
-            if (!success) {
-                // Try with display transforms
-                ImageDisplay imageDisplay = new ImageDisplay(new ImageData<>(server), qupath.getImageRegionStore(), false);
-                for (ChannelDisplayInfo info : imageDisplay.getSelectedChannels()) {
-                    imageDisplay.autoSetDisplayRange(info);
-                }
-                img2 = imageDisplay.applyTransforms(img2, null);
-                img2 = resizeForThumbnail(img2);
-                ImageIO.write(img2, THUMBNAIL_EXT, fileThumbnail);
+        if (server == null)
+            return null;
+        try {
+            BufferedImage img;
+            if (newServer)
+                // Read directly, rather than filling the shared tile cache with images that may never be opened
+                img = server.getBufferedThumbnail(thumbnailWidth, thumbnailHeight, server.nZSlices() / 2);
+            else
+                img = qupath.getImageRegionStore().getThumbnail(server, server.nZSlices() / 2, 0, true);
+            if (img == null)
+                return null;
+            // Use RGB images directly
+            if (img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_BYTE_GRAY)
+                return resizeForThumbnail(img);
+            if (server.isRGB())
+                return resizeForThumbnail(convertToRGB(img));
+            // Otherwise apply display transforms
+            ImageDisplay imageDisplay = new ImageDisplay(new ImageData<>(server), qupath.getImageRegionStore(), false);
+            for (ChannelDisplayInfo info : imageDisplay.getSelectedChannels()) {
+                imageDisplay.autoSetDisplayRange(info);
             }
+            img = imageDisplay.applyTransforms(img, null);
+            return resizeForThumbnail(convertToRGB(img));
+        } finally {
+            if (newServer)
+                server.close();
         }
-        return SwingFXUtils.toFXImage(img2, null);
+    }
+
+
+    /**
+     * Ensure an image is of TYPE_INT_RGB, so that it can be written as a JPEG.
+     *
+     * @param img
+     * @return
+     */
+    static BufferedImage convertToRGB(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_RGB)
+            return img;
+        BufferedImage img2 = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = img2.createGraphics();
+        g2d.drawImage(img, 0, 0, null);
+        g2d.dispose();
+        return img2;
     }
 
 
@@ -606,26 +638,6 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
     }
 
 
-    void requestThumbnailInBackground(final String serverPath, final File fileThumbnail) {
-        // Don't do anything if already requested
-        if (serversRequested.contains(serverPath))
-            return;
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Image image = requestThumbnail(serverPath, fileThumbnail);
-                    if (image != null)
-                        Platform.runLater(() -> tree.refresh());
-                } catch (IOException e) {
-                    logger.error("Problem loading thumbnail for {}", serverPath, e);
-                }
-            }
-        };
-        qupath.submitShortTask(r);
-    }
-
-
     //	@Override
     //	public void valueChanged(ListSelectionEvent e) {
     //		updateThumbnailForSelected();
@@ -1113,8 +1125,9 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
                     return;
                 }
 
-                if (fileThumbnail.exists()) {
-                    Image image = new Image(fileThumbnail.toURI().toString(), false);
+                // Request the thumbnail on a background thread if it isn't available yet
+                Image image = thumbnailService.getThumbnail(entry.getServerPath(), fileThumbnail);
+                if (image != null) {
                     viewTooltip.setImage(image);
                     tooltip.setGraphic(viewTooltip);
                     PaintingToolsFX.paintImage(viewCanvas, image);
@@ -1122,9 +1135,6 @@ public class ProjectBrowser implements ImageDataChangeListener<BufferedImage> {
                         setGraphic(label);
                 } else {
                     setGraphic(null);
-                    // Put in a request for the thumbnail on a background thread
-                    requestThumbnailInBackground(entry.getServerPath(), fileThumbnail);
-//					requestThumbnailInBackground(entry.getServerPath(), fileThumbnail, viewGraphic, viewTooltip);
                 }
 
             }
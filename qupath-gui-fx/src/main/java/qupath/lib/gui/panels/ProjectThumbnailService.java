@@ -0,0 +1,293 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.panels;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import qupath.lib.common.SimpleThreadFactory;
+
+/**
+ * Background service for generating, caching and loading project thumbnails.
+ * <p>
+ * Requests are handled by a small, bounded pool of worker threads. The most recent requests are
+ * served first, so that thumbnails for cells that have just scrolled into view take priority
+ * over those that have already scrolled out.
+ * <p>
+ * Thumbnails are cached on disk, and regenerated whenever the image file has been modified since
+ * the thumbnail was written. Decoded images are also kept in a bounded in-memory cache, so that
+ * refreshing the tree does not require reading every thumbnail again.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class ProjectThumbnailService {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ProjectThumbnailService.class);
+	
+	/**
+	 * Maximum number of decoded thumbnails to retain in memory.
+	 */
+	private final static int MAX_CACHED_IMAGES = 200;
+	
+	/**
+	 * Maximum size of decoded thumbnails; this is sufficient for tooltips, and smaller than the size written to disk.
+	 */
+	private final static double MAX_DISPLAY_SIZE = 250;
+	
+	/**
+	 * Interface for anything that can read a thumbnail image for a server path.
+	 * <p>
+	 * Implementations are responsible for closing any servers they create before returning.
+	 */
+	static interface ThumbnailReader {
+		
+		/**
+		 * Read a thumbnail image, or return null if no thumbnail is available.
+		 * 
+		 * @param serverPath
+		 * @return
+		 * @throws IOException
+		 */
+		public BufferedImage readThumbnail(String serverPath) throws IOException;
+		
+	}
+	
+	private ThumbnailReader reader;
+	private Runnable refresher;
+	private String ext;
+	
+	private ThreadPoolExecutor pool;
+	
+	private Map<String, Image> images = Collections.synchronizedMap(new LinkedHashMap<String, Image>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+			return size() > MAX_CACHED_IMAGES;
+		}
+	});
+	
+	// Thumbnails currently being loaded or generated
+	private Set<String> pending = ConcurrentHashMap.newKeySet();
+	
+	// Keep a record of servers that couldn't provide a thumbnail - don't want to keep putting in requests if the server is unavailable
+	private Set<String> failed = ConcurrentHashMap.newKeySet();
+	
+	private AtomicBoolean refreshRequested = new AtomicBoolean(false);
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param reader used to read thumbnails that are not already available on disk
+	 * @param refresher called on the Application thread whenever new thumbnails become available; multiple calls are coalesced
+	 * @param ext the extension (and format) used when writing thumbnails
+	 */
+	ProjectThumbnailService(final ThumbnailReader reader, final Runnable refresher, final String ext) {
+		this.reader = reader;
+		this.refresher = refresher;
+		this.ext = ext;
+		int nThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+		pool = new ThreadPoolExecutor(nThreads, nThreads, 5, TimeUnit.SECONDS, new LifoBlockingDeque<>(), new SimpleThreadFactory("project-thumbnails-", true));
+		pool.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Get the thumbnail image if it is immediately available, or request it in the background otherwise.
+	 * <p>
+	 * If a request is needed, this returns null and the refresher will be called when the image is ready.
+	 * 
+	 * @param serverPath
+	 * @param fileThumbnail
+	 * @return
+	 */
+	Image getThumbnail(final String serverPath, final File fileThumbnail) {
+		String key = fileThumbnail.getAbsolutePath();
+		Image image = images.get(key);
+		if (image != null)
+			return image;
+		requestThumbnail(serverPath, fileThumbnail);
+		return null;
+	}
+	
+	/**
+	 * Request that the thumbnail is loaded (or generated) in the background.
+	 * 
+	 * @param serverPath
+	 * @param fileThumbnail
+	 */
+	void requestThumbnail(final String serverPath, final File fileThumbnail) {
+		String key = fileThumbnail.getAbsolutePath();
+		if (closed || failed.contains(serverPath) || !pending.add(key))
+			return;
+		pool.execute(() -> {
+			try {
+				// Check we still need the image, in case it was generated by an earlier request
+				if (closed || images.containsKey(key))
+					return;
+				Image image = loadThumbnail(serverPath, fileThumbnail);
+				if (closed)
+					return;
+				if (image == null) {
+					failed.add(serverPath);
+					return;
+				}
+				images.put(key, image);
+				requestRefresh();
+			} catch (Exception e) {
+				failed.add(serverPath);
+				logger.error("Problem loading thumbnail for {}", serverPath, e);
+			} finally {
+				pending.remove(key);
+			}
+		});
+	}
+	
+	private Image loadThumbnail(final String serverPath, final File fileThumbnail) throws IOException {
+		if (!isThumbnailValid(serverPath, fileThumbnail)) {
+			BufferedImage img = reader.readThumbnail(serverPath);
+			// Don't write anything if the service was closed while reading (e.g. because the project has changed)
+			if (img == null || closed)
+				return null;
+			writeThumbnail(img, fileThumbnail);
+		}
+		Image image = new Image(fileThumbnail.toURI().toString(), MAX_DISPLAY_SIZE, MAX_DISPLAY_SIZE, true, true, false);
+		if (image.isError()) {
+			logger.warn("Unable to read thumbnail from {}", fileThumbnail);
+			return null;
+		}
+		return image;
+	}
+	
+	/**
+	 * Write a thumbnail to a temporary file first, and then move it into place - 
+	 * so that other threads will never see a partially-written thumbnail.
+	 * 
+	 * @param img
+	 * @param fileThumbnail
+	 * @throws IOException
+	 */
+	void writeThumbnail(final BufferedImage img, final File fileThumbnail) throws IOException {
+		File dir = fileThumbnail.getParentFile();
+		if (dir != null && !dir.exists())
+			dir.mkdirs();
+		File fileTemp = new File(dir, fileThumbnail.getName() + ".tmp");
+		try {
+			if (!ImageIO.write(img, ext, fileTemp))
+				throw new IOException("No writer available for thumbnail format " + ext);
+			Files.move(fileTemp.toPath(), fileThumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			fileTemp.delete();
+		}
+	}
+	
+	/**
+	 * Check if a thumbnail file exists, and is no older than the image file it was generated from.
+	 * <p>
+	 * If the server path does not correspond to a local file, any existing thumbnail is considered valid.
+	 * 
+	 * @param serverPath
+	 * @param fileThumbnail
+	 * @return
+	 */
+	static boolean isThumbnailValid(final String serverPath, final File fileThumbnail) {
+		if (!fileThumbnail.isFile())
+			return false;
+		File fileImage = new File(serverPath);
+		return !fileImage.isFile() || fileImage.lastModified() <= fileThumbnail.lastModified();
+	}
+	
+	/**
+	 * Remove any in-memory image for a thumbnail file, e.g. because it has been rewritten.
+	 * 
+	 * @param fileThumbnail
+	 */
+	void invalidate(final File fileThumbnail) {
+		images.remove(fileThumbnail.getAbsolutePath());
+	}
+	
+	/**
+	 * Discard all pending requests and stop the worker threads, e.g. because the project has changed.
+	 * <p>
+	 * Requests already running will complete, but their thumbnails will not be written or displayed.
+	 * The service cannot be used again afterwards.
+	 */
+	void close() {
+		closed = true;
+		pool.getQueue().clear();
+		pool.shutdown();
+		images.clear();
+	}
+	
+	private void requestRefresh() {
+		if (refreshRequested.compareAndSet(false, true)) {
+			Platform.runLater(() -> {
+				refreshRequested.set(false);
+				refresher.run();
+			});
+		}
+	}
+	
+	
+	/**
+	 * Deque that hands out the most recently-added elements first.
+	 */
+	static class LifoBlockingDeque<E> extends LinkedBlockingDeque<E> {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean offer(E e) {
+			return super.offerFirst(e);
+		}
+		
+		@Override
+		public boolean add(E e) {
+			super.addFirst(e);
+			return true;
+		}
+		
+	}
+
+}
@@ -1577,8 +1577,14 @@ public class ClassifierBuilderPanel<T extends PathObjectClassifier> implements P
 		if (event.isStructureChangeEvent()) {
 			// Don't respond to adding/removing annotation objects without classes set
 			if (event.isAddedOrRemovedEvent()) {
-				PathObject pathObjectChanged = event.getChangedObjects().get(0);
-				if (!(pathObjectChanged instanceof PathAnnotationObject) || pathObjectChanged.getPathClass() == null)
+				boolean containsClassifiedAnnotations = false;
+				for (PathObject pathObjectChanged : event.getChangedObjects()) {
+					if (pathObjectChanged instanceof PathAnnotationObject && pathObjectChanged.getPathClass() != null) {
+						containsClassifiedAnnotations = true;
+						break;
+					}
+				}
+				if (!containsClassifiedAnnotations)
 					return;
 			}
 		} else if (event.isObjectClassificationEvent()) {
@@ -101,6 +101,51 @@ public class PathPrefs {
 		useProjectImageCache.set(useCache);
 	}
 
+	private static BooleanProperty usePyramidCache = createPersistentPreference("usePyramidCache", Boolean.FALSE);
+	
+	/**
+	 * If true, then downsampled levels will be generated &amp; cached for large, non-pyramidal images when they are opened in the viewer.
+	 * <p>
+	 * Tiles are stored within the project 'cache' directory if a project is open, or within a temporary directory otherwise.
+	 * <p>
+	 * This is off by default, because the wrapped server is also used for analysis - and commands that request 
+	 * downsampled regions will then receive pixels interpolated from the cached levels, rather than those provided by the original reader.
+	 * 
+	 * @return
+	 * 
+	 * @see qupath.lib.images.servers.PyramidCachingImageServer
+	 */
+	public static BooleanProperty usePyramidCacheProperty() {
+		return usePyramidCache;
+	}
+
+	public static boolean usePyramidCache() {
+		return usePyramidCache.get();
+	}
+
+	public static void setUsePyramidCache(final boolean useCache) {
+		usePyramidCache.set(useCache);
+	}
+	
+	private static IntegerProperty pyramidCacheSizeMB = createPersistentPreference("pyramidCacheSizeMB", 2048);
+	
+	/**
+	 * Maximum size of the disk cache used for generated pyramid levels, in MB.
+	 * 
+	 * @return
+	 */
+	public static IntegerProperty pyramidCacheSizeMBProperty() {
+		return pyramidCacheSizeMB;
+	}
+
+	public static int getPyramidCacheSizeMB() {
+		return pyramidCacheSizeMB.get();
+	}
+
+	public static void setPyramidCacheSizeMB(final int sizeMB) {
+		pyramidCacheSizeMB.set(sizeMB);
+	}
+
 	private static StringProperty scriptsPath = createPersistentPreference("scriptsPath", (String)null); // Base directory containing scripts
 
 	// Known whole slide image extensions
@@ -140,6 +185,27 @@ public class PathPrefs {
 	}
 	
 	
+	private static IntegerProperty batchParallelImages = createPersistentPreference("batchParallelImages", 1);
+	
+	/**
+	 * Maximum number of images to process in parallel when running a script for a project.
+	 * Fewer images may be processed in parallel if there is insufficient memory available.
+	 * 
+	 * @return
+	 */
+	public static IntegerProperty batchParallelImagesProperty() {
+		return batchParallelImages;
+	}
+	
+	public static int getBatchParallelImages() {
+		return batchParallelImages.get();
+	}
+	
+	public static void setBatchParallelImages(final int n) {
+		batchParallelImages.set(n);
+	}
+	
+	
 	
 	private static BooleanProperty doAutoUpdateCheck = createPersistentPreference("doAutoUpdateCheck", Boolean.TRUE);
 	
@@ -776,6 +842,27 @@ public class PathPrefs {
 		}
 	
 	
+	private static IntegerProperty tilePrefetchBudget = createPersistentPreference("tilePrefetchBudget", 16);
+	
+	/**
+	 * Maximum number of image tiles that may be prefetched at any time, in anticipation of the viewer moving.
+	 * Set to 0 to turn off prefetching.
+	 * 
+	 * @return
+	 */
+	public static IntegerProperty tilePrefetchBudgetProperty() {
+		return tilePrefetchBudget;
+	}
+	
+	public static int getTilePrefetchBudget() {
+		return tilePrefetchBudget.get();
+	}
+	
+	public static void setTilePrefetchBudget(final int budget) {
+		tilePrefetchBudget.set(budget);
+	}
+	
+	
 	public static boolean showTMAToolTips() {
 		return true;
 	}
@@ -144,7 +144,7 @@ public class PathHierarchyPaintingHelper {
 		g2d.scale(1.0/downsample, 1.0/downsample);
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 		logger.trace("Creating thumbnail for " + region);
-		paintSpecifiedObjects(g2d, null, hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null), overlayOptions, hierarchy.getSelectionModel(), downsample);
+		paintSpecifiedObjects(g2d, null, hierarchy.getSnapshot().getObjectsForRegion(PathDetectionObject.class, region, null), overlayOptions, hierarchy.getSelectionModel(), downsample);
 
 		g2d.dispose();
 		return imgThumbnail;
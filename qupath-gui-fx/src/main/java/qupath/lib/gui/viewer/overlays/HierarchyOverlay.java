@@ -52,6 +52,7 @@ import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectConnections;
+import qupath.lib.objects.hierarchy.HierarchySnapshot;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
@@ -142,18 +143,21 @@ public class HierarchyOverlay extends AbstractImageDataOverlay {
 		PathObjectHierarchy hierarchy = getHierarchy();
 		if (hierarchy == null)
 			return;
+		
+		// Use a snapshot, so that painting doesn't need to wait for any changes to the hierarchy
+		HierarchySnapshot snapshot = hierarchy.getSnapshot();
 
 		// Paint detection objects
 		long startTime = System.currentTimeMillis();
 
 		// TODO: Cache detections on an overlay image for faster repainting e.g. when drawing ROIs
 		OverlayOptions overlayOptions = getOverlayOptions();
-		if (overlayOptions.getShowObjects() && !hierarchy.isEmpty()) {
+		if (overlayOptions.getShowObjects() && snapshot.nObjects() > 0) {
 
 			// If we aren't downsampling by much, or we're upsampling, paint directly - making sure to paint the right number of times, and in the right order
 			if (smallImage || overlayServer == null || regionStore == null || downsampleFactor <= overlayServer.getPreferredDownsamples()[0]) {
 				Set<PathObject> pathObjectsToPaint = new TreeSet<>(comparator);
-				Collection<PathObject> pathObjects = hierarchy.getObjectsForRegion(PathDetectionObject.class, region, pathObjectsToPaint);
+				Collection<PathObject> pathObjects = snapshot.getObjectsForRegion(PathDetectionObject.class, region, pathObjectsToPaint);
 				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 				PathHierarchyPaintingHelper.paintSpecifiedObjects(g2d, boundsDisplayed, pathObjects, overlayOptions, hierarchy.getSelectionModel(), downsampleFactor);
 				
@@ -182,7 +186,7 @@ public class HierarchyOverlay extends AbstractImageDataOverlay {
 			logger.debug(String.format("Painting time: %.4f seconds", (endTime-startTime)/1000.));
 
 		// Paint the annotations
-		Collection<PathObject> pathObjects = hierarchy.getObjectsForRegion(PathAnnotationObject.class, region, null);
+		Collection<PathObject> pathObjects = snapshot.getObjectsForRegion(PathAnnotationObject.class, region, null);
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		// The setting below stops some weird 'jiggling' effects during zooming in/out, or poor rendering of shape ROIs
 		g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
@@ -209,7 +209,7 @@ public class PathHierarchyImageServer implements GeneratingImageServer<BufferedI
 	
 	private Collection<PathObject> getObjectsToPaint(RegionRequest request) {
 //		Rectangle region = request.getBounds();
-		return hierarchy.getObjectsForRegion(PathDetectionObject.class, request, null);
+		return hierarchy.getSnapshot().getObjectsForRegion(PathDetectionObject.class, request, null);
 	}
 	
 	
@@ -218,7 +218,7 @@ public class PathHierarchyImageServer implements GeneratingImageServer<BufferedI
 	 */
 	@Override
 	public boolean isEmptyRegion(RegionRequest request) {
-		return !hierarchy.hasObjectsForRegion(PathDetectionObject.class, request) && (!options.getShowConnections() || imageData.getProperty(DefaultPathObjectConnectionGroup.KEY_OBJECT_CONNECTIONS) == null);
+		return !hierarchy.getSnapshot().hasObjectsForRegion(PathDetectionObject.class, request) && (!options.getShowConnections() || imageData.getProperty(DefaultPathObjectConnectionGroup.KEY_OBJECT_CONNECTIONS) == null);
 	}
 	
 
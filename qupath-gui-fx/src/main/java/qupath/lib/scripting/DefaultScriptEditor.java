@@ -40,9 +40,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
@@ -116,12 +118,6 @@ import qupath.lib.gui.logging.LoggingAppender;
 import qupath.lib.gui.logging.TextAppendable;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.ImageData;
-import qupath.lib.images.servers.ImageServer;
-import qupath.lib.images.servers.ImageServerProvider;
-import qupath.lib.images.servers.RotatedImageServer;
-import qupath.lib.images.stores.ImageRegionStore;
-import qupath.lib.images.stores.ImageRegionStoreFactory;
-import qupath.lib.io.PathIO;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectImageEntry;
 
@@ -708,6 +704,30 @@ public class DefaultScriptEditor implements ScriptEditor {
 	 * @return
 	 */
 	public static Object executeScript(final ScriptEngine engine, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) {
+		try {
+			return executeScript(engine, script, imageData, importDefaultMethods, context, false);
+		} catch (ScriptException e) {
+			// Shouldn't occur, since errors are only written to the error writer
+			return null;
+		}
+	}
+	
+	/**
+	 * Execute a script using the specific ScriptEngine, optionally rethrowing any exception.
+	 * <p>
+	 * Errors are written to the error writer of the context in either case; rethrowing them makes it possible 
+	 * for callers to distinguish a failed script from one that merely wrote warnings.
+	 * 
+	 * @param engine
+	 * @param script
+	 * @param imageData
+	 * @param importDefaultMethods
+	 * @param context
+	 * @param throwErrors if true, any exception thrown by the script is rethrown after being reported
+	 * @return
+	 * @throws ScriptException
+	 */
+	public static Object executeScript(final ScriptEngine engine, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context, final boolean throwErrors) throws ScriptException {
 		
 		// Set the current ImageData if we can
 		QP.setBatchImageData((ImageData<?>)imageData);
@@ -764,7 +784,13 @@ public class DefaultScriptEditor implements ScriptEditor {
 		}
 		
 		try {
-			result = engine.eval(script2, context == null ? new SimpleScriptContext() : context);
+			// Reuse a compiled version of the script, if possible
+			ScriptContext scriptContext = context == null ? new SimpleScriptContext() : context;
+			CompiledScript compiled = ScriptCache.getInstance().getCompiledScript(engine, script2);
+			if (compiled == null)
+				result = engine.eval(script2, scriptContext);
+			else
+				result = compiled.eval(scriptContext);
 		} catch (ScriptException e) {
 			try {
 				int line = e.getLineNumber();
@@ -803,6 +829,8 @@ public class DefaultScriptEditor implements ScriptEditor {
 				logger.error("Script error: {}", e1.getLocalizedMessage(), e1);
 //				e1.printStackTrace();
 			}
+			if (throwErrors)
+				throw e;
 		} finally {
 			QP.setBatchImageData(null);
 		}
@@ -1164,8 +1192,23 @@ public class DefaultScriptEditor implements ScriptEditor {
 			return;
 		
 		List<ProjectImageEntry<?>> imagesToProcess = new ArrayList<>(previousImages);
+		
+		// Check if a previous run of the same script stopped part-way through
+		boolean resume = false;
+		Set<String> completed = ProjectBatchRunner.getCompletedImages(project, tab.getEditorComponent().getText());
+		if (!completed.isEmpty()) {
+			int nCompleted = 0;
+			for (ProjectImageEntry<?> entry : imagesToProcess) {
+				if (completed.contains(entry.getServerPath()))
+					nCompleted++;
+			}
+			if (nCompleted > 0 && nCompleted < imagesToProcess.size())
+				resume = DisplayHelpers.showYesNoDialog("Batch script", 
+						nCompleted + " of " + imagesToProcess.size() + " images have already been processed by this script.\n" + 
+						"Skip these images and resume where processing stopped?");
+		}
 
-		ProjectTask worker = new ProjectTask(project, imagesToProcess, tab, doSave);
+		ProjectTask worker = new ProjectTask(project, imagesToProcess, tab, doSave, resume);
 		
 		
 		ProgressDialog progress = new ProgressDialog(worker);
@@ -1199,104 +1242,54 @@ public class DefaultScriptEditor implements ScriptEditor {
 	
 	class ProjectTask extends Task<Void> {
 		
-		private Project<?> project;
-		private Collection<ProjectImageEntry<?>> imagesToProcess;
+		private ProjectBatchRunner runner;
 		private ScriptTab tab;
-		private boolean quietCancel = false;
-		private boolean doSave = false;
 		
-		ProjectTask(final Project<?> project, final Collection<ProjectImageEntry<?>> imagesToProcess, final ScriptTab tab, final boolean doSave) {
-			this.project = project;
-			this.imagesToProcess = imagesToProcess;
+		@SuppressWarnings("unchecked")
+		ProjectTask(final Project<?> project, final Collection<ProjectImageEntry<?>> imagesToProcess, final ScriptTab tab, final boolean doSave, final boolean resume) {
 			this.tab = tab;
-			this.doSave = doSave;
+			List<ProjectImageEntry<BufferedImage>> entries = new ArrayList<>();
+			for (ProjectImageEntry<?> entry : imagesToProcess)
+				entries.add((ProjectImageEntry<BufferedImage>)entry);
+			Language language = tab.getLanguage();
+			runner = new ProjectBatchRunner((Project<BufferedImage>)project, entries, tab.getEditorComponent().getText(), () -> manager.getEngineByName(language.toString()));
+			runner.setImportDefaultMethods(useDefaultBindings.get());
+			runner.setSaveData(doSave);
+			runner.setResume(resume);
+			runner.setMaxParallelImages(PathPrefs.getBatchParallelImages());
+			if (qupath != null)
+				runner.setRegionStore(qupath.getImageRegionStore());
+			runner.setBatchListener(new ProjectBatchRunner.BatchListener() {
+				@Override
+				public void imageStarted(ProjectImageEntry<BufferedImage> entry) {
+					updateMessage(entry.getImageName());
+				}
+
+				@Override
+				public void imageFinished(ProjectBatchRunner.ImageResult result, int nFinished, int nImages) {
+					updateProgress(nFinished, nImages);
+				}
+			});
 		}
 		
 		public void quietCancel() {
-			this.quietCancel = true;
+			runner.cancel();
 		}
 
 		public boolean isQuietlyCancelled() {
-			return quietCancel;
+			return runner.isCancelled();
 		}
 
 		@Override
-		public Void call() {
-			
-			long startTime = System.currentTimeMillis();
-			
-			int counter = 0;
-			for (ProjectImageEntry<?> entry : imagesToProcess) {
-				ImageRegionStore<BufferedImage> regionStore = null;
-				try {
-					// Stop
-					if (isQuietlyCancelled() || isCancelled()) {
-						logger.warn("Script cancelled with " + (imagesToProcess.size() - counter) + " image(s) remaining");
-						break;
-					}
-					
-					updateProgress(counter, imagesToProcess.size());
-					counter++;
-					updateMessage(entry.getImageName() + " (" + counter + "/" + imagesToProcess.size() + ")");
-					
-					// Create a new region store if we need one
-					System.gc();
-//					regionStore = ImageRegionStoreFactory.createImageRegionStore(Runtime.getRuntime().freeMemory()/4);
-					regionStore = qupath == null ? ImageRegionStoreFactory.createImageRegionStore(Runtime.getRuntime().freeMemory()/4) : qupath.getImageRegionStore();
-					QPEx.setSharedRegionStore(regionStore);
-
-					File fileEntry = QuPathGUI.getImageDataFile(project, entry);
-//					// TODO: Check rotate flag!
-					boolean doRotate = "true".equals(entry.getMetadataValue("rotate180"));
-//					boolean opened;
-					// Open saved data if there is any, or else the image itself
-					ImageServer<BufferedImage> server = ImageServerProvider.buildServer(entry.getServerPath(), BufferedImage.class);
-					if (doRotate)
-						server = new RotatedImageServer(server);
-					ImageData<BufferedImage> imageData = null;
-					if (fileEntry.exists()) {
-						// It's important to build the server first in case the stored path is out of sync with the project one
-						imageData = PathIO.readImageData(fileEntry, null, server, BufferedImage.class);
-//						opened = qupath.openImage(fileEntry.getAbsolutePath(), false, false, doRotate);
-					} else {
-						imageData = new ImageData<>(server);
-//						opened = qupath.openImage(entry.getServerPath(), false, false, doRotate);
-//						opened = qupath.openImage(entry.getServerPath(), false, false, doRotate);
-					}
-//					if (!opened) {
-					if (imageData == null) {
-						logger.warn("Unable to open {} - will be skipped", entry.getImageName());
-						continue;
-					}
-//					QPEx.setBatchImageData(imageData);
-					executeScript(tab, tab.getEditorComponent().getText(), imageData);
-					if (doSave)
-						PathIO.writeImageData(fileEntry, imageData);
-					imageData.getServer().close();
-				} catch (Exception e) {
-					logger.error("Error running batch script: {}", e);
-				} finally {
-//					// Close & reset the region store
-//					if (regionStore != null)
-//						regionStore.close();
-					QPEx.setSharedRegionStore(null);
-				}
+		public Void call() throws Exception {
+			// Script output is logged (in order) once each image is complete, so send the log to the console
+			ScriptEditorControl console = tab.getConsoleComponent();
+			LoggingAppender.getInstance().addTextComponent(console);
+			try {
+				runner.run();
+			} finally {
+				LoggingAppender.getInstance().removeTextComponent(console);
 			}
-			updateProgress(imagesToProcess.size(), imagesToProcess.size());
-			
-			long endTime = System.currentTimeMillis();
-			
-			long timeMillis = endTime - startTime;
-			String time = null;
-			if (timeMillis > 1000*60)
-				time = String.format("Total processing time: %.2f minutes", timeMillis/(1000.0 * 60.0));
-			else if (timeMillis > 1000)
-				time = String.format("Total processing time: %.2f seconds", timeMillis/(1000.0));
-			else
-				time = String.format("Total processing time: %d milliseconds", timeMillis);
-			logger.info("Processed {} images", imagesToProcess.size());
-			logger.info(time);
-			
 			return null;
 		}
 		
@@ -0,0 +1,631 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.scripting;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.RotatedImageServer;
+import qupath.lib.images.stores.ImageRegionStore;
+import qupath.lib.images.stores.ImageRegionStoreFactory;
+import qupath.lib.io.PathIO;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+/**
+ * Helper class to run a script for multiple images within a project, optionally processing several images in parallel.
+ * <p>
+ * Each image is given its own script engine and context, and the region store is bound to the ImageData 
+ * rather than set globally - so that scripts running in parallel do not interfere with one another, 
+ * and plugins run from any thread within a script still use the store.
+ * Any output from the scripts is buffered, and logged in the order that the images were provided 
+ * (rather than the order in which they happen to complete).
+ * <p>
+ * Progress is recorded in a file within the project directory, which makes it possible to resume 
+ * processing where it left off if the batch is cancelled or fails part-way through.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ProjectBatchRunner {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ProjectBatchRunner.class);
+	
+	/**
+	 * Default memory assumed to be required to process each image; used to limit the number of images processed in parallel.
+	 */
+	final private static long DEFAULT_MEMORY_PER_IMAGE = 1024L * 1024L * 1024L;
+	
+	/**
+	 * Status of an image after batch processing.
+	 */
+	public static enum Status {
+		/**
+		 * The script completed without error.
+		 */
+		COMPLETED,
+		/**
+		 * The image could not be opened, or the script threw an exception.
+		 */
+		FAILED,
+		/**
+		 * The image was already processed by an earlier run of the same script.
+		 */
+		SKIPPED,
+		/**
+		 * The batch was cancelled before the image could be processed.
+		 */
+		CANCELLED
+	}
+	
+	/**
+	 * Listener to be notified of batch processing progress.
+	 */
+	public static interface BatchListener {
+		
+		/**
+		 * Called when processing starts for an image.  This may be called from any thread.
+		 * 
+		 * @param entry
+		 */
+		public void imageStarted(ProjectImageEntry<BufferedImage> entry);
+		
+		/**
+		 * Called when processing ends for an image.  Calls are made in the same order as the images were 
+		 * provided, and are never made concurrently.
+		 * 
+		 * @param result
+		 * @param nFinished the number of images for which processing has ended, including images that have not yet been reported
+		 * @param nImages the total number of images
+		 */
+		public void imageFinished(ImageResult result, int nFinished, int nImages);
+		
+	}
+	
+	/**
+	 * Handler for the ImageData of each image after the script has run successfully, e.g. to export results.
+	 */
+	public static interface ImageDataHandler {
+		
+		/**
+		 * Handle the ImageData for an image.  This is called from the thread that processed the image, 
+		 * before the image is closed.  Any exception will cause the image to be reported as failed.
+		 * 
+		 * @param entry
+		 * @param imageData
+		 * @throws Exception
+		 */
+		public void handleImageData(ProjectImageEntry<BufferedImage> entry, ImageData<BufferedImage> imageData) throws Exception;
+		
+	}
+	
+	/**
+	 * Result of processing a single image.
+	 */
+	public static class ImageResult {
+		
+		private final ProjectImageEntry<BufferedImage> entry;
+		private final Status status;
+		private final long timeMillis;
+		private final String output;
+		private final String errorOutput;
+		
+		ImageResult(final ProjectImageEntry<BufferedImage> entry, final Status status, final long timeMillis, final String output, final String errorOutput) {
+			this.entry = entry;
+			this.status = status;
+			this.timeMillis = timeMillis;
+			this.output = output;
+			this.errorOutput = errorOutput;
+		}
+		
+		public ProjectImageEntry<BufferedImage> getEntry() {
+			return entry;
+		}
+		
+		public Status getStatus() {
+			return status;
+		}
+		
+		/**
+		 * Get the time taken to open, process and save the image.
+		 * 
+		 * @return
+		 */
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+		
+		/**
+		 * Get any text written by the script to its standard output.
+		 * 
+		 * @return
+		 */
+		public String getOutput() {
+			return output;
+		}
+		
+		/**
+		 * Get any text written by the script to its error output.
+		 * 
+		 * @return
+		 */
+		public String getErrorOutput() {
+			return errorOutput;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s: %s (%s)", entry.getImageName(), status, formatTime(timeMillis));
+		}
+		
+	}
+	
+	private Project<BufferedImage> project;
+	private List<ProjectImageEntry<BufferedImage>> entries;
+	private String script;
+	private Supplier<ScriptEngine> engineSupplier;
+	
+	private boolean importDefaultMethods = true;
+	private boolean doSave = false;
+	private boolean resume = false;
+	private int maxParallelImages = 1;
+	private long memoryPerImage = DEFAULT_MEMORY_PER_IMAGE;
+	private ImageRegionStore<BufferedImage> regionStore;
+	private BatchListener listener;
+	private ImageDataHandler imageDataHandler;
+	
+	private volatile boolean cancelled = false;
+	
+	private ProgressLog progressLog;
+	private ImageResult[] results;
+	private int nFinished = 0;
+	private int nReported = 0;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param project the project containing the images; progress is logged within its base directory
+	 * @param entries the images to process, in the order in which they should be processed
+	 * @param script the script to run
+	 * @param engineSupplier supplier of script engines; a new engine is requested for each image
+	 */
+	public ProjectBatchRunner(final Project<BufferedImage> project, final Collection<ProjectImageEntry<BufferedImage>> entries, final String script, final Supplier<ScriptEngine> engineSupplier) {
+		this.project = project;
+		this.entries = new ArrayList<>(entries);
+		this.script = script;
+		this.engineSupplier = engineSupplier;
+	}
+	
+	/**
+	 * Request that default methods from QP/QPEx are imported (default is true).
+	 * 
+	 * @param importDefaultMethods
+	 */
+	public void setImportDefaultMethods(final boolean importDefaultMethods) {
+		this.importDefaultMethods = importDefaultMethods;
+	}
+	
+	/**
+	 * Request that the data file for each image is written after the script completes (default is false).
+	 * 
+	 * @param doSave
+	 */
+	public void setSaveData(final boolean doSave) {
+		this.doSave = doSave;
+	}
+	
+	/**
+	 * Request that images successfully processed by a previous run of the same script are skipped (default is false).
+	 * 
+	 * @param resume
+	 */
+	public void setResume(final boolean resume) {
+		this.resume = resume;
+	}
+	
+	/**
+	 * Set the maximum number of images to process in parallel.  Fewer images may be processed if there is insufficient memory available.
+	 * 
+	 * @param maxParallelImages
+	 * 
+	 * @see #setMemoryPerImage(long)
+	 */
+	public void setMaxParallelImages(final int maxParallelImages) {
+		this.maxParallelImages = Math.max(1, maxParallelImages);
+	}
+	
+	/**
+	 * Set the memory that should be assumed to be needed to process each image (default is 1 GB).
+	 * 
+	 * @param bytes
+	 */
+	public void setMemoryPerImage(final long bytes) {
+		this.memoryPerImage = Math.max(1, bytes);
+	}
+	
+	/**
+	 * Set the region store shared by all images.  If this is null, a new store will be created for the batch.
+	 * 
+	 * @param regionStore
+	 */
+	public void setRegionStore(final ImageRegionStore<BufferedImage> regionStore) {
+		this.regionStore = regionStore;
+	}
+	
+	public void setBatchListener(final BatchListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Set a handler to be called for each image after the script has run successfully (and the data has been saved, if requested).
+	 * 
+	 * @param handler
+	 */
+	public void setImageDataHandler(final ImageDataHandler handler) {
+		this.imageDataHandler = handler;
+	}
+	
+	/**
+	 * Request that processing stops.  Images that are already being processed will be completed, but no new images will be started.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Get the number of images that will be processed in parallel, taking into consideration the maximum requested 
+	 * and the memory available.
+	 * 
+	 * @return
+	 */
+	public int getParallelImages() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		long byMemory = maxMemory == Long.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, maxMemory / memoryPerImage);
+		return (int)Math.max(1, Math.min(Math.min(maxParallelImages, byMemory), entries.size()));
+	}
+	
+	/**
+	 * Get the server paths of images already processed successfully by an earlier run of the same script.
+	 * 
+	 * @param project
+	 * @param script
+	 * @return
+	 */
+	public static Set<String> getCompletedImages(final Project<?> project, final String script) {
+		return new ProgressLog(project, script).readCompleted();
+	}
+	
+	/**
+	 * Run the script for all images, blocking until processing is complete.
+	 * 
+	 * @return a list of results, in the same order as the images were provided
+	 * @throws InterruptedException if the thread was interrupted while waiting for processing to complete
+	 */
+	public List<ImageResult> run() throws InterruptedException {
+		
+		long startTime = System.currentTimeMillis();
+		ScriptCache scriptCache = ScriptCache.getInstance();
+		long nCompiledStart = scriptCache.getCompileCount();
+		long nReusedStart = scriptCache.getReuseCount();
+		long compileMillisStart = scriptCache.getCompileTimeMillis();
+		
+		int nImages = entries.size();
+		results = new ImageResult[nImages];
+		nFinished = 0;
+		nReported = 0;
+		cancelled = false;
+		
+		progressLog = new ProgressLog(project, script);
+		Set<String> completed = Collections.emptySet();
+		if (resume)
+			completed = progressLog.readCompleted();
+		else
+			progressLog.clear();
+		
+		if (regionStore == null)
+			regionStore = ImageRegionStoreFactory.createImageRegionStore(Runtime.getRuntime().maxMemory() / 4);
+		
+		int nThreads = getParallelImages();
+		if (nThreads > 1)
+			logger.info("Processing {} images, up to {} in parallel", nImages, nThreads);
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new SimpleThreadFactory("batch-script-", false));
+		try {
+			for (int i = 0; i < nImages; i++) {
+				final int ind = i;
+				ProjectImageEntry<BufferedImage> entry = entries.get(i);
+				if (completed.contains(entry.getServerPath()))
+					imageFinished(ind, new ImageResult(entry, Status.SKIPPED, 0, "", ""));
+				else
+					pool.execute(() -> imageFinished(ind, processImage(entry)));
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+				continue;
+		} catch (InterruptedException e) {
+			cancelled = true;
+			pool.shutdownNow();
+			throw e;
+		}
+		
+		List<ImageResult> resultList = Arrays.asList(results);
+		logger.info("Script compiled {} time(s) in {}, reused {} time(s)",
+				scriptCache.getCompileCount() - nCompiledStart,
+				formatTime(scriptCache.getCompileTimeMillis() - compileMillisStart),
+				scriptCache.getReuseCount() - nReusedStart);
+		logSummary(resultList, System.currentTimeMillis() - startTime);
+		return resultList;
+	}
+	
+	
+	private ImageResult processImage(final ProjectImageEntry<BufferedImage> entry) {
+		if (cancelled)
+			return new ImageResult(entry, Status.CANCELLED, 0, "", "");
+		
+		if (listener != null)
+			listener.imageStarted(entry);
+		
+		long startTime = System.currentTimeMillis();
+		StringWriter output = new StringWriter();
+		StringWriter errorOutput = new StringWriter();
+		Status status = Status.FAILED;
+		ImageServer<BufferedImage> server = null;
+		ImageData<BufferedImage> imageData = null;
+		try {
+			File fileData = QuPathGUI.getImageDataFile(project, entry);
+			// It's important to build the server first in case the stored path is out of sync with the project one
+			server = ImageServerProvider.buildServer(entry.getServerPath(), BufferedImage.class);
+			if (server == null) {
+				logger.warn("Unable to open {} - will be skipped", entry.getImageName());
+				return new ImageResult(entry, status, System.currentTimeMillis() - startTime, "", "");
+			}
+			if ("true".equals(entry.getMetadataValue("rotate180")))
+				server = new RotatedImageServer(server);
+			if (fileData != null && fileData.exists())
+				imageData = PathIO.readImageData(fileData, null, server, BufferedImage.class);
+			else
+				imageData = new ImageData<>(server);
+			if (imageData == null) {
+				logger.warn("Unable to open {} - will be skipped", entry.getImageName());
+			} else {
+				// Use a new context for each image, so that bindings from one script can't affect another
+				ScriptContext context = new SimpleScriptContext();
+				context.setWriter(output);
+				context.setErrorWriter(errorOutput);
+				QPEx.setBatchRegionStore(imageData, regionStore);
+				// Errors are written to the error output & rethrown - but other output there (e.g. warnings) isn't a failure
+				DefaultScriptEditor.executeScript(engineSupplier.get(), script, imageData, importDefaultMethods, context, true);
+				if (doSave && fileData != null)
+					PathIO.writeImageData(fileData, imageData);
+				if (imageDataHandler != null)
+					imageDataHandler.handleImageData(entry, imageData);
+				status = Status.COMPLETED;
+			}
+		} catch (ScriptException e) {
+			// Already reported in the error output
+			logger.debug("Script failed for {}", entry.getImageName(), e);
+		} catch (Exception e) {
+			logger.error("Error running batch script for " + entry.getImageName(), e);
+		} finally {
+			if (imageData != null)
+				QPEx.setBatchRegionStore(imageData, null);
+			if (server != null) {
+				// Free up space in the cache for the next images
+				regionStore.clearCacheForServer(server);
+				server.close();
+			}
+		}
+		return new ImageResult(entry, status, System.currentTimeMillis() - startTime, output.toString(), errorOutput.toString());
+	}
+	
+	
+	/**
+	 * Record the result for an image, and report any results that are now available in order.
+	 * 
+	 * @param ind
+	 * @param result
+	 */
+	private synchronized void imageFinished(final int ind, final ImageResult result) {
+		results[ind] = result;
+		nFinished++;
+		if (result.getStatus() == Status.COMPLETED || result.getStatus() == Status.FAILED)
+			progressLog.append(result);
+		while (nReported < results.length && results[nReported] != null) {
+			ImageResult next = results[nReported];
+			nReported++;
+			logResult(next, nReported, results.length);
+			if (listener != null)
+				listener.imageFinished(next, nFinished, results.length);
+		}
+	}
+	
+	
+	private static void logResult(final ImageResult result, final int ind, final int nImages) {
+		if (result.getStatus() == Status.SKIPPED) {
+			logger.info("Skipping {} ({}/{}) - already processed", result.getEntry().getImageName(), ind, nImages);
+			return;
+		}
+		if (result.getStatus() == Status.CANCELLED)
+			return;
+		if (result.getStatus() == Status.FAILED)
+			logger.warn("Failed {} ({}/{}) after {}", result.getEntry().getImageName(), ind, nImages, formatTime(result.getTimeMillis()));
+		else
+			logger.info("Processed {} ({}/{}) in {}", result.getEntry().getImageName(), ind, nImages, formatTime(result.getTimeMillis()));
+		for (String line : splitLines(result.getOutput()))
+			logger.info(line);
+		for (String line : splitLines(result.getErrorOutput()))
+			logger.error(line);
+	}
+	
+	
+	private static List<String> splitLines(final String text) {
+		if (text == null || text.isEmpty())
+			return Collections.emptyList();
+		List<String> lines = new ArrayList<>();
+		for (String line : text.split("\\r?\\n")) {
+			if (!line.isEmpty())
+				lines.add(line);
+		}
+		return lines;
+	}
+	
+	
+	private static void logSummary(final List<ImageResult> results, final long timeMillis) {
+		int nCompleted = 0, nFailed = 0, nSkipped = 0, nCancelled = 0;
+		long totalImageMillis = 0;
+		List<ImageResult> processed = new ArrayList<>();
+		for (ImageResult result : results) {
+			switch (result.getStatus()) {
+			case COMPLETED:
+				nCompleted++;
+				break;
+			case FAILED:
+				nFailed++;
+				break;
+			case SKIPPED:
+				nSkipped++;
+				continue;
+			case CANCELLED:
+				nCancelled++;
+				continue;
+			}
+			totalImageMillis += result.getTimeMillis();
+			processed.add(result);
+		}
+		if (nCancelled > 0)
+			logger.warn("Script cancelled with {} image(s) remaining", nCancelled);
+		logger.info("Processed {} images ({} completed, {} failed, {} skipped)", processed.size(), nCompleted, nFailed, nSkipped);
+		if (!processed.isEmpty()) {
+			// Report the slowest images first
+			processed.sort((r1, r2) -> Long.compare(r2.getTimeMillis(), r1.getTimeMillis()));
+			logger.info("Time per image (mean {})", formatTime(totalImageMillis / processed.size()));
+			for (ImageResult result : processed)
+				logger.info("  {}", result);
+		}
+		logger.info("Total processing time: {}", formatTime(timeMillis));
+	}
+	
+	
+	static String formatTime(final long timeMillis) {
+		if (timeMillis > 1000*60)
+			return String.format("%.2f minutes", timeMillis/(1000.0 * 60.0));
+		else if (timeMillis > 1000)
+			return String.format("%.2f seconds", timeMillis/(1000.0));
+		else
+			return String.format("%d milliseconds", timeMillis);
+	}
+	
+	
+	/**
+	 * Simple tab-delimited log of the images processed by a script, stored within the project directory.
+	 * <p>
+	 * The file is named according to the script content, so that progress is only resumed for the same script.
+	 */
+	static class ProgressLog {
+		
+		private File file;
+		
+		ProgressLog(final Project<?> project, final String script) {
+			File dirBase = project == null ? null : project.getBaseDirectory();
+			if (dirBase != null && dirBase.isDirectory()) {
+				String name = UUID.nameUUIDFromBytes(script.getBytes(StandardCharsets.UTF_8)).toString();
+				file = new File(new File(dirBase, "batch"), name + ".tsv");
+			}
+		}
+		
+		synchronized Set<String> readCompleted() {
+			if (file == null || !file.isFile())
+				return Collections.emptySet();
+			Set<String> completed = new HashSet<>();
+			try {
+				for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+					String[] fields = line.split("\t");
+					if (fields.length >= 2 && Status.COMPLETED.toString().equals(fields[1]))
+						completed.add(fields[0]);
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to read batch progress from {}", file, e);
+			}
+			return completed;
+		}
+		
+		synchronized void append(final ImageResult result) {
+			if (file == null)
+				return;
+			String line = String.join("\t", result.getEntry().getServerPath(), result.getStatus().toString(), 
+					Long.toString(result.getTimeMillis()), result.getEntry().getImageName());
+			try {
+				if (!file.getParentFile().exists())
+					file.getParentFile().mkdirs();
+				try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+					writer.write(line);
+					writer.newLine();
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to write batch progress to {}", file, e);
+			}
+		}
+		
+		synchronized void clear() {
+			if (file != null && file.exists() && !file.delete())
+				logger.warn("Unable to delete batch progress file {}", file);
+		}
+		
+	}
+
+}
@@ -35,7 +35,9 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,7 +83,7 @@ public class QPEx extends QP {
 	
 	final public static String PROJECT_BASE_DIR = "{%PROJECT}";
 	
-	private static ImageRegionStore<?> sharedRegionStore;
+	private static Map<ImageData<?>, ImageRegionStore<?>> batchRegionStores = Collections.synchronizedMap(new WeakHashMap<>());
 
 	/**
 	 * Load ImageData from a file.
@@ -232,12 +234,25 @@ public class QPEx extends QP {
 	}
 	
 	
-	static void setSharedRegionStore(final ImageRegionStore<?> regionStore) {
-		sharedRegionStore = regionStore;
+	/**
+	 * Set the ImageRegionStore to use when running plugins for an ImageData during batch processing.
+	 * <p>
+	 * The store is bound to the ImageData (rather than to the current thread), so that images processed in parallel 
+	 * can each be given their own store (or share one) without interfering - while scripts that run plugins 
+	 * from other threads (e.g. using a parallel stream) still find the store for their image.
+	 * 
+	 * @param imageData
+	 * @param regionStore the store, or null to remove any store previously set
+	 * @return the previous store set for the ImageData, or null if no store was set
+	 */
+	static ImageRegionStore<?> setBatchRegionStore(final ImageData<?> imageData, final ImageRegionStore<?> regionStore) {
+		if (regionStore == null)
+			return batchRegionStores.remove(imageData);
+		return batchRegionStores.put(imageData, regionStore);
 	}
 
-	static ImageRegionStore<?> getSharedRegionStore() {
-		return sharedRegionStore;
+	static ImageRegionStore<?> getBatchRegionStore(final ImageData<?> imageData) {
+		return imageData == null ? null : batchRegionStores.get(imageData);
 	}
 
 	
@@ -258,7 +273,7 @@ public class QPEx extends QP {
 			PluginRunner runner;
 			// TODO: Give potential of passing a plugin runner
 			if (isBatchMode() || imageData != getQuPath().getImageData()) {
-				runner = new CommandLinePluginRunner(getSharedRegionStore(), imageData, true);
+				runner = new CommandLinePluginRunner(getBatchRegionStore(imageData), imageData, true);
 			}
 			else {
 				runner = new PluginRunnerFX(getQuPath(), true);
@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.scripting;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of compiled scripts, identified by the hash of their content.
+ * <p>
+ * This avoids recompiling the same script whenever it is run, e.g. for each image in a project.
+ * Compilation is only possible for engines that implement {@link Compilable}.
+ * <p>
+ * Compiled scripts are shared between all engines created by the same factory if the factory reports that its 
+ * engines are thread-safe; otherwise, they are only reused for the engine that compiled them.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ScriptCache {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ScriptCache.class);
+	
+	private static final int DEFAULT_MAX_SCRIPTS = 50;
+	
+	private static ScriptCache instance = new ScriptCache(DEFAULT_MAX_SCRIPTS);
+	
+	private final Map<ScriptKey, FutureTask<CompiledScript>> map;
+	
+	private final AtomicLong nCompiled = new AtomicLong();
+	private final AtomicLong nReused = new AtomicLong();
+	private final AtomicLong compileNanos = new AtomicLong();
+	
+	/**
+	 * Create a cache that stores up to the specified number of compiled scripts.
+	 * 
+	 * @param maxScripts
+	 */
+	public ScriptCache(final int maxScripts) {
+		map = new LinkedHashMap<ScriptKey, FutureTask<CompiledScript>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ScriptKey, FutureTask<CompiledScript>> eldest) {
+				return size() > maxScripts;
+			}
+		};
+	}
+	
+	/**
+	 * Get the shared script cache.
+	 * 
+	 * @return
+	 */
+	public static ScriptCache getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Get a compiled version of the script for the specified engine, compiling it if necessary.
+	 * <p>
+	 * If several threads request the same script at the same time, it is compiled only once.
+	 * 
+	 * @param engine
+	 * @param script
+	 * @return the compiled script, or null if the engine does not support compilation
+	 * @throws ScriptException if the script could not be compiled
+	 */
+	public CompiledScript getCompiledScript(final ScriptEngine engine, final String script) throws ScriptException {
+		if (!(engine instanceof Compilable))
+			return null;
+		
+		ScriptKey key = new ScriptKey(engine, script);
+		FutureTask<CompiledScript> task;
+		boolean doCompile = false;
+		synchronized (map) {
+			task = map.get(key);
+			if (task == null) {
+				task = new FutureTask<>(() -> compile((Compilable)engine, script));
+				map.put(key, task);
+				doCompile = true;
+			}
+		}
+		
+		if (doCompile)
+			task.run();
+		else
+			nReused.incrementAndGet();
+		
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScriptException(e);
+		} catch (ExecutionException e) {
+			// Don't keep failed compilations, so that errors are reported each time
+			synchronized (map) {
+				if (map.get(key) == task)
+					map.remove(key);
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof ScriptException)
+				throw (ScriptException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new ScriptException(new Exception(cause));
+		}
+	}
+	
+	private CompiledScript compile(final Compilable engine, final String script) throws ScriptException {
+		long startTime = System.nanoTime();
+		try {
+			return engine.compile(script);
+		} finally {
+			long elapsed = System.nanoTime() - startTime;
+			nCompiled.incrementAndGet();
+			compileNanos.addAndGet(elapsed);
+			logger.debug("Script compiled in {} ms", elapsed / 1000000L);
+		}
+	}
+	
+	/**
+	 * Remove all compiled scripts from the cache.
+	 */
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+	
+	/**
+	 * Get the number of times a script has been compiled.
+	 * 
+	 * @return
+	 */
+	public long getCompileCount() {
+		return nCompiled.get();
+	}
+	
+	/**
+	 * Get the number of times a previously-compiled script has been reused.
+	 * 
+	 * @return
+	 */
+	public long getReuseCount() {
+		return nReused.get();
+	}
+	
+	/**
+	 * Get the total time spent compiling scripts, in milliseconds.
+	 * 
+	 * @return
+	 */
+	public long getCompileTimeMillis() {
+		return compileNanos.get() / 1000000L;
+	}
+	
+	
+	/**
+	 * Compute a hash for the script text, so that the script itself doesn't need to be retained as a key.
+	 */
+	static String computeHash(final String script) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] bytes = digest.digest(script.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 should always be available
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	private static class ScriptKey {
+		
+		// Either the factory (if engines are thread-safe) or the engine itself
+		private final Object owner;
+		private final String hash;
+		
+		ScriptKey(final ScriptEngine engine, final String script) {
+			ScriptEngineFactory factory = engine.getFactory();
+			if (factory != null && factory.getParameter("THREADING") != null)
+				owner = factory;
+			else
+				owner = engine;
+			hash = computeHash(script);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(owner) + hash.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof ScriptKey))
+				return false;
+			ScriptKey other = (ScriptKey)obj;
+			return owner == other.owner && hash.equals(other.hash);
+		}
+		
+	}
+
+}
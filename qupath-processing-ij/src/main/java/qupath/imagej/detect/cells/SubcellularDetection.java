@@ -28,10 +28,12 @@ import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -40,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ij.gui.PolygonRoi;
+import ij.gui.Wand;
 import ij.measure.Calibration;
 import ij.plugin.filter.EDM;
 import ij.plugin.filter.MaximumFinder;
@@ -120,10 +123,53 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 	}
 	
 	
+	/**
+	 * Cells are grouped into tiles of this size (in full-resolution pixels) according to their centroids, 
+	 * so that the pixels for all cells in a tile can be read and processed together.
+	 */
+	private static int TILE_SIZE = 1024;
+	
+	
 	@Override
 	protected void addRunnableTasks(final ImageData<BufferedImage> imageData, final PathObject parentObject, List<Runnable> tasks) {
 		final ParameterList params = getParameterList(imageData);
-		tasks.add(new SubcellularDetectionRunnable(imageData, parentObject, params, regionStore));
+		if (parentObject instanceof PathCellObject) {
+			tasks.add(new SubcellularDetectionRunnable(imageData, parentObject, null, params, regionStore));
+			return;
+		}
+		// Create one task per tile, so that tiles can be processed in parallel
+		List<PathObject> cellObjects = PathObjectTools.getFlattenedObjectList(parentObject, null, false).stream().filter(p -> p instanceof PathCellObject).collect(Collectors.toList());
+		for (List<PathObject> tileCells : groupCellsByTile(cellObjects, TILE_SIZE))
+			tasks.add(new SubcellularDetectionRunnable(imageData, parentObject, tileCells, params, regionStore));
+	}
+	
+	
+	/**
+	 * Group cells according to the tile that contains each cell's ROI centroid (taking z and t into account).
+	 * 
+	 * @param cells
+	 * @param tileSize
+	 * @return
+	 */
+	static Collection<List<PathObject>> groupCellsByTile(final List<PathObject> cells, final int tileSize) {
+		Map<List<Integer>, List<PathObject>> map = new LinkedHashMap<>();
+		for (PathObject cell : cells) {
+			ROI roi = cell.getROI();
+			if (roi == null || roi.isEmpty())
+				continue;
+			List<Integer> key = Arrays.asList(
+					(int)Math.floor(roi.getCentroidX() / tileSize),
+					(int)Math.floor(roi.getCentroidY() / tileSize),
+					roi.getZ(),
+					roi.getT());
+			List<PathObject> list = map.get(key);
+			if (list == null) {
+				list = new ArrayList<>();
+				map.put(key, list);
+			}
+			list.add(cell);
+		}
+		return map.values();
 	}
 	
 	
@@ -156,11 +202,23 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 		private ImageData<BufferedImage> imageData;
 		private ParameterList params;
 		private PathObject parentObject;
+		private List<PathObject> tileCells;
 		private ImageRegionStore<BufferedImage> store;
 		
-		public SubcellularDetectionRunnable(final ImageData<BufferedImage> imageData, final PathObject parentObject, final ParameterList params, final ImageRegionStore<BufferedImage> store) {
+		/**
+		 * Create a runnable to detect subcellular objects.
+		 * 
+		 * @param imageData
+		 * @param parentObject
+		 * @param tileCells cells to process together as a single tile; if null, the parentObject is processed as a single cell, 
+		 * 					or else all its descendant cells are processed individually
+		 * @param params
+		 * @param store
+		 */
+		public SubcellularDetectionRunnable(final ImageData<BufferedImage> imageData, final PathObject parentObject, final List<PathObject> tileCells, final ParameterList params, final ImageRegionStore<BufferedImage> store) {
 			this.imageData = imageData;
 			this.parentObject = parentObject;
+			this.tileCells = tileCells;
 			this.params = params;
 			this.store = store;
 		}
@@ -178,7 +236,9 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 			try {
 				if (store != null)
 					store.addTileListener(this);
-				if (parentObject instanceof PathCellObject)
+				if (tileCells != null)
+					processTile(tileCells, params, new ImageWrapper(imageData, store));
+				else if (parentObject instanceof PathCellObject)
 					processObject(parentObject, params, new ImageWrapper(imageData, store));
 				else {
 					List<PathObject> cellObjects = PathObjectTools.getFlattenedObjectList(parentObject, null, false).stream().filter(p -> p instanceof PathCellObject).collect(Collectors.toList());
@@ -193,6 +253,7 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 				parentObject.getMeasurementList().closeList();
 				imageData = null;
 				params = null;
+				tileCells = null;
 				store = null;
 			}
 		}
@@ -226,14 +287,7 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 		double estimatedSpots;
 
 		// We assume that after this processing, any previous sub-cellular objects should be removed
-		pathObject.clearPathObjects();
-
-		// Ensure we have no existing subcellular detection measurements - if we do, remove them
-		String[] existingMeasurements = pathObject.getMeasurementList().getMeasurementNames().stream().filter(n -> n.startsWith("Subcellular:")).toArray(n -> new String[n]);
-		if (existingMeasurements.length > 0) {
-			pathObject.getMeasurementList().removeMeasurements(existingMeasurements);
-			pathObject.getMeasurementList().closeList();
-		}
+		clearSubcellularDetections(pathObject);
 
 		//		// If we're part of a TMA core, request the whole core...
 		//		if (pathObject.getParent() instanceof TMACoreObject && pathObject.getParent().hasROI()) {
@@ -363,17 +417,7 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 					cluster = new SubcellularObject(roi, nSpots);
 				}
 				if (cluster != null) {
-					
-					boolean isCluster = cluster.getMeasurementList().getMeasurementValue("Num spots") > 1;
-					int rgb = imageWrapper.getChannelColor(channelName);
-					rgb = isCluster ? ColorTools.makeScaledRGB(rgb, 0.5) : ColorTools.makeScaledRGB(rgb, 1.5);
-					PathClass pathClass = PathClassFactory.getDerivedPathClass(cluster.getPathClass(), channelName + " object", rgb);
-					cluster.setPathClass(pathClass);
-					
-					cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName + ": Area", stats.pixelCount * pixelWidth * pixelHeight);					
-					cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName +  ": Mean channel intensity", stats.mean);
-//					cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName +  ": Max channel intensity", stats.max);
-					cluster.getMeasurementList().closeList();
+					updateSubcellularObject(cluster, imageWrapper, channelName, stats, pixelWidth, pixelHeight);
 					spotObjects.add(cluster);
 				}
 			}
@@ -394,6 +438,228 @@ public class SubcellularDetection extends AbstractInteractivePlugin<BufferedImag
 	
 	
 	
+	/**
+	 * Remove any existing subcellular objects and measurements from an object.
+	 * 
+	 * @param pathObject
+	 */
+	static void clearSubcellularDetections(final PathObject pathObject) {
+		pathObject.clearPathObjects();
+
+		// Ensure we have no existing subcellular detection measurements - if we do, remove them
+		String[] existingMeasurements = pathObject.getMeasurementList().getMeasurementNames().stream().filter(n -> n.startsWith("Subcellular:")).toArray(n -> new String[n]);
+		if (existingMeasurements.length > 0) {
+			pathObject.getMeasurementList().removeMeasurements(existingMeasurements);
+			pathObject.getMeasurementList().closeList();
+		}
+	}
+	
+	
+	/**
+	 * Set the classification &amp; add measurements for a newly-detected subcellular object.
+	 */
+	private static void updateSubcellularObject(final SubcellularObject cluster, final ImageWrapper imageWrapper, final String channelName, final ImageStatistics stats, final double pixelWidth, final double pixelHeight) {
+		boolean isCluster = cluster.getMeasurementList().getMeasurementValue("Num spots") > 1;
+		int rgb = imageWrapper.getChannelColor(channelName);
+		rgb = isCluster ? ColorTools.makeScaledRGB(rgb, 0.5) : ColorTools.makeScaledRGB(rgb, 1.5);
+		PathClass pathClass = PathClassFactory.getDerivedPathClass(cluster.getPathClass(), channelName + " object", rgb);
+		cluster.setPathClass(pathClass);
+		
+		cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName + ": Area", stats.pixelCount * pixelWidth * pixelHeight);					
+		cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName +  ": Mean channel intensity", stats.mean);
+//		cluster.getMeasurementList().putMeasurement("Subcellular cluster: " + channelName +  ": Max channel intensity", stats.max);
+		cluster.getMeasurementList().closeList();
+	}
+	
+	
+	/**
+	 * Tile-based version of subcellular detection processing.
+	 * <p>
+	 * Rather than reading pixels &amp; detecting spots separately for each cell, the pixels for the region 
+	 * containing all the cells are read once per channel and spots are detected across the whole region.
+	 * Each spot is then assigned to a cell using a labelled image, in which each cell has a unique value.
+	 * <p>
+	 * Spots are traced separately within each cell, so (as when cells are processed individually) 
+	 * a spot cannot extend across the boundary between two touching cells.
+	 * 
+	 * @param cells the cells to process; these should be close to one another
+	 * @param params
+	 * @param imageWrapper
+	 * @return
+	 */
+	static boolean processTile(final List<PathObject> cells, final ParameterList params, final ImageWrapper imageWrapper) {
+		
+		// Remove previous subcellular objects & determine the region containing all the cells
+		List<PathObject> validCells = new ArrayList<>();
+		double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY;
+		double xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+		for (PathObject cell : cells) {
+			clearSubcellularDetections(cell);
+			ROI roi = cell.getROI();
+			if (roi == null || roi.isEmpty())
+				continue;
+			validCells.add(cell);
+			xMin = Math.min(xMin, roi.getBoundsX());
+			yMin = Math.min(yMin, roi.getBoundsY());
+			xMax = Math.max(xMax, roi.getBoundsX() + roi.getBoundsWidth());
+			yMax = Math.max(yMax, roi.getBoundsY() + roi.getBoundsHeight());
+		}
+		if (validCells.isEmpty())
+			return false;
+
+		double downsample = 1;
+
+		// Determine spot size
+		ImageServer<BufferedImage> server = imageWrapper.getServer();
+		double spotSizeMicrons = server.hasPixelSizeMicrons() ? params.getDoubleParameterValue("spotSizeMicrons") : Double.NaN;
+		double minSpotSizeMicrons = server.hasPixelSizeMicrons() ? params.getDoubleParameterValue("minSpotSizeMicrons") : Double.NaN;
+		double maxSpotSizeMicrons = server.hasPixelSizeMicrons() ? params.getDoubleParameterValue("maxSpotSizeMicrons") : Double.NaN;
+		double pixelWidth = server.getPixelWidthMicrons() * downsample;
+		double pixelHeight = server.getPixelHeightMicrons() * downsample;
+		double singleSpotArea = spotSizeMicrons / (pixelWidth * pixelHeight);
+		double minSpotArea = minSpotSizeMicrons / (pixelWidth * pixelHeight);
+		double maxSpotArea = maxSpotSizeMicrons / (pixelWidth * pixelHeight);
+		boolean includeClusters = Boolean.TRUE.equals(params.getBooleanParameterValue("includeClusters"));
+		boolean doSmoothing = Boolean.TRUE.equals(params.getBooleanParameterValue("doSmoothing"));
+		boolean splitByIntensity = Boolean.TRUE.equals(params.getBooleanParameterValue("splitByIntensity"));
+		boolean splitByShape = Boolean.TRUE.equals(params.getBooleanParameterValue("splitByShape"));
+		
+		// Get region to request - give a pixel as border
+		int xStart = (int)Math.max(0, xMin - 1);
+		int yStart = (int)Math.max(0, yMin - 1);
+		int width = (int)Math.min(server.getWidth()-1, xMax + 1.5) - xStart;
+		int height = (int)Math.min(server.getHeight()-1, yMax + 1.5) - yStart;
+		if (width <= 0 || height <= 0) {
+			logger.error("Negative tile size for {} cells", validCells.size());
+			return false;
+		}
+		ROI firstROI = validCells.get(0).getROI();
+		RegionRequest region = RegionRequest.createInstance(server.getPath(), 1.0, xStart, yStart, width, height, firstROI.getT(), firstROI.getZ());
+		
+		// Create a labelled image, where each cell has the value of its index + 1
+		// (TYPE_INT_RGB is used to support more labels than would fit in a short; antialiasing is off by default, so labels aren't mixed)
+		BufferedImage imgLabels = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = imgLabels.createGraphics();
+		if (downsample != 1)
+			g2d.scale(1.0/downsample, 1.0/downsample);
+		g2d.translate(-xStart, -yStart);
+		for (int i = 0; i < validCells.size(); i++) {
+			g2d.setColor(new Color(i + 1));
+			g2d.fill(PathROIToolsAwt.getShape(validCells.get(i).getROI()));
+		}
+		g2d.dispose();
+		int[] cellLabels = ((DataBufferInt)imgLabels.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < cellLabels.length; i++)
+			cellLabels[i] &= 0xffffff;
+		
+		// Get an ImageJ-friendly calibration for ROI conversion
+		Calibration cal = new Calibration();
+		cal.xOrigin = -xStart/downsample;
+		cal.yOrigin = -yStart/downsample;
+
+		int nCells = validCells.size();
+		for (String channelName : imageWrapper.getChannelNames(true, true)) {
+			
+			double detectionThreshold = params.getDoubleParameterValue("detection["+channelName+"]");
+			if (Double.isNaN(detectionThreshold) || detectionThreshold < 0)
+				continue;
+			
+			if (Thread.currentThread().isInterrupted())
+				return false;
+
+			SimpleImage img = imageWrapper.getRegion(region, channelName);
+			int w = img.getWidth();
+			int h = img.getHeight();
+
+			// Identify (& try to separate) spots
+			// Mask out non-cell areas as we go
+			FloatProcessor fpDetection = new FloatProcessor(w, h);
+			float[] pxDetection = (float[])fpDetection.getPixels();
+			for (int i = 0; i < w*h; i++)
+				pxDetection[i] = img.getValue(i%w, i/w);
+			if (doSmoothing)
+				fpDetection.smooth();
+			for (int i = 0; i < w*h; i++) {
+				if (cellLabels[i] == 0)
+					pxDetection[i] = 0f;
+			}
+			ByteProcessor bpSpots;
+			if (splitByIntensity)
+				bpSpots = new MaximumFinder().findMaxima(fpDetection, detectionThreshold/10.0, detectionThreshold, MaximumFinder.SEGMENTED, false, false);
+			else
+				bpSpots = SimpleThresholding.thresholdAboveEquals(fpDetection, (float)detectionThreshold);
+			
+			if (splitByShape) {
+				new EDM().toWatershed(bpSpots);
+			}
+			
+			// Label spot pixels according to the cell that contains them
+			FloatProcessor fpSpotLabels = new FloatProcessor(w, h);
+			float[] pxSpotLabels = (float[])fpSpotLabels.getPixels();
+			byte[] pxSpots = (byte[])bpSpots.getPixels();
+			for (int i = 0; i < w*h; i++) {
+				if (pxSpots[i] != 0)
+					pxSpotLabels[i] = cellLabels[i];
+			}
+
+			// Loop through spot ROIs & assign each to a cell
+			double[] estimatedSpots = new double[nCells];
+			List<List<PathObject>> spotObjects = new ArrayList<>(nCells);
+			for (int i = 0; i < nCells; i++)
+				spotObjects.add(new ArrayList<>());
+			ByteProcessor bpCompleted = new ByteProcessor(w, h);
+			bpCompleted.setValue(255);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					float label = pxSpotLabels[y*w + x];
+					if (label == 0 || bpCompleted.get(x, y) != 0)
+						continue;
+					// Trace the 4-connected region within the same cell
+					Wand wand = new Wand(fpSpotLabels);
+					wand.autoOutline(x, y, label, label, Wand.FOUR_CONNECTED);
+					PolygonRoi spotRoi = ROILabeling.wandToRoi(wand);
+					bpCompleted.fill(spotRoi);
+					
+					int ind = (int)label - 1;
+					fpDetection.setRoi(spotRoi);
+					ImageStatistics stats = fpDetection.getStatistics();
+
+					SubcellularObject cluster = null;
+					if (stats.pixelCount > minSpotArea && stats.pixelCount <= maxSpotArea) {
+						ROI roi = ROIConverterIJ.convertToPathROI(spotRoi, cal, downsample, spotRoi.getCPosition(), spotRoi.getZPosition(), spotRoi.getTPosition());
+						cluster = new SubcellularObject(roi, 1);
+						estimatedSpots[ind] += 1;
+					} else if (includeClusters && stats.pixelCount > minSpotArea) {
+						// Add a cluster
+						ROI roi = ROIConverterIJ.convertToPathROI(spotRoi, cal, downsample, spotRoi.getCPosition(), spotRoi.getZPosition(), spotRoi.getTPosition());
+						double nSpots = stats.pixelCount / singleSpotArea;
+						estimatedSpots[ind] += nSpots;
+						cluster = new SubcellularObject(roi, nSpots);
+					}
+					if (cluster != null) {
+						updateSubcellularObject(cluster, imageWrapper, channelName, stats, pixelWidth, pixelHeight);
+						spotObjects.get(ind).add(cluster);
+					}
+				}
+			}
+
+			// Add measurements & spots
+			for (int i = 0; i < nCells; i++) {
+				PathObject pathObject = validCells.get(i);
+				MeasurementList measurementList = pathObject.getMeasurementList();
+				measurementList.putMeasurement("Subcellular: " + channelName +  ": Num spots estimated", estimatedSpots[i]);
+				measurementList.putMeasurement("Subcellular: " + channelName +  ": Num single spots", spotObjects.get(i).size());
+				measurementList.putMeasurement("Subcellular: " + channelName +  ": Num clusters", 0);
+				measurementList.closeList();
+				pathObject.addPathObjects(spotObjects.get(i));
+			}
+
+		}
+		return true;
+	}
+	
+	
+	
 	@Override
 	public ParameterList getDefaultParameterList(final ImageData<BufferedImage> imageData) {
 		
@@ -39,7 +39,6 @@ import ij.ImagePlus;
 import ij.gui.OvalRoi;
 import ij.gui.PointRoi;
 import ij.gui.PolygonRoi;
-import ij.gui.ProfilePlot;
 import ij.gui.Roi;
 import ij.gui.Wand;
 import ij.measure.Measurements;
@@ -56,6 +55,9 @@ import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import qupath.imagej.processing.ROILabeling;
+import qupath.lib.analysis.algorithms.BinaryMorphology;
+import qupath.lib.analysis.algorithms.IntegralImage;
+import qupath.lib.analysis.algorithms.MinMaxFilters.Shape;
 
 
 /**
@@ -69,22 +71,43 @@ import qupath.imagej.processing.ROILabeling;
 public class TMADearrayer {
 
 	
+	/**
+	 * Compute the proportion of foreground pixels around each point of a TMA grid.
+	 * 
+	 * @param bp binary image, with foreground pixels non-zero
+	 * @param polyGrid grid coordinates
+	 * @param coreDiameterPx approximate diameter of a single TMA core, in pixels
+	 * @return array of densities in the range 0-1, one per grid coordinate (0 for coordinates outside the image)
+	 */
 	public static double[] computeDensities(ByteProcessor bp, Polygon polyGrid, double coreDiameterPx) {
-		RankFilters rf = new RankFilters();
-		FloatProcessor fp = bp.convertToFloatProcessor();
-		fp.max(1.0);
-		rf.rank(fp, coreDiameterPx*0.5, RankFilters.MEAN);
+		IntegralImage integral = IntegralImage.createBinary((byte[])bp.getPixels(), bp.getWidth(), bp.getHeight());
+		int r = getDensityBoxRadius(coreDiameterPx);
 		double[] densities = new double[polyGrid.npoints];
 		for (int i = 0; i < densities.length; i++) {
 			int x = polyGrid.xpoints[i];
 			int y = polyGrid.ypoints[i];
 			if (x >= 0 && y >= 0 && x < bp.getWidth() && y < bp.getHeight())
-				densities[i] = fp.getf(x, y);
+				densities[i] = integral.getMean(x-r, y-r, x+r+1, y+r+1);
 		}
 		return densities;
 	}
 	
 	
+	/**
+	 * Get the radius of a square with (approximately) the same area as a core, for use with box filters.
+	 * <p>
+	 * Box means can be computed from an integral image at a cost that doesn't depend on the core size - 
+	 * unlike a circular mean filter, which was a bottleneck for large cores.
+	 * 
+	 * @param coreDiameterPx
+	 * @return
+	 */
+	static int getDensityBoxRadius(double coreDiameterPx) {
+		double side = Math.sqrt(Math.PI) * coreDiameterPx * 0.5;
+		return Math.max(0, (int)Math.round((side - 1) / 2));
+	}
+	
+	
 	/**
 	 * Detect TMA cores from a (low-resolution) whole slide image that has been thresholded to give a binary image.
 	 * Cores should be circular and arranged in a grid pattern, although this may be (slightly) rotated
@@ -113,27 +136,21 @@ public class TMADearrayer {
 		// Use median of angles to estimate overall slide rotation (correcting for right/below differences)
 		double angle = estimateRotation(polyDetected, coreDiameterPx);
 
-		// Rotate the binary image & use profiles to identify the most likely grid layout.
-		// Use Gaussian filter + sum trick, normalizing so the max sum should be == number of rows
-		bp = (ByteProcessor)bp.duplicate();
-		if (!Double.isNaN(angle)) {
-			// Just in case we used labels, make sure we have clipped pixels to the same max intensity
-			ipGood.setBackgroundValue(0);
-			ipGood.max(1);
-			ipGood.rotate(-angle);
-			bp.setBackgroundValue(0);
-			bp.rotate(-angle);
-//			new ImagePlus("Good", ipGood.duplicate()).show();
-		}
+		// Use the profiles of the rotated 'good' cores to identify the most likely grid layout.
+		// The profiles are computed directly from the rotated pixel coordinates, so the image itself is never rotated.
+		int width = bp.getWidth();
+		int height = bp.getHeight();
+		double[] profileX = new double[width];
+		double[] profileY = new double[height];
+		computeRotatedProfiles(ipGood, Double.isNaN(angle) ? 0 : angle, profileX, profileY);
 
 		// Identify the top peaks in rows and columns to get grid pattern
-		ByteProcessor bpGood = (ByteProcessor)ipGood.convertToByte(false);
 		int[] xLocs = new int[nHorizontal];
 		int[] yLocs = new int[nVertical];
-		int nHorizontalDetected = estimateGrid(bpGood, xLocs, (int)coreDiameterPx, false);
+		int nHorizontalDetected = estimateGrid(profileX, xLocs, (int)coreDiameterPx);
 		if (nHorizontalDetected <= 0)
 			return null;
-		int nVerticalDetected = estimateGrid(bpGood, yLocs, (int)coreDiameterPx, true); 
+		int nVerticalDetected = estimateGrid(profileY, yLocs, (int)coreDiameterPx); 
 		if (nVerticalDetected <= 0)
 			return null;
 		if (nHorizontalDetected < nHorizontal || nVerticalDetected < nVertical) {
@@ -150,16 +167,11 @@ public class TMADearrayer {
 			}
 		}
 		
-		// Improve grid coordinates
-//		refineGridCoordinates(bp, polyGrid, coreDiameterPx);
-//		IJHelpers.quickShowImage("Binary", bp);
-		refineGridCoordinatesByShifting(bp, polyGrid, nHorizontalDetected, coreDiameterPx);
-		
 		if (!Double.isNaN(angle) && angle != 0) {
 			// Rotate according to the angle computed previously
 			// (Note this code is largely based on ImageJ's standard RoiRotator plugin)
-			double xcenter = bpGood.getWidth() / 2;
-			double ycenter = bpGood.getHeight() / 2;
+			double xcenter = width / 2;
+			double ycenter = height / 2;
 			double theta = -angle*Math.PI/180.0;
 			for (int i = 0; i < polyGrid.npoints; i++) {
 				double dx = polyGrid.xpoints[i]-xcenter;
@@ -173,6 +185,12 @@ public class TMADearrayer {
 			}
 		}
 		
+		// Improve grid coordinates
+		// (This is done in the original image space; refinement is local to each core, so doesn't require the grid to be axis-aligned)
+//		refineGridCoordinates(bp, polyGrid, coreDiameterPx);
+//		IJHelpers.quickShowImage("Binary", bp);
+		refineGridCoordinatesByShifting((ByteProcessor)bp.duplicate(), polyGrid, nHorizontalDetected, coreDiameterPx);
+		
 		return new TMAGridShape(polyGrid, nVerticalDetected, nHorizontalDetected);
 	}
 	
@@ -315,10 +333,9 @@ public class TMADearrayer {
 		
 		// Apply (gentle) morphological cleaning
 		filterRadius = Math.max(1.0, coreDiameterPx * 0.02);
-		rf.rank(bp, filterRadius, RankFilters.MAX);
-		rf.rank(bp, filterRadius, RankFilters.MIN);
-		rf.rank(bp, filterRadius, RankFilters.MIN);
-		rf.rank(bp, filterRadius, RankFilters.MAX);
+		int filterRadiusPx = (int)Math.round(filterRadius);
+		BinaryMorphology.close(bpPixels, bp.getWidth(), bp.getHeight(), Shape.OCTAGON, filterRadiusPx);
+		BinaryMorphology.open(bpPixels, bp.getWidth(), bp.getHeight(), Shape.OCTAGON, filterRadiusPx);
 		
 		// Fill holes
 		ROILabeling.fillHoles(bp);
@@ -453,14 +470,57 @@ public class TMADearrayer {
 		return true;
 	}
 	
-	private static int estimateGrid(ByteProcessor bp, int[] locs, int minSeparation, boolean doHorizontal) {
+	/**
+	 * Compute the horizontal and vertical profiles of the foreground pixels in an image, after rotation 
+	 * by the specified angle around the image center.
+	 * <p>
+	 * This gives the same profiles as rotating the image with ImageJ (in the same direction as {@code ip.rotate(-angle)}) 
+	 * and then summing its columns and rows, without the need to create or rotate any image.
+	 * Each pixel contributes to the two nearest bins using linear interpolation.
+	 * 
+	 * @param ip image in which non-zero pixels are foreground
+	 * @param angle rotation angle, in degrees
+	 * @param profileX output profile along the x axis; length should equal the image width
+	 * @param profileY output profile along the y axis; length should equal the image height
+	 */
+	static void computeRotatedProfiles(ImageProcessor ip, double angle, double[] profileX, double[] profileY) {
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		double xcenter = width / 2;
+		double ycenter = height / 2;
+		double theta = angle*Math.PI/180.0;
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		for (int y = 0; y < height; y++) {
+			double dy = ycenter - y;
+			for (int x = 0; x < width; x++) {
+				if (ip.get(x, y) == 0)
+					continue;
+				double dx = x - xcenter;
+				double xr = xcenter + dx*cos - dy*sin;
+				double yr = ycenter - (dx*sin + dy*cos);
+				if (xr <= -1 || yr <= -1 || xr >= width || yr >= height)
+					continue;
+				addToProfile(profileX, xr);
+				addToProfile(profileY, yr);
+			}
+		}
+	}
+	
+	private static void addToProfile(double[] profile, double loc) {
+		int i = (int)Math.floor(loc);
+		double weight = loc - i;
+		if (i >= 0)
+			profile[i] += 1 - weight;
+		if (i + 1 < profile.length)
+			profile[i + 1] += weight;
+	}
+	
+	private static int estimateGrid(double[] prof, int[] locs, int minSeparation) {
 		int nMaxima = locs.length;
 		int[] maxima = new int[nMaxima];
 		Arrays.fill(maxima, -1);
 		
-		ImagePlus impTemp = new ImagePlus("Temp", bp);
-		impTemp.setRoi(new Roi(0, 0, bp.getWidth(), bp.getHeight()));
-		double[] prof = new ProfilePlot(impTemp, doHorizontal).getProfile();
 		// Find the top nMaxima peaks with sufficient separation
 		double tolerance = 0.0;
 		int[] peakLocs = MaximumFinder.findMaxima(prof, tolerance, false);
@@ -497,6 +557,11 @@ public class TMADearrayer {
 	
 	
 
+	private static boolean containsPoint(ImageProcessor ip, int x, int y) {
+		return x >= 0 && y >= 0 && x < ip.getWidth() && y < ip.getHeight();
+	}
+	
+	
 	private static Roi roiFromWand(Wand wand) {
 		return new PolygonRoi(wand.xpoints, wand.ypoints, wand.npoints, Roi.POLYGON);
 	}
@@ -528,7 +593,18 @@ public class TMADearrayer {
 	}
 	
 	
-	private static void refineGridCoordinatesByShifting(ByteProcessor bp, Polygon polyGrid, int nHorizontal, double coreDiameterPx) {
+	/**
+	 * Shift grid coordinates towards the centers of nearby cores in a binary image.
+	 * <p>
+	 * After rotating the grid back into the image space, some coordinates may fall outside the image 
+	 * (e.g. missing cores at the corners of a rotated grid).  These are left unchanged.
+	 * 
+	 * @param bp binary image; this will be modified
+	 * @param polyGrid grid coordinates, which will be updated in place
+	 * @param nHorizontal number of cores per row
+	 * @param coreDiameterPx approximate diameter of a single TMA core, in pixels
+	 */
+	static void refineGridCoordinatesByShifting(ByteProcessor bp, Polygon polyGrid, int nHorizontal, double coreDiameterPx) {
 		// Create a binary image containing regions to consider - exclude very small & very large regions
 		// Use watershed segmentation to split up round structures
 		new EDM().toWatershed(bp);
@@ -545,6 +621,8 @@ public class TMADearrayer {
 		for (int i = 0; i < polyGrid.npoints; i++) {
 			int x = polyGrid.xpoints[i];
 			int y = polyGrid.ypoints[i];
+			if (!containsPoint(bp, x, y))
+				continue;
 			// If grid location already falls within a convincingly large ROI, use its bounding box centre
 //			IJ.log(new Point(x, y).toString());
 			boolean inside = fpDensity.getf(x, y) > 0;
@@ -567,11 +645,12 @@ public class TMADearrayer {
 		}
 		
 		// Create (effectively) a Voronoi image based on the current centroid estimate
+		// (Points outside the image are clamped to the boundary, so that they still claim some territory)
 		ByteProcessor bpTest = new ByteProcessor(bp.getWidth(), bp.getHeight());
 		for (int i = 0; i < polyGrid.npoints; i++) {
 			if (!confirmed[i]) {
-				int x = polyGrid.xpoints[i];
-				int y = polyGrid.ypoints[i];
+				int x = Math.max(0, Math.min(bp.getWidth()-1, polyGrid.xpoints[i]));
+				int y = Math.max(0, Math.min(bp.getHeight()-1, polyGrid.ypoints[i]));
 				bpTest.setf(x, y, 255);
 			}
 		}
@@ -600,8 +679,9 @@ public class TMADearrayer {
 		// Apply a mean filter to determine local unassigned densities
 //		new ImagePlus("Density_before", fpDensity.duplicate()).show();
 //		long start = System.currentTimeMillis();
-		// Note: this is another bottleneck... filter size can be large
-		new RankFilters().rank(fpDensity, coreDiameterPx * 0.5, RankFilters.MEAN);
+		// (Use an integral image, since the filter size can be large)
+		float[] pxDensity = (float[])fpDensity.getPixels();
+		new IntegralImage(pxDensity, fpDensity.getWidth(), fpDensity.getHeight()).boxMean(pxDensity, getDensityBoxRadius(coreDiameterPx));
 //		System.err.println("Time: " + (System.currentTimeMillis() - start));
 //		fpDensity.min(-1);
 //		new ImagePlus("Density", fpDensity.duplicate()).show();
@@ -611,6 +691,8 @@ public class TMADearrayer {
 			if (!confirmed[i]) {
 				int x = polyGrid.xpoints[i];
 				int y = polyGrid.ypoints[i];
+				if (!containsPoint(bp, x, y))
+					continue;
 				OvalRoi roiRegion = new OvalRoi(x-coreDiameterPx*0.5, y-coreDiameterPx*0.5, coreDiameterPx, coreDiameterPx);
 				Point maxPoint = findClosestMaximumInROI(fpDensity, roiRegion, new Point(x, y));
 				if (maxPoint != null) {
@@ -622,5 +704,70 @@ public class TMADearrayer {
 		}
 		
 	}
+	
+	
+	/**
+	 * Refine the center of a single TMA core, using an image of the region surrounding it 
+	 * (typically at a higher resolution than was used to detect the grid).
+	 * <p>
+	 * The region is thresholded using Otsu's method, and the center is then moved iteratively to the 
+	 * centroid of the foreground pixels within one core diameter.
+	 * 
+	 * @param ip image containing the core, ideally with a border of about half a core diameter
+	 * @param x initial estimate of the core center x-coordinate, in pixels of ip
+	 * @param y initial estimate of the core center y-coordinate, in pixels of ip
+	 * @param coreDiameterPx approximate diameter of the core, in pixels of ip
+	 * @param isFluorescence true if the core is bright on a dark background, false if it is dark on a light background
+	 * @return the refined center as {x, y}, or null if the center could not be refined 
+	 * 			(e.g. because the region contains no tissue, or the center moved too far to be trusted)
+	 */
+	public static double[] refineCoreCenter(ImageProcessor ip, double x, double y, double coreDiameterPx, boolean isFluorescence) {
+		ByteProcessor bp = ip instanceof ColorProcessor ? (ByteProcessor)ip.convertToByte(false) : (ByteProcessor)ip.convertToByte(true);
+		int threshold = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, bp.getHistogram());
+		
+		int width = bp.getWidth();
+		int height = bp.getHeight();
+		byte[] pixels = (byte[])bp.getPixels();
+		double radius = coreDiameterPx * 0.5;
+		double radiusSq = radius * radius;
+		double x0 = x;
+		double y0 = y;
+		for (int iter = 0; iter < 10; iter++) {
+			double sumX = 0, sumY = 0;
+			int n = 0;
+			int yStart = Math.max(0, (int)(y - radius));
+			int yEnd = Math.min(height, (int)Math.ceil(y + radius));
+			int xStart = Math.max(0, (int)(x - radius));
+			int xEnd = Math.min(width, (int)Math.ceil(x + radius));
+			for (int yy = yStart; yy < yEnd; yy++) {
+				double dy = yy + 0.5 - y;
+				for (int xx = xStart; xx < xEnd; xx++) {
+					double dx = xx + 0.5 - x;
+					if (dx*dx + dy*dy > radiusSq)
+						continue;
+					int val = pixels[yy*width + xx] & 0xff;
+					if (isFluorescence ? val > threshold : val <= threshold) {
+						sumX += xx + 0.5;
+						sumY += yy + 0.5;
+						n++;
+					}
+				}
+			}
+			if (n == 0)
+				return null;
+			double xNew = sumX / n;
+			double yNew = sumY / n;
+			double shift = Math.max(Math.abs(xNew - x), Math.abs(yNew - y));
+			x = xNew;
+			y = yNew;
+			if (shift < 0.5)
+				break;
+		}
+		
+		// If the center moved by more than half a core radius, it may have drifted towards a neighbor
+		if ((x - x0)*(x - x0) + (y - y0)*(y - y0) > radiusSq * 0.25)
+			return null;
+		return new double[]{x, y};
+	}
 
-}
\ No newline at end of file
+}
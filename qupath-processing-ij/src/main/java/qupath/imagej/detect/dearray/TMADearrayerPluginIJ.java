@@ -29,6 +29,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +57,7 @@ import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.plugins.workflow.SimplePluginWorkflowStep;
 import qupath.lib.plugins.workflow.WorkflowStep;
+import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.interfaces.ROI;
 
 
@@ -98,6 +101,8 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 //		gd.addMessage("Choose a scaling factor for the core ROIs.");
 //		gd.addMessage("1 means the ROI will have the same diameter as the core specified above; higher values add padding.");
 		params.addIntParameter("boundsScale", "Bounds scale factor", 105, "%", 50, 150, "Scaling factor to adjust the core size.\nA scale factor of 100% will give cores with the diameter specified above.\nA higher scale factor will increase the size, a lower factor will decrease the size.");
+		
+		params.addBooleanParameter("refineCenters", "Refine core centers", false, "Refine the center of each core at a higher resolution than is used to detect the grid.\nThis can improve the placement of cores on dense arrays, but requires more pixels to be read.");
 
 	}
 	
@@ -169,6 +174,11 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 		
 		final private static Logger logger = LoggerFactory.getLogger(Dearrayer.class);
 		
+		/**
+		 * Approximate core diameter, in pixels, at the resolution used to refine core centers.
+		 */
+		private static double REFINE_CORE_DIAMETER = 128;
+		
 		private ImageProcessor ip;
 		
 		private TMAGrid tmaGrid = null;
@@ -182,6 +192,9 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 		protected ByteProcessor bp = null;
 		protected Polygon polyGrid = null;
 		
+		private ImageServer<BufferedImage> server = null;
+		private boolean refineCenters = false;
+		
 		
 		@Override
 		public Collection<PathObject> runDetection(final ImageData<BufferedImage> imageData, ParameterList params, ROI pathROI) {
@@ -202,6 +215,7 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 		
 			double densityThreshold = params.getIntParameterValue("densityThreshold") * 0.01;
 			double roiScaleFactor = params.getIntParameterValue("boundsScale") * 0.01;
+			refineCenters = Boolean.TRUE.equals(params.getBooleanParameterValue("refineCenters"));
 			logger.trace("ROI scale: " + roiScaleFactor);
 		
 
@@ -230,17 +244,9 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 
 			// Read the image
 			PathImage<ImagePlus> pathImage = PathImagePlus.createPathImage(server, downsample);
-			ImagePlus imp = pathImage.getImage();
-
-			if (imp.getType() == ImagePlus.COLOR_RGB || imp.getNChannels() == 1)
-				ip = imp.getProcessor();
-			else {
-				ZProjector zProjector = new ZProjector(imp);
-				zProjector.setMethod(ZProjector.AVG_METHOD);
-				zProjector.doProjection();
-				ip = zProjector.getProjection().getProcessor();
-			}
+			ip = getSingleProcessor(pathImage.getImage());
 			bp = null;
+			this.server = server;
 				
 			String[] hLabelsSplit = PathObjectTools.parseTMALabelString(horizontalLabels);
 			String[] vLabelsSplit = PathObjectTools.parseTMALabelString(verticalLabels);
@@ -253,6 +259,23 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 		
 		
 		
+		/**
+		 * Get a single processor for an image, averaging channels if necessary (unless the image is RGB).
+		 * 
+		 * @param imp
+		 * @return
+		 */
+		private static ImageProcessor getSingleProcessor(final ImagePlus imp) {
+			if (imp.getType() == ImagePlus.COLOR_RGB || imp.getNChannels() == 1)
+				return imp.getProcessor();
+			ZProjector zProjector = new ZProjector(imp);
+			zProjector.setMethod(ZProjector.AVG_METHOD);
+			zProjector.doProjection();
+			return zProjector.getProjection().getProcessor();
+		}
+		
+		
+		
 		public boolean updateGrid(TMAGrid tmaGrid, double downsample) {
 			if (tmaGrid == null)
 				return false;
@@ -315,6 +338,19 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 			// Compute densities
 			double[] coreDensities = TMADearrayer.computeDensities(bp, polyGrid, coreDiameterPx);
 			
+			// Get core centers in the full-resolution image space, refining these if required
+			double[] xCenters = new double[polyGrid.npoints];
+			double[] yCenters = new double[polyGrid.npoints];
+			for (int i = 0; i < polyGrid.npoints; i++) {
+				xCenters[i] = polyGrid.xpoints[i] * downsample;
+				yCenters[i] = polyGrid.ypoints[i] * downsample;
+			}
+			if (refineCenters && server != null)
+				refineCoreCenters(server, xCenters, yCenters, coreDensities, densityThreshold, fullCoreDiameterPx, downsample, isFluorescence);
+			
+			if (Thread.currentThread().isInterrupted())
+				return null;
+			
 			// Update cores
 			List<TMACoreObject> coords = new ArrayList<>();
 			double coreSize = fullCoreDiameterPx * roiScaleFactor;
@@ -324,8 +360,8 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 				for (int x = 0; x < nHorizontal; x++) {
 					if (ind >= polyGrid.npoints)
 						break;
-					double xx = polyGrid.xpoints[ind] * downsample;
-					double yy = polyGrid.ypoints[ind] * downsample;
+					double xx = xCenters[ind];
+					double yy = yCenters[ind];
 					
 					String hLabel = hLabelsSplit[x];
 					String vLabel = vLabelsSplit[y];
@@ -353,6 +389,65 @@ public class TMADearrayerPluginIJ extends AbstractInteractivePlugin<BufferedImag
 		
 		
 		
+		/**
+		 * Refine the centers of all (non-missing) cores in parallel, by reading the region around each core 
+		 * at a higher resolution than was used to detect the grid.
+		 * <p>
+		 * Centers that cannot be refined are left unchanged.
+		 * 
+		 * @param server
+		 * @param xCenters core center x-coordinates in the full-resolution image; updated in place
+		 * @param yCenters core center y-coordinates in the full-resolution image; updated in place
+		 * @param coreDensities
+		 * @param densityThreshold
+		 * @param fullCoreDiameterPx
+		 * @param downsample downsample factor used to detect the grid
+		 * @param isFluorescence
+		 */
+		static void refineCoreCenters(final ImageServer<BufferedImage> server, final double[] xCenters, final double[] yCenters, final double[] coreDensities, final double densityThreshold, final double fullCoreDiameterPx, final double downsample, final boolean isFluorescence) {
+			double refineDownsample = Math.max(1, Math.round(fullCoreDiameterPx / REFINE_CORE_DIAMETER));
+			if (refineDownsample >= downsample)
+				return;
+			
+			long startTime = System.currentTimeMillis();
+			AtomicInteger nRefined = new AtomicInteger();
+			// Cores are refined on worker threads, so check whether the thread that requested the refinement has been interrupted
+			Thread caller = Thread.currentThread();
+			IntStream.range(0, xCenters.length).parallel().forEach(i -> {
+				if (coreDensities[i] < densityThreshold || caller.isInterrupted())
+					return;
+				// Read a region of (up to) twice the core diameter around the current estimate
+				int x = (int)Math.max(0, xCenters[i] - fullCoreDiameterPx);
+				int y = (int)Math.max(0, yCenters[i] - fullCoreDiameterPx);
+				int x2 = (int)Math.min(server.getWidth(), Math.ceil(xCenters[i] + fullCoreDiameterPx));
+				int y2 = (int)Math.min(server.getHeight(), Math.ceil(yCenters[i] + fullCoreDiameterPx));
+				if (x2 <= x || y2 <= y)
+					return;
+				try {
+					RegionRequest request = RegionRequest.createInstance(server.getPath(), refineDownsample, x, y, x2 - x, y2 - y);
+					PathImage<ImagePlus> pathImage = PathImagePlus.createPathImage(server, request);
+					ImageProcessor ipCore = getSingleProcessor(pathImage.getImage());
+					double ds = pathImage.getDownsampleFactor();
+					double[] center = TMADearrayer.refineCoreCenter(ipCore,
+							(xCenters[i] - x) / ds,
+							(yCenters[i] - y) / ds,
+							fullCoreDiameterPx / ds,
+							isFluorescence);
+					if (center != null) {
+						xCenters[i] = x + center[0] * ds;
+						yCenters[i] = y + center[1] * ds;
+						nRefined.incrementAndGet();
+					}
+				} catch (Exception e) {
+					logger.warn("Unable to refine TMA core center: {}", e.getLocalizedMessage());
+				}
+			});
+			long endTime = System.currentTimeMillis();
+			logger.info(String.format("Refined %d TMA core centers at downsample %.1f: %.2f seconds", nRefined.get(), refineDownsample, (endTime - startTime) / 1000.));
+		}
+		
+		
+		
 		@Override
 		public String getLastResultsDescription() {
 			return lastMessage;
@@ -55,6 +55,7 @@ import ij.process.ImageStatistics;
 import ij.process.ShortProcessor;
 import qupath.imagej.color.ColorDeconvolutionIJ;
 import qupath.imagej.helpers.IJTools;
+import qupath.imagej.helpers.ImageProcessorPool;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.objects.measure.ObjectMeasurements;
@@ -82,6 +83,7 @@ import qupath.lib.objects.classes.PathClassFactory;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.DoubleParameter;
 import qupath.lib.plugins.parameters.Parameter;
 import qupath.lib.plugins.parameters.ParameterList;
@@ -354,24 +356,29 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 				cellExpansion = params.getDoubleParameterValue("cellExpansion");
 			}
 			
-			detector2.runDetection(
-					backgroundRadius,
-					isBrightfield ? params.getDoubleParameterValue("maxBackground") : Double.NEGATIVE_INFINITY,
-					medianRadius,
-					sigma,
-					params.getDoubleParameterValue("threshold"),
-					minArea,
-					maxArea,
-					true, // always use 'merge all' params.getBooleanParameterValue("mergeAll"),
-					params.getBooleanParameterValue("watershedPostProcess"),
-					params.getBooleanParameterValue("excludeDAB"),
-					cellExpansion,
-//					params.getBooleanParameterValue("limitExpansionByNucleusSize"),
-					params.getBooleanParameterValue("smoothBoundaries"),
-					params.getBooleanParameterValue("includeNuclei"),
-					params.getBooleanParameterValue("makeMeasurements"),
-					pathROI.getZ(),
-					pathROI.getT());// && isBrightfield);
+			try {
+				detector2.runDetection(
+						backgroundRadius,
+						isBrightfield ? params.getDoubleParameterValue("maxBackground") : Double.NEGATIVE_INFINITY,
+						medianRadius,
+						sigma,
+						params.getDoubleParameterValue("threshold"),
+						minArea,
+						maxArea,
+						true, // always use 'merge all' params.getBooleanParameterValue("mergeAll"),
+						params.getBooleanParameterValue("watershedPostProcess"),
+						params.getBooleanParameterValue("excludeDAB"),
+						cellExpansion,
+//						params.getBooleanParameterValue("limitExpansionByNucleusSize"),
+						params.getBooleanParameterValue("smoothBoundaries"),
+						params.getBooleanParameterValue("includeNuclei"),
+						params.getBooleanParameterValue("makeMeasurements"),
+						pathROI.getZ(),
+						pathROI.getT());// && isBrightfield);
+			} finally {
+				// Detected objects don't depend upon any of the temporary images, so these can be returned to the pool
+				detector2.releaseBuffers();
+			}
 			
 			pathObjects.addAll(detector2.getPathObjects());
 					
@@ -496,6 +503,8 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 		
 		private PathImage<ImagePlus> pathImage = null;
 		
+		private ImageProcessorPool.Session buffers = null;
+		
 		public WatershedCellDetector(FloatProcessor fpDetection, Map<String, FloatProcessor> channels, Map<String, FloatProcessor> channelsCell, Roi roi, PathImage<ImagePlus> pathImage) {
 			this.fpDetection = fpDetection;
 			if (channels != null)
@@ -545,7 +554,25 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 		
 		
 		
+		/**
+		 * Return any temporary images used during detection to the thread's buffer pool.
+		 * <p>
+		 * This should be called once detection is complete; any later detection will 
+		 * regenerate the intermediate images from scratch.
+		 */
+		public void releaseBuffers() {
+			if (buffers == null)
+				return;
+			buffers.close();
+			buffers = null;
+			rois = null;
+			bpLoG = null;
+			ipToMeasure = null;
+		}
+		
 		private void doDetection(boolean regenerateROIs) {
+			if (buffers == null)
+				buffers = ImageProcessorPool.getThreadPool().openSession();
 			int width = fpDetection.getWidth();
 			int height = fpDetection.getHeight();
 //			Prefs.setThreads(1);
@@ -560,7 +587,7 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 				
 				// Use Laplacian of Gaussian filtering followed by watershed transform to determine possible nucleus segments
 				// Result will be a dramatic over-segmentation...
-				FloatProcessor fpLoG = (FloatProcessor)fpDetection.duplicate();
+				FloatProcessor fpLoG = (FloatProcessor)buffers.duplicate(fpDetection);
 
 				// Start off with a median filter to reduce texture, if necessary
 				RankFilters rf = new RankFilters();
@@ -582,10 +609,10 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 				
 				// Subtract background first, if needed
 				if (backgroundRadius > 0) {
-					ImageProcessor ipBackground = fpLoG.duplicate();
+					ImageProcessor ipBackground = buffers.duplicate(fpLoG);
 					bpBackgroundMask = limitedOpeningByReconstruction(fpLoG, ipBackground, backgroundRadius, maxBackground);
 					fpLoG.copyBits(ipBackground, 0, 0, Blitter.SUBTRACT);
-					ipToMeasure = fpLoG.duplicate();
+					ipToMeasure = buffers.duplicate(fpLoG);
 				} else {
 					ipToMeasure = fpDetection;
 				}
@@ -613,7 +640,7 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 			} 
 			
 			if (bp == null)
-				bp = new ByteProcessor(width, height);	
+				bp = buffers.createByteProcessor(width, height);	
 			
 //			// TODO: Consider application of an automated threshold
 //			if (threshold < 0) {
@@ -675,7 +702,7 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 			// The idea is that Gaussian smoothing tends to cause the boundaries of 'thin' nuclei to be overestimated;
 			// this uses a smaller filter to correct instances where the boundary has moved by just one pixel
 			if (refineBoundary && sigma > 1.5) {
-				FloatProcessor fpBoundaryCleanup = (FloatProcessor)fpDetection.duplicate();
+				FloatProcessor fpBoundaryCleanup = (FloatProcessor)buffers.duplicate(fpDetection);
 				fpBoundaryCleanup.blurGaussian(1);
 				fpBoundaryCleanup.convolve(new float[]{0, -1, 0, -1, 4, -1, 0, -1, 0}, 3, 3);
 				ByteProcessor bp2 = SimpleThresholding.thresholdAbove(fpBoundaryCleanup, 0f);
@@ -711,7 +738,7 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 			
 			
 			// Label nuclei
-			ShortProcessor ipLabels = new ShortProcessor(width, height);
+			ShortProcessor ipLabels = buffers.createShortProcessor(width, height);
 			ROILabeling.labelROIs(ipLabels, roisNuclei);
 			
 			// Measure nuclei for all required channels
@@ -783,7 +810,7 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 				double cellExpansionThreshold = -cellExpansion;
 				
 				// Create cell ROIs
-				ImageProcessor ipLabelsCells = ipLabels.duplicate();
+				ImageProcessor ipLabelsCells = buffers.duplicate(ipLabels);
 				Watershed.doWatershed(fpEDM, ipLabelsCells, cellExpansionThreshold, false);
 				PolygonRoi[] roisCells = ROILabeling.labelsToFilledROIs(ipLabelsCells, roisNuclei.size());
 				
@@ -987,6 +1014,17 @@ public class WatershedCellDetection extends AbstractTileableDetectionPlugin<Buff
 	}
 	
 	
+	@Override
+	protected void preprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.resetCounts();
+	}
+	
+	@Override
+	protected void postprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.logCounts(getName());
+	}
+	
+	
 	@Override
 	public String getDescription() {
 		return "Default cell detection algorithm for brightfield images with nuclear or cytoplasmic staining";
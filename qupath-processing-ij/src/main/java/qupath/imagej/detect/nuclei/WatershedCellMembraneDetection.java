@@ -27,6 +27,7 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -54,9 +55,11 @@ import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 import ij.process.ShortProcessor;
 import qupath.imagej.color.ColorDeconvolutionIJ;
+import qupath.imagej.helpers.ImageProcessorPool;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.objects.measure.ObjectMeasurements;
+import qupath.imagej.objects.measure.ObjectMeasurements.LabelStatistics;
 import qupath.imagej.processing.MorphologicalReconstruction;
 import qupath.imagej.processing.ROILabeling;
 import qupath.imagej.processing.RegionalExtrema;
@@ -82,6 +85,7 @@ import qupath.lib.objects.classes.PathClassFactory;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.Parameter;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.roi.PolygonROI;
@@ -293,22 +297,27 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				cellExpansion = params.getDoubleParameterValue("cellExpansion");
 			}
 			
-			detector2.runDetection(
-					backgroundRadius,
-					params.getDoubleParameterValue("maxBackground"),
-					medianRadius,
-					sigma,
-					params.getDoubleParameterValue("threshold"),
-					minArea,
-					maxArea,
-					true, // always use 'merge all' params.getBooleanParameterValue("mergeAll"),
-					params.getBooleanParameterValue("watershedPostProcess"),
-					params.getBooleanParameterValue("excludeDAB"),
-					cellExpansion,
-					params.getBooleanParameterValue("limitExpansionByNucleusSize"),
-					params.getBooleanParameterValue("smoothBoundaries"),
-					params.getBooleanParameterValue("includeNuclei"),
-					params.getBooleanParameterValue("makeMeasurements") && isBrightfield);
+			try {
+				detector2.runDetection(
+						backgroundRadius,
+						params.getDoubleParameterValue("maxBackground"),
+						medianRadius,
+						sigma,
+						params.getDoubleParameterValue("threshold"),
+						minArea,
+						maxArea,
+						true, // always use 'merge all' params.getBooleanParameterValue("mergeAll"),
+						params.getBooleanParameterValue("watershedPostProcess"),
+						params.getBooleanParameterValue("excludeDAB"),
+						cellExpansion,
+						params.getBooleanParameterValue("limitExpansionByNucleusSize"),
+						params.getBooleanParameterValue("smoothBoundaries"),
+						params.getBooleanParameterValue("includeNuclei"),
+						params.getBooleanParameterValue("makeMeasurements") && isBrightfield);
+			} finally {
+				// Detected objects don't depend upon any of the temporary images, so these can be returned to the pool
+				detector2.releaseBuffers();
+			}
 			
 			pathObjects.addAll(detector2.getPathObjects());
 					
@@ -419,6 +428,8 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 		
 		private PathImage<ImagePlus> pathImage = null;
 		
+		private ImageProcessorPool.Session buffers = null;
+		
 		public WatershedCellDetector(FloatProcessor fpDetection, FloatProcessor fpH, FloatProcessor fpDAB, Roi roi, PathImage<ImagePlus> pathImage) {
 			this.fpDetection = fpDetection;
 			this.fpH = fpH;
@@ -469,7 +480,26 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 		
 		
 		
+		/**
+		 * Return any temporary images used during detection to the thread's buffer pool.
+		 * <p>
+		 * This should be called once detection is complete; any later detection will 
+		 * regenerate the intermediate images from scratch.
+		 */
+		public void releaseBuffers() {
+			if (buffers == null)
+				return;
+			buffers.close();
+			buffers = null;
+			rois = null;
+			bpLoG = null;
+			ipToMeasure = null;
+			ipBackground = null;
+		}
+		
 		private void doDetection(boolean regenerateROIs) {
+			if (buffers == null)
+				buffers = ImageProcessorPool.getThreadPool().openSession();
 			int width = fpDetection.getWidth();
 			int height = fpDetection.getHeight();
 //			Prefs.setThreads(1);
@@ -484,7 +514,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				
 				// Use Laplacian of Gaussian filtering followed by watershed transform to determine possible nucleus segments
 				// Result will be a dramatic over-segmentation...
-				FloatProcessor fpLoG = (FloatProcessor)fpDetection.duplicate();
+				FloatProcessor fpLoG = (FloatProcessor)buffers.duplicate(fpDetection);
 								
 ////				fpLoG.copyBits(fpDAB, 0, 0, Blitter.ADD); // Testing is adding the optical densities helps...
 //				// Check we have some above-threshold pixels - if not, don't do more
@@ -517,13 +547,13 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 
 //					ROILabeling.fillOutside(fpLoG, roi, Float.NEGATIVE_INFINITY);
 
-					ipBackground = fpLoG.duplicate();
+					ipBackground = buffers.duplicate(fpLoG);
 									
 					bpBackgroundMask = limitedOpeningByReconstruction(fpLoG, ipBackground, backgroundRadius, maxBackground);
 					
 //					ipBackground = MorphologicalReconstructionInteger.openingByReconstruction(fpLoG, backgroundRadius);
 					fpLoG.copyBits(ipBackground, 0, 0, Blitter.SUBTRACT);
-					ipToMeasure = fpLoG.duplicate();
+					ipToMeasure = buffers.duplicate(fpLoG);
 //					new ImagePlus("Background", ipBackground.duplicate()).show();
 				} else {
 					ipToMeasure = fpDetection;
@@ -573,20 +603,25 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 			} 
 			
 			if (bp == null)
-				bp = new ByteProcessor(width, height);			
+				bp = buffers.createByteProcessor(width, height);			
 
+			// Measure the candidate regions in a single pass through a labelled image
+			FloatProcessor ipCandidateLabels = buffers.createFloatProcessor(width, height);
+			ROILabeling.labelROIs(ipCandidateLabels, rois);
+			List<ImageProcessor> channels = bpBackgroundMask == null ? Collections.singletonList(ipToMeasure) : Arrays.asList(ipToMeasure, bpBackgroundMask);
+			LabelStatistics statsCandidates = ObjectMeasurements.computeLabelStatistics(ipCandidateLabels, rois.size(), channels, false, false, false);
+			
 			bp.setValue(255);
-			for (Roi r : rois) {
+			for (int i = 0; i < rois.size(); i++) {
+				Roi r = rois.get(i);
 				// Perform mean intensity check - skip if below threshold
-				ipToMeasure.setRoi(r);
-				double mean = ipToMeasure.getStatistics().mean;
+				double mean = statsCandidates.getMean(0, i);
 				if (mean <= threshold) {
 					continue;
 				}
 				// Perform background intensity check, if required
 				if (bpBackgroundMask != null) {
-					bpBackgroundMask.setRoi(r);
-					if (bpBackgroundMask.getStatistics().mean > 0)
+					if (statsCandidates.getMean(1, i) > 0)
 						continue;				
 				}
 //				if (ipBackground != null && !Double.isNaN(maxBackground)) {
@@ -636,7 +671,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				
 //				new ImagePlus("Before", bp.duplicate()).show();
 				
-				FloatProcessor fpLoG = (FloatProcessor)fpDetection.duplicate();
+				FloatProcessor fpLoG = (FloatProcessor)buffers.duplicate(fpDetection);
 				fpLoG.blurGaussian(1);
 				fpLoG.convolve(new float[]{0, -1, 0, -1, 4, -1, 0, -1, 0}, 3, 3);
 				ByteProcessor bp2 = SimpleThresholding.thresholdAbove(fpLoG, 0f);
@@ -672,7 +707,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 			
 			
 			// Label nuclei
-			ShortProcessor ipLabels = new ShortProcessor(width, height);
+			ShortProcessor ipLabels = buffers.createShortProcessor(width, height);
 			ROILabeling.labelROIs(ipLabels, roisNuclei);
 			
 			
@@ -686,7 +721,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 			// Membrane detection (new 9/8/2015)
 			if (excludeDAB && fpDAB != null) {
 				
-				FloatProcessor fpMembranes = (FloatProcessor)fpDAB.duplicate();
+				FloatProcessor fpMembranes = (FloatProcessor)buffers.duplicate(fpDAB);
 				fpMembranes.blurGaussian(2); // TODO: Enable a different sigma parameter?
 				
 				float membraneThreshold = .2f; // TODO: Enable a different membrane threshold?
@@ -708,7 +743,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				ROILabeling.removeByAreas(bpMarkers, 1, maxArea, true);
 				
 				// Determine a mask of the furthest anything can expand
-				ByteProcessor bpMaxExpansion = (ByteProcessor)bpMarkers.duplicate();
+				ByteProcessor bpMaxExpansion = (ByteProcessor)buffers.duplicate(bpMarkers);
 				new RankFilters().rank(bpMaxExpansion, cellExpansion, RankFilters.MAX);
 				
 				// Update the mask to remove completely unstained pixels
@@ -725,7 +760,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				}
 				fpMembranes.resetMinAndMax();
 				int lastLabel = roisNuclei.size();
-				ipLabelsCells = ipLabels.duplicate();
+				ipLabelsCells = buffers.duplicate(ipLabels);
 				for (int i = 0; i < width * height; i++) {
 					if (bpMarkers.get(i) != 0 && ipLabelsCells.get(i) == 0) {
 						ipLabelsCells.set(i, Short.MAX_VALUE);
@@ -848,7 +883,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 						ByteProcessor bpVoronoi = mf.findMaxima(fpEDM, .5, cellExpansionThreshold, MaximumFinder.SEGMENTED, false, false);
 						FloatProcessor fpEDM2 = new EDM().makeFloatEDM(bp, (byte)0, false);
 						
-						FloatProcessor fpMarkers = new FloatProcessor(fpEDM2.getWidth(), fpEDM2.getHeight());
+						FloatProcessor fpMarkers = buffers.createFloatProcessor(fpEDM2.getWidth(), fpEDM2.getHeight());
 						Arrays.fill((float[])(fpMarkers.getPixels()), Float.NEGATIVE_INFINITY);
 						for (Roi r : roisNuclei) {
 							fpEDM2.setRoi(r);
@@ -871,7 +906,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 					// ---------------------- END EXPERIMENTAL
 					
 					// Create cell ROIs
-					ipLabelsCells = ipLabels.duplicate();
+					ipLabelsCells = buffers.duplicate(ipLabels);
 					Watershed.doWatershed(fpEDM, ipLabelsCells, cellExpansionThreshold, false);
 					roisCells = ROILabeling.getFilledPolygonROIsFromLabels(ipLabelsCells, roisNuclei.size());
 					nCells = roisCells.size();
@@ -907,7 +942,7 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 				List<RunningStatistics> statsDABMembrane = null;
 				if (includeNuclei && excludeDAB && fpDAB != null && makeMeasurements) {
 					statsDABMembrane = StatisticsHelper.createRunningStatisticsList(nCells);
-					ImageProcessor ipLabelsMembrane = new ShortProcessor(width, height);
+					ImageProcessor ipLabelsMembrane = buffers.createShortProcessor(width, height);
 					// TODO: WARNING!  This method of creating measurements doesn't permit membranes to overlap.
 					// This means that sometimes one cell could 'steal' a bit of the membrane of another cell.
 					// However it's unlikely this actually make any substantial difference...
@@ -1091,6 +1126,17 @@ public class WatershedCellMembraneDetection extends AbstractTileableDetectionPlu
 
 	
 	
+	@Override
+	protected void preprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.resetCounts();
+	}
+	
+	@Override
+	protected void postprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.logCounts(getName());
+	}
+	
+	
 	@Override
 	public String getDescription() {
 		return "Default cell detection algorithm for brightfield images with membrane staining";
@@ -26,7 +26,9 @@ package qupath.imagej.detect.nuclei;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -49,9 +51,11 @@ import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 import qupath.imagej.color.ColorDeconvolutionIJ;
+import qupath.imagej.helpers.ImageProcessorPool;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.objects.measure.ObjectMeasurements;
+import qupath.imagej.objects.measure.ObjectMeasurements.LabelStatistics;
 import qupath.imagej.processing.MorphologicalReconstruction;
 import qupath.imagej.processing.ROILabeling;
 import qupath.imagej.processing.RegionalExtrema;
@@ -72,6 +76,7 @@ import qupath.lib.objects.classes.PathClassFactory;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.Parameter;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.roi.interfaces.ROI;
@@ -141,6 +146,17 @@ public class WatershedNucleusDetection extends AbstractTileableDetectionPlugin<B
 
 	
 	
+	@Override
+	protected void preprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.resetCounts();
+	}
+	
+	@Override
+	protected void postprocess(final PluginRunner<BufferedImage> pluginRunner) {
+		ImageProcessorPool.logCounts(getName());
+	}
+	
+	
 	synchronized void detectorComplete(final WatershedNucleusDetector detector) {
 		if (detector != null)
 			this.lastResults = detector.getLastResultsDescription();
@@ -242,19 +258,24 @@ public class WatershedNucleusDetection extends AbstractTileableDetectionPlugin<B
 				maxArea = params.getDoubleParameterValue("maxArea");
 			}
 
-			detector2.runDetection(
-					backgroundRadius,
-					holesRadius,
-					params.getDoubleParameterValue("maxBackground"),
-					medianRadius,
-					sigma,
-					params.getDoubleParameterValue("threshold"),
-					minArea,
-					maxArea,
-					params.getBooleanParameterValue("mergeAll"),
-					params.getBooleanParameterValue("watershedPostProcess"),
-					params.getBooleanParameterValue("excludeDAB"),
-					params.getBooleanParameterValue("smoothBoundaries"));
+			try {
+				detector2.runDetection(
+						backgroundRadius,
+						holesRadius,
+						params.getDoubleParameterValue("maxBackground"),
+						medianRadius,
+						sigma,
+						params.getDoubleParameterValue("threshold"),
+						minArea,
+						maxArea,
+						params.getBooleanParameterValue("mergeAll"),
+						params.getBooleanParameterValue("watershedPostProcess"),
+						params.getBooleanParameterValue("excludeDAB"),
+						params.getBooleanParameterValue("smoothBoundaries"));
+			} finally {
+				// The overlay doesn't depend upon any of the temporary images, so these can be returned to the pool
+				detector2.releaseBuffers();
+			}
 
 
 			//		long startTime = System.currentTimeMillis();
@@ -276,7 +297,15 @@ public class WatershedNucleusDetection extends AbstractTileableDetectionPlugin<B
 			} else
 				ipDABToMeasure = fpDAB;
 
-			for (Roi r : detector2.getOverlay().toArray()) {
+			// Measure intensities for all nuclei in a single pass through a labelled image
+			Roi[] roisNuclei = detector2.getOverlay().toArray();
+			FloatProcessor ipLabels = new FloatProcessor(fpH.getWidth(), fpH.getHeight());
+			ROILabeling.labelROIs(ipLabels, Arrays.asList(roisNuclei));
+			List<ImageProcessor> channels = ipDABToMeasure == null ? Collections.singletonList(fpH) : Arrays.asList(fpH, ipDABToMeasure);
+			LabelStatistics statsNuclei = ObjectMeasurements.computeLabelStatistics(ipLabels, roisNuclei.length, channels, false, false, false);
+			
+			for (int i = 0; i < roisNuclei.length; i++) {
+				Roi r = roisNuclei[i];
 
 				// TODO: It would be more efficient to measure the hematoxylin intensities along with the shapes
 
@@ -290,24 +319,20 @@ public class WatershedNucleusDetection extends AbstractTileableDetectionPlugin<B
 				//			pathObject = new PathObject(new PathPolygonROI(PathPolygonROI.smoothPoints(((PathPolygonROI)pathObject.getROI()).getPolygonPoints())));
 				//			r = PathROIConverterIJ.convertToIJRoi(pathObject.getROI(), pathImage);
 
-				fpH.setRoi(r);
-				ImageStatistics stats = fpH.getStatistics();
-				if (stats.pixelCount < minArea)
+				if (statsNuclei.getPixelCount(i) < minArea)
 					continue;
-				measurementList.addMeasurement("Nucleus: Hematoxylin OD mean", stats.mean);
-				measurementList.addMeasurement("Nucleus: Hematoxylin OD std dev", stats.stdDev);
-				measurementList.addMeasurement("Nucleus: Hematoxylin OD max", stats.max);
-				measurementList.addMeasurement("Nucleus: Hematoxylin OD min", stats.min);
-				measurementList.addMeasurement("Nucleus: Hematoxylin OD range", stats.max - stats.min);
+				measurementList.addMeasurement("Nucleus: Hematoxylin OD mean", statsNuclei.getMean(0, i));
+				measurementList.addMeasurement("Nucleus: Hematoxylin OD std dev", statsNuclei.getStdDev(0, i));
+				measurementList.addMeasurement("Nucleus: Hematoxylin OD max", statsNuclei.getMax(0, i));
+				measurementList.addMeasurement("Nucleus: Hematoxylin OD min", statsNuclei.getMin(0, i));
+				measurementList.addMeasurement("Nucleus: Hematoxylin OD range", statsNuclei.getMax(0, i) - statsNuclei.getMin(0, i));
 
 				if (ipDABToMeasure != null) {
-					ipDABToMeasure.setRoi(r);
-					stats = ipDABToMeasure.getStatistics();
-					measurementList.addMeasurement("Nucleus: DAB OD mean", stats.mean);
-					measurementList.addMeasurement("Nucleus: DAB OD std dev", stats.stdDev);
-					measurementList.addMeasurement("Nucleus: DAB OD max", stats.max);
-					measurementList.addMeasurement("Nucleus: DAB OD min", stats.min);
-					measurementList.addMeasurement("Nucleus: DAB OD range", stats.max - stats.min);
+					measurementList.addMeasurement("Nucleus: DAB OD mean", statsNuclei.getMean(1, i));
+					measurementList.addMeasurement("Nucleus: DAB OD std dev", statsNuclei.getStdDev(1, i));
+					measurementList.addMeasurement("Nucleus: DAB OD max", statsNuclei.getMax(1, i));
+					measurementList.addMeasurement("Nucleus: DAB OD min", statsNuclei.getMin(1, i));
+					measurementList.addMeasurement("Nucleus: DAB OD range", statsNuclei.getMax(1, i) - statsNuclei.getMin(1, i));
 				}
 
 				//			measurementList.trimToSize();
@@ -495,6 +520,8 @@ class WatershedNucleusDetector2 {
 	private List<PolygonRoi> rois = null;
 	private ByteProcessor bpLoG = null;
 	private Overlay overlay = null;
+	
+	private ImageProcessorPool.Session buffers = null;
 
 	public WatershedNucleusDetector2(FloatProcessor fpH, FloatProcessor fpDAB, Roi roi) {
 		Prefs.setThreads(1); // When parallelising a lot, this really helps... Maximum filters & Gaussian filters start up many threads
@@ -504,8 +531,28 @@ class WatershedNucleusDetector2 {
 	}
 
 
+	/**
+	 * Return any temporary images used during detection to the thread's buffer pool.
+	 * <p>
+	 * This should be called once the overlay is no longer needed; any later detection will 
+	 * regenerate the intermediate images from scratch.
+	 */
+	public void releaseBuffers() {
+		if (buffers == null)
+			return;
+		buffers.close();
+		buffers = null;
+		rois = null;
+		bpLoG = null;
+		ipToMeasure = null;
+		ipBackground = null;
+	}
+
+
 	private void doDetection(boolean regenerateROIs) {
 		overlay = null;
+		if (buffers == null)
+			buffers = ImageProcessorPool.getThreadPool().openSession();
 		ByteProcessor bp = null;
 		fpH.setRoi(roi);
 		if (regenerateROIs) {
@@ -516,7 +563,7 @@ class WatershedNucleusDetector2 {
 
 			// Use Laplacian of Gaussian filtering followed by watershed transform to determine possible nucleus segments
 			// Result will be a dramatic over-segmentation...
-			FloatProcessor fpLoG = (FloatProcessor)fpH.duplicate();
+			FloatProcessor fpLoG = (FloatProcessor)buffers.duplicate(fpH);
 
 			if (holesRadius > 0)
 				fpLoG = (FloatProcessor)MorphologicalReconstruction.closingByReconstruction(fpLoG, holesRadius);
@@ -534,7 +581,7 @@ class WatershedNucleusDetector2 {
 				//				long endTime = System.currentTimeMillis();
 				//				System.out.println("Opening by reconstruction time: " + (endTime - startTime)/1000.);
 				fpLoG.copyBits(ipBackground, 0, 0, Blitter.SUBTRACT);
-				ipToMeasure = fpLoG.duplicate();
+				ipToMeasure = buffers.duplicate(fpLoG);
 				//				new ImagePlus("Background", ipBackground.duplicate()).show();
 			} else {
 				ipToMeasure = fpH;
@@ -593,7 +640,7 @@ class WatershedNucleusDetector2 {
 
 
 		if (bp == null)
-			bp = new ByteProcessor(fpH.getWidth(), fpH.getHeight());			
+			bp = buffers.createByteProcessor(fpH.getWidth(), fpH.getHeight());			
 
 		bp.setValue(255);
 		for (Roi r : rois) {
@@ -23,8 +23,13 @@
 
 package qupath.imagej.detect.tissue;
 
+import java.awt.BasicStroke;
 import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -39,9 +44,10 @@ import org.slf4j.LoggerFactory;
 import ij.ImagePlus;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
+import ij.gui.ShapeRoi;
 import ij.gui.Wand;
 import ij.measure.Calibration;
-import ij.plugin.filter.RankFilters;
+import ij.plugin.filter.ThresholdToSelection;
 import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
@@ -51,7 +57,10 @@ import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.processing.MorphologicalReconstruction;
 import qupath.imagej.processing.ROILabeling;
 import qupath.imagej.processing.SimpleThresholding;
+import qupath.lib.analysis.algorithms.BinaryMorphology;
+import qupath.lib.analysis.algorithms.MinMaxFilters;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.geom.Point2;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.PathImage;
 import qupath.lib.images.stores.ImageRegionStore;
@@ -78,6 +87,9 @@ import qupath.lib.roi.interfaces.ROI;
  * Very basic global thresholding command to identify tissue regions.
  * 
  * Uses fixed approach to downsampling images & global threshold applied to RGB images only.
+ * <p>
+ * If the requested resolution would require too large an image, the resolution is reduced automatically. 
+ * Optionally, the region boundaries can then be refined at the requested resolution, one tile at a time.
  * 
  * TODO: Provide choice of channels to threshold
  * TODO: Support 16-bit data
@@ -118,6 +130,7 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 		params.addBooleanParameter("dilateBoundaries", "Expand boundaries", false, "Apply 3x3 maximum filter to binary image to increase region sizes");
 		params.addBooleanParameter("smoothCoordinates", "Smooth coordinates", true, "Apply smmothing to region boundaries, to reduce 'blocky' appearance");
 		params.addBooleanParameter("excludeOnBoundary", "Exclude on boundary", false, "Discard detection regions that touch the image boundary");
+		params.addBooleanParameter("refineBoundaries", "Refine boundaries", false, "If the resolution needs to be reduced to fit the image in memory, refine the region boundaries at the requested resolution afterwards.\nThis is slower, but gives more detailed boundaries for large regions.");
 		
 		params.addBooleanParameter("singleAnnotation", "Single annotation", true, "Create a single annotation object from all (possibly-disconnected) regions");
 
@@ -140,9 +153,20 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 			
 			double maxDim = pathROI == null ? Math.max(server.getWidth(), server.getHeight()) : Math.max(pathROI.getBoundsWidth(), pathROI.getBoundsHeight());
 			double maxDimLimit = 4000;
+			
+			// If the requested resolution would give too large an image, threshold at a lower resolution - 
+			// and optionally refine only the region boundaries at the requested resolution afterwards, tile by tile
+			double fineDownsample = downsample;
+			boolean refine = false;
 			if (!(maxDim / downsample <= maxDimLimit)) {
-				logger.warn("Invalid requested downsample {} - will use {} instead", downsample, maxDim / maxDimLimit);
-				downsample = maxDim / maxDimLimit;
+				double coarseDownsample = maxDim / maxDimLimit;
+				fineDownsample = Math.max(1, downsample);
+				refine = Boolean.TRUE.equals(params.getBooleanParameterValue("refineBoundaries")) && downsample > 0 && fineDownsample < coarseDownsample;
+				if (refine)
+					logger.info("Requested downsample {} too low for a single image - will threshold at {} and refine boundaries at {}", fineDownsample, coarseDownsample, fineDownsample);
+				else
+					logger.warn("Invalid requested downsample {} - will use {} instead", downsample, coarseDownsample);
+				downsample = coarseDownsample;
 			}
 			
 //				Rectangle bounds = pathROI != null ? pathROI.getBounds() : new Rectangle(0, 0, server.getWidth(), server.getHeight());
@@ -157,7 +181,6 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 				
 				PathImage<ImagePlus> pathImage = server.readImagePlusRegion(request); // TODO: Implement z-stack support
 			
-			double threshold = params.getIntParameterValue("threshold");
 			double minAreaMicrons = 1, maxHoleAreaMicrons = 1, minAreaPixels = 1, maxHoleAreaPixels = 1;
 			if (server.hasPixelSizeMicrons()) {
 				minAreaMicrons = params.getDoubleParameterValue("minAreaMicrons");
@@ -166,44 +189,15 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 				minAreaPixels = params.getDoubleParameterValue("minAreaPixels");
 				maxHoleAreaPixels = params.getDoubleParameterValue("maxHoleAreaPixels");			
 			}
-			boolean smoothImage = params.getBooleanParameterValue("smoothImage");
-			boolean darkBackground = params.getBooleanParameterValue("darkBackground");
 			boolean smoothCoordinates = params.getBooleanParameterValue("smoothCoordinates");
-			boolean medianCleanup = params.getBooleanParameterValue("medianCleanup");
 			boolean excludeOnBoundary = params.getBooleanParameterValue("excludeOnBoundary");
-			boolean dilateBoundaries = params.getBooleanParameterValue("dilateBoundaries");
 			boolean singleAnnotation = Boolean.TRUE.equals(params.getBooleanParameterValue("singleAnnotation"));
 			
-			// Create a ByteProcessor
+			// Create a binary image
 			ImagePlus imp = pathImage.getImage();
-			ByteProcessor bp = imp.getProcessor().convertToByteProcessor();
-			
-			if (smoothImage)
-				bp.smooth();
-	//		new ImagePlus("Binary", bp.duplicate()).show();
-	
-			// Apply threshold
-			if (darkBackground)
-				bp = SimpleThresholding.thresholdAbove(bp, (float)threshold);
-			else
-				bp = SimpleThresholding.thresholdBelow(bp, (float)threshold);
-					
-			if (Thread.currentThread().isInterrupted())
+			ByteProcessor bp = createBinaryImage(imp.getProcessor(), params);
+			if (bp == null)
 				return null;
-
-			
-			// Apply small median filter to clean up
-			if (medianCleanup) {
-				RankFilters rf = new RankFilters();
-				rf.rank(bp, 1, RankFilters.MEDIAN);
-			}
-			
-			// Apply maximum filter, if required
-			if (dilateBoundaries)
-				bp.filter(ImageProcessor.MAX);
-			
-	//		bp.resetMinAndMax();
-	//		new ImagePlus("", bp.duplicate()).show();
 			
 			// If there is a ROI, clear everything outside
 			Roi roiIJ = null;
@@ -244,8 +238,28 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 			if (Thread.currentThread().isInterrupted())
 				return null;
 			
-			bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
-			List<PathObject> pathObjects = convertToPathObjects(bp, minArea, smoothCoordinates, imp.getCalibration(), downsample, maxHoleArea, excludeOnBoundary, singleAnnotation, null);
+			List<PathObject> pathObjects;
+			if (refine) {
+				Area area = refineBoundaries(server, request, bp, downsample, fineDownsample, params);
+				if (area == null)
+					return null;
+				if (pathROI != null)
+					area.intersect(PathROIToolsAwt.getArea(pathROI));
+				// Refinement can change which regions touch the boundary, so check again using a line one (fine) pixel wide
+				Area boundary = null;
+				if (excludeOnBoundary) {
+					Stroke stroke = new BasicStroke((float)fineDownsample);
+					boundary = new Area(stroke.createStrokedShape(new Rectangle2D.Double(request.getX(), request.getY(), request.getWidth(), request.getHeight())));
+					if (pathROI != null)
+						boundary.add(new Area(stroke.createStrokedShape(PathROIToolsAwt.getShape(pathROI))));
+				}
+				// Areas are now needed in full-resolution pixels
+				double areaScale = downsample * downsample;
+				pathObjects = convertToPathObjects(area, minArea * areaScale, smoothCoordinates, fineDownsample, maxHoleArea * areaScale, boundary, singleAnnotation, request.getZ(), request.getT());
+			} else {
+				bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
+				pathObjects = convertToPathObjects(bp, minArea, smoothCoordinates, imp.getCalibration(), downsample, maxHoleArea, excludeOnBoundary, singleAnnotation, null);
+			}
 
 			if (Thread.currentThread().isInterrupted())
 				return null;
@@ -267,6 +281,209 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 		}
 		
 		
+		/**
+		 * Refine the boundaries of a binary image created at a low resolution, by thresholding again at a higher resolution.
+		 * <p>
+		 * Only tiles overlapping the boundary band (i.e. coarse pixels within 1 pixel of a foreground/background transition) 
+		 * are read at the higher resolution, so that the memory required is limited by the tile size rather than the region size.
+		 * Outside the band, the coarse result is retained.
+		 * 
+		 * @param server
+		 * @param request region request used to create the coarse image
+		 * @param bpCoarse coarse binary image, corresponding to the request
+		 * @param coarseDownsample
+		 * @param fineDownsample
+		 * @param params
+		 * @return the refined area, in the full-resolution image space - or null if the thread was interrupted
+		 */
+		private Area refineBoundaries(final ImagePlusServer server, final RegionRequest request, final ByteProcessor bpCoarse, final double coarseDownsample, final double fineDownsample, final ParameterList params) {
+			
+			int wCoarse = bpCoarse.getWidth();
+			int hCoarse = bpCoarse.getHeight();
+			byte[] coarse = (byte[])bpCoarse.getPixels();
+			
+			// Identify the boundary band, where the coarse result may be wrong
+			byte[] band = coarse.clone();
+			BinaryMorphology.dilate(band, wCoarse, hCoarse, MinMaxFilters.Shape.SQUARE, 1);
+			byte[] inner = coarse.clone();
+			BinaryMorphology.erode(inner, wCoarse, hCoarse, MinMaxFilters.Shape.SQUARE, 1);
+			for (int i = 0; i < band.length; i++)
+				band[i] = band[i] == inner[i] ? (byte)0 : (byte)255;
+			inner = null;
+			
+			// Work in fine pixel coordinates, so that tile boundaries are exact
+			double scale = fineDownsample / coarseDownsample;
+			int wFine = (int)Math.ceil(request.getWidth() / fineDownsample);
+			int hFine = (int)Math.ceil(request.getHeight() / fineDownsample);
+			
+			List<Area> areas = new ArrayList<>();
+			List<Area> tiles = new ArrayList<>();
+			int nTiles = 0;
+			for (int yt = 0; yt < hFine; yt += REFINE_TILE_SIZE) {
+				int th = Math.min(REFINE_TILE_SIZE, hFine - yt);
+				int cy1 = Math.min(hCoarse-1, (int)(yt * scale));
+				int cy2 = Math.min(hCoarse-1, (int)((yt + th) * scale));
+				for (int xt = 0; xt < wFine; xt += REFINE_TILE_SIZE) {
+					int tw = Math.min(REFINE_TILE_SIZE, wFine - xt);
+					int cx1 = Math.min(wCoarse-1, (int)(xt * scale));
+					int cx2 = Math.min(wCoarse-1, (int)((xt + tw) * scale));
+					if (!containsForeground(band, wCoarse, cx1, cy1, cx2, cy2))
+						continue;
+					
+					if (Thread.currentThread().isInterrupted())
+						return null;
+
+					// Read the tile with a small margin, so that filtering is unaffected by the tile boundaries
+					int x1 = Math.max(0, (int)Math.round(request.getX() + (xt - REFINE_TILE_PADDING) * fineDownsample));
+					int y1 = Math.max(0, (int)Math.round(request.getY() + (yt - REFINE_TILE_PADDING) * fineDownsample));
+					int x2 = Math.min(server.getWidth(), (int)Math.round(request.getX() + (xt + tw + REFINE_TILE_PADDING) * fineDownsample));
+					int y2 = Math.min(server.getHeight(), (int)Math.round(request.getY() + (yt + th + REFINE_TILE_PADDING) * fineDownsample));
+					if (x2 <= x1 || y2 <= y1)
+						continue;
+					RegionRequest requestTile = RegionRequest.createInstance(server.getPath(), fineDownsample, x1, y1, x2-x1, y2-y1, request.getZ(), request.getT());
+					PathImage<ImagePlus> pathImageTile = server.readImagePlusRegion(requestTile);
+					ByteProcessor bpTile = createBinaryImage(pathImageTile.getImage().getProcessor(), params);
+					if (bpTile == null)
+						return null;
+					
+					// Use the fine result within the band, and the coarse result elsewhere
+					int wTile = bpTile.getWidth();
+					int hTile = bpTile.getHeight();
+					byte[] tile = (byte[])bpTile.getPixels();
+					int xOffset = (int)Math.round((request.getX() - x1) / fineDownsample) + xt;
+					int yOffset = (int)Math.round((request.getY() - y1) / fineDownsample) + yt;
+					ByteProcessor bpRefined = new ByteProcessor(tw, th);
+					byte[] refined = (byte[])bpRefined.getPixels();
+					for (int y = 0; y < th; y++) {
+						int cy = Math.min(hCoarse-1, (int)((yt + y + 0.5) * scale));
+						int yy = Math.max(0, Math.min(hTile-1, y + yOffset));
+						for (int x = 0; x < tw; x++) {
+							int cx = Math.min(wCoarse-1, (int)((xt + x + 0.5) * scale));
+							int ind = cy * wCoarse + cx;
+							if (band[ind] == 0)
+								refined[y*tw + x] = coarse[ind];
+							else {
+								int xx = Math.max(0, Math.min(wTile-1, x + xOffset));
+								refined[y*tw + x] = tile[yy*wTile + xx];
+							}
+						}
+					}
+					Area areaTile = getArea(bpRefined);
+					if (areaTile != null) {
+						areaTile.transform(AffineTransform.getTranslateInstance(xt, yt));
+						areas.add(areaTile);
+					}
+					tiles.add(new Area(new Rectangle(xt, yt, tw, th)));
+					nTiles++;
+				}
+			}
+			logger.debug("Refined boundaries using {} tiles", nTiles);
+			
+			// Replace the coarse result with the refined tiles wherever they are available
+			Area areaCoarse = getArea(bpCoarse);
+			if (areaCoarse != null) {
+				areaCoarse.transform(AffineTransform.getScaleInstance(1.0/scale, 1.0/scale));
+				if (!tiles.isEmpty())
+					areaCoarse.subtract(PathROIToolsAwt.union(tiles));
+				areas.add(areaCoarse);
+			}
+			Area area = PathROIToolsAwt.union(areas);
+			
+			// Convert to full-resolution coordinates
+			AffineTransform transform = AffineTransform.getTranslateInstance(request.getX(), request.getY());
+			transform.scale(fineDownsample, fineDownsample);
+			area.transform(transform);
+			return area;
+		}
+		
+		
+	}
+	
+	
+	/**
+	 * Size of tiles (in pixels, at the requested resolution) used when refining region boundaries.
+	 */
+	private static final int REFINE_TILE_SIZE = 1024;
+
+	/**
+	 * Margin to add around each tile during boundary refinement, sufficient for smoothing, median filtering and dilation.
+	 */
+	private static final int REFINE_TILE_PADDING = 4;
+	
+	
+	/**
+	 * Create a binary image by smoothing, thresholding and cleaning up an image, according to the parameters.
+	 * 
+	 * @param ip
+	 * @param params
+	 * @return the binary image, or null if the thread was interrupted
+	 */
+	private static ByteProcessor createBinaryImage(final ImageProcessor ip, final ParameterList params) {
+		double threshold = params.getIntParameterValue("threshold");
+		boolean smoothImage = params.getBooleanParameterValue("smoothImage");
+		boolean darkBackground = params.getBooleanParameterValue("darkBackground");
+		boolean medianCleanup = params.getBooleanParameterValue("medianCleanup");
+		boolean dilateBoundaries = params.getBooleanParameterValue("dilateBoundaries");
+		
+		ByteProcessor bp = ip.convertToByteProcessor();
+		
+		if (smoothImage)
+			bp.smooth();
+//		new ImagePlus("Binary", bp.duplicate()).show();
+
+		// Apply threshold
+		if (darkBackground)
+			bp = SimpleThresholding.thresholdAbove(bp, (float)threshold);
+		else
+			bp = SimpleThresholding.thresholdBelow(bp, (float)threshold);
+				
+		if (Thread.currentThread().isInterrupted())
+			return null;
+
+		
+		// Apply small median filter to clean up
+		// (ImageJ's radius 1 corresponds to a 3x3 neighbourhood, and for a binary image this is just a majority filter)
+		if (medianCleanup)
+			BinaryMorphology.median((byte[])bp.getPixels(), bp.getWidth(), bp.getHeight(), 1);
+		
+		// Apply maximum filter, if required
+		if (dilateBoundaries)
+			bp.filter(ImageProcessor.MAX);
+		
+//		bp.resetMinAndMax();
+//		new ImagePlus("", bp.duplicate()).show();
+		
+		return bp;
+	}
+	
+	
+	private static boolean containsForeground(final byte[] pixels, final int width, final int x1, final int y1, final int x2, final int y2) {
+		for (int y = y1; y <= y2; y++) {
+			for (int x = x1; x <= x2; x++) {
+				if (pixels[y*width + x] != 0)
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Get the foreground of a binary image as an Area, in pixel coordinates.
+	 * 
+	 * @param bp
+	 * @return the area, or null if there is no foreground
+	 */
+	private static Area getArea(final ByteProcessor bp) {
+		bp.setThreshold(127, Double.POSITIVE_INFINITY, ImageProcessor.NO_LUT_UPDATE);
+		Roi roi = new ThresholdToSelection().convert(bp);
+		bp.resetThreshold();
+		if (roi == null || !roi.isArea())
+			return null;
+		Shape shape = roi instanceof ShapeRoi ? ((ShapeRoi)roi).getShape() : new ShapeRoi(roi).getShape();
+		Area area = new Area(shape);
+		area.transform(AffineTransform.getTranslateInstance(roi.getXBase(), roi.getYBase()));
+		return area;
 	}
 	
 	
@@ -393,6 +610,89 @@ public class SimpleTissueDetection2 extends AbstractDetectionPlugin<BufferedImag
 	}
 	
 
+	/**
+	 * Convert an area into (locked) annotation objects, discarding small regions and filling small holes.
+	 * <p>
+	 * This is the equivalent of {@link #convertToPathObjects(ByteProcessor, double, boolean, Calibration, double, double, boolean, boolean, List)} 
+	 * for regions that have already been traced, e.g. by stitching tiles together. 
+	 * All areas are given in full-resolution pixels.
+	 * 
+	 * @param area the area to convert, in the full-resolution image space
+	 * @param minArea minimum area of a region, after any holes have been filled
+	 * @param smoothCoordinates
+	 * @param downsample the downsample at which the area was detected, used to determine how much simplification is applied when smoothing
+	 * @param maxHoleArea maximum area of holes that should be filled; if &lt;= 0, all holes are filled
+	 * @param boundary if not null, regions that intersect this area are discarded (e.g. to exclude regions touching the image boundary)
+	 * @param singleAnnotation
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	public static List<PathObject> convertToPathObjects(final Area area, final double minArea, final boolean smoothCoordinates, final double downsample, final double maxHoleArea, final Area boundary, final boolean singleAnnotation, final int z, final int t) {
+		PolygonROI[][] polygons = PathROIToolsAwt.splitAreaToPolygons(area);
+		
+		// Retain only the holes that shouldn't be filled
+		List<PolygonROI> holes = new ArrayList<>();
+		if (maxHoleArea > 0) {
+			for (PolygonROI hole : polygons[0]) {
+				if (hole.getArea() >= maxHoleArea)
+					holes.add(smoothCoordinates ? smoothPolygon(hole, downsample) : hole);
+			}
+		}
+		
+		List<PathObject> pathObjects = new ArrayList<>();
+		List<Area> areas = new ArrayList<>();
+		for (PolygonROI polygon : polygons[1]) {
+			if (boundary != null) {
+				Area areaPolygon = PathROIToolsAwt.getArea(polygon);
+				areaPolygon.intersect(boundary);
+				if (!areaPolygon.isEmpty())
+					continue;
+			}
+			if (polygon.getArea() < minArea)
+				continue;
+			if (smoothCoordinates)
+				polygon = smoothPolygon(polygon, downsample);
+			
+			// Subtract any holes contained within the region
+			Area areaMain = null;
+			for (PolygonROI hole : holes) {
+				Point2 p = hole.getPolygonPoints().get(0);
+				if (!polygon.contains(p.getX(), p.getY()))
+					continue;
+				if (areaMain == null)
+					areaMain = PathROIToolsAwt.getArea(polygon);
+				areaMain.subtract(PathROIToolsAwt.getArea(hole));
+			}
+			
+			if (Thread.currentThread().isInterrupted())
+				return null;
+			
+			if (singleAnnotation)
+				areas.add(areaMain == null ? PathROIToolsAwt.getArea(polygon) : areaMain);
+			else if (areaMain == null)
+				pathObjects.add(new PathAnnotationObject(new PolygonROI(polygon.getPolygonPoints(), -1, z, t)));
+			else
+				pathObjects.add(new PathAnnotationObject(PathROIToolsAwt.getShapeROI(areaMain, -1, z, t)));
+		}
+		
+		if (singleAnnotation && !areas.isEmpty())
+			pathObjects.add(new PathAnnotationObject(PathROIToolsAwt.getShapeROI(PathROIToolsAwt.union(areas), -1, z, t)));
+		
+		// Lock the objects
+		for (PathObject pathObject : pathObjects)
+			((PathAnnotationObject)pathObject).setLocked(true);
+		
+		return pathObjects;
+	}
+	
+	
+	private static PolygonROI smoothPolygon(final PolygonROI polygon, final double downsample) {
+		PolygonROI polygonSmoothed = new PolygonROI(ROIHelpers.smoothPoints(polygon.getPolygonPoints()));
+		return ShapeSimplifier.simplifyPolygon(polygonSmoothed, downsample/2);
+	}
+	
+
 	@Override
 	public ParameterList getDefaultParameterList(final ImageData<BufferedImage> imageData) {
 		boolean micronsKnown = imageData.getServer().hasPixelSizeMicrons();
@@ -0,0 +1,353 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.imagej.helpers;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Pool of pixel arrays that can be reused when creating temporary ImageProcessors.
+ * <p>
+ * Detection commands typically allocate several full-size intermediate images for every tile, 
+ * all of which become garbage as soon as the tile has been processed.  
+ * Each thread has its own pool (accessed through {@link #getThreadPool()}) from which 
+ * arrays of the same type and length can be leased and later returned, avoiding the need to 
+ * allocate them afresh each time.
+ * <p>
+ * Pooled arrays are only softly referenced, so they can still be reclaimed if memory is short.
+ * <p>
+ * A pool is not thread-safe; it (and any {@link Session} opened from it) should only be used 
+ * from the thread that requested it.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ImageProcessorPool {
+	
+	final private static Logger logger = LoggerFactory.getLogger(ImageProcessorPool.class);
+	
+	/**
+	 * Maximum number of arrays retained for any one type and length.
+	 */
+	private static int MAX_POOLED_ARRAYS = 8;
+	
+	private static final int TYPE_BYTE = 0;
+	private static final int TYPE_SHORT = 1;
+	private static final int TYPE_FLOAT = 2;
+	
+	private static ThreadLocal<ImageProcessorPool> threadPool = ThreadLocal.withInitial(() -> new ImageProcessorPool());
+	
+	private static AtomicLong requestCount = new AtomicLong();
+	private static AtomicLong hitCount = new AtomicLong();
+	
+	private Map<Long, ArrayDeque<SoftReference<Object>>> pool = new HashMap<>();
+	
+	private ImageProcessorPool() {}
+	
+	/**
+	 * Get the pool for the current thread.
+	 * 
+	 * @return
+	 */
+	public static ImageProcessorPool getThreadPool() {
+		return threadPool.get();
+	}
+	
+	/**
+	 * Open a new session, which keeps track of all the processors it creates so that their 
+	 * pixel arrays can be returned to this pool together when the session is closed.
+	 * 
+	 * @return
+	 */
+	public Session openSession() {
+		return new Session(this);
+	}
+	
+	/**
+	 * Create a new FloatProcessor, with all pixels set to 0.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public FloatProcessor createFloatProcessor(final int width, final int height) {
+		float[] pixels = (float[])poll(TYPE_FLOAT, width * height);
+		if (pixels == null)
+			pixels = new float[width * height];
+		else
+			Arrays.fill(pixels, 0f);
+		return new FloatProcessor(width, height, pixels, null);
+	}
+
+	/**
+	 * Create a new ShortProcessor, with all pixels set to 0.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public ShortProcessor createShortProcessor(final int width, final int height) {
+		short[] pixels = (short[])poll(TYPE_SHORT, width * height);
+		if (pixels == null)
+			pixels = new short[width * height];
+		else
+			Arrays.fill(pixels, (short)0);
+		return new ShortProcessor(width, height, pixels, null);
+	}
+
+	/**
+	 * Create a new ByteProcessor, with all pixels set to 0.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public ByteProcessor createByteProcessor(final int width, final int height) {
+		byte[] pixels = (byte[])poll(TYPE_BYTE, width * height);
+		if (pixels == null)
+			pixels = new byte[width * height];
+		else
+			Arrays.fill(pixels, (byte)0);
+		return new ByteProcessor(width, height, pixels, null);
+	}
+	
+	/**
+	 * Duplicate an ImageProcessor, using a pooled pixel array where possible.
+	 * <p>
+	 * As with {@link ImageProcessor#duplicate()}, the result has the same pixels, color model 
+	 * and display range as the original - but not its ROI.
+	 * <p>
+	 * Only byte, short and float processors are supported by the pool; other types are simply 
+	 * duplicated in the usual way.
+	 * 
+	 * @param ip
+	 * @return
+	 */
+	public ImageProcessor duplicate(final ImageProcessor ip) {
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		int n = width * height;
+		ImageProcessor ip2;
+		if (ip instanceof FloatProcessor) {
+			float[] pixels = (float[])poll(TYPE_FLOAT, n);
+			if (pixels == null)
+				pixels = new float[n];
+			System.arraycopy(ip.getPixels(), 0, pixels, 0, n);
+			ip2 = new FloatProcessor(width, height, pixels, ip.getColorModel());
+			ip2.setMinAndMax(ip.getMin(), ip.getMax());
+		} else if (ip instanceof ShortProcessor) {
+			short[] pixels = (short[])poll(TYPE_SHORT, n);
+			if (pixels == null)
+				pixels = new short[n];
+			System.arraycopy(ip.getPixels(), 0, pixels, 0, n);
+			ip2 = new ShortProcessor(width, height, pixels, ip.getColorModel());
+			ip2.setMinAndMax(ip.getMin(), ip.getMax());
+		} else if (ip instanceof ByteProcessor) {
+			byte[] pixels = (byte[])poll(TYPE_BYTE, n);
+			if (pixels == null)
+				pixels = new byte[n];
+			System.arraycopy(ip.getPixels(), 0, pixels, 0, n);
+			ip2 = new ByteProcessor(width, height, pixels, ip.getColorModel());
+		} else
+			return ip.duplicate();
+		ip2.setInterpolationMethod(ip.getInterpolationMethod());
+		return ip2;
+	}
+	
+	/**
+	 * Return the pixel array of an ImageProcessor to the pool, so that it may be reused.
+	 * <p>
+	 * The processor must not be used after calling this method, and should have been 
+	 * created by this pool (or at least not be referenced elsewhere).
+	 * 
+	 * @param ip
+	 */
+	public void release(final ImageProcessor ip) {
+		if (ip == null)
+			return;
+		Object pixels = ip.getPixels();
+		if (pixels instanceof float[])
+			offer(TYPE_FLOAT, ((float[])pixels).length, pixels);
+		else if (pixels instanceof short[])
+			offer(TYPE_SHORT, ((short[])pixels).length, pixels);
+		else if (pixels instanceof byte[])
+			offer(TYPE_BYTE, ((byte[])pixels).length, pixels);
+	}
+	
+	
+	private static long getKey(final int type, final int length) {
+		return ((long)type << 32) | length;
+	}
+	
+	private Object poll(final int type, final int length) {
+		requestCount.incrementAndGet();
+		ArrayDeque<SoftReference<Object>> deque = pool.get(getKey(type, length));
+		if (deque == null)
+			return null;
+		while (!deque.isEmpty()) {
+			Object array = deque.pollLast().get();
+			if (array != null) {
+				hitCount.incrementAndGet();
+				return array;
+			}
+		}
+		return null;
+	}
+	
+	private void offer(final int type, final int length, final Object array) {
+		ArrayDeque<SoftReference<Object>> deque = pool.computeIfAbsent(getKey(type, length), k -> new ArrayDeque<>());
+		// Discard any arrays that have already been garbage collected
+		deque.removeIf(r -> r.get() == null);
+		if (deque.size() < MAX_POOLED_ARRAYS)
+			deque.addLast(new SoftReference<>(array));
+	}
+	
+	
+	/**
+	 * Get the number of pixel arrays requested from all pools since the counts were last reset.
+	 * 
+	 * @return
+	 */
+	public static long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Get the number of requested pixel arrays that could be supplied from a pool, 
+	 * rather than needing to be newly allocated, since the counts were last reset.
+	 * 
+	 * @return
+	 */
+	public static long getHitCount() {
+		return hitCount.get();
+	}
+	
+	/**
+	 * Reset the request and hit counts.
+	 */
+	public static void resetCounts() {
+		requestCount.set(0);
+		hitCount.set(0);
+	}
+	
+	/**
+	 * Log the current request and hit counts, if any requests have been made.
+	 * 
+	 * @param name Name to include in the log message, e.g. the command that used the pools.
+	 */
+	public static void logCounts(final String name) {
+		long requests = requestCount.get();
+		if (requests == 0)
+			return;
+		long hits = hitCount.get();
+		logger.info(String.format("%s buffer pool: %d/%d requests reused pooled arrays (%.1f%%)", name, hits, requests, hits * 100.0 / requests));
+	}
+	
+	
+	/**
+	 * Helper class to keep track of the processors created from a pool, so that they can be 
+	 * released together - typically when a tile has been fully processed.
+	 * 
+	 * @author Pete Bankhead
+	 *
+	 */
+	public static class Session implements AutoCloseable {
+		
+		private ImageProcessorPool pool;
+		private List<ImageProcessor> leased = new ArrayList<>();
+		
+		private Session(final ImageProcessorPool pool) {
+			this.pool = pool;
+		}
+		
+		private <T extends ImageProcessor> T lease(final T ip) {
+			leased.add(ip);
+			return ip;
+		}
+		
+		/**
+		 * Create a new FloatProcessor, with all pixels set to 0.
+		 * 
+		 * @see ImageProcessorPool#createFloatProcessor(int, int)
+		 */
+		public FloatProcessor createFloatProcessor(final int width, final int height) {
+			return lease(pool.createFloatProcessor(width, height));
+		}
+
+		/**
+		 * Create a new ShortProcessor, with all pixels set to 0.
+		 * 
+		 * @see ImageProcessorPool#createShortProcessor(int, int)
+		 */
+		public ShortProcessor createShortProcessor(final int width, final int height) {
+			return lease(pool.createShortProcessor(width, height));
+		}
+
+		/**
+		 * Create a new ByteProcessor, with all pixels set to 0.
+		 * 
+		 * @see ImageProcessorPool#createByteProcessor(int, int)
+		 */
+		public ByteProcessor createByteProcessor(final int width, final int height) {
+			return lease(pool.createByteProcessor(width, height));
+		}
+
+		/**
+		 * Duplicate an ImageProcessor, using a pooled pixel array where possible.
+		 * 
+		 * @see ImageProcessorPool#duplicate(ImageProcessor)
+		 */
+		public ImageProcessor duplicate(final ImageProcessor ip) {
+			return lease(pool.duplicate(ip));
+		}
+		
+		/**
+		 * Return all the pixel arrays of processors created by this session to the pool.
+		 * <p>
+		 * None of these processors should be used afterwards.
+		 */
+		@Override
+		public void close() {
+			for (ImageProcessor ip : leased)
+				pool.release(ip);
+			leased.clear();
+		}
+		
+	}
+
+}
@@ -44,6 +44,7 @@ import qupath.lib.roi.PointsROI;
 import qupath.lib.roi.PolygonROI;
 import qupath.lib.roi.RectangleROI;
 import qupath.lib.roi.interfaces.ROI;
+import qupath.lib.rois.vertices.Vertices;
 import ij.ImagePlus;
 import ij.gui.Line;
 import ij.gui.OvalRoi;
@@ -131,8 +132,15 @@ public class ROIConverterIJ {
 	}
 
 	public static PolygonRoi convertToPolygonROI(PolygonROI pathPolygon, double xOrigin, double yOrigin, double downsampleFactor) {
-		float[][] points = getTransformedPoints(pathPolygon.getPolygonPoints(), xOrigin, yOrigin, downsampleFactor);
-		return setIJRoiProperties(new PolygonRoi(points[0], points[1], Roi.POLYGON), pathPolygon);
+		// Transform the vertex arrays in place, rather than going via a list of points
+		Vertices vertices = pathPolygon.getVertices();
+		float[] xPoints = vertices.getX(null);
+		float[] yPoints = vertices.getY(null);
+		for (int i = 0; i < xPoints.length; i++) {
+			xPoints[i] = (float)convertXtoIJ(xPoints[i], xOrigin, downsampleFactor);
+			yPoints[i] = (float)convertYtoIJ(yPoints[i], yOrigin, downsampleFactor);
+		}
+		return setIJRoiProperties(new PolygonRoi(xPoints, yPoints, Roi.POLYGON), pathPolygon);
 	}
 	
 	/**
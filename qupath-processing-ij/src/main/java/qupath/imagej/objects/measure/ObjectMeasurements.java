@@ -32,8 +32,14 @@ import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.lib.measurements.MeasurementList;
@@ -77,43 +83,28 @@ public class ObjectMeasurements {
 	public static void addIntensityMeasurements(List<? extends PathObject> pathObjects, List<IntensityMeasurements> measurements, ImageProcessor ip, String ipName, Calibration cal, double downsampleFactor) {
 		
 		int measurementFlags = Measurements.AREA;
-		boolean doMean = false, doSum = false, doStdDev = false, doCoV = false, doMin = false, doMax = false, doRange = false, doSkewness = false, doKurtosis = false, doMembrane = false;
+		boolean doMembrane = false;
 		for (IntensityMeasurements m : measurements) {
 			switch (m) {
 			case MEAN:
-				doMean = true;
-				measurementFlags = measurementFlags | Measurements.MEAN;
-				break;
 			case SUM:
-				doSum = true;
 				measurementFlags = measurementFlags | Measurements.MEAN;
 				break;
 			case STD_DEV:
-				doStdDev = true;
 				measurementFlags = measurementFlags | Measurements.STD_DEV;
 				break;
 			case COEFFICIENT_OF_VARIATION:
-				doCoV = true;
 				measurementFlags = measurementFlags | Measurements.STD_DEV | Measurements.MEAN;
 				break;
 			case MIN:
-				doMin = true;
-				measurementFlags = measurementFlags | Measurements.MIN_MAX;
-				break;
 			case MAX:
-				doMax = true;
-				measurementFlags = measurementFlags | Measurements.MIN_MAX;
-				break;
 			case RANGE:
-				doRange = true;
 				measurementFlags = measurementFlags | Measurements.MIN_MAX;
 				break;
 			case SKEWNESS:
-				doSkewness = true;
 				measurementFlags = measurementFlags | Measurements.SKEWNESS;
 				break;
 			case KURTOSIS:
-				doKurtosis = true;
 				measurementFlags = measurementFlags | Measurements.KURTOSIS;
 				break;
 			case MEMBRANE:
@@ -121,6 +112,7 @@ public class ObjectMeasurements {
 				break;
 			}
 		}
+		Set<IntensityMeasurements> measurementSet = measurements.isEmpty() ? EnumSet.noneOf(IntensityMeasurements.class) : EnumSet.copyOf(measurements);
 		
 //		ImagePlus impTemp = null; 
 		for (PathObject pathObject: pathObjects) {
@@ -149,24 +141,7 @@ public class ObjectMeasurements {
 
 			// SPLIT_CHAR will be a special character used to split; make sure it is not present in the processor name
 			ipName = ipName.replace(SPLIT_CHAR, ' ');
-			if (doMean)
-				measurementList.addMeasurement("Mean"+SPLIT_CHAR+" "+ipName, stats.mean);
-			if (doSum)
-				measurementList.addMeasurement("Sum"+SPLIT_CHAR+" "+ipName, stats.mean * stats.pixelCount);
-			if (doStdDev)
-				measurementList.addMeasurement("Std.Dev"+SPLIT_CHAR+" "+ipName, stats.stdDev);
-			if (doCoV)
-				measurementList.addMeasurement("Coeff.Var"+SPLIT_CHAR+" "+ipName, stats.stdDev / stats.mean);
-			if (doMin)
-				measurementList.addMeasurement("Min"+SPLIT_CHAR+" "+ipName, stats.min);
-			if (doMax)
-				measurementList.addMeasurement("Max"+SPLIT_CHAR+" "+ipName, stats.max);
-			if (doRange)
-				measurementList.addMeasurement("Range"+SPLIT_CHAR+" "+ipName, stats.max - stats.min);
-			if (doSkewness)
-				measurementList.addMeasurement("Skewness"+SPLIT_CHAR+" "+ipName, stats.skewness);
-			if (doKurtosis)
-				measurementList.addMeasurement("Kurtosis"+SPLIT_CHAR+" "+ipName, stats.kurtosis);
+			addIntensityMeasurements(measurementList, measurementSet, ipName, stats.pixelCount, stats.mean, stats.stdDev, stats.min, stats.max, stats.skewness, stats.kurtosis);
 			if (doMembrane)
 				measureMembrane(pathObject, ip, ipName, cal, downsampleFactor);
 		}
@@ -174,6 +149,289 @@ public class ObjectMeasurements {
 	
 	
 	
+	/**
+	 * Add intensity measurements with the same names as ImageJ-based measurements, 
+	 * in a fixed order determined by {@link IntensityMeasurements}.
+	 * <p>
+	 * Membrane measurements are not included here, since they need to be computed separately.
+	 */
+	private static void addIntensityMeasurements(final MeasurementList measurementList, final Set<IntensityMeasurements> measurements, final String ipName,
+			final double pixelCount, final double mean, final double stdDev, final double min, final double max, final double skewness, final double kurtosis) {
+		if (measurements.contains(IntensityMeasurements.MEAN))
+			measurementList.addMeasurement("Mean"+SPLIT_CHAR+" "+ipName, mean);
+		if (measurements.contains(IntensityMeasurements.SUM))
+			measurementList.addMeasurement("Sum"+SPLIT_CHAR+" "+ipName, mean * pixelCount);
+		if (measurements.contains(IntensityMeasurements.STD_DEV))
+			measurementList.addMeasurement("Std.Dev"+SPLIT_CHAR+" "+ipName, stdDev);
+		if (measurements.contains(IntensityMeasurements.COEFFICIENT_OF_VARIATION))
+			measurementList.addMeasurement("Coeff.Var"+SPLIT_CHAR+" "+ipName, stdDev / mean);
+		if (measurements.contains(IntensityMeasurements.MIN))
+			measurementList.addMeasurement("Min"+SPLIT_CHAR+" "+ipName, min);
+		if (measurements.contains(IntensityMeasurements.MAX))
+			measurementList.addMeasurement("Max"+SPLIT_CHAR+" "+ipName, max);
+		if (measurements.contains(IntensityMeasurements.RANGE))
+			measurementList.addMeasurement("Range"+SPLIT_CHAR+" "+ipName, max - min);
+		if (measurements.contains(IntensityMeasurements.SKEWNESS))
+			measurementList.addMeasurement("Skewness"+SPLIT_CHAR+" "+ipName, skewness);
+		if (measurements.contains(IntensityMeasurements.KURTOSIS))
+			measurementList.addMeasurement("Kurtosis"+SPLIT_CHAR+" "+ipName, kurtosis);
+	}
+	
+	
+	/**
+	 * Add intensity measurements for objects created from a labelled image, using the labels directly 
+	 * rather than converting each object's ROI into an ImageJ Roi.
+	 * <p>
+	 * Objects are assumed to correspond to labels in order, i.e. pixels with the integer label L belong to 
+	 * the object at entry L-1 in the list (as with {@link qupath.imagej.processing.ROILabeling#labelsToFilledROIs}). 
+	 * Null entries are skipped.
+	 * <p>
+	 * All channels are measured in a single pass through the labelled image. 
+	 * For membrane measurements, pixels are considered to be on the membrane if they are at the image boundary
+	 * or have a 4-connected neighbor with a different label.
+	 * 
+	 * @param pathObjects
+	 * @param ipLabels
+	 * @param measurements
+	 * @param channels map between channel names & the processors to measure, which must have the same dimensions as ipLabels
+	 * @param parallel if true, the image may be split into strips that are measured in parallel
+	 */
+	public static void addIntensityMeasurements(List<? extends PathObject> pathObjects, ImageProcessor ipLabels, List<IntensityMeasurements> measurements, Map<String, ImageProcessor> channels, boolean parallel) {
+		if (pathObjects.isEmpty() || measurements.isEmpty() || channels.isEmpty())
+			return;
+		Set<IntensityMeasurements> measurementSet = EnumSet.copyOf(measurements);
+		boolean doMoments = measurementSet.contains(IntensityMeasurements.SKEWNESS) || measurementSet.contains(IntensityMeasurements.KURTOSIS);
+		boolean doMembrane = measurementSet.contains(IntensityMeasurements.MEMBRANE);
+		List<ImageProcessor> ipList = new ArrayList<>(channels.values());
+		int nLabels = pathObjects.size();
+		LabelStatistics stats = computeLabelStatistics(ipLabels, nLabels, ipList, doMoments, doMembrane, parallel);
+		
+		// Add the measurements
+		int c = 0;
+		for (String name : channels.keySet()) {
+			// SPLIT_CHAR will be a special character used to split; make sure it is not present in the processor name
+			String ipName = name.replace(SPLIT_CHAR, ' ');
+			for (int label = 0; label < nLabels; label++) {
+				PathObject pathObject = pathObjects.get(label);
+				if (pathObject == null)
+					continue;
+				MeasurementList measurementList = pathObject.getMeasurementList();
+				addIntensityMeasurements(measurementList, measurementSet, ipName,
+						stats.getPixelCount(label), stats.getMean(c, label), stats.getStdDev(c, label), 
+						stats.getMin(c, label), stats.getMax(c, label), stats.getSkewness(c, label), stats.getKurtosis(c, label));
+				if (doMembrane)
+					measurementList.addMeasurement("Membrane mean"+SPLIT_CHAR+" "+ipName, stats.getMembraneMean(c, label));
+			}
+			c++;
+		}
+	}
+	
+	
+	/**
+	 * Add intensity measurements for objects created from a labelled image, for a single channel.
+	 * 
+	 * @param pathObjects
+	 * @param ipLabels
+	 * @param measurements
+	 * @param ip
+	 * @param ipName
+	 * @param parallel
+	 * 
+	 * @see #addIntensityMeasurements(List, ImageProcessor, List, Map, boolean)
+	 */
+	public static void addIntensityMeasurements(List<? extends PathObject> pathObjects, ImageProcessor ipLabels, List<IntensityMeasurements> measurements, ImageProcessor ip, String ipName, boolean parallel) {
+		addIntensityMeasurements(pathObjects, ipLabels, measurements, Collections.singletonMap(ipName, ip), parallel);
+	}
+	
+	
+	
+	/**
+	 * Compute intensity statistics for all labels in a labelled image, in a single pass through the image.
+	 * <p>
+	 * Statistics for pixels with the integer label L are stored at index L-1; pixels with labels &lt;= 0 or &gt; nLabels are ignored.
+	 * This gives the same results as setting a Roi for each label & calling {@link ImageProcessor#getStatistics()}, 
+	 * but without needing to create the Rois or visit each pixel once per channel and label.
+	 * 
+	 * @param ipLabels
+	 * @param nLabels maximum number of labels
+	 * @param channels processors to measure, which must have the same dimensions as ipLabels
+	 * @param doMoments if true, compute the sums needed for skewness & kurtosis
+	 * @param doMembrane if true, compute the mean of pixels at the boundary of each label
+	 * @param parallel if true, the image may be split into strips that are measured in parallel
+	 * @return
+	 */
+	public static LabelStatistics computeLabelStatistics(final ImageProcessor ipLabels, final int nLabels, final List<ImageProcessor> channels, final boolean doMoments, final boolean doMembrane, final boolean parallel) {
+		int height = ipLabels.getHeight();
+		
+		// Split into horizontal strips, each with its own statistics
+		int nStrips = parallel ? Math.max(1, Math.min(height, Runtime.getRuntime().availableProcessors() * 2)) : 1;
+		LabelStatistics[] strips = new LabelStatistics[nStrips];
+		IntStream stream = IntStream.range(0, nStrips);
+		if (nStrips > 1)
+			stream = stream.parallel();
+		stream.forEach(i -> {
+			LabelStatistics stats = new LabelStatistics(nLabels, channels.size(), doMoments, doMembrane);
+			stats.accumulate(ipLabels, channels, height * i / nStrips, height * (i + 1) / nStrips);
+			strips[i] = stats;
+		});
+		LabelStatistics stats = strips[0];
+		for (int i = 1; i < nStrips; i++)
+			stats.merge(strips[i]);
+		return stats;
+	}
+	
+	
+	
+	/**
+	 * Accumulate the statistics needed for intensity measurements for all labels at once.
+	 * <p>
+	 * Getters take a channel index (in the order the channels were measured) and a label index, 
+	 * where the label index is one less than the label value.
+	 * <p>
+	 * Moments are stored as raw sums, in the same way as ImageJ's ImageStatistics, so that 
+	 * statistics computed for different parts of an image can be merged.
+	 */
+	public static class LabelStatistics {
+		
+		private final int nLabels;
+		private final long[] counts;
+		private final long[] membraneCounts;
+		// Arrays are indexed as [channel][label]
+		private final double[][] sum, sum2, sum3, sum4, min, max, membraneSum;
+		
+		LabelStatistics(final int nLabels, final int nChannels, final boolean doMoments, final boolean doMembrane) {
+			this.nLabels = nLabels;
+			counts = new long[nLabels];
+			sum = new double[nChannels][nLabels];
+			sum2 = new double[nChannels][nLabels];
+			sum3 = doMoments ? new double[nChannels][nLabels] : null;
+			sum4 = doMoments ? new double[nChannels][nLabels] : null;
+			min = new double[nChannels][nLabels];
+			max = new double[nChannels][nLabels];
+			for (int c = 0; c < nChannels; c++) {
+				Arrays.fill(min[c], Double.POSITIVE_INFINITY);
+				Arrays.fill(max[c], Double.NEGATIVE_INFINITY);
+			}
+			membraneCounts = doMembrane ? new long[nLabels] : null;
+			membraneSum = doMembrane ? new double[nChannels][nLabels] : null;
+		}
+		
+		void accumulate(final ImageProcessor ipLabels, final List<ImageProcessor> channels, final int yStart, final int yEnd) {
+			int width = ipLabels.getWidth();
+			int height = ipLabels.getHeight();
+			int nChannels = channels.size();
+			for (int y = yStart; y < yEnd; y++) {
+				for (int x = 0; x < width; x++) {
+					int ind = y * width + x;
+					float labelValue = ipLabels.getf(ind);
+					if (!(labelValue > 0 && labelValue <= nLabels))
+						continue;
+					int label = (int)labelValue - 1;
+					boolean isMembrane = membraneCounts != null && (
+							x == 0 || y == 0 || x == width-1 || y == height-1 ||
+							ipLabels.getf(ind-1) != labelValue || ipLabels.getf(ind+1) != labelValue ||
+							ipLabels.getf(ind-width) != labelValue || ipLabels.getf(ind+width) != labelValue);
+					counts[label]++;
+					if (isMembrane)
+						membraneCounts[label]++;
+					for (int c = 0; c < nChannels; c++) {
+						double val = channels.get(c).getf(ind);
+						double val2 = val * val;
+						sum[c][label] += val;
+						sum2[c][label] += val2;
+						if (sum3 != null) {
+							sum3[c][label] += val2 * val;
+							sum4[c][label] += val2 * val2;
+						}
+						if (val < min[c][label])
+							min[c][label] = val;
+						if (val > max[c][label])
+							max[c][label] = val;
+						if (isMembrane)
+							membraneSum[c][label] += val;
+					}
+				}
+			}
+		}
+		
+		void merge(final LabelStatistics stats) {
+			for (int label = 0; label < nLabels; label++) {
+				counts[label] += stats.counts[label];
+				if (membraneCounts != null)
+					membraneCounts[label] += stats.membraneCounts[label];
+			}
+			for (int c = 0; c < sum.length; c++) {
+				for (int label = 0; label < nLabels; label++) {
+					sum[c][label] += stats.sum[c][label];
+					sum2[c][label] += stats.sum2[c][label];
+					if (sum3 != null) {
+						sum3[c][label] += stats.sum3[c][label];
+						sum4[c][label] += stats.sum4[c][label];
+					}
+					min[c][label] = Math.min(min[c][label], stats.min[c][label]);
+					max[c][label] = Math.max(max[c][label], stats.max[c][label]);
+					if (membraneSum != null)
+						membraneSum[c][label] += stats.membraneSum[c][label];
+				}
+			}
+		}
+		
+		public long getPixelCount(final int label) {
+			return counts[label];
+		}
+		
+		public double getMean(final int c, final int label) {
+			return counts[label] == 0 ? Double.NaN : sum[c][label] / counts[label];
+		}
+
+		public double getMin(final int c, final int label) {
+			return counts[label] == 0 ? Double.NaN : min[c][label];
+		}
+
+		public double getMax(final int c, final int label) {
+			return counts[label] == 0 ? Double.NaN : max[c][label];
+		}
+		
+		/**
+		 * Sample standard deviation, as computed by ImageJ.
+		 */
+		public double getStdDev(final int c, final int label) {
+			double n = counts[label];
+			if (n == 0)
+				return Double.NaN;
+			double stdDev = (n * sum2[c][label] - sum[c][label] * sum[c][label]) / n;
+			return stdDev > 0 ? Math.sqrt(stdDev / (n - 1.0)) : 0.0;
+		}
+		
+		public double getSkewness(final int c, final int label) {
+			double n = counts[label];
+			if (sum3 == null || n == 0)
+				return Double.NaN;
+			double mean = sum[c][label] / n;
+			double mean2 = mean * mean;
+			double variance = sum2[c][label] / n - mean2;
+			double sDeviation = Math.sqrt(variance);
+			return ((sum3[c][label] - 3.0 * mean * sum2[c][label]) / n + 2.0 * mean * mean2) / (variance * sDeviation);
+		}
+		
+		public double getKurtosis(final int c, final int label) {
+			double n = counts[label];
+			if (sum4 == null || n == 0)
+				return Double.NaN;
+			double mean = sum[c][label] / n;
+			double mean2 = mean * mean;
+			double variance = sum2[c][label] / n - mean2;
+			return (((sum4[c][label] - 4.0 * mean * sum3[c][label] + 6.0 * mean2 * sum2[c][label]) / n - 3.0 * mean2 * mean2) / (variance * variance) - 3.0);
+		}
+		
+		public double getMembraneMean(final int c, final int label) {
+			return membraneCounts[label] == 0 ? Double.NaN : membraneSum[c][label] / membraneCounts[label];
+		}
+		
+	}
+	
+	
+	
 	public static void measureMembrane(PathObject po, ImageProcessor ip, String ipName, Calibration cal, double downsampleFactor) {
 		Roi roi = ROIConverterIJ.convertToIJRoi(po.getROI(), cal, downsampleFactor);
 		Rectangle bounds = roi.getBounds();
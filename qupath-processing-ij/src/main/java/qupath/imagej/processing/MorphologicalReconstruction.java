@@ -28,12 +28,10 @@ import ij.plugin.filter.RankFilters;
 import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
-import ij.process.FloodFiller;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 
 import java.awt.Rectangle;
-import java.util.Arrays;
 
 
 /**
@@ -58,242 +56,65 @@ public class MorphologicalReconstruction {
 	
 	
 	/**
-	 * Alternative morphological reconstruction (based on ImageJ's FloodFiller) suitable for binary images only.
+	 * Morphological reconstruction suitable for binary images only.
+	 * <p>
+	 * The result is a new image, unless permitMaskChanges is true - in which case the marker is updated in place 
+	 * and returned (the mask itself is never changed).
+	 * 
 	 * @param bpMarker
 	 * @param bpMask
 	 * @param permitMaskChanges
 	 * @return
+	 * 
+	 * @see qupath.lib.analysis.algorithms.MorphologicalReconstruction#binaryReconstruction(byte[], byte[], int, int, boolean)
 	 */
 	public static ByteProcessor binaryReconstruction(ByteProcessor bpMarker, ByteProcessor bpMask, boolean permitMaskChanges) {
-		if (!permitMaskChanges) {
-			bpMask = (ByteProcessor)bpMask.duplicate();
+		if (!permitMaskChanges)
 			bpMarker = (ByteProcessor)bpMarker.duplicate();
-		}
-		FloodFiller ff = new FloodFiller(bpMask);
-		bpMask.setValue(127);
-		int width = bpMarker.getWidth();
-		byte[] pxMarker = (byte[])bpMarker.getPixels();
-		byte[] pxMask = (byte[])bpMask.getPixels();
-		for (int i = 0; i < pxMarker.length; i++) {
-			if (pxMarker[i] == (byte)255 && pxMask[i] != (byte)127)
-				ff.fill(i % width, i / width);
-		}
-		Arrays.fill(pxMarker, (byte)0);
-		for (int i = 0; i < pxMask.length; i++) {
-			if (pxMask[i] == (byte)127)
-				pxMarker[i] = (byte)255;
-		}
+		qupath.lib.analysis.algorithms.MorphologicalReconstruction.binaryReconstruction(
+				(byte[])bpMarker.getPixels(), (byte[])bpMask.getPixels(), bpMarker.getWidth(), bpMarker.getHeight(), false);
 		return bpMarker;
 	}
 	
 	
-	
-	private static int dilateAndCompare(final ImageProcessor ipMarker, final ImageProcessor ipMask, final boolean reverse, final IntDequeue queue) {
-		int inc, hStart, vStart, hEnd, vEnd;
-		Rectangle rect = ipMarker.getRoi();
-		if (reverse) {
-			inc = -1;
-			hStart = rect.x + rect.width - 1;
-			vStart = rect.y + rect.height - 1;
-			hEnd = rect.x - 1;
-			vEnd = rect.y - 1;
-		} else {
-			inc = 1;
-			hStart = rect.x;
-			vStart = rect.y;
-			hEnd = rect.x + rect.width;
-			vEnd = rect.y + rect.height;
-		}
-		final boolean populateQueue = queue != null;
-		final int width = ipMarker.getWidth();
-		
-		// Apply horizontal propagating dilation
-		int changes = 0;
-		// valPrevious is the last processed value, valP1-3 are those from the previous row
-		float valPrevious, valP1, valP2, valP3, valCurrent;
-		boolean firstRow = true;
-		for (int y = vStart; y != vEnd; y += inc) {
-			// Initialize previous 4 neighbours
-			valPrevious = ipMarker.getf(hStart, y);
-			if (firstRow) {
-				valP1 = valPrevious;
-				valP2 = valPrevious;
-				valP3 = valPrevious;
-			} else {
-				valP2 = ipMarker.getf(hStart, y-inc);
-				valP1 = valP2;
-			}
-
-			boolean firstColumn = true;
-
-			for (int x = hStart; x != hEnd; x += inc) {
-				// Get the current value from the marker image
-				valCurrent = ipMarker.getf(x, y);
-				
-				if (firstRow) {
-					valP1 = valCurrent;
-					valP2 = valCurrent;
-					valP3 = valCurrent;
-				} else if (x+inc != hEnd)
-					valP3 = ipMarker.getf(x+inc, y-inc);
-				else
-					valP3 = valCurrent;
-				
-				// Get the neighbourhood maximum
-//				float valNeighbourMax = Math.max(Math.max(valP1, valP2), Math.max(valP3, valPrevious));
-				float valNeighbourMax = (valP1 >= valP2) ? valP1 : valP2;
-				valNeighbourMax = (valNeighbourMax >= valP3) ? valNeighbourMax : valP3;
-				valNeighbourMax = (valNeighbourMax >= valPrevious) ? valNeighbourMax : valPrevious;
-				
-				// If the current value is less than the neighbourhood maximum, try to update it while remaining under the mask
-				if (valCurrent < valNeighbourMax) {
-					float valMask = ipMask.getf(x, y);
-//					float valNew = Math.min(valMask, valNeighbourMax);
-					// Get the minimum
-					float valNew = (valNeighbourMax >= valMask) ? valMask : valNeighbourMax;
-					if (valNew > valCurrent) {
-						valCurrent = valNew;
-						ipMarker.setf(x, y, valCurrent);
-						changes++;
-					}
-				}
-				
-				// If there are neighbours with lower values than we have just updated, and we have a queue,
-				// test whether to add the neighbours to the queue
-				if (populateQueue) {
-					boolean addToQueue = false;
-					if (valPrevious < valCurrent && valPrevious < ipMask.getf(x-inc, y)) {
-						addToQueue = true;
-					}
-					else if (!firstRow) {
-						if (!firstColumn && valP1 < valCurrent && valP1 < ipMask.getf(x-inc, y-inc)) {
-							addToQueue = true;
-						}
-						else if (valP2 < valCurrent && valP2 < ipMask.getf(x, y-inc)) {
-							addToQueue = true;
-						}
-						else if (valP3 < valCurrent && valP3 < ipMask.getf(x+inc, y-inc)) {
-							addToQueue = true;
-						}
-					}
-					if (addToQueue) {
-						queue.add(y*width + x);
-					}
-				}
-				
-				// Update previous neighbours
-				valPrevious = valCurrent;
-				valP1 = valP2;
-				valP2 = valP3;
-				firstColumn = false;
-			}
-			firstRow = false;
-		}
-		return changes;
-	}
-	
-	private static void processPoint(final ImageProcessor ipMarker, final ImageProcessor ipMask, final int ind, final float val, final IntDequeue queue) {
-		final float valTempMarker = ipMarker.getf(ind);
-		if (valTempMarker < val) {
-			final float valTempMask = ipMask.getf(ind);
-			if (valTempMarker < valTempMask) {
-//				ipMarker.setf(x, y, Math.min(val, valTempMask));
-				ipMarker.setf(ind, valTempMask <= val ? valTempMask : val);
-				queue.add(ind);
-			}
-		}
-	}
-	
-	
-	private static boolean processQueue(final ImageProcessor ipMarker, final ImageProcessor ipMask, final IntDequeue queue) {
+	/**
+	 * Apply morphological reconstruction, updating the marker in place.
+	 * <p>
+	 * Only pixels within the bounding box of the marker's ROI are considered.
+	 * <p>
+	 * The work is done on float arrays using Vincent's hybrid algorithm; other image types are converted 
+	 * (which is exact for 8 and 16-bit images).
+	 * 
+	 * @param ipMarker
+	 * @param ipMask
+	 * @return true if the reconstruction completed, false if it was interrupted
+	 * 
+	 * @see qupath.lib.analysis.algorithms.MorphologicalReconstruction#morphologicalReconstruction(float[], float[], int, int, int, int, int)
+	 */
+	public static boolean morphologicalReconstruction(final ImageProcessor ipMarker, final ImageProcessor ipMask) {
 		final Rectangle rect = ipMarker.getRoi();
-		final int x1 = rect.x;
-		final int y1 = rect.y;
-		final int x2 = x1 + rect.width;
-		final int y2 = y1 + rect.height;
-		
-		long counter = 0;
-		final int width = ipMarker.getWidth();
-		
-		final Thread currentThread = Thread.currentThread();
-		
-		while (!queue.isEmpty()) {
-			counter++;
-
-			// If we were interrupted, stop
-			if (counter % 2500 == 0 && currentThread.isInterrupted())
-				return false;
-			
-			final int ind = queue.remove();
-			final int x = ind % width;
-			final int y = ind / width;
-			
-			// Test 8-neighbours
-			final float val = ipMarker.getf(ind);
-			
-//			for (int yy = Math.max(y-1, y1); yy < Math.min(y+2, y2); yy++) {
-//				for (int xx = Math.max(x-1, x1); xx < Math.min(x+2, x2); xx++) {
-//					if (xx != x || yy != y)
-//						processPoint(ipMarker, ipMask, yy*width+xx, val, queue);
-//				}
-//			}
-			
-			if (x > x1) {
-				processPoint(ipMarker, ipMask, ind-1, val, queue);
-				if (y > y1)
-					processPoint(ipMarker, ipMask, ind-width-1, val, queue);
-				if (y < y2-1)
-					processPoint(ipMarker, ipMask, ind+width-1, val, queue);
-			}
-			if (x < x2-1) {
-				processPoint(ipMarker, ipMask, ind+1, val, queue);
-				if (y > y1)
-					processPoint(ipMarker, ipMask, ind-width+1, val, queue);
-				if (y < y2-1)
-					processPoint(ipMarker, ipMask, ind+width+1, val, queue);
-			}
-			if (y > y1)
-				processPoint(ipMarker, ipMask, ind-width, val, queue);
-			if (y < y2-1)
-				processPoint(ipMarker, ipMask, ind+width, val, queue);
+		final float[] pxMarker = getFloatPixels(ipMarker);
+		final float[] pxMask = getFloatPixels(ipMask);
+		boolean completed = qupath.lib.analysis.algorithms.MorphologicalReconstruction.morphologicalReconstruction(
+				pxMarker, pxMask, ipMarker.getWidth(), rect.x, rect.y, rect.width, rect.height);
+		if (!(ipMarker instanceof FloatProcessor)) {
+			for (int i = 0; i < pxMarker.length; i++)
+				ipMarker.setf(i, pxMarker[i]);
 		}
-		
-		return true;
+		return completed;
 	}
 	
-
-	public static boolean morphologicalReconstruction(final ImageProcessor ipMarker, final ImageProcessor ipMask) {
-		// Really we just need one round of forward propagation, followed by one round of backward
-		// propagation filling in the queue... but working with the queue is slow, so it is better to
-		// repeat propagation steps so long as they are changing a sufficiently high proportion of the pixels
-		// at each step (here, 10%)
-		
-//		long startTime = System.currentTimeMillis();
-		final int nPixels = ipMarker.getWidth() * ipMarker.getHeight();
-		// Apply forward propagation, counting the number of pixels that changed
-		int nChanges = dilateAndCompare(ipMarker, ipMask, false, null);
-		// For as long as > ?% pixels change, continue propagations
-//		int counter = 0;
-		while (nChanges/(double)nPixels > 0.1) {
-//			System.out.println(String.format("Changes as propagation iteration %d: %.2f%%", counter++, 100.*nChanges/nPixels));
-			// Apply backwards propagation
-			dilateAndCompare(ipMarker, ipMask, true, null);
-			// Apply forward propagation again
-			nChanges = dilateAndCompare(ipMarker, ipMask, false, null);			
-		}
-//		System.out.println(String.format("Changes as propagation iteration %d: %.2f%%", counter++, 100.*nChanges/nPixels));
-		// Apply backwards propagation, filling the queue
-		final IntDequeue queue = new IntDequeue(nPixels/4);
-		dilateAndCompare(ipMarker, ipMask, true, queue);
-//		long endTime = System.currentTimeMillis();
-//		System.out.println("Queue setup time: " + (endTime - startTime)/1000.);
-		
-//		startTime = System.currentTimeMillis();
-		processQueue(ipMarker, ipMask, queue);
-//		endTime = System.currentTimeMillis();
-//		System.out.println("Queue process time: " + (endTime - startTime)/1000.);
-		// Process pixels in the queue (FIFO)
-		return processQueue(ipMarker, ipMask, queue);
+	/**
+	 * Get the pixels of an ImageProcessor as a float array, without copying if it is already a FloatProcessor.
+	 */
+	private static float[] getFloatPixels(final ImageProcessor ip) {
+		if (ip instanceof FloatProcessor)
+			return (float[])ip.getPixels();
+		int n = ip.getWidth() * ip.getHeight();
+		float[] pixels = new float[n];
+		for (int i = 0; i < n; i++)
+			pixels[i] = ip.getf(i);
+		return pixels;
 	}
 	
 //	// More conventional approach...
@@ -477,65 +298,4 @@ public class MorphologicalReconstruction {
 ////		fp.fill(roi);
 //	}
 
-	
-	
-	private static class IntDequeue {
-		
-		final private static int MAX_EXPANSION = 1024*10;
-		
-		private int[] array;
-		private int head = 0; // Points to location of first element in queue
-		private int tail = 0; // Points to location of *next* insert
-		
-		private IntDequeue(int capacity) {
-//			IJ.log("Using INT DEQUE!");
-			array = new int[capacity];
-			head = 0;
-			tail = 0;
-		}
-		
-		public boolean isEmpty() {
-			return tail == head;
-		}
-		
-		/**
-		 * Performs no check that the output will be valid (caller should use isEmpty first to check this)
-		 * @return
-		 */
-		private int remove() {
-//			return array[head++];
-			head++;
-			return array[head-1];
-		}
-		
-		private void add(int val) {
-			// Do a normal add if we can
-			if (tail < array.length) {
-				array[tail] = val;
-				tail++;
-				return;
-			}
-			// Shift everything back if that's an option
-			if (head != 0) {
-//				IJ.log("Shifting with head at " + head);
-				if (tail > head)
-					System.arraycopy(array, head, array, 0, tail-head);
-				tail -= head;
-				head = 0;
-				array[tail] = val;
-				tail++;
-				return;
-			}
-			// We need to expand the array
-			int[] array2 = new int[Math.max(array.length*2, MAX_EXPANSION)];
-			System.arraycopy(array, 0, array2, 0, array.length);
-			array = array2;
-			array[tail] = val;
-			tail++;
-//			IJ.log("Expanding IntDeque to length " + array.length);
-//			System.out.println("Expanding IntDeque to length " + array.length);
-		}
-		
-	}
-
 }
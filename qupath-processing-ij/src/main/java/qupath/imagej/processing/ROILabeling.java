@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.gui.Wand;
+import ij.measure.Calibration;
 import ij.plugin.filter.RankFilters;
 import ij.plugin.filter.ThresholdToSelection;
 import ij.process.Blitter;
@@ -43,8 +44,9 @@ import ij.process.ByteProcessor;
 import ij.process.FloatPolygon;
 import ij.process.FloodFiller;
 import ij.process.ImageProcessor;
-import ij.process.ImageStatistics;
 import ij.process.ShortProcessor;
+import qupath.imagej.objects.ROIConverterIJ;
+import qupath.lib.roi.PolygonROI;
 
 /**
  * Collection of static methods to help work with ROIs, binary & labelled images in ImageJ - 
@@ -233,8 +235,9 @@ public class ROILabeling {
 	
 	/**
 	 * Convert a labelled image into a list of PolygonRois by tracing.
-	 * Note that labels are assumed not to contain any holes or nested ROIs; ROIs produced by this command will not contain holes.
-	 * Some entries in the resulting array may be null if this is not the case, or if not all labels are found.
+	 * Note that ROIs produced by this command will not contain holes; labels nested inside the holes of other labels are 
+	 * traced separately, and so will overlap the ROI that surrounds them.
+	 * Some entries in the resulting array may be null if not all labels are found.
 	 * Otherwise, pixels with the integer label L will belong to the Roi in the output array at entry L-1
 	 * 
 	 * @param ipLabels
@@ -245,19 +248,54 @@ public class ROILabeling {
 		PolygonRoi[] rois = new PolygonRoi[n];
 		int w = ipLabels.getWidth();
 		int h = ipLabels.getHeight();
-		ByteProcessor bpCompleted = new ByteProcessor(w, h);
-		bpCompleted.setValue(255);
+		LabelContourTracer tracer = new LabelContourTracer(ipLabels);
 		for (int y = 0; y < h; y++) {
 			for (int x = 0; x < w; x++) {
-				if (bpCompleted.get(x, y) != 0)
+				if (tracer.isCompleted(x, y))
 					continue;
 				float val = ipLabels.getf(x, y);
 				if (val > 0 && val <= n) {
-					Wand wand = new Wand(ipLabels);
-					wand.autoOutline(x, y, val, val, Wand.EIGHT_CONNECTED);
-					PolygonRoi roi = wandToRoi(wand);
-					rois[(int)val-1] = roi;
-					bpCompleted.fill(roi);
+					if (tracer.traceOuterContour(x, y, val, true)) {
+						rois[(int)val-1] = tracer.createPolygonRoi();
+						tracer.fillContour();
+					}
+				}
+			}
+		}
+		return rois;
+	}
+	
+	
+	/**
+	 * Convert a labelled image into an array of PolygonROIs by tracing, without creating any intermediate ImageJ Rois.
+	 * <p>
+	 * The same rules apply as for {@link #labelsToFilledROIs(ImageProcessor, int)}, i.e. labels are assumed not to contain holes,
+	 * and pixels with the integer label L will belong to the ROI in the output array at entry L-1.
+	 * 
+	 * @param ipLabels
+	 * @param n - maximum number of labels
+	 * @param cal - calibration used to convert ImageJ coordinates, as in {@link ROIConverterIJ}; may be null
+	 * @param downsampleFactor
+	 * @param c
+	 * @param z
+	 * @param t
+	 * @return
+	 */
+	public static PolygonROI[] labelsToFilledPolygonROIs(ImageProcessor ipLabels, int n, Calibration cal, double downsampleFactor, int c, int z, int t) {
+		PolygonROI[] rois = new PolygonROI[n];
+		int w = ipLabels.getWidth();
+		int h = ipLabels.getHeight();
+		LabelContourTracer tracer = new LabelContourTracer(ipLabels);
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				if (tracer.isCompleted(x, y))
+					continue;
+				float val = ipLabels.getf(x, y);
+				if (val > 0 && val <= n) {
+					if (tracer.traceOuterContour(x, y, val, true)) {
+						rois[(int)val-1] = tracer.createPolygonROI(cal, downsampleFactor, c, z, t);
+						tracer.fillContour();
+					}
 				}
 			}
 		}
@@ -281,19 +319,17 @@ public class ROILabeling {
 		List<PolygonRoi> rois = new ArrayList<>();
 		int w = ipLabels.getWidth();
 		int h = ipLabels.getHeight();
-		ByteProcessor bpCompleted = new ByteProcessor(w, h);
-		bpCompleted.setValue(255);
+		LabelContourTracer tracer = new LabelContourTracer(ipLabels);
 		for (int y = 0; y < h; y++) {
 			for (int x = 0; x < w; x++) {
-				if (bpCompleted.get(x, y) != 0)
+				if (tracer.isCompleted(x, y))
 					continue;
 				float val = ipLabels.getf(x, y);
 				if (val > 0) {
-					Wand wand = new Wand(ipLabels);
-					wand.autoOutline(x, y, val, val, conn8 ? Wand.EIGHT_CONNECTED : Wand.FOUR_CONNECTED);
-					PolygonRoi roi = wandToRoi(wand);
-					rois.add(roi);
-					bpCompleted.fill(roi);
+					if (tracer.traceOuterContour(x, y, val, conn8)) {
+						rois.add(tracer.createPolygonRoi());
+						tracer.fillContour();
+					}
 				}
 			}
 		}
@@ -316,30 +352,30 @@ public class ROILabeling {
 		Roi[] rois = new Roi[n];
 		int w = ipLabels.getWidth();
 		int h = ipLabels.getHeight();
-		ByteProcessor bpCompleted = new ByteProcessor(w, h);
-		bpCompleted.setValue(255);
+		LabelContourTracer tracer = new LabelContourTracer(ipLabels);
 		ThresholdToSelection tts = new ThresholdToSelection();
 		for (int y = 0; y < h; y++) {
 			for (int x = 0; x < w; x++) {
-				if (bpCompleted.get(x, y) != 0)
+				if (tracer.isCompleted(x, y))
 					continue;
 				float val = ipLabels.getf(x, y);
 				if (val > 0 && val <= n) {
-					Wand wand = new Wand(ipLabels);
-					ipLabels.resetThreshold();
-					wand.autoOutline(x, y, val, val, Wand.EIGHT_CONNECTED);
-					Roi roi = wandToRoi(wand);
+					if (!tracer.traceOuterContour(x, y, val, true))
+						continue;
 					
 					// Check if ROI contains holes, and create if necessary
-					ipLabels.setRoi(roi);
-					ImageStatistics stats = ipLabels.getStatistics();
-					if (stats.max != stats.min || rois[(int)val-1] != null) {
+					// (filling the traced contour reports whether any other values were found inside)
+					if (tracer.fillContour() || rois[(int)val-1] != null) {
+						Roi roi = tracer.createPolygonRoi();
+						ipLabels.setRoi(roi);
 						ipLabels.setThreshold(val-0.25, val+0.25, ImageProcessor.NO_LUT_UPDATE);
 						roi = tts.convert(ipLabels);
-					}
-					
-					rois[(int)val-1] = roi;
-					bpCompleted.fill(roi);
+						ipLabels.resetThreshold();
+						ipLabels.resetRoi();
+						rois[(int)val-1] = roi;
+						tracer.fill(roi);
+					} else
+						rois[(int)val-1] = tracer.createPolygonRoi();
 				}
 			}
 		}
@@ -799,4 +835,223 @@ public class ROILabeling {
 //		}
 //	}
 
+	/**
+	 * Helper class for tracing the outer contours of labelled regions in a single raster scan.
+	 * <p>
+	 * Contours follow the boundaries between pixels (as with ImageJ's traced ROIs), and are stored as packed 
+	 * integer coordinate arrays that are reused from one contour to the next.
+	 * A mask records which pixels fall inside contours that have already been traced, so that these can be skipped.
+	 */
+	static class LabelContourTracer {
+		
+		private final ImageProcessor ip;
+		private final int width, height;
+		private final ByteProcessor bpCompleted;
+		private final byte[] completed;
+		
+		private float label;
+		
+		private int nPoints = 0;
+		private int[] xPoints = new int[64];
+		private int[] yPoints = new int[64];
+		
+		// Vertical boundary crossings, packed as (row << 32) | x
+		private int nCrossings = 0;
+		private long[] crossings = new long[64];
+		
+		LabelContourTracer(final ImageProcessor ip) {
+			this.ip = ip;
+			this.width = ip.getWidth();
+			this.height = ip.getHeight();
+			this.bpCompleted = new ByteProcessor(width, height);
+			this.bpCompleted.setValue(255);
+			this.completed = (byte[])bpCompleted.getPixels();
+		}
+		
+		boolean isCompleted(final int x, final int y) {
+			return completed[y * width + x] != 0;
+		}
+		
+		private boolean inside(final int x, final int y) {
+			return x >= 0 && y >= 0 && x < width && y < height && ip.getf(y * width + x) == label;
+		}
+		
+		/**
+		 * Trace the outer contour of the region containing the pixel (x, y), which must be the first pixel 
+		 * of the region encountered in a raster scan.
+		 * <p>
+		 * The contour is traced along pixel edges, keeping the region on the right, and vertices are only added 
+		 * whenever the direction changes.
+		 * <p>
+		 * If the pixel is not on an outer contour (which can only happen if part of the region falls inside 
+		 * the contour of a different region traced previously) then all the connected pixels are marked 
+		 * as completed without tracing.
+		 * 
+		 * @param x
+		 * @param y
+		 * @param label
+		 * @param conn8
+		 * @return true if an outer contour was traced, false otherwise
+		 */
+		boolean traceOuterContour(final int x, final int y, final float label, final boolean conn8) {
+			this.label = label;
+			nPoints = 0;
+			nCrossings = 0;
+			if (inside(x, y - 1)) {
+				fillConnected(x, y, conn8);
+				return false;
+			}
+			int cx = x;
+			int cy = y;
+			int dx = 1;
+			int dy = 0;
+			addPoint(x, y);
+			while (true) {
+				// Record vertical edges, for use when filling
+				if (dy > 0)
+					addCrossing(cy, cx);
+				else if (dy < 0)
+					addCrossing(cy - 1, cx);
+				cx += dx;
+				cy += dy;
+				// Check the pixels either side of the edge ahead
+				int rx = -dy;
+				int ry = dx;
+				boolean aheadRight = inside(cx + ((dx + rx - 1) >> 1), cy + ((dy + ry - 1) >> 1));
+				boolean aheadLeft = inside(cx + ((dx - rx - 1) >> 1), cy + ((dy - ry - 1) >> 1));
+				int dxNext, dyNext;
+				if (aheadLeft && (aheadRight || conn8)) {
+					// Turn left
+					dxNext = dy;
+					dyNext = -dx;
+				} else if (aheadRight) {
+					// Continue straight
+					dxNext = dx;
+					dyNext = dy;
+				} else {
+					// Turn right
+					dxNext = -dy;
+					dyNext = dx;
+				}
+				if (cx == x && cy == y && dxNext == 1 && dyNext == 0)
+					break;
+				if (dxNext != dx || dyNext != dy)
+					addPoint(cx, cy);
+				dx = dxNext;
+				dy = dyNext;
+			}
+			// Outer contours are clockwise (with y pointing down), so have positive signed area
+			long area2 = 0;
+			for (int i = 0; i < nPoints; i++) {
+				int j = i + 1 < nPoints ? i + 1 : 0;
+				area2 += (long)xPoints[i] * yPoints[j] - (long)xPoints[j] * yPoints[i];
+			}
+			if (area2 <= 0) {
+				nPoints = 0;
+				nCrossings = 0;
+				fillConnected(x, y, conn8);
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Mark all pixels connected to (x, y) with the current label as completed.
+		 * 
+		 * @param x
+		 * @param y
+		 * @param conn8
+		 */
+		private void fillConnected(final int x, final int y, final boolean conn8) {
+			int[] stack = new int[16];
+			int nStack = 0;
+			stack[nStack++] = y * width + x;
+			completed[y * width + x] = (byte)255;
+			while (nStack > 0) {
+				int ind = stack[--nStack];
+				int xx = ind % width;
+				int yy = ind / width;
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						if ((dx == 0 && dy == 0) || (!conn8 && dx != 0 && dy != 0) || !inside(xx + dx, yy + dy))
+							continue;
+						int ind2 = (yy + dy) * width + xx + dx;
+						if (completed[ind2] != 0)
+							continue;
+						completed[ind2] = (byte)255;
+						if (nStack == stack.length)
+							stack = Arrays.copyOf(stack, nStack * 2);
+						stack[nStack++] = ind2;
+					}
+				}
+			}
+		}
+		
+		private void addPoint(final int x, final int y) {
+			if (nPoints == xPoints.length) {
+				xPoints = Arrays.copyOf(xPoints, nPoints * 2);
+				yPoints = Arrays.copyOf(yPoints, nPoints * 2);
+			}
+			xPoints[nPoints] = x;
+			yPoints[nPoints] = y;
+			nPoints++;
+		}
+		
+		private void addCrossing(final int row, final int x) {
+			if (nCrossings == crossings.length)
+				crossings = Arrays.copyOf(crossings, nCrossings * 2);
+			crossings[nCrossings++] = ((long)row << 32) | x;
+		}
+		
+		/**
+		 * Mark all pixels with the traced label inside the most recently traced contour as completed.
+		 * <p>
+		 * After sorting, crossings for each row alternate between the start (inclusive) and end (exclusive) 
+		 * of a run of pixels inside the contour.
+		 * Pixels with other values are left unmarked, so that labels nested inside holes are still traced.
+		 * 
+		 * @return true if any pixel inside the contour has a value other than the traced label, e.g. because of holes
+		 */
+		boolean fillContour() {
+			Arrays.sort(crossings, 0, nCrossings);
+			boolean containsOtherValues = false;
+			for (int k = 0; k < nCrossings; k += 2) {
+				int offset = (int)(crossings[k] >>> 32) * width;
+				int xStart = (int)crossings[k];
+				int xEnd = (int)crossings[k+1];
+				for (int i = offset + xStart; i < offset + xEnd; i++) {
+					if (ip.getf(i) == label)
+						completed[i] = (byte)255;
+					else
+						containsOtherValues = true;
+				}
+			}
+			return containsOtherValues;
+		}
+		
+		/**
+		 * Mark all pixels inside a Roi as completed.
+		 * 
+		 * @param roi
+		 */
+		void fill(final Roi roi) {
+			bpCompleted.fill(roi);
+		}
+		
+		PolygonRoi createPolygonRoi() {
+			return new PolygonRoi(Arrays.copyOf(xPoints, nPoints), Arrays.copyOf(yPoints, nPoints), nPoints, Roi.TRACED_ROI);
+		}
+		
+		PolygonROI createPolygonROI(final Calibration cal, final double downsampleFactor, final int c, final int z, final int t) {
+			float[] x = new float[nPoints];
+			float[] y = new float[nPoints];
+			for (int i = 0; i < nPoints; i++) {
+				x[i] = (float)ROIConverterIJ.convertXfromIJ(xPoints[i], cal, downsampleFactor);
+				y[i] = (float)ROIConverterIJ.convertYfromIJ(yPoints[i], cal, downsampleFactor);
+			}
+			return new PolygonROI(x, y, c, z, t);
+		}
+		
+	}
+	
 }
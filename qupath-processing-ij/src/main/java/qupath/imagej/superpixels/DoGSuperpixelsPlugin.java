@@ -24,7 +24,6 @@
 package qupath.imagej.superpixels;
 
 import ij.ImagePlus;
-import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.plugin.filter.MaximumFinder;
 import ij.plugin.filter.RankFilters;
@@ -42,6 +41,9 @@ import java.util.List;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.processing.ROILabeling;
+import qupath.imagej.wrappers.PixelImageIJ;
+import qupath.lib.analysis.stats.RunningStatistics;
+import qupath.lib.analysis.stats.StatisticsHelper;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.PathImage;
@@ -52,7 +54,7 @@ import qupath.lib.plugins.AbstractTileableDetectionPlugin;
 import qupath.lib.plugins.ObjectDetector;
 import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
-import qupath.lib.roi.interfaces.PathArea;
+import qupath.lib.roi.PolygonROI;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
@@ -191,10 +193,10 @@ public class DoGSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffer
 				ipLabels.draw(roi);
 			}
 			
-			// Convert to tiles & create a labelled image for later
-			PolygonRoi[] polygons = ROILabeling.labelsToFilledROIs(ipLabels, (int)ipLabels.getMax());
+			// Convert to tiles
+			int nLabels = (int)ipLabels.getMax();
+			PolygonROI[] polygons = ROILabeling.labelsToFilledPolygonROIs(ipLabels, nLabels, pathImage.getImage().getCalibration(), pathImage.getDownsampleFactor(), -1, pathImage.getImageRegion().getZ(), pathImage.getImageRegion().getT());
 			List<PathObject> pathObjects = new ArrayList<>(polygons.length);
-			int label = 0;
 			// Set thresholds - regions means must be within specified range
 			double minThreshold = params.getDoubleParameterValue("minThreshold");
 			double maxThreshold = params.getDoubleParameterValue("maxThreshold");
@@ -203,24 +205,24 @@ public class DoGSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffer
 			if (!Double.isFinite(maxThreshold))
 				maxThreshold = Double.POSITIVE_INFINITY;
 			boolean hasThreshold = (minThreshold != maxThreshold) && (Double.isFinite(minThreshold) || Double.isFinite(maxThreshold));
+			// Compute the mean of every region in a single pass through the labels
+			List<RunningStatistics> statsList = null;
+			if (hasThreshold) {
+				statsList = StatisticsHelper.createRunningStatisticsList(nLabels);
+				StatisticsHelper.computeRunningStatistics(new PixelImageIJ(fpOrig), new PixelImageIJ(ipLabels), statsList);
+			}
 			try {
-				for (PolygonRoi roi : polygons) {
-					if (roi == null)
+				for (int i = 0; i < polygons.length; i++) {
+					PolygonROI superpixelROI = polygons[i];
+					if (superpixelROI == null)
 						continue;
 					if (hasThreshold) {
-						fpOrig.setRoi(roi);
-						double meanValue = fpOrig.getStatistics().mean;
+						double meanValue = statsList.get(i).getMean();
 						if (meanValue < minThreshold || meanValue > maxThreshold)
 							continue;
 					}
-					PathArea superpixelROI = (PathArea)ROIConverterIJ.convertToPathROI(roi, pathImage);
-					if (pathROI == null)
-						continue;
 					PathObject tile = new PathTileObject(superpixelROI);
 					pathObjects.add(tile);
-					label++;
-					ipLabels.setValue(label);
-					ipLabels.fill(roi);
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
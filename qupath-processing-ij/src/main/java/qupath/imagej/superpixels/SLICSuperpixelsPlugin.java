@@ -29,14 +29,21 @@ import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.process.ColorProcessor;
 import ij.process.ColorSpaceConverter;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,7 +52,8 @@ import qupath.imagej.color.ColorDeconvolutionIJ;
 import qupath.imagej.objects.PathImagePlus;
 import qupath.imagej.objects.ROIConverterIJ;
 import qupath.imagej.processing.ROILabeling;
-import qupath.lib.analysis.stats.RunningStatistics;
+import qupath.lib.analysis.algorithms.SLIC;
+import qupath.lib.awt.common.AwtTools;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.PathImage;
@@ -53,9 +61,16 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathTileObject;
 import qupath.lib.plugins.AbstractTileableDetectionPlugin;
+import qupath.lib.plugins.DetectionPluginTools;
 import qupath.lib.plugins.ObjectDetector;
+import qupath.lib.plugins.ParallelTileObject;
 import qupath.lib.plugins.PluginRunner;
 import qupath.lib.plugins.parameters.ParameterList;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.AWTAreaROI;
+import qupath.lib.roi.PathROIToolsAwt;
+import qupath.lib.roi.RectangleROI;
 import qupath.lib.roi.interfaces.PathArea;
 import qupath.lib.roi.interfaces.ROI;
 
@@ -85,6 +100,16 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 	 */
 	private static int PREFERRED_PIXEL_SPACING = 20;
 	
+	/**
+	 * Approximate size of the core of each tile, in pixels at the resolution used for computation.
+	 */
+	private static double TILE_SIZE = 2048;
+	
+	/**
+	 * Overlap between adjacent tiles, defined as a multiple of the superpixel spacing.
+	 */
+	private static double TILE_OVERLAP_SPACINGS = 3;
+	
 	private static Logger logger = LoggerFactory.getLogger(SLICSuperpixelsPlugin.class);
 	
 	@Override
@@ -120,9 +145,108 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		return new SLICSuperpixelDetector();
 	}
 
+	/**
+	 * Tiles overlap by a few superpixel spacings, so that superpixels close to the tile boundary 
+	 * are computed from the same seeds and (almost) the same pixels in adjacent tiles.
+	 */
 	@Override
 	protected int getTileOverlap(ImageData<BufferedImage> imageData, ParameterList params) {
-		return 0;
+		return (int)Math.ceil(PREFERRED_PIXEL_SPACING * getPreferredDownsample(imageData, params) * TILE_OVERLAP_SPACINGS);
+	}
+	
+	
+	/**
+	 * Split large regions into tiles aligned with a single grid of superpixel seeds.
+	 * 
+	 * Each tile is processed with an overlap, but only keeps the pixels inside its core region - 
+	 * so that each pixel is assigned to a superpixel by exactly one tile.
+	 * Superpixels that cross the seams between tiles are then created by merging the pieces from each tile 
+	 * that grew from the same seed.
+	 */
+	@Override
+	protected void addRunnableTasks(final ImageData<BufferedImage> imageData, final PathObject parentObject, final List<Runnable> tasks) {
+		if (imageData == null)
+			return;
+		
+		ParameterList params = getParameterList(imageData);
+		
+		parentObject.clearPathObjects();
+		
+		ROI parentROI = parentObject.getROI();
+		if (parentROI == null)
+			parentROI = new RectangleROI(0, 0, imageData.getServer().getWidth(), imageData.getServer().getHeight());
+		if (!(parentROI instanceof PathArea))
+			return;
+		
+		// Determine the core tile size as a whole number of superpixel spacings
+		double downsample = getPreferredDownsample(imageData, params);
+		double spacing = PREFERRED_PIXEL_SPACING * downsample;
+		double tileSize = Math.max(1, Math.round(TILE_SIZE / PREFERRED_PIXEL_SPACING)) * spacing;
+		
+		// Use an integer grid origin, so that tiles can share the same pixels at the downsampled resolution
+		Rectangle2D bounds = AwtTools.getBounds2D(parentROI);
+		double gridX = Math.floor(bounds.getMinX());
+		double gridY = Math.floor(bounds.getMinY());
+		int nx = (int)Math.ceil((bounds.getMaxX() - gridX) / tileSize);
+		int ny = (int)Math.ceil((bounds.getMaxY() - gridY) / tileSize);
+		
+		// Exactly one task to complete
+		if (nx <= 1 && ny <= 1) {
+			tasks.add(DetectionPluginTools.createRunnableTask(createDetector(imageData, params), params, imageData, parentObject));
+			return;
+		}
+		
+		double overlap = getTileOverlap(imageData, params);
+		Area area = PathROIToolsAwt.getArea(parentROI);
+		Shape shape = PathROIToolsAwt.getShape(parentROI);
+		
+		List<ROI> tileROIs = new ArrayList<>();
+		List<Rectangle2D> coreBounds = new ArrayList<>();
+		for (int yi = 0; yi < ny; yi++) {
+			for (int xi = 0; xi < nx; xi++) {
+				Rectangle2D boundsCore = new Rectangle2D.Double(gridX + xi * tileSize, gridY + yi * tileSize, tileSize, tileSize);
+				Rectangle2D boundsTile = new Rectangle2D.Double(
+						boundsCore.getX() - overlap, boundsCore.getY() - overlap,
+						boundsCore.getWidth() + overlap*2, boundsCore.getHeight() + overlap*2);
+				
+				ROI pathROI = null;
+				if (shape.contains(boundsTile))
+					pathROI = new RectangleROI(boundsTile.getX(), boundsTile.getY(), boundsTile.getWidth(), boundsTile.getHeight(), parentROI.getC(), parentROI.getZ(), parentROI.getT());
+				else if (parentROI instanceof RectangleROI) {
+					Rectangle2D bounds2 = boundsTile.createIntersection(bounds);
+					pathROI = new RectangleROI(bounds2.getX(), bounds2.getY(), bounds2.getWidth(), bounds2.getHeight(), parentROI.getC(), parentROI.getZ(), parentROI.getT());
+				} else {
+					if (!area.intersects(boundsCore))
+						continue;
+					Area areaTemp = new Area(boundsTile);
+					areaTemp.intersect(area);
+					if (!areaTemp.isEmpty())
+						pathROI = new AWTAreaROI(areaTemp, parentROI.getC(), parentROI.getZ(), parentROI.getT());
+				}
+				if (pathROI != null) {
+					tileROIs.add(pathROI);
+					coreBounds.add(boundsCore);
+				}
+			}
+		}
+		if (tileROIs.isEmpty())
+			return;
+		
+		List<ParallelTileObject> tileList = new ArrayList<>();
+		AtomicInteger countdown = new AtomicInteger(tileROIs.size());
+		TileSeams seams = new TileSeams(tileROIs.size());
+		for (int i = 0; i < tileROIs.size(); i++) {
+			ParallelTileObject tile = new ParallelTileObject(tileROIs.get(i), imageData.getHierarchy(), countdown);
+			parentObject.addPathObject(tile);
+			for (ParallelTileObject tileTemp : tileList) {
+				if (tileTemp.suggestNeighbor(tile))
+					tile.suggestNeighbor(tileTemp);
+			}
+			tileList.add(tile);
+			ObjectDetector<BufferedImage> detector = new SLICSuperpixelDetector(gridX, gridY, coreBounds.get(i), seams);
+			tasks.add(DetectionPluginTools.createRunnableTask(detector, params, imageData, tile));
+		}
+		imageData.getHierarchy().fireHierarchyChangedEvent(this);
 	}
 
 	@Override
@@ -158,7 +282,33 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		private PathImage<ImagePlus> pathImage = null;
 		private ROI pathROI = null;
 		
+		private double gridX, gridY;
+		private Rectangle2D coreBounds;
+		private TileSeams seams;
+		
 		private String lastResultSummary = null;
+		
+		/**
+		 * Create a detector with seeds on a grid starting from the top left of the ROI.
+		 */
+		SLICSuperpixelDetector() {
+			this(Double.NaN, Double.NaN, null, null);
+		}
+		
+		/**
+		 * Create a detector for one tile of a larger region.
+		 * 
+		 * @param gridX x-coordinate of the seed grid origin, in the full-resolution image space; this should be an integer
+		 * @param gridY y-coordinate of the seed grid origin, in the full-resolution image space; this should be an integer
+		 * @param coreBounds only pixels inside these bounds are assigned to superpixels
+		 * @param seams used to merge superpixels that touch the edge of the core bounds with the matching superpixels from other tiles
+		 */
+		SLICSuperpixelDetector(final double gridX, final double gridY, final Rectangle2D coreBounds, final TileSeams seams) {
+			this.gridX = gridX;
+			this.gridY = gridY;
+			this.coreBounds = coreBounds;
+			this.seams = seams;
+		}
 
 		@Override
 		public Collection<PathObject> runDetection(final ImageData<BufferedImage> imageData, final ParameterList params, final ROI pathROI) {
@@ -171,7 +321,11 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 			// Get a PathImage if we have a new ROI
 			if (!pathROI.equals(this.pathROI)) {
 				ImageServer<BufferedImage> server = imageData.getServer();
-				this.pathImage = PathImagePlus.createPathImage(server, pathROI, getPreferredDownsample(imageData, params));
+				double downsample = getPreferredDownsample(imageData, params);
+				if (coreBounds == null)
+					this.pathImage = PathImagePlus.createPathImage(server, pathROI, downsample);
+				else
+					this.pathImage = PathImagePlus.createPathImage(server, getAlignedRequest(server, pathROI, downsample));
 				this.pathROI = pathROI;
 			}
 			
@@ -228,163 +382,38 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 					fp.blurGaussian(sigma);
 			}
 			
-			// Initialize centres and distances
+			// Compute superpixels, with seeds on a grid shared by all tiles
 			int w = imp.getWidth();
 			int h = imp.getHeight();
-			short[] labels = new short[w*h];
-			Arrays.fill(labels, (short)-1);
-			double[] distances = new double[w*h];
-			Arrays.fill(distances, Double.POSITIVE_INFINITY);
-			
 			int s = PREFERRED_PIXEL_SPACING;
-			List<ClusterCenter> centers = new ArrayList<>();
-			int widthClusters = 0; // Used to help figure out which clusters are side by side
-			for (int y = s/2; y < h; y += s) {
-				widthClusters = 0;
-			    for (int x = s/2; x < w; x += s) {
-			    	short label = (short)centers.size();
-			    	ClusterCenter center = new ClusterCenter(ipColor, label, s, m, adaptRegularization, w, h);
-			    	center.addLabel(y*w+x);
-			        labels[y*w+x] = label;	
-			        centers.add(center);
-			        widthClusters++;
-			    }
-			}
-			
-			// Loop through and perform local k-means clustering
-			for (int i = 0; i < maxIterations; i++) {
-			    int centerLabel = 0;
-			    for (ClusterCenter center : centers) {
-			        center.updateFeatures();
-			        for (int label : center.getNearbyClusters()) {
-			            double distance = center.distanceSquared(label);
-			            if (distance < distances[label]) {
-			            	int currentLabel = labels[label];
-			            	if (currentLabel == centerLabel)
-			            		continue;
-			            	if (currentLabel != (short)-1)
-			            		centers.get(currentLabel).removeLabel(label);
-			            	center.addLabel(label);
-			            	distances[label] = distance;
-			            	labels[label] = (short)centerLabel;
-			            }
-			        }
-			        centerLabel++;
-			    }
-			}
+			double downsample = pathImage.getDownsampleFactor();
+			ImageRegion region = pathImage.getImageRegion();
+			double xOrigin = Double.isNaN(gridX) ? 0 : (gridX - region.getX()) / downsample;
+			double yOrigin = Double.isNaN(gridY) ? 0 : (gridY - region.getY()) / downsample;
+			float[][] channels = new float[ipColor.length][];
+			for (int i = 0; i < ipColor.length; i++)
+				channels[i] = (float[])ipColor[i].getPixels();
+			SLIC slic = new SLIC(channels, w, h, s, m, adaptRegularization, xOrigin, yOrigin);
+			int[] labels = slic.computeLabels(maxIterations);
 			
 			// Merge clusters if required
-			if (Boolean.TRUE.equals(params.getBooleanParameterValue("doMerge"))) {
-				for (int i = 0; i < centers.size(); i++) {
-					ClusterCenter center = centers.get(i);
-					center.updateFeatures();
-					
-					int xc = i % widthClusters;
-					// Check for horizontal link
-					if (xc < widthClusters - 1) {
-						ClusterCenter center2 = centers.get(i+1);
-						maybeMergeClusters(center, center2, labels, mergeThreshold);
-					}
-					// Check for vertical link
-					if (i < centers.size() - widthClusters) {
-						ClusterCenter center2 = centers.get(i+widthClusters);
-						maybeMergeClusters(center, center2, labels, mergeThreshold);
-						
-						// Check for diagonal forward link
-						if (xc < widthClusters - 1) {
-							center2 = centers.get(i+widthClusters+1);
-							maybeMergeClusters(center, center2, labels, mergeThreshold);
-						}
-						
-						// Check for backwards forward link
-						if (xc > 0) {
-							center2 = centers.get(i+widthClusters-1);
-							maybeMergeClusters(center, center2, labels, mergeThreshold);
-						}
-					}
-				}
-			}
-			
+			if (Boolean.TRUE.equals(params.getBooleanParameterValue("doMerge")))
+				slic.mergeSimilarClusters(mergeThreshold);
 			
 			// Enforce connectivity and merge small objects
-			short[] newLabels = new short[labels.length];
-			int[] xyCurrent = new int[w*h];
-			short label = 1;
-			int minSize = s*s/4;
-			for (int y = 0; y < h; y++) {
-				// Maintain a reference to the previous label
-				short lastNewLabel = y > 0 ? labels[(y-1)*w] : 1;
-				for (int x = 0; x < w; x++) {
-					int i = y*w+x;
-					// Check if we've already labelled this
-					short currentNewLabel = newLabels[i];
-					if (currentNewLabel != 0) {
-						lastNewLabel = currentNewLabel;
-						continue;
-					}
-					
-					// Determine pixels for the current region
-					short currentOldLabel = labels[i];
-					int count = 1;
-					xyCurrent[0] = i;
-					newLabels[i] = label;
-					int c = 0;
-					while (c < count) {
-						int ii = xyCurrent[c];
-						int xx = ii % w;
-						int yy = ii / w;
-						c++;
-						// Check 4-connected neighbors
-						if (xx > 0) {
-							int ind = ii-1;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						if (yy > 0) {
-							int ind = ii-w;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						
-						if (xx < w-1) {
-							int ind = ii+1;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-						
-						if (yy < h-1) {
-							int ind = ii+w;
-							if (newLabels[ind] == 0 && labels[ind] == currentOldLabel) {
-								xyCurrent[count] = ind;
-								newLabels[ind] = label;
-								count++;
-							}
-						}
-					}
-					// Check if small, relabelling if required
-					if (count <= minSize) {
-						for (c = 0; c < count; c++)
-							newLabels[xyCurrent[c]] = lastNewLabel;
-					} else {
-						lastNewLabel = label;
-						label++;
-					}
-				}
-				
-			}
+			int[] clusters = coreBounds == null ? null : labels.clone();
+			int nLabels = SLIC.enforceConnectivity(labels, w, h, s*s/4);
+			long[] seeds = clusters == null ? null : getSeeds(labels, clusters, nLabels, slic);
 			
+			if (Thread.currentThread().isInterrupted())
+				return null;
 			
 			// Convert to ROIs
-			ShortProcessor ipLabels = new ShortProcessor(w, h, newLabels, null);
+			// (Labels are stored as floats, which is exact for far more labels than there can be pixels in a tile)
+			float[] labelPixels = new float[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				labelPixels[i] = labels[i];
+			FloatProcessor ipLabels = new FloatProcessor(w, h, labelPixels);
 			
 			// Remove everything outside the ROI, if required
 			if (pathROI != null) {
@@ -398,11 +427,16 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 //				ipLabels.draw(roi);
 			}
 			
+			// If this is one of several tiles, keep only the pixels within its core region
+			if (coreBounds != null) {
+				List<PathObject> pathObjects = createCoreSuperpixels(ipLabels, nLabels, seeds);
+				lastResultSummary = pathObjects.size() + " tiles created";
+				return pathObjects;
+			}
 			
-			// Convert to tiles & create a labelled image for later
+			// Convert to tiles
 			List<PolygonRoi> polygons = ROILabeling.labelsToFilledRoiList(ipLabels, true);
 			List<PathObject> pathObjects = new ArrayList<>(polygons.size());
-			label = 0;
 			try {
 				for (Roi roi : polygons) {
 					if (roi == null)
@@ -412,9 +446,6 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 						continue;
 					PathObject tile = new PathTileObject(superpixelROI);
 					pathObjects.add(tile);
-					label++;
-					ipLabels.setValue(label);
-					ipLabels.fill(roi);
 				}
 			} catch (Exception e) {
 				logger.error("Error created tiled ROIs", e);
@@ -427,50 +458,108 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		
 		
 		
-		static boolean maybeMergeClusters(final ClusterCenter center, final ClusterCenter center2, final short[] labels, final double mergeThreshold) {
-			// Check merge based on euclidean distance
-			double distanceThreshold = mergeThreshold;//0.02;
-			double dist = 0;
-			for (int i = 0; i < center.features.length; i++) {
-				double f1 = center.features[i];
-				double f2 = center2.features[i];
-				dist += (f1-f2)*(f1-f2);
+		/**
+		 * Request the pixels of a ROI, expanded so that pixels at the requested resolution lie on a lattice 
+		 * anchored at the grid origin - so that adjacent tiles share exactly the same pixels.
+		 */
+		private RegionRequest getAlignedRequest(final ImageServer<BufferedImage> server, final ROI pathROI, final double downsample) {
+			int x = (int)Math.max(0, gridX + Math.floor((pathROI.getBoundsX() - gridX) / downsample) * downsample);
+			int y = (int)Math.max(0, gridY + Math.floor((pathROI.getBoundsY() - gridY) / downsample) * downsample);
+			int x2 = (int)Math.min(server.getWidth(), gridX + Math.ceil((pathROI.getBoundsX() + pathROI.getBoundsWidth() - gridX) / downsample) * downsample);
+			int y2 = (int)Math.min(server.getHeight(), gridY + Math.ceil((pathROI.getBoundsY() + pathROI.getBoundsHeight() - gridY) / downsample) * downsample);
+			return RegionRequest.createInstance(server.getPath(), downsample, x, y, x2 - x, y2 - y, pathROI.getZ(), pathROI.getT());
+		}
+		
+		
+		/**
+		 * Identify the seed of each label, using the cluster of the first pixel with that label.
+		 * <p>
+		 * Any other clusters can only contribute small regions that were merged into the label when enforcing connectivity.
+		 * 
+		 * @param labels labels after enforcing connectivity
+		 * @param clusters cluster labels before enforcing connectivity
+		 * @param nLabels
+		 * @param slic
+		 * @return seed IDs, indexed by label, or NO_SEED if the label doesn't have a seed
+		 */
+		static long[] getSeeds(final int[] labels, final int[] clusters, final int nLabels, final SLIC slic) {
+			long[] seeds = new long[nLabels + 1];
+			Arrays.fill(seeds, TileSeams.NO_SEED);
+			boolean[] found = new boolean[nLabels + 1];
+			for (int i = 0; i < labels.length; i++) {
+				int label = labels[i];
+				if (found[label])
+					continue;
+				found[label] = true;
+				int cluster = clusters[i];
+				if (cluster >= 0)
+					seeds[label] = TileSeams.getSeedID(slic.getSeedColumn(cluster), slic.getSeedRow(cluster));
+			}
+			return seeds;
+		}
+		
+		
+		/**
+		 * Create superpixels from the pixels inside the core of a tile.
+		 * <p>
+		 * Superpixels that touch the edge of the core may continue into neighboring tiles; these are passed to the {@link TileSeams}, 
+		 * and merged with the pieces from other tiles that grew from the same seed.
+		 * 
+		 * @param ipLabels
+		 * @param nLabels
+		 * @param seeds
+		 * @return
+		 */
+		private List<PathObject> createCoreSuperpixels(final FloatProcessor ipLabels, final int nLabels, final long[] seeds) {
+			int w = ipLabels.getWidth();
+			int h = ipLabels.getHeight();
+			ImageRegion region = pathImage.getImageRegion();
+			double downsample = pathImage.getDownsampleFactor();
+			
+			// Determine the pixels with centers inside the core bounds
+			int x1 = getCorePixel(coreBounds.getMinX(), region.getX(), downsample, w);
+			int x2 = getCorePixel(coreBounds.getMaxX(), region.getX(), downsample, w);
+			int y1 = getCorePixel(coreBounds.getMinY(), region.getY(), downsample, h);
+			int y2 = getCorePixel(coreBounds.getMaxY(), region.getY(), downsample, h);
+			
+			// Remove labels outside the core, and find labels touching its edges
+			boolean[] onSeam = new boolean[nLabels + 1];
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int label = (int)ipLabels.getf(x, y);
+					if (label <= 0)
+						continue;
+					if (x < x1 || x >= x2 || y < y1 || y >= y2)
+						ipLabels.setf(x, y, 0f);
+					else if (x == x1 || x == x2-1 || y == y1 || y == y2-1)
+						onSeam[label] = true;
+				}
 			}
-			dist = Math.sqrt(dist);
-//			System.err.println(dist);
-			boolean doMerge = dist <= distanceThreshold;
-						
-						
-//			// Check merge based on cosine distance
-//			double distanceThreshold = 0.9999;
-//			double dist = 0;
-//			double mag1 = 0;
-//			double mag2 = 0;
-//			for (int i = 0; i < center.features.length; i++) {
-//				double f1 = center.features[i];
-//				mag1 += f1*f1;
-//				double f2 = center2.features[i];
-//				mag2 += f2*f2;				
-//				dist += f1*f2;
-//			}
-//			dist = dist / (Math.sqrt(mag1) * Math.sqrt(mag2));
-////			dist = 1-2*Math.acos(dist)/Math.PI;
-//			boolean doMerge = dist >= distanceThreshold;
-						
-//			// Check merge based on distance standard deviations within each cluster
-//			double distanceThreshold = Math.min(center.getColorDistanceStdDev(), center2.getColorDistanceStdDev());
-//			double dist = center.colorDistance(center2.features);
-//			boolean doMerge = dist < distanceThreshold;
 			
-			// Perform the merge
-			if (doMerge) {
-				for (int label : center2.getLabels())
-					labels[label] = center.primaryLabel;
-				center2.primaryLabel = center.primaryLabel;
-//				center2.labels.addAll(center.labels);
-				return true;
+			Roi[] rois = ROILabeling.labelsToConnectedROIs(ipLabels, nLabels);
+			List<PathObject> pathObjects = new ArrayList<>();
+			Map<Long, List<Area>> seamPieces = new HashMap<>();
+			for (int label = 1; label <= nLabels; label++) {
+				Roi roi = rois[label-1];
+				if (roi == null)
+					continue;
+				ROI superpixelROI = ROIConverterIJ.convertToPathROI(roi, pathImage);
+				if (onSeam[label] && seeds[label] != TileSeams.NO_SEED)
+					seamPieces.computeIfAbsent(seeds[label], k -> new ArrayList<>()).add(PathROIToolsAwt.getArea(superpixelROI));
+				else
+					pathObjects.add(new PathTileObject(superpixelROI));
 			}
-			return false;
+			pathObjects.addAll(seams.addTile(seamPieces, region.getZ(), region.getT()));
+			return pathObjects;
+		}
+		
+		
+		/**
+		 * Get the first pixel (in one dimension) with a center at or after a specified coordinate.
+		 */
+		private static int getCorePixel(final double coordinate, final double origin, final double downsample, final int max) {
+			int pixel = (int)Math.ceil((coordinate - origin) / downsample - 0.5);
+			return pixel < 0 ? 0 : (pixel > max ? max : pixel);
 		}
 		
 		
@@ -493,6 +582,58 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 	}
 	
 	
+	/**
+	 * Collect the superpixels that touch the seams between tiles, so that superpixels from different tiles 
+	 * that grew from the same seed can be merged once all the tiles have been processed.
+	 * <p>
+	 * Tiles assign disjoint sets of pixels, so the merged superpixels do not overlap one another, 
+	 * or any of the superpixels created entirely within a tile.
+	 */
+	static class TileSeams {
+		
+		/**
+		 * Seed ID used for labels without a seed.
+		 */
+		static final long NO_SEED = Long.MIN_VALUE;
+		
+		private final AtomicInteger countdown;
+		private final Map<Long, List<Area>> pieces = new HashMap<>();
+		
+		TileSeams(final int nTiles) {
+			this.countdown = new AtomicInteger(nTiles);
+		}
+		
+		static long getSeedID(final int column, final int row) {
+			return ((long)row << 32) | (column & 0xffffffffL);
+		}
+		
+		/**
+		 * Add the superpixel pieces found along the seams of a single tile.
+		 * 
+		 * @param tilePieces map of seed IDs to the areas of superpixels that grew from that seed
+		 * @param z
+		 * @param t
+		 * @return the merged superpixels, if this is the last tile to be added; otherwise an empty list
+		 */
+		List<PathObject> addTile(final Map<Long, List<Area>> tilePieces, final int z, final int t) {
+			synchronized (pieces) {
+				for (Entry<Long, List<Area>> entry : tilePieces.entrySet())
+					pieces.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+				if (countdown.decrementAndGet() > 0)
+					return Collections.emptyList();
+				List<PathObject> pathObjects = new ArrayList<>(pieces.size());
+				for (List<Area> areas : pieces.values()) {
+					Area area = areas.size() == 1 ? areas.get(0) : PathROIToolsAwt.union(areas);
+					pathObjects.add(new PathTileObject(PathROIToolsAwt.getShapeROI(area, -1, z, t)));
+				}
+				pieces.clear();
+				return pathObjects;
+			}
+		}
+		
+	}
+	
+	
 //	// This is somewhat complete... but fails to take sRGB into consideration
 //	private static ImageProcessor[] convertToLAB(final ColorProcessor cp) {
 //		
@@ -551,150 +692,5 @@ public class SLICSuperpixelsPlugin extends AbstractTileableDetectionPlugin<Buffe
 		return parents;
 	}
 	
-
-	static class ClusterCenter {
-		
-		private ImageProcessor[] featuresImages;
-
-	    private List<Integer> labels = new ArrayList<>();
-	    private short primaryLabel;
-	    private double[] features = null;
-	    private double x;
-	    private double y;
-	    
-	    private boolean adaptRegularization;
-	    private double s, mSquared;
-	    
-	    private int width;
-	    private int height;
-	    
-	    ClusterCenter(final ImageProcessor[] featuresImages, final short primaryLabel, final double s, final double m, final boolean adaptRegularization, final int width, final int height) {
-	    	this.featuresImages = featuresImages;
-	    	this.primaryLabel = primaryLabel;
-	    	this.s = s;
-	    	this.adaptRegularization = adaptRegularization;
-	    	this.mSquared = m*m;
-	    	this.width = width;
-	    	this.height = height;
-	    }
-
-	    public List<Integer> getLabels() {
-	        return Collections.unmodifiableList(labels);
-	    }
-
-	    public void addLabel(final Integer label) {
-	        this.labels.add(label);
-	    }
-
-
-	    public void removeLabel(final Integer label) {
-	        this.labels.remove(label);
-	    }
-
-
-	    public List<Integer> getNearbyClusters() {
-	        if (labels.isEmpty())
-	            return Collections.emptyList();
-
-	        List<Integer> list = new ArrayList<>();
-	        for (int yy = (int)Math.max(0, y-s); yy < (int)Math.min(height, y+s); yy++) {
-	            for (int xx = (int)Math.max(0, x-s); xx < (int)Math.min(width, x+s); xx++) {
-	                list.add(yy*width + xx);
-	            }
-	        }
-	        return list;
-	    }
-
-
-	    public void updateFeatures() {
-	        if (labels.isEmpty()) {
-	            x = Double.NaN;
-	            y = Double.NaN;
-	            features = null;
-	        }
-	        int n = labels.size();
-	        x = 0;
-	        y = 0;
-	        features = new double[featuresImages.length];
-	        for (int label : labels) {
-	        	double xx = label % width;
-	        	double yy = label / width;
-	            x += xx/n;
-	            y += yy/n;
-	            for (int i = 0; i < features.length; i++)
-	                features[i] += featuresImages[i].getf(label)/n;
-	        }
-	        updateM();
-	    }
-	    
-	    private void updateM() {
-	    	if (!adaptRegularization)
-	    		return;
-	    	double maxDistanceSquared = 0;
-	    	for (int label : labels) {
-	    		double dist = colorDistanceSquared(label);
-	    		if (dist > maxDistanceSquared)
-	    			maxDistanceSquared = dist;
-	    	}
-	    	if (maxDistanceSquared > 0)
-	    		this.mSquared = maxDistanceSquared;
-	    }
-	    
-	    
-	    private double getColorDistanceStdDev() {
-	    	RunningStatistics stats = new RunningStatistics();
-	    	for (int label : getLabels()) {
-	    		stats.addValue(Math.sqrt(colorDistanceSquared(label)));
-	    	}
-	    	return stats.getStdDev();
-	    }
-	    
-	    
-	    private double colorDistanceSquared(final int ind) {
-	    	double DC2 = 0;
-	        for (int i = 0; i < featuresImages.length; i++) {
-	            double d = featuresImages[i].getf(ind) - features[i];
-	            if (Double.isFinite(d))
-	                DC2 += d*d;
-	        }
-	        return DC2;
-	    }
-	    
-	    
-	    public double colorDistance(final double[] features) {
-	    	double distanceSquared = 0;
-	    	for (int i = 0; i < features.length; i++) {
-	    		double d = features[i] - this.features[i];
-	    		distanceSquared += d*d;
-	    	}
-	    	return Math.sqrt(distanceSquared);
-	    }
-	    
-
-	    public double distanceSquared(final int ind) {
-	        if (features == null)
-	            return Double.POSITIVE_INFINITY;
-
-	        // Get coordinates from label
-	        double xx = ind % width;
-        	double yy = ind / width;
-        	
-	        // Calculate spatial distance squared
-	        double dx = x - xx;
-	        double dy = y - yy;
-
-	        double DS2 = dx*dx + dy*dy;
-
-	        // Calculate feature distance squared
-	        double DC2 = colorDistanceSquared(ind);
-	        
-	        // Compute distance
-	        double distanceSquared = DC2/mSquared + DS2/(s*s);
-	        
-	        return distanceSquared;
-	    }
-
-	}
-	
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+package qupath.imagej.detect.dearray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Polygon;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+
+/**
+ * Check TMA grid refinement for rotated grids that extend beyond the image.
+ */
+public class TestTMADearrayer {
+	
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 160;
+	private static final double CORE_DIAMETER = 20;
+	private static final double SPACING = 30;
+	
+	@Test
+	public void refineRotatedGridAtEdges() {
+		int nHorizontal = 8;
+		int nVertical = 7;
+		double angle = 10 * Math.PI / 180.0;
+		
+		// Create cores on a rotated grid, large enough that some centers are outside the image
+		double[] xCenters = new double[nHorizontal * nVertical];
+		double[] yCenters = new double[nHorizontal * nVertical];
+		ByteProcessor bp = new ByteProcessor(WIDTH, HEIGHT);
+		Polygon polyGrid = new Polygon();
+		int nOutside = 0;
+		for (int j = 0; j < nVertical; j++) {
+			for (int i = 0; i < nHorizontal; i++) {
+				double dx = (i - (nHorizontal - 1) / 2.0) * SPACING;
+				double dy = (j - (nVertical - 1) / 2.0) * SPACING;
+				double x = WIDTH / 2.0 + dx * Math.cos(angle) - dy * Math.sin(angle);
+				double y = HEIGHT / 2.0 + dx * Math.sin(angle) + dy * Math.cos(angle);
+				int ind = j * nHorizontal + i;
+				xCenters[ind] = x;
+				yCenters[ind] = y;
+				fillCircle(bp, x, y, CORE_DIAMETER / 2);
+				// Start slightly away from the true center
+				polyGrid.addPoint((int)Math.round(x + 2), (int)Math.round(y + 1));
+				if (!contains(polyGrid.xpoints[ind], polyGrid.ypoints[ind]))
+					nOutside++;
+			}
+		}
+		assertTrue("Test grid should extend beyond the image", nOutside > 0);
+		
+		Polygon polyOrig = new Polygon(polyGrid.xpoints.clone(), polyGrid.ypoints.clone(), polyGrid.npoints);
+		TMADearrayer.refineGridCoordinatesByShifting(bp, polyGrid, nHorizontal, CORE_DIAMETER);
+		
+		assertEquals(polyOrig.npoints, polyGrid.npoints);
+		for (int i = 0; i < polyGrid.npoints; i++) {
+			int x = polyOrig.xpoints[i];
+			int y = polyOrig.ypoints[i];
+			if (!contains(x, y)) {
+				// Points outside the image should be left alone
+				assertEquals(x, polyGrid.xpoints[i]);
+				assertEquals(y, polyGrid.ypoints[i]);
+				continue;
+			}
+			double distance = Math.sqrt(Math.pow(polyGrid.xpoints[i] - xCenters[i], 2) + Math.pow(polyGrid.ypoints[i] - yCenters[i], 2));
+			// Cores completely inside the image should be found accurately; others should at least not move to another core
+			double r = CORE_DIAMETER / 2;
+			boolean complete = xCenters[i] - r >= 0 && yCenters[i] - r >= 0 && xCenters[i] + r < WIDTH && yCenters[i] + r < HEIGHT;
+			if (complete)
+				assertTrue("Core " + i + " moved to distance " + distance, distance <= 1.5);
+			else
+				assertTrue("Core " + i + " moved to distance " + distance, distance <= r + 3);
+		}
+	}
+	
+	
+	private static boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT;
+	}
+	
+	private static void fillCircle(ByteProcessor bp, double xc, double yc, double radius) {
+		for (int y = 0; y < bp.getHeight(); y++) {
+			for (int x = 0; x < bp.getWidth(); x++) {
+				double dx = x - xc;
+				double dy = y - yc;
+				if (dx*dx + dy*dy <= radius*radius)
+					bp.set(x, y, 255);
+			}
+		}
+	}
+
+}
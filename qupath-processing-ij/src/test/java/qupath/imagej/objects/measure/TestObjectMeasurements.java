@@ -0,0 +1,77 @@
+package qupath.imagej.objects.measure;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.gui.OvalRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.measure.Measurements;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+import qupath.imagej.objects.measure.ObjectMeasurements.LabelStatistics;
+import qupath.imagej.processing.ROILabeling;
+
+/**
+ * Check that statistics computed from a labelled image match those computed separately for each Roi.
+ */
+public class TestObjectMeasurements {
+	
+	@Test
+	public void labelStatisticsMatchRoiStatistics() {
+		int width = 200;
+		int height = 150;
+		Random random = new Random(42);
+		FloatProcessor fp = new FloatProcessor(width, height);
+		ByteProcessor bp = new ByteProcessor(width, height);
+		for (int i = 0; i < width * height; i++) {
+			fp.setf(i, (float)random.nextGaussian());
+			bp.set(i, random.nextInt(256));
+		}
+		
+		// Non-overlapping Rois of different types, including ones touching the image boundary
+		List<Roi> rois = new ArrayList<>();
+		rois.add(new Roi(0, 0, 20, 15));
+		rois.add(new OvalRoi(30, 10, 25, 31));
+		rois.add(new PolygonRoi(new float[]{70.5f, 110.2f, 95.7f}, new float[]{5.5f, 20.1f, 60.3f}, Roi.POLYGON));
+		rois.add(new Roi(120, 30, 1, 1));
+		rois.add(new OvalRoi(150, 100, 50, 50));
+		rois.add(new PolygonRoi(new int[]{10, 60, 60, 35, 10}, new int[]{80, 80, 140, 110, 140}, 5, Roi.POLYGON));
+		
+		FloatProcessor ipLabels = new FloatProcessor(width, height);
+		ROILabeling.labelROIs(ipLabels, rois);
+		List<ImageProcessor> channels = Arrays.asList(fp, bp);
+		
+		int flags = Measurements.AREA | Measurements.MEAN | Measurements.STD_DEV | Measurements.MIN_MAX | Measurements.SKEWNESS | Measurements.KURTOSIS;
+		for (boolean parallel : new boolean[]{false, true}) {
+			LabelStatistics stats = ObjectMeasurements.computeLabelStatistics(ipLabels, rois.size(), channels, true, false, parallel);
+			for (int label = 0; label < rois.size(); label++) {
+				for (int c = 0; c < channels.size(); c++) {
+					ImageProcessor ip = channels.get(c);
+					ip.setRoi(rois.get(label));
+					ImageStatistics expected = ImageStatistics.getStatistics(ip, flags, null);
+					ip.resetRoi();
+					String message = "Label " + (label+1) + ", channel " + c;
+					assertEquals(message, expected.pixelCount, stats.getPixelCount(label));
+					assertEquals(message, expected.mean, stats.getMean(c, label), 1e-6);
+					assertEquals(message, expected.stdDev, stats.getStdDev(c, label), 1e-6);
+					assertEquals(message, expected.min, stats.getMin(c, label), 1e-6);
+					assertEquals(message, expected.max, stats.getMax(c, label), 1e-6);
+					if (expected.pixelCount > 1) {
+						assertEquals(message, expected.skewness, stats.getSkewness(c, label), 1e-6);
+						assertEquals(message, expected.kurtosis, stats.getKurtosis(c, label), 1e-6);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package qupath.imagej.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.Wand;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import qupath.lib.geom.Point2;
+import qupath.lib.roi.PolygonROI;
+
+/**
+ * Compare ROIs traced from labelled images with those created using ImageJ's Wand.
+ */
+public class TestROILabeling {
+	
+	@Test
+	public void touchingLabels() {
+		ShortProcessor ip = new ShortProcessor(14, 12);
+		fillRect(ip, 1, 1, 4, 4, 1);
+		// Touching label 1 along an edge
+		fillRect(ip, 5, 1, 4, 4, 2);
+		// L-shape touching labels 1 & 2 from below
+		fillRect(ip, 1, 5, 8, 2, 3);
+		fillRect(ip, 1, 7, 2, 3, 3);
+		// Touching label 2 only at a corner
+		fillRect(ip, 9, 5, 3, 3, 4);
+		// Pixels connected only diagonally
+		ip.set(4, 8, 5);
+		ip.set(5, 9, 5);
+		ip.set(6, 10, 5);
+		checkLabels(ip, 5);
+	}
+	
+	@Test
+	public void labelsWithHoles() {
+		ShortProcessor ip = new ShortProcessor(24, 12);
+		// Ring, with an empty hole
+		fillRect(ip, 1, 1, 8, 8, 1);
+		fillRect(ip, 3, 3, 3, 4, 0);
+		// Ring, with another label inside its hole
+		fillRect(ip, 11, 1, 10, 10, 2);
+		fillRect(ip, 13, 3, 6, 6, 0);
+		fillRect(ip, 14, 4, 3, 3, 3);
+		PolygonROI[] rois = checkLabels(ip, 3);
+		
+		// Holes should be filled
+		assertEquals(64, rois[0].getArea(), 1e-6);
+		assertEquals(100, rois[1].getArea(), 1e-6);
+		assertEquals(9, rois[2].getArea(), 1e-6);
+		
+		// The nested label should also be found when tracing connected regions
+		assertEquals(3, ROILabeling.labelsToFilledRoiList(ip, true).size());
+		
+		// Connected ROIs should retain holes
+		Roi[] roisConnected = ROILabeling.labelsToConnectedROIs(ip, 3);
+		assertEquals(64 - 12, countPixels(roisConnected[0]));
+		assertEquals(100 - 36, countPixels(roisConnected[1]));
+		assertEquals(9, countPixels(roisConnected[2]));
+	}
+	
+	@Test
+	public void missingLabels() {
+		ShortProcessor ip = new ShortProcessor(10, 10);
+		fillRect(ip, 2, 2, 3, 3, 2);
+		PolygonROI[] rois = ROILabeling.labelsToFilledPolygonROIs(ip, 3, null, 1, -1, 0, 0);
+		assertNull(rois[0]);
+		assertNotNull(rois[1]);
+		assertNull(rois[2]);
+	}
+	
+	
+	/**
+	 * Check that the polygons for every label match those traced by the Wand, for both the ImageJ & QuPath ROIs.
+	 */
+	private static PolygonROI[] checkLabels(ImageProcessor ip, int n) {
+		PolygonRoi[] roisIJ = ROILabeling.labelsToFilledROIs(ip, n);
+		PolygonROI[] rois = ROILabeling.labelsToFilledPolygonROIs(ip, n, null, 1, -1, 0, 0);
+		PolygonROI[] roisDownsampled = ROILabeling.labelsToFilledPolygonROIs(ip, n, null, 2, -1, 0, 0);
+		for (int label = 1; label <= n; label++) {
+			List<Point2> expected = traceWithWand(ip, label);
+			assertNotNull(rois[label-1]);
+			assertCyclicEqual(expected, getPoints(roisIJ[label-1].getFloatPolygon(), 1));
+			assertCyclicEqual(expected, rois[label-1].getPolygonPoints());
+			assertCyclicEqual(scale(expected, 2), roisDownsampled[label-1].getPolygonPoints());
+			assertEquals(polygonArea(expected), rois[label-1].getArea(), 1e-6);
+			assertEquals(polygonArea(expected) * 4, roisDownsampled[label-1].getArea(), 1e-6);
+		}
+		return rois;
+	}
+	
+	private static List<Point2> traceWithWand(ImageProcessor ip, int label) {
+		for (int y = 0; y < ip.getHeight(); y++) {
+			for (int x = 0; x < ip.getWidth(); x++) {
+				if (ip.get(x, y) == label) {
+					Wand wand = new Wand(ip);
+					wand.autoOutline(x, y, label, label, Wand.EIGHT_CONNECTED);
+					List<Point2> points = new ArrayList<>();
+					for (int i = 0; i < wand.npoints; i++)
+						points.add(new Point2(wand.xpoints[i], wand.ypoints[i]));
+					return points;
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static List<Point2> getPoints(FloatPolygon polygon, double scale) {
+		List<Point2> points = new ArrayList<>();
+		for (int i = 0; i < polygon.npoints; i++)
+			points.add(new Point2(polygon.xpoints[i] * scale, polygon.ypoints[i] * scale));
+		return points;
+	}
+	
+	private static List<Point2> scale(List<Point2> points, double scale) {
+		List<Point2> scaled = new ArrayList<>();
+		for (Point2 p : points)
+			scaled.add(new Point2(p.getX() * scale, p.getY() * scale));
+		return scaled;
+	}
+	
+	/**
+	 * Assert that two polygons have the same vertices in the same order, although possibly with a different starting vertex.
+	 */
+	private static void assertCyclicEqual(List<Point2> expected, List<Point2> actual) {
+		assertEquals(expected.toString(), expected.size(), actual.size());
+		int n = expected.size();
+		for (int offset = 0; offset < n; offset++) {
+			boolean matches = true;
+			for (int i = 0; i < n && matches; i++)
+				matches = samePoint(expected.get(i), actual.get((i + offset) % n));
+			if (matches)
+				return;
+		}
+		assertTrue("Expected " + expected + " but was " + actual, false);
+	}
+	
+	private static boolean samePoint(Point2 p1, Point2 p2) {
+		return p1.getX() == p2.getX() && p1.getY() == p2.getY();
+	}
+	
+	private static double polygonArea(List<Point2> points) {
+		double area = 0;
+		int n = points.size();
+		for (int i = 0; i < n; i++) {
+			Point2 p1 = points.get(i);
+			Point2 p2 = points.get((i + 1) % n);
+			area += p1.getX() * p2.getY() - p2.getX() * p1.getY();
+		}
+		return Math.abs(area) / 2;
+	}
+	
+	private static int countPixels(Roi roi) {
+		assertNotNull(roi);
+		return roi.getContainedPoints().length;
+	}
+	
+	private static void fillRect(ImageProcessor ip, int x, int y, int width, int height, int value) {
+		for (int yy = y; yy < y + height; yy++) {
+			for (int xx = x; xx < x + width; xx++)
+				ip.set(xx, yy, value);
+		}
+	}
+
+}
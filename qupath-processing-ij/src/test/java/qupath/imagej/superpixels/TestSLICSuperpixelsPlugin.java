@@ -0,0 +1,118 @@
+package qupath.imagej.superpixels;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageIoImageServer;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.plugins.CommandLinePluginRunner;
+import qupath.lib.roi.PathROIToolsAwt;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Run the SLIC plugin on a region large enough to be split into tiles, and check that the superpixels 
+ * cover every pixel exactly once.
+ */
+public class TestSLICSuperpixelsPlugin {
+	
+	@Test
+	public void tilesAreSeamless() {
+		// With 20 pixel spacing and no downsampling, the core of each tile is 2040 pixels wide
+		int width = 2600;
+		int height = 240;
+		int seam = 2040;
+		BufferedImage img = createImage(width, height);
+		ImageData<BufferedImage> imageData = new ImageData<>(new ImageIoImageServer("slic-test", "slic-test", img));
+		
+		// Use a region that doesn't start at the image origin
+		int x = 10, y = 20, w = width - 20, h = height - 30;
+		PathObject parent = new PathAnnotationObject(new RectangleROI(x, y, w, h));
+		imageData.getHierarchy().addPathObject(parent, false);
+		imageData.getHierarchy().getSelectionModel().setSelectedObject(parent);
+		
+		SLICSuperpixelsPlugin plugin = new SLICSuperpixelsPlugin();
+		String arg = "{\"sigmaPixels\": 2.0, \"spacingPixels\": 20.0, \"maxIterations\": 10, \"regularization\": 0.25, \"adaptRegularization\": false, \"useDeconvolved\": false}";
+		assertTrue(plugin.runPlugin(new CommandLinePluginRunner<>(imageData, true), arg));
+		
+		// Count how many superpixels contain each pixel center
+		Collection<PathObject> superpixels = parent.getChildObjects();
+		int[] counts = new int[width * height];
+		int nCrossingSeam = 0;
+		for (PathObject pathObject : superpixels) {
+			assertTrue(pathObject instanceof PathTileObject);
+			ROI roi = pathObject.getROI();
+			if (roi.getBoundsX() < x + seam && roi.getBoundsX() + roi.getBoundsWidth() > x + seam)
+				nCrossingSeam++;
+			Shape shape = PathROIToolsAwt.getShape(roi);
+			int xMin = (int)roi.getBoundsX();
+			int yMin = (int)roi.getBoundsY();
+			int xMax = (int)Math.ceil(roi.getBoundsX() + roi.getBoundsWidth());
+			int yMax = (int)Math.ceil(roi.getBoundsY() + roi.getBoundsHeight());
+			for (int yy = yMin; yy < yMax; yy++) {
+				for (int xx = xMin; xx < xMax; xx++) {
+					if (shape.contains(xx + 0.5, yy + 0.5))
+						counts[yy * width + xx]++;
+				}
+			}
+		}
+		for (int yy = 0; yy < height; yy++) {
+			for (int xx = 0; xx < width; xx++) {
+				int expected = xx >= x && xx < x + w && yy >= y && yy < y + h ? 1 : 0;
+				assertEquals("Pixel (" + xx + ", " + yy + ")", expected, counts[yy * width + xx]);
+			}
+		}
+		
+		// Superpixels that grew across the seam should have been merged from the pieces in each tile, 
+		// otherwise they would all end at the seam
+		assertTrue(nCrossingSeam > 0);
+	}
+	
+	
+	/**
+	 * Create an RGB image containing randomly-placed blobs of different colors.
+	 */
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(100);
+		int nBlobs = width * height / 400;
+		int[] bx = new int[nBlobs];
+		int[] by = new int[nBlobs];
+		int[] rgb = new int[nBlobs];
+		for (int i = 0; i < nBlobs; i++) {
+			bx[i] = random.nextInt(width);
+			by[i] = random.nextInt(height);
+			rgb[i] = random.nextInt(0xffffff);
+		}
+		for (int yy = 0; yy < height; yy++) {
+			for (int xx = 0; xx < width; xx++) {
+				// Use the color of the nearest blob center
+				int nearest = 0;
+				double minDist = Double.POSITIVE_INFINITY;
+				for (int i = 0; i < nBlobs; i++) {
+					double dx = bx[i] - xx;
+					if (Math.abs(dx) > 40)
+						continue;
+					double dist = dx * dx + (by[i] - yy) * (by[i] - yy);
+					if (dist < minDist) {
+						minDist = dist;
+						nearest = i;
+					}
+				}
+				img.setRGB(xx, yy, rgb[nearest]);
+			}
+		}
+		return img;
+	}
+
+}
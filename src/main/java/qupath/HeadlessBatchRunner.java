@@ -0,0 +1,285 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.GeneralTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectIO;
+import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.scripting.ProjectBatchRunner;
+import qupath.lib.scripting.ProjectBatchRunner.ImageResult;
+import qupath.lib.scripting.ProjectBatchRunner.Status;
+import qupath.lib.scripting.QPEx;
+
+/**
+ * Run a script for multiple images from the command line, without the GUI.
+ * <p>
+ * Images are taken either from a project (<code>-project</code>) or from a glob pattern (<code>-image</code>, 
+ * which should be quoted to prevent the shell from expanding it).  They are processed in a pool of workers within a 
+ * single JVM, with one script engine per worker reused across images.  Data files and measurement tables are 
+ * written as soon as each image is complete.
+ * <p>
+ * The exit code is 0 if all images were processed successfully, {@link #EXIT_INVALID_ARGS} if the arguments 
+ * could not be used, {@link #EXIT_IMAGES_FAILED} if any image failed, and {@link #EXIT_INTERRUPTED} if processing was interrupted.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class HeadlessBatchRunner {
+	
+	private final static Logger logger = LoggerFactory.getLogger(HeadlessBatchRunner.class);
+	
+	public final static int EXIT_OK = 0;
+	public final static int EXIT_INVALID_ARGS = 1;
+	public final static int EXIT_IMAGES_FAILED = 2;
+	public final static int EXIT_INTERRUPTED = 3;
+	
+	final static String PROJECT_KEY = "-project";
+	final static String IMAGE_KEY = "-image";
+	final static String THREADS_KEY = "-threads";
+	final static String OUTPUT_KEY = "-output";
+	final static String SAVE_KEY = "-save";
+	final static String RESUME_KEY = "-resume";
+	final static String MEASUREMENTS_KEY = "-measurements";
+	
+	/**
+	 * Check if arguments request batch processing, i.e. a project is specified or the image path is a glob pattern.
+	 * 
+	 * @param args
+	 * @return
+	 */
+	static boolean isBatchRequest(final Map<String, String> args) {
+		if (args.get(PROJECT_KEY) != null)
+			return true;
+		String imagePath = args.get(IMAGE_KEY);
+		return imagePath != null && isGlob(imagePath);
+	}
+	
+	static boolean isGlob(final String path) {
+		return path.contains("*") || path.contains("?") || path.contains("[") || path.contains("{");
+	}
+	
+	/**
+	 * Run a script in batch mode.
+	 * 
+	 * @param args parsed command line arguments
+	 * @param manager script engine manager
+	 * @return exit code
+	 */
+	static int run(final Map<String, String> args, final ScriptEngineManager manager) {
+		
+		String scriptName = args.get("-script");
+		if (scriptName == null || !scriptName.contains(".")) {
+			logger.error("Invalid path to script: " + scriptName);
+			return EXIT_INVALID_ARGS;
+		}
+		String ext = scriptName.substring(scriptName.lastIndexOf(".")+1);
+		if (manager.getEngineByExtension(ext) == null) {
+			logger.error("No script engine found for " + scriptName);
+			return EXIT_INVALID_ARGS;
+		}
+		String script;
+		try {
+			script = GeneralTools.readFileAsString(scriptName);
+		} catch (IOException e) {
+			logger.error("Unable to read script " + scriptName, e);
+			return EXIT_INVALID_ARGS;
+		}
+		
+		// Create or read the project
+		File dirOutput = args.get(OUTPUT_KEY) == null ? null : new File(args.get(OUTPUT_KEY));
+		Project<BufferedImage> project;
+		List<ProjectImageEntry<BufferedImage>> entries;
+		String projectPath = args.get(PROJECT_KEY);
+		if (projectPath != null) {
+			File fileProject = new File(projectPath);
+			project = fileProject.exists() ? ProjectIO.loadProject(fileProject, BufferedImage.class) : null;
+			if (project == null) {
+				logger.error("Unable to read project from " + projectPath);
+				return EXIT_INVALID_ARGS;
+			}
+			entries = project.getImageList();
+			if (dirOutput == null)
+				dirOutput = new File(project.getBaseDirectory(), "export");
+		} else {
+			String pattern = args.get(IMAGE_KEY);
+			List<File> files;
+			try {
+				files = findFiles(pattern);
+			} catch (IOException e) {
+				logger.error("Unable to find images for " + pattern, e);
+				return EXIT_INVALID_ARGS;
+			}
+			if (dirOutput == null)
+				dirOutput = new File(".");
+			if (!dirOutput.isDirectory() && !dirOutput.mkdirs()) {
+				logger.error("Unable to create output directory " + dirOutput.getAbsolutePath());
+				return EXIT_INVALID_ARGS;
+			}
+			// Use a temporary project (which isn't saved) to store data files & progress within the output directory
+			project = new Project<>(dirOutput, BufferedImage.class);
+			entries = new ArrayList<>();
+			for (File file : files) {
+				ProjectImageEntry<BufferedImage> entry = new ProjectImageEntry<>(project, file.getAbsolutePath(), file.getName(), null);
+				project.addImage(entry);
+				entries.add(entry);
+			}
+		}
+		if (entries.isEmpty()) {
+			logger.error("No images found to process!");
+			return EXIT_INVALID_ARGS;
+		}
+		
+		// Parse remaining options
+		int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+		if (args.get(THREADS_KEY) != null) {
+			try {
+				nThreads = Integer.parseInt(args.get(THREADS_KEY));
+			} catch (NumberFormatException e) {
+				logger.error("Invalid number of threads: " + args.get(THREADS_KEY));
+				return EXIT_INVALID_ARGS;
+			}
+		}
+		List<Class<? extends PathObject>> measurementTypes = new ArrayList<>();
+		if (args.containsKey(MEASUREMENTS_KEY)) {
+			String types = args.get(MEASUREMENTS_KEY);
+			for (String type : (types == null ? "detections" : types).split(",")) {
+				Class<? extends PathObject> cls = parseMeasurementType(type.trim());
+				if (cls == null) {
+					logger.error("Unknown measurement type: " + type + " (should be 'detections', 'annotations' or 'tma')");
+					return EXIT_INVALID_ARGS;
+				}
+				measurementTypes.add(cls);
+			}
+		}
+		if (!measurementTypes.isEmpty() && !dirOutput.isDirectory() && !dirOutput.mkdirs()) {
+			logger.error("Unable to create output directory " + dirOutput.getAbsolutePath());
+			return EXIT_INVALID_ARGS;
+		}
+		
+		// Use one script engine per worker thread, so that any compiled scripts can be reused across images
+		ThreadLocal<ScriptEngine> engines = ThreadLocal.withInitial(() -> manager.getEngineByExtension(ext));
+		
+		ProjectBatchRunner runner = new ProjectBatchRunner(project, entries, script, engines::get);
+		runner.setMaxParallelImages(nThreads);
+		runner.setSaveData(args.containsKey(SAVE_KEY));
+		runner.setResume(args.containsKey(RESUME_KEY));
+		if (!measurementTypes.isEmpty()) {
+			String dirPath = dirOutput.getAbsolutePath();
+			runner.setImageDataHandler((entry, imageData) -> exportMeasurements(imageData, measurementTypes, dirPath));
+		}
+		
+		List<ImageResult> results;
+		try {
+			results = runner.run();
+		} catch (InterruptedException e) {
+			logger.error("Batch processing interrupted!");
+			return EXIT_INTERRUPTED;
+		}
+		for (ImageResult result : results) {
+			if (result.getStatus() == Status.FAILED || result.getStatus() == Status.CANCELLED)
+				return EXIT_IMAGES_FAILED;
+		}
+		return EXIT_OK;
+	}
+	
+	
+	private static Class<? extends PathObject> parseMeasurementType(final String type) {
+		switch (type.toLowerCase()) {
+		case "detection":
+		case "detections":
+			return PathDetectionObject.class;
+		case "annotation":
+		case "annotations":
+			return PathAnnotationObject.class;
+		case "tma":
+			return TMACoreObject.class;
+		default:
+			return null;
+		}
+	}
+	
+	
+	private static void exportMeasurements(final ImageData<BufferedImage> imageData, final List<Class<? extends PathObject>> types, final String dirPath) {
+		for (Class<? extends PathObject> type : types)
+			QPEx.saveMeasurements(imageData, type, dirPath);
+	}
+	
+	
+	/**
+	 * Find all files matching a glob pattern.  The search starts from the deepest directory in the pattern 
+	 * that doesn't contain any wildcards.
+	 * 
+	 * @param pattern
+	 * @return sorted list of files
+	 * @throws IOException
+	 */
+	static List<File> findFiles(final String pattern) throws IOException {
+		Path path = Paths.get(pattern).toAbsolutePath();
+		Path root = path.getRoot();
+		int nFixed = 0;
+		while (nFixed < path.getNameCount() - 1 && !isGlob(path.getName(nFixed).toString()))
+			nFixed++;
+		Path dirBase = nFixed == 0 ? root : root.resolve(path.subpath(0, nFixed));
+		if (!Files.isDirectory(dirBase))
+			return Collections.emptyList();
+		// Need to escape backslashes on Windows before using the path as a glob
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.toString().replace("\\", "\\\\"));
+		int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : path.getNameCount() - nFixed;
+		try (Stream<Path> stream = Files.walk(dirBase, maxDepth)) {
+			return stream
+					.filter(p -> Files.isRegularFile(p) && matcher.matches(p))
+					.sorted()
+					.map(p -> p.toFile())
+					.collect(Collectors.toList());
+		}
+	}
+
+}
@@ -113,6 +113,14 @@ public class QuPath {
 				// 
 				ClassLoader classLoader = new QuPathGUI.ExtensionClassLoader();
 				ScriptEngineManager manager = new ScriptEngineManager(classLoader);
+				
+				// Process multiple images, if required
+				if (HeadlessBatchRunner.isBatchRequest(map)) {
+					int exitCode = HeadlessBatchRunner.run(map, manager);
+					System.exit(exitCode);
+					return;
+				}
+				
 				if (scriptName == null || !scriptName.contains(".")) {
 					logger.error("Invalid path to script: " + scriptName);
 					return;